@@ -0,0 +1,1501 @@
+package com.example.mobiletemplate;
+
+import android.util.Log;
+import javax.crypto.Cipher;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.PermissionState;
+import com.getcapacitor.annotation.CapacitorPlugin;
+import com.getcapacitor.annotation.Permission;
+import com.getcapacitor.annotation.PermissionCallback;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import android.content.Context;
+import android.content.SharedPreferences;
+import org.json.JSONObject;
+import org.json.JSONArray;
+
+@CapacitorPlugin(
+    name = "SSHClient",
+    permissions = {
+        // Android 13+: without it the foreground-service notification is hidden, see SessionHost
+        @Permission(alias = "notifications", strings = { android.Manifest.permission.POST_NOTIFICATIONS })
+    }
+)
+public class SSHJPlugin extends Plugin {
+
+    private SecureKeyManager secureKeyManager;
+    private KeyMetadataStore keyStore;
+    private static final String PREFS_NAME = "ssh_keys_metadata";
+    private static final String KEYS_KEY = "ssh_keys";
+    private static final String HOST_PROFILES_KEY = "ssh_host_profiles";
+    private static final String SCRIPT_INDEX_KEY = "ssh_script_index";
+    // A page that stopped sending heartbeats (reloaded, crashed) loses its sessions after this
+    private static final long ORPHAN_TIMEOUT_MS = 60_000;
+    private static final int MAX_SESSIONS = 32;
+    private static final int MAX_CHANNELS = 64;
+    private static final long MAX_BUFFERED_BYTES = 256L * 1024 * 1024;
+    // Asked on the first connect of the process only, whatever the answer
+    private static boolean notificationsAsked;
+
+    private PluginMetrics metrics;
+    private java.util.concurrent.ScheduledExecutorService metricsScheduler;
+    private java.util.concurrent.ScheduledFuture<?> metricsTask;
+    private int metricsIntervalMs;
+
+    // Shared pool for connect/exec work instead of a new thread per call
+    private final java.util.concurrent.ThreadPoolExecutor workerPool = new java.util.concurrent.ThreadPoolExecutor(
+        16, 16, 30, TimeUnit.SECONDS, new java.util.concurrent.LinkedBlockingQueue<>());
+
+    // Connections and shells live in ssh-core, owned by the process-wide SessionHost;
+    // this class only adapts PluginCall and events
+    private SessionHost sessionHost;
+    private SshSessionService sessionService;
+    private final SessionBridge bridge = (event, data) -> {
+        try {
+            notifyListeners(event, JSObject.fromJSONObject(data));
+        } catch (org.json.JSONException e) {
+            Log.e("SSHJPlugin", "Invalid event payload for " + event, e);
+        }
+    };
+
+    @Override
+    public void load() {
+        super.load();
+        secureKeyManager = new SecureKeyManager();
+        SharedPreferences prefs = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        keyStore = new KeyMetadataStore(new KeyMetadataStore.Storage() {
+            @Override
+            public String load() {
+                return prefs.getString(KEYS_KEY, "{}");
+            }
+
+            @Override
+            public void save(String json) {
+                prefs.edit().putString(KEYS_KEY, json).apply();
+            }
+        });
+        workerPool.allowCoreThreadTimeOut(true);
+        sessionHost = SessionHost.get(getContext());
+        sessionService = sessionHost.getService();
+        metrics = sessionHost.getMetrics();
+        sessionHost.attach(bridge);
+        sessionService.setHostProfileStore(new HostProfileStore(new KeyMetadataStore.Storage() {
+            @Override
+            public String load() {
+                return prefs.getString(HOST_PROFILES_KEY, "{}");
+            }
+
+            @Override
+            public void save(String json) {
+                prefs.edit().putString(HOST_PROFILES_KEY, json).apply();
+            }
+        }));
+        sessionService.getRemoteScripts().setStorage(new KeyMetadataStore.Storage() {
+            @Override
+            public String load() {
+                return prefs.getString(SCRIPT_INDEX_KEY, "{}");
+            }
+
+            @Override
+            public void save(String json) {
+                prefs.edit().putString(SCRIPT_INDEX_KEY, json).apply();
+            }
+        });
+        sessionService.getSessionManager().setPolicy(0, ORPHAN_TIMEOUT_MS);
+        sessionService.getSessionManager().setLimits(MAX_SESSIONS, MAX_CHANNELS, MAX_BUFFERED_BYTES);
+        // Queued until the first traversal, so the warm-up doesn't compete with the first frame
+        getActivity().getWindow().getDecorView().post(sessionService::startWarmup);
+    }
+
+    // In the background the WebView can't render anything: shells hold their output and
+    // the metrics timer stops, so open sessions cost little more than their keepalives
+    @Override
+    protected void handleOnPause() {
+        super.handleOnPause();
+        sessionHost.detach(bridge);
+        synchronized (metrics) {
+            cancelMetricsTask();
+        }
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        sessionHost.attach(bridge);
+        synchronized (metrics) {
+            scheduleMetricsTask();
+        }
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        synchronized (metrics) {
+            cancelMetricsTask();
+            if (metricsScheduler != null) {
+                metricsScheduler.shutdownNow();
+                metricsScheduler = null;
+            }
+        }
+        // Sessions stay up in the host, the foreground service keeps the process
+        sessionHost.release(bridge);
+        super.handleOnDestroy();
+    }
+
+    /**
+     * Sessions are kept alive by a foreground service whose notification is the user's
+     * way to see and stop them. Before the first one opens, ask to post it; the call
+     * comes back through `callback` once answered, and connects either way.
+     */
+    private boolean askForNotifications(PluginCall call, String callback) {
+        if (android.os.Build.VERSION.SDK_INT < 33 || notificationsAsked
+            || getPermissionState("notifications") == PermissionState.GRANTED) {
+            return false;
+        }
+        notificationsAsked = true;
+        requestPermissionForAlias("notifications", call, callback);
+        return true;
+    }
+
+    @PermissionCallback
+    private void connectAfterNotificationPrompt(PluginCall call) {
+        connect(call);
+    }
+
+    @PermissionCallback
+    private void connectWithSecureKeyAfterNotificationPrompt(PluginCall call) {
+        connectWithSecureKey(call);
+    }
+
+    @PluginMethod
+    public void connect(PluginCall call) {
+        String hostname = call.getString("hostname");
+        Integer port = call.getInt("port", 22);
+        String username = call.getString("username");
+        String authMethod = call.getString("authMethod");
+        String password = call.getString("password");
+        String privateKey = call.getString("privateKey");
+        String privateKeyPath = call.getString("privateKeyPath");
+        String passphrase = call.getString("passphrase");
+        // "off" (default), "on", or "auto": decided per host from measured RTT and throughput
+        CompressionAdvisor.Mode compression = CompressionAdvisor.Mode.parse(call.getString("compression", "off"));
+        // The page opening the session, which keeps it alive with heartbeat()
+        String owner = call.getString("owner");
+
+        if (hostname == null || username == null || authMethod == null) {
+            call.reject("Missing required parameters");
+            return;
+        }
+        if (askForNotifications(call, "connectAfterNotificationPrompt")) {
+            return;
+        }
+
+        workerPool.execute(() -> {
+            try {
+                String sessionId;
+                if ("password".equals(authMethod)) {
+                    if (password == null || password.isEmpty()) {
+                        call.reject("Password required for password auth");
+                        return;
+                    }
+                    sessionId = sessionService.connectWithPassword(hostname, port, username, password, compression);
+                } else if ("privateKey".equals(authMethod)) {
+                    // Check if we have privateKey content or need to read from path
+                    String keyContent = privateKey;
+                    
+                    if ((keyContent == null || keyContent.isEmpty()) && privateKeyPath != null && !privateKeyPath.isEmpty()) {
+                        java.io.File keyFile = new java.io.File(privateKeyPath);
+                        if (!keyFile.exists()) {
+                            call.reject("Private key file not found: " + privateKeyPath);
+                            return;
+                        }
+                        try (java.io.FileInputStream keyStream = new java.io.FileInputStream(keyFile)) {
+                            keyContent = ExecStreams.readFully(keyStream);
+                        } catch (Exception readError) {
+                            call.reject("Failed to read private key file: " + readError.getMessage());
+                            return;
+                        }
+                    }
+                    
+                    if (keyContent == null || keyContent.isEmpty()) {
+                        call.reject("Private key required for privateKey auth");
+                        return;
+                    }
+                    sessionId = sessionService.connectWithKey(hostname, port, username, keyContent, passphrase, compression);
+                } else {
+                    call.reject("Unsupported auth method: " + authMethod);
+                    return;
+                }
+
+                if (owner != null) {
+                    sessionService.getSessionManager().claim(sessionId, owner);
+                }
+                sessionHost.sessionsChanged();
+
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("sessionId", sessionId);
+                ret.put("message", "Connected successfully");
+                call.resolve(ret);
+
+            } catch (SessionException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                String detailedError = e.getMessage();
+                if (e.getCause() != null) {
+                    detailedError += " - Cause: " + e.getCause().getMessage();
+                }
+                call.reject("Connection failed: " + detailedError);
+            }
+        });
+    }
+
+    /**
+     * Opens connections to the given hosts in the background so a connect right
+     * after can adopt one. Hosts with a password or a plain private key are also
+     * authenticated; biometric (secure key) hosts stop after KEX. Most important first:
+     * hosts past the cap are skipped.
+     */
+    @PluginMethod
+    public void prewarm(PluginCall call) {
+        com.getcapacitor.JSArray hosts = call.getArray("hosts");
+        if (hosts == null) {
+            call.reject("Hosts required");
+            return;
+        }
+        sessionService.setPrewarmLimits(call.getInt("maxWarm", ConnectionPrewarmer.DEFAULT_MAX_WARM),
+            call.getInt("idleMs", (int) ConnectionPrewarmer.DEFAULT_IDLE_MILLIS));
+
+        int warming = 0;
+        for (int i = 0; i < hosts.length(); i++) {
+            JSONObject host = hosts.optJSONObject(i);
+            String hostname = host != null ? host.optString("hostname", null) : null;
+            if (hostname == null) {
+                continue;
+            }
+            int port = host.optInt("port", 22);
+            String username = host.optString("username", null);
+            String authMethod = host.optString("authMethod", "");
+            String password = host.optString("password", null);
+            String privateKey = host.optString("privateKey", null);
+            CompressionAdvisor.Mode compression = CompressionAdvisor.Mode.parse(host.optString("compression", "off"));
+
+            boolean started;
+            if ("password".equals(authMethod) && username != null && password != null && !password.isEmpty()) {
+                started = sessionService.prewarmWithPassword(hostname, port, username, password, compression);
+            } else if ("privateKey".equals(authMethod) && username != null && privateKey != null && !privateKey.isEmpty()) {
+                started = sessionService.prewarmWithKey(hostname, port, username, privateKey,
+                    host.optString("passphrase", null), compression);
+            } else {
+                started = sessionService.prewarm(hostname, port, compression);
+            }
+            if (started) {
+                warming++;
+            }
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("warming", warming);
+        ret.put("warm", sessionService.getPrewarmer().getWarmCount());
+        call.resolve(ret);
+    }
+
+    /**
+     * Checks which hosts answer on their SSH port without connecting: non-blocking TCP
+     * connects that read the server's identification, reported as "hostProbe" events
+     * (status, rttMs, serverVersion) as each finishes, then "hostProbesDone". Recent
+     * results are reused. The limits apply to every probe from then on.
+     */
+    @PluginMethod
+    public void probeHosts(PluginCall call) {
+        com.getcapacitor.JSArray hosts = call.getArray("hosts");
+        if (hosts == null) {
+            call.reject("Hosts required");
+            return;
+        }
+        sessionService.setProbeLimits(call.getInt("maxConcurrent", HostProber.DEFAULT_MAX_CONCURRENT),
+            call.getInt("timeoutMs", (int) HostProber.DEFAULT_TIMEOUT_MILLIS),
+            call.getInt("cacheMs", (int) HostProber.DEFAULT_CACHE_MILLIS));
+
+        java.util.List<java.net.InetSocketAddress> targets = new java.util.ArrayList<>();
+        for (int i = 0; i < hosts.length(); i++) {
+            JSONObject host = hosts.optJSONObject(i);
+            String hostname = host != null ? host.optString("hostname", null) : null;
+            if (hostname != null && !hostname.isEmpty()) {
+                targets.add(java.net.InetSocketAddress.createUnresolved(hostname, host.optInt("port", 22)));
+            }
+        }
+        try {
+            JSObject ret = new JSObject();
+            ret.put("probeId", sessionService.probeHosts(targets));
+            ret.put("hosts", targets.size());
+            call.resolve(ret);
+        } catch (java.io.IOException e) {
+            call.reject("Probe failed: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void startShellSession(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        int scrollbackBytes = call.getInt("scrollbackBytes", ScrollbackBuffer.DEFAULT_CAPACITY);
+        // Opt-in: the caller must then ackShellOutput what it renders, or output stops
+        boolean flowControl = call.getBoolean("flowControl", false);
+        // "binary": output as raw bytes over the openStreamTransport socket; acks then count bytes
+        boolean binary = "binary".equals(call.getString("transport", "events"));
+        int cols = call.getInt("cols", ShellSession.DEFAULT_COLUMNS);
+        int rows = call.getInt("rows", ShellSession.DEFAULT_ROWS);
+
+        try {
+            sessionService.startShell(sessionId, scrollbackBytes, flowControl, binary, cols, rows);
+
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        } catch (Exception e) {
+            Log.e("SSHJPlugin", "Failed to start shell session", e);
+            call.reject("Failed to start shell session: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void resizeShell(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        Integer cols = call.getInt("cols");
+        Integer rows = call.getInt("rows");
+        if (sessionId == null || cols == null || rows == null) {
+            call.reject("Session ID, cols and rows required");
+            return;
+        }
+
+        try {
+            sessionService.resizeShell(sessionId, cols, rows);
+
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        } catch (Exception e) {
+            call.reject("Failed to resize shell: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loopback WebSocket carrying shell output as binary frames
+     * ([1 byte id length][session id][bytes]). Only output goes there; everything
+     * else still uses the bridge.
+     */
+    @PluginMethod
+    public void openStreamTransport(PluginCall call) {
+        try {
+            StreamServer server = sessionService.openStreamTransport();
+            JSObject ret = new JSObject();
+            ret.put("url", server.getUrl());
+            ret.put("port", server.getPort());
+            call.resolve(ret);
+        } catch (Exception e) {
+            Log.e("SSHJPlugin", "Failed to open stream transport", e);
+            call.reject("Failed to open stream transport: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void sendToShell(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        String command = call.getString("command");
+
+        if (sessionId == null || command == null) {
+            call.reject("Session ID and command required");
+            return;
+        }
+
+        try {
+            // Queued, never written on this thread. Not accepted = input queue full:
+            // keep the data and resend it after the "shellInputDrained" event.
+            boolean accepted = sessionService.sendToShell(sessionId, command);
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            ret.put("accepted", accepted);
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        } catch (Exception e) {
+            Log.e("SSHJPlugin", "Failed to send command", e);
+            call.reject("Failed to send command: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the same input to the shells of sessionIds, or of the broadcast group
+     * groupId. Resolves with the sessions that took it (sent), whose queue was full
+     * (refused, resend after their "shellInputDrained") and that failed, with why.
+     */
+    @PluginMethod
+    public void sendToShells(PluginCall call) {
+        String groupId = call.getString("groupId");
+        com.getcapacitor.JSArray sessionIds = call.getArray("sessionIds");
+        String command = call.getString("command");
+
+        if ((groupId == null && sessionIds == null) || command == null) {
+            call.reject("Session IDs or group ID, and command required");
+            return;
+        }
+
+        try {
+            SshSessionService.BroadcastResult result = groupId != null
+                ? sessionService.sendToGroup(groupId, command)
+                : sessionService.sendToShells(toStringList(sessionIds), command);
+            JSObject failed = new JSObject();
+            for (java.util.Map.Entry<String, String> failure : result.failed.entrySet()) {
+                failed.put(failure.getKey(), failure.getValue());
+            }
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            ret.put("sent", new org.json.JSONArray(result.sent));
+            ret.put("refused", new org.json.JSONArray(result.refused));
+            ret.put("failed", failed);
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    /** Names a set of sessions for sendToShells; an empty list removes the group. */
+    @PluginMethod
+    public void setBroadcastGroup(PluginCall call) {
+        String groupId = call.getString("groupId");
+        com.getcapacitor.JSArray sessionIds = call.getArray("sessionIds");
+        if (groupId == null || sessionIds == null) {
+            call.reject("Group ID and session IDs required");
+            return;
+        }
+        sessionService.setBroadcastGroup(groupId, toStringList(sessionIds));
+        JSObject ret = new JSObject();
+        ret.put("success", true);
+        call.resolve(ret);
+    }
+
+    private static java.util.List<String> toStringList(com.getcapacitor.JSArray array) {
+        java.util.List<String> strings = new java.util.ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            strings.add(array.optString(i));
+        }
+        return strings;
+    }
+
+    @PluginMethod
+    public void ackShellOutput(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        Integer chars = call.getInt("chars");
+
+        if (sessionId == null || chars == null) {
+            call.reject("Session ID and chars required");
+            return;
+        }
+
+        try {
+            sessionService.ackShellOutput(sessionId, chars);
+            call.resolve();
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    /**
+     * Predicted local echo for a shell: typed keys show before the server's echo, which
+     * is then not printed twice. Off by default; for links slow enough to notice.
+     */
+    @PluginMethod
+    public void setLocalEcho(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        try {
+            sessionService.setLocalEcho(sessionId, call.getBoolean("enabled", true),
+                call.getInt("thresholdMs", (int) LocalEchoPredictor.DEFAULT_DISPLAY_THRESHOLD_MILLIS));
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    private ShellSession findShell(PluginCall call, String sessionId) {
+        try {
+            return sessionService.getShell(sessionId);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+            return null;
+        }
+    }
+
+    @PluginMethod
+    public void getScrollback(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        ShellSession shellSession = findShell(call, sessionId);
+        if (shellSession == null) {
+            return;
+        }
+
+        ScrollbackBuffer scrollback = shellSession.getScrollback();
+        int count = call.getInt("count", 200);
+        // Without a starting line, return the last `count` lines
+        // Line numbers are absolute and outgrow an int on long-lived sessions
+        long fromLine = call.getData().optLong("fromLine", -1);
+        if (fromLine < 0) {
+            fromLine = Math.max(scrollback.getFirstLine(), scrollback.getNextLine() - count);
+        }
+
+        com.getcapacitor.JSArray lines = new com.getcapacitor.JSArray();
+        for (String line : scrollback.getLines(fromLine, count)) {
+            lines.put(line);
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("lines", lines);
+        ret.put("fromLine", Math.max(fromLine, scrollback.getFirstLine()));
+        ret.put("firstLine", scrollback.getFirstLine());
+        ret.put("nextLine", scrollback.getNextLine());
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void searchScrollback(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        String pattern = call.getString("pattern");
+
+        if (sessionId == null || pattern == null) {
+            call.reject("Session ID and pattern required");
+            return;
+        }
+
+        ShellSession shellSession = findShell(call, sessionId);
+        if (shellSession == null) {
+            return;
+        }
+
+        boolean ignoreCase = call.getBoolean("ignoreCase", false);
+        long fromLine = call.getData().optLong("fromLine", 0);
+        int maxResults = call.getInt("maxResults", 1000);
+
+        new Thread(() -> {
+            ScrollbackBuffer scrollback = shellSession.getScrollback();
+            long[] found = scrollback.search(pattern, ignoreCase, fromLine, maxResults + 1);
+
+            com.getcapacitor.JSArray matches = new com.getcapacitor.JSArray();
+            for (int i = 0; i < Math.min(found.length, maxResults); i++) {
+                String text = scrollback.getLine(found[i]);
+                if (text == null) {
+                    // Evicted while we were searching
+                    continue;
+                }
+                JSObject match = new JSObject();
+                match.put("line", found[i]);
+                match.put("text", text);
+                matches.put(match);
+            }
+
+            JSObject ret = new JSObject();
+            ret.put("matches", matches);
+            ret.put("truncated", found.length > maxResults);
+            call.resolve(ret);
+        }).start();
+    }
+
+    @PluginMethod
+    public void startRecording(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        ShellSession shellSession = findShell(call, sessionId);
+        if (shellSession == null) {
+            return;
+        }
+        if (shellSession.isRecording()) {
+            call.reject("Session is already being recorded");
+            return;
+        }
+
+        boolean recordInput = call.getBoolean("recordInput", true);
+        boolean compress = call.getBoolean("compress", true);
+        long maxFileBytes = call.getInt("maxFileBytes", 16 * 1024 * 1024);
+        String baseName = "session-" + new java.text.SimpleDateFormat("yyyyMMdd-HHmmss", java.util.Locale.US).format(new java.util.Date())
+            + "-" + sessionId.substring(0, Math.min(8, sessionId.length()));
+
+        try {
+            java.io.File directory = new java.io.File(getContext().getFilesDir(), "recordings");
+            SessionRecorder recorder = new SessionRecorder(directory, baseName,
+                shellSession.getColumns(), shellSession.getRows(), compress, maxFileBytes);
+            shellSession.startRecording(recorder, recordInput);
+
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            ret.put("directory", directory.getAbsolutePath());
+            ret.put("baseName", baseName);
+            call.resolve(ret);
+        } catch (Exception e) {
+            Log.e("SSHJPlugin", "Failed to start recording", e);
+            call.reject("Failed to start recording: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void stopRecording(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        ShellSession shellSession = findShell(call, sessionId);
+        if (shellSession == null) {
+            return;
+        }
+
+        // Closing flushes the writer queue, keep it off the plugin thread
+        new Thread(() -> {
+            com.getcapacitor.JSArray files = new com.getcapacitor.JSArray();
+            for (java.io.File file : shellSession.stopRecording()) {
+                files.put(file.getAbsolutePath());
+            }
+
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            ret.put("files", files);
+            call.resolve(ret);
+        }).start();
+    }
+
+    /** Keeps the sessions of an owner (see the connect "owner" option) from being reaped as orphaned. */
+    @PluginMethod
+    public void heartbeat(PluginCall call) {
+        String owner = call.getString("owner");
+        if (owner == null) {
+            call.reject("Owner required");
+            return;
+        }
+        sessionService.getSessionManager().heartbeat(owner);
+        call.resolve();
+    }
+
+    /** Reaping policies and global caps; omitted values keep their current setting, 0 disables. */
+    @PluginMethod
+    public void configureSessions(PluginCall call) {
+        SessionManager sessions = sessionService.getSessionManager();
+        sessions.setPolicy(call.getInt("idleTimeoutMs", (int) sessions.getIdleTimeoutMillis()),
+            call.getInt("orphanTimeoutMs", (int) sessions.getOrphanTimeoutMillis()));
+        sessions.setLimits(call.getInt("maxSessions", sessions.getMaxSessions()),
+            call.getInt("maxChannels", sessions.getMaxChannels()),
+            call.getDouble("maxBufferedBytes", (double) sessions.getMaxBufferedBytes()).longValue());
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void disconnect(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        sessionService.disconnect(sessionId);
+
+        JSObject ret = new JSObject();
+        ret.put("success", true);
+        call.resolve(ret);
+    }
+
+    /**
+     * Runs a command to completion. With maxAgeMs, a read-only command's output may come
+     * from the same command run on the same host and user at most that long ago, or
+     * from such a run still in progress ("cached": true).
+     */
+    @PluginMethod
+    public void executeCommand(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        String command = call.getString("command");
+        int maxAgeMs = call.getInt("maxAgeMs", 0);
+
+        if (sessionId == null || command == null) {
+            call.reject("Session ID and command required");
+            return;
+        }
+
+        workerPool.execute(() -> {
+            try {
+                ExecResultCache.Result result = sessionService.executeCommand(sessionId, command, maxAgeMs);
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("output", result.output);
+                ret.put("cached", result.cached);
+                ret.put("ageMs", result.ageMillis);
+                call.resolve(ret);
+            } catch (SessionException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                call.reject("Command execution failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Runs a script from the host's own cache, keyed by its SHA-256, uploading it only
+     * when the host doesn't have it. Resolves with the run id at once; the output comes
+     * as "scriptOutput" events and the end as "scriptExit".
+     */
+    @PluginMethod
+    public void runScript(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        String script = call.getString("script");
+        if (sessionId == null || script == null) {
+            call.reject("Session ID and script required");
+            return;
+        }
+        java.util.List<String> args = new java.util.ArrayList<>();
+        com.getcapacitor.JSArray requested = call.getArray("args");
+        if (requested != null) {
+            for (int i = 0; i < requested.length(); i++) {
+                args.add(requested.optString(i));
+            }
+        }
+
+        try {
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            ret.put("runId", sessionService.runScript(sessionId, script, args));
+            ret.put("hash", RemoteScripts.hash(script.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    /**
+     * Streams CPU, memory, load and disk of the host as "hostMetrics" events (only the
+     * values that changed) from one long-lived exec channel, instead of polling execs.
+     */
+    @PluginMethod
+    public void startMonitor(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+        int intervalMs = call.getInt("intervalMs", 2000);
+        java.util.List<String> metricNames = new java.util.ArrayList<>();
+        com.getcapacitor.JSArray requested = call.getArray("metrics");
+        if (requested == null) {
+            metricNames.add(HostMonitor.CPU);
+            metricNames.add(HostMonitor.MEMORY);
+            metricNames.add(HostMonitor.LOAD);
+            metricNames.add(HostMonitor.DISK);
+        } else {
+            for (int i = 0; i < requested.length(); i++) {
+                metricNames.add(requested.optString(i));
+            }
+        }
+
+        workerPool.execute(() -> {
+            try {
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("monitorId", sessionService.startMonitor(sessionId, intervalMs, metricNames));
+                call.resolve(ret);
+            } catch (SessionException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                call.reject("Failed to start monitor: " + e.getMessage());
+            }
+        });
+    }
+
+    @PluginMethod
+    public void stopMonitor(PluginCall call) {
+        String monitorId = call.getString("monitorId");
+        if (monitorId == null) {
+            call.reject("Monitor ID required");
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("success", sessionService.stopMonitor(monitorId));
+        call.resolve(ret);
+    }
+
+    /**
+     * Follows files on several sessions as one stream ordered by timestamp, sent as
+     * "tailLines" batches; see LogTailMerger and LogTimestamps for the options.
+     */
+    @PluginMethod
+    public void tailMerge(PluginCall call) {
+        com.getcapacitor.JSArray requested = call.getArray("sources");
+        if (requested == null || requested.length() == 0) {
+            call.reject("Sources required");
+            return;
+        }
+        java.util.List<LogTailMerger.Source> sources = new java.util.ArrayList<>();
+        for (int i = 0; i < requested.length(); i++) {
+            org.json.JSONObject source = requested.optJSONObject(i);
+            if (source == null || !source.has("sessionId") || !source.has("file")) {
+                call.reject("Session ID and file required for source " + i);
+                return;
+            }
+            sources.add(new LogTailMerger.Source(source.optString("sessionId"), source.optString("file"),
+                source.optString("host", null)));
+        }
+        String filter = call.getString("filter");
+        int backlogLines = call.getInt("backlogLines", 0);
+        long reorderWindowMs = call.getDouble("reorderWindowMs",
+            (double) LogTailMerger.DEFAULT_REORDER_WINDOW_MILLIS).longValue();
+        long batchMs = call.getDouble("batchMs", (double) LogTailMerger.DEFAULT_BATCH_MILLIS).longValue();
+        int maxBatchLines = call.getInt("maxBatchLines", LogTailMerger.DEFAULT_MAX_BATCH_LINES);
+
+        java.util.List<LogTimestamps.Parser> parsers;
+        try {
+            java.util.TimeZone zone = java.util.TimeZone.getTimeZone(call.getString("timeZone", "UTC"));
+            com.getcapacitor.JSArray formats = call.getArray("formats");
+            parsers = LogTimestamps.builtIn(
+                formats != null ? toStringList(formats) : new java.util.ArrayList<String>(), zone);
+            org.json.JSONObject custom = call.getObject("customFormat");
+            if (custom != null) {
+                // Tried first: whoever sets one knows their logs
+                parsers.add(0, LogTimestamps.custom(custom.optString("regex"), custom.optString("pattern"), zone));
+            }
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+
+        workerPool.execute(() -> {
+            try {
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("tailId", sessionService.startTailMerge(sources, parsers, filter, backlogLines,
+                    reorderWindowMs, batchMs, maxBatchLines));
+                call.resolve(ret);
+            } catch (SessionException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                call.reject("Failed to start tail: " + e.getMessage());
+            }
+        });
+    }
+
+    @PluginMethod
+    public void stopTailMerge(PluginCall call) {
+        String tailId = call.getString("tailId");
+        if (tailId == null) {
+            call.reject("Tail ID required");
+            return;
+        }
+        JSObject ret = new JSObject();
+        ret.put("success", sessionService.stopTailMerge(tailId));
+        call.resolve(ret);
+    }
+
+    /** Raises "outputMatch" events for patterns in the session's output; an empty list removes them. */
+    @PluginMethod
+    public void setOutputTriggers(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+        java.util.List<OutputTriggers.Trigger> triggers = new java.util.ArrayList<>();
+        com.getcapacitor.JSArray requested = call.getArray("triggers");
+        if (requested != null) {
+            for (int i = 0; i < requested.length(); i++) {
+                org.json.JSONObject trigger = requested.optJSONObject(i);
+                if (trigger == null) {
+                    call.reject("Invalid trigger at " + i);
+                    return;
+                }
+                triggers.add(new OutputTriggers.Trigger(trigger.optString("id", String.valueOf(i)),
+                    trigger.optString("pattern", null), trigger.optBoolean("regex", false),
+                    trigger.optBoolean("ignoreCase", false)));
+            }
+        }
+        boolean forwardOutput = call.getBoolean("forwardOutput", true);
+        long minIntervalMs = call.getDouble("minIntervalMs", (double) OutputTriggers.DEFAULT_MIN_INTERVAL_MILLIS)
+            .longValue();
+
+        try {
+            sessionService.setOutputTriggers(sessionId, triggers, minIntervalMs, forwardOutput);
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            call.resolve(ret);
+        } catch (SessionException e) {
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void isConnected(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null) {
+            call.reject("Session ID required");
+            return;
+        }
+
+        boolean connected = sessionService.isConnected(sessionId);
+
+        JSObject ret = new JSObject();
+        ret.put("connected", connected);
+        call.resolve(ret);
+    }
+
+    /** What earlier connections measured for a host, and whether compression is recommended. */
+    @PluginMethod
+    public void getHostProfile(PluginCall call) {
+        String hostname = call.getString("hostname");
+        Integer port = call.getInt("port", 22);
+        if (hostname == null) {
+            call.reject("Hostname required");
+            return;
+        }
+
+        try {
+            HostProfileStore.Profile profile = sessionService.getHostProfileStore().get(hostname, port);
+            JSObject ret = new JSObject();
+            ret.put("known", profile != null);
+            if (profile != null) {
+                ret.put("rttMs", profile.rttMs);
+                ret.put("throughputBytesPerSec", profile.throughputBytesPerSec);
+                ret.put("compression", profile.compression);
+                ret.put("updatedAt", profile.updatedAt);
+            }
+            call.resolve(ret);
+        } catch (Exception e) {
+            call.reject("Failed to read host profile: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void setMetricsEnabled(PluginCall call) {
+        boolean enabled = call.getBoolean("enabled", true);
+        int intervalMs = call.getInt("intervalMs", 0);
+
+        metrics.setEnabled(enabled);
+        synchronized (metrics) {
+            cancelMetricsTask();
+            // A positive interval also pushes periodic "metrics" events
+            metricsIntervalMs = enabled ? intervalMs : 0;
+            scheduleMetricsTask();
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("success", true);
+        call.resolve(ret);
+    }
+
+    private void cancelMetricsTask() {
+        if (metricsTask != null) {
+            metricsTask.cancel(false);
+            metricsTask = null;
+        }
+    }
+
+    private void scheduleMetricsTask() {
+        int intervalMs = metricsIntervalMs;
+        if (intervalMs <= 0 || metricsTask != null) {
+            return;
+        }
+        if (metricsScheduler == null) {
+            metricsScheduler = java.util.concurrent.Executors.newSingleThreadScheduledExecutor();
+        }
+        metricsTask = metricsScheduler.scheduleAtFixedRate(
+            () -> notifyListeners("metrics", buildMetricsSnapshot()),
+            intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        if (call.getBoolean("reset", false)) {
+            JSObject snapshot = buildMetricsSnapshot();
+            metrics.reset();
+            call.resolve(snapshot);
+            return;
+        }
+        call.resolve(buildMetricsSnapshot());
+    }
+
+    private JSObject buildMetricsSnapshot() {
+        JSObject snapshot = new JSObject();
+        snapshot.put("enabled", metrics.isEnabled());
+        snapshot.put("timestamp", System.currentTimeMillis());
+
+        JSObject connect = new JSObject();
+        for (Map.Entry<String, LatencyHistogram> phase : metrics.getPhases().entrySet()) {
+            connect.put(phase.getKey(), histogramToJson(phase.getValue()));
+        }
+        snapshot.put("connect", connect);
+        snapshot.put("exec", histogramToJson(metrics.getExecLatency()));
+
+        com.getcapacitor.JSArray sessions = new com.getcapacitor.JSArray();
+        for (Map.Entry<String, PluginMetrics.SessionCounters> entry : metrics.getSessions().entrySet()) {
+            JSObject session = new JSObject();
+            session.put("sessionId", entry.getKey());
+            session.put("bytesIn", entry.getValue().bytesIn.get());
+            session.put("bytesOut", entry.getValue().bytesOut.get());
+            CompressionAdvisor advisor = sessionService.getCompressionAdvisor(entry.getKey());
+            if (advisor != null) {
+                // What the server agreed to: offering it is no promise
+                net.schmizz.sshj.transport.NegotiatedAlgorithms algorithms =
+                    sessionService.getNegotiatedAlgorithms(entry.getKey());
+                String compression = algorithms != null ? algorithms.getServer2ClientCompressionAlgorithm() : "none";
+                session.put("compression", !"none".equals(compression));
+                session.put("compressionAlgorithm", compression);
+                session.put("recommendCompression", advisor.recommendsCompression());
+                session.put("linkBytesPerSec", advisor.getThroughputBytesPerSec());
+            }
+            ShellSession shell = sessionService.findShell(entry.getKey());
+            if (shell != null && shell.getInputWriter() != null) {
+                session.put("inputPackets", shell.getInputWriter().getPackets());
+                session.put("inputQueuedBytes", shell.getInputWriter().getQueuedBytes());
+                session.put("unackedChars", shell.getUnackedChars());
+                session.put("flowPauses", shell.getFlowPauses());
+            }
+            sessions.put(session);
+        }
+        snapshot.put("sessions", sessions);
+
+        // Hits and time saved are in connect.prewarmSaved
+        JSObject prewarm = new JSObject();
+        prewarm.put("warm", sessionService.getPrewarmer().getWarmCount());
+        prewarm.put("expired", sessionService.getPrewarmer().getExpiredCount());
+        snapshot.put("prewarm", prewarm);
+        // Resolutions served from the shared cache, and connects won by a later address
+        JSObject dns = new JSObject();
+        dns.put("cacheHits", sessionService.getHappyEyeballs().getDnsCache().getHits());
+        dns.put("cacheMisses", sessionService.getHappyEyeballs().getDnsCache().getMisses());
+        dns.put("fallbacks", sessionService.getHappyEyeballs().getFallbacks());
+        snapshot.put("dns", dns);
+        // Recorded whether or not metrics were enabled, the first connect usually comes before
+        CryptoWarmup warmup = sessionService.getWarmup();
+        JSObject coldStart = new JSObject();
+        coldStart.put("warmupMs", warmup.getWarmupNanos() < 0 ? -1 : warmup.getWarmupNanos() / 1_000_000.0);
+        coldStart.put("firstConnectMs", warmup.getFirstConnectNanos() < 0 ? -1 : warmup.getFirstConnectNanos() / 1_000_000.0);
+        coldStart.put("firstConnectWarm", warmup.isFirstConnectWarm());
+        snapshot.put("coldStart", coldStart);
+        SessionManager sessionManager = sessionService.getSessionManager();
+        JSObject lifecycle = new JSObject();
+        lifecycle.put("sessions", sessionManager.getSessionCount());
+        lifecycle.put("channels", sessionManager.getChannelCount());
+        lifecycle.put("bufferedBytes", sessionManager.getBufferedBytes());
+        JSObject closedByReason = new JSObject();
+        for (Map.Entry<String, Long> entry : sessionManager.getClosedByReason().entrySet()) {
+            closedByReason.put(entry.getKey(), entry.getValue());
+        }
+        lifecycle.put("closed", closedByReason);
+        snapshot.put("lifecycle", lifecycle);
+        JSObject background = new JSObject();
+        background.put("detached", sessionService.isUiDetached());
+        background.put("heldBytes", sessionService.getHeldOutputBytes());
+        background.put("keptAlive", sessionHost.isKeepingAlive());
+        snapshot.put("background", background);
+        JSObject execCache = new JSObject();
+        for (Map.Entry<String, Long> stat : sessionService.getExecCache().getStats().entrySet()) {
+            execCache.put(stat.getKey(), stat.getValue());
+        }
+        snapshot.put("execCache", execCache);
+        JSObject localEcho = new JSObject();
+        for (Map.Entry<String, Long> stat : sessionService.getLocalEchoStats().entrySet()) {
+            localEcho.put(stat.getKey(), stat.getValue());
+        }
+        snapshot.put("localEcho", localEcho);
+        JSObject scripts = new JSObject();
+        for (Map.Entry<String, Long> stat : sessionService.getRemoteScripts().getStats().entrySet()) {
+            scripts.put(stat.getKey(), stat.getValue());
+        }
+        snapshot.put("scripts", scripts);
+
+        JSObject bridge = new JSObject();
+        bridge.put("events", metrics.getBridgeEvents());
+        bridge.put("eventsPerSecond", metrics.sampleBridgeEventRate());
+        bridge.put("streamFrames", metrics.getStreamFrames());
+        snapshot.put("bridge", bridge);
+
+        JSObject executors = new JSObject();
+        executors.put("workerActive", workerPool.getActiveCount());
+        executors.put("workerQueued", workerPool.getQueue().size());
+        executors.put("workerPoolSize", workerPool.getPoolSize());
+        executors.put("activeSessions", sessionService.getSessions().size());
+        executors.put("shellSessions", sessionService.getShellSessionCount());
+        snapshot.put("executors", executors);
+        return snapshot;
+    }
+
+    private static JSObject histogramToJson(LatencyHistogram histogram) {
+        // Milliseconds on the JS side
+        JSObject json = new JSObject();
+        json.put("count", histogram.getCount());
+        json.put("mean", histogram.getMeanMicros() / 1000.0);
+        json.put("p50", histogram.getPercentileMicros(50) / 1000.0);
+        json.put("p90", histogram.getPercentileMicros(90) / 1000.0);
+        json.put("p99", histogram.getPercentileMicros(99) / 1000.0);
+        json.put("max", histogram.getMaxMicros() / 1000.0);
+        return json;
+    }
+
+    @PluginMethod
+    public void generateKeyPair(PluginCall call) {
+        String keyType = call.getString("keyType", "rsa");
+        Integer keySize = call.getInt("keySize", 2048);
+        String comment = call.getString("comment", "");
+
+        new Thread(() -> {
+            try {
+                java.security.KeyPairGenerator generator;
+                
+                if ("rsa".equalsIgnoreCase(keyType)) {
+                    generator = java.security.KeyPairGenerator.getInstance("RSA");
+                    generator.initialize(keySize);
+                } else if ("ed25519".equalsIgnoreCase(keyType)) {
+                    // EdDSA support
+                    generator = java.security.KeyPairGenerator.getInstance("Ed25519");
+                } else {
+                    call.reject("Unsupported key type: " + keyType + ". Supported types: rsa, ed25519");
+                    return;
+                }
+
+                java.security.KeyPair keyPair = generator.generateKeyPair();
+                
+                // Convert to OpenSSH format
+                String privateKeyPem = KeyEncoding.convertPrivateKeyToPEM(keyPair.getPrivate(), keyType);
+                String publicKeyOpenSSH = KeyEncoding.convertPublicKeyToOpenSSH(keyPair.getPublic(), keyType, comment);
+                
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("privateKey", privateKeyPem);
+                ret.put("publicKey", publicKeyOpenSSH);
+                ret.put("keyType", keyType);
+                ret.put("keySize", keySize);
+                call.resolve(ret);
+                
+            } catch (Exception e) {
+                call.reject("Key generation failed: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    @PluginMethod
+    public void generateSecureKeyPair(PluginCall call) {
+        String keyType = call.getString("keyType", "rsa");
+        Integer keySize = call.getInt("keySize", 2048);
+        String label = call.getString("label", "SSH Key");
+
+        // Check if biometric is available
+        if (!BiometricHelper.canAuthenticate(getContext())) {
+            call.reject("Biometric authentication not available. Please set up fingerprint or face unlock in your device settings.");
+            return;
+        }
+
+        new Thread(() -> {
+            try {
+                android.util.Log.d("SSHJPlugin", "Starting secure key generation for: " + label);
+                
+                // 1. Generate SSH keypair
+                java.security.KeyPairGenerator generator;
+                if ("rsa".equalsIgnoreCase(keyType)) {
+                    generator = java.security.KeyPairGenerator.getInstance("RSA");
+                    generator.initialize(keySize);
+                } else if ("ed25519".equalsIgnoreCase(keyType)) {
+                    generator = java.security.KeyPairGenerator.getInstance("Ed25519");
+                } else {
+                    call.reject("Unsupported key type");
+                    return;
+                }
+                java.security.KeyPair keyPair = generator.generateKeyPair();
+                android.util.Log.d("SSHJPlugin", "SSH keypair generated");
+                
+                // 2. Convert keys to strings
+                String privateKeyPem = KeyEncoding.convertPrivateKeyToPEM(keyPair.getPrivate(), keyType);
+                String publicKeyOpenSSH = KeyEncoding.convertPublicKeyToOpenSSH(keyPair.getPublic(), keyType, label);
+                
+                // 3. Generate unique ID and alias
+                String keyId = java.util.UUID.randomUUID().toString();
+                String alias = "ssh_master_" + keyId;
+                
+                // 4. Create master key in KeyStore (biometric-protected)
+                android.util.Log.d("SSHJPlugin", "Creating KeyStore master key: " + alias);
+                secureKeyManager.generateMasterKey(alias);
+                
+                // 5. Get encryption cipher (will need biometric auth to use)
+                android.util.Log.d("SSHJPlugin", "Getting encryption cipher");
+                javax.crypto.Cipher cipher = secureKeyManager.getEncryptCipher(alias);
+                
+                android.util.Log.d("SSHJPlugin", "Showing biometric prompt");
+                
+                // 6. Show biometric prompt BEFORE encrypting
+                getActivity().runOnUiThread(() -> {
+                    android.util.Log.d("SSHJPlugin", "BiometricHelper.authenticate called");
+                    BiometricHelper.authenticate(
+                        getActivity(),
+                        cipher,
+                        "Secure Your SSH Key",
+                        "Authenticate to encrypt your private key",
+                        "Your private key will be protected by biometric authentication",
+                        new BiometricHelper.AuthenticationCallback() {
+                            @Override
+                            public void onSuccess(javax.crypto.Cipher authenticatedCipher) {
+                                android.util.Log.d("SSHJPlugin", "Biometric authentication succeeded");
+                                // Biometric success - proceed with encryption
+                                new Thread(() -> {
+                                    try {
+                                        // 7. Encrypt private key with authenticated cipher
+                                        SecureKeyManager.EncryptedData encrypted = 
+                                            secureKeyManager.encryptDataWithCipher(privateKeyPem, authenticatedCipher);
+                                        
+                                        // 8. Store metadata in SharedPreferences
+                                        JSONObject keyMeta = new JSONObject();
+                                        keyMeta.put("alias", alias);
+                                        keyMeta.put("publicKey", publicKeyOpenSSH);
+                                        keyMeta.put("encryptedPrivateKey", encrypted.ciphertext);
+                                        keyMeta.put("iv", encrypted.iv);
+                                        keyMeta.put("label", label);
+                                        keyMeta.put("keyType", keyType);
+                                        keyMeta.put("keySize", keySize);
+                                        keyMeta.put("createdAt", new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(new java.util.Date()));
+                                        
+                                        keyStore.put(keyId, keyMeta);
+                                        
+                                        android.util.Log.d("SSHJPlugin", "Key saved successfully: " + keyId);
+                                        
+                                        // 9. Return result (NO private key!)
+                                        JSObject ret = new JSObject();
+                                        ret.put("success", true);
+                                        ret.put("keyId", keyId);
+                                        ret.put("publicKey", publicKeyOpenSSH);
+                                        ret.put("alias", alias);
+                                        ret.put("label", label);
+                                        call.resolve(ret);
+                                        
+                                    } catch (Exception e) {
+                                        android.util.Log.e("SSHJPlugin", "Encryption failed", e);
+                                        call.reject("Failed to encrypt key: " + e.getMessage());
+                                    }
+                                }).start();
+                            }
+
+                            @Override
+                            public void onError(String message) {
+                                android.util.Log.e("SSHJPlugin", "Biometric error: " + message);
+                                // Clean up the KeyStore key on auth failure
+                                try {
+                                    secureKeyManager.deleteKey(alias);
+                                } catch (Exception ignored) {}
+                                call.reject("Biometric authentication failed: " + message);
+                            }
+
+                            @Override
+                            public void onCancel() {
+                                android.util.Log.d("SSHJPlugin", "Biometric canceled");
+                                // Clean up the KeyStore key on cancel
+                                try {
+                                    secureKeyManager.deleteKey(alias);
+                                } catch (Exception ignored) {}
+                                call.reject("Key generation canceled");
+                            }
+                        }
+                    );
+                });
+                
+            } catch (Exception e) {
+                android.util.Log.e("SSHJPlugin", "Secure key generation failed", e);
+                call.reject("Secure key generation failed: " + e.getMessage() + " - " + e.getClass().getSimpleName());
+            }
+        }).start();
+    }
+
+    @PluginMethod
+    public void listStoredKeys(PluginCall call) {
+        try {
+            android.util.Log.d("SSHJPlugin", "listStoredKeys called");
+            com.getcapacitor.JSArray keysArray = new com.getcapacitor.JSArray();
+            for (String keyId : keyStore.keyIds()) {
+                JSONObject keyMeta = keyStore.get(keyId);
+                
+                JSObject keyInfo = new JSObject();
+                keyInfo.put("keyId", keyId);
+                keyInfo.put("label", keyMeta.getString("label"));
+                keyInfo.put("publicKey", keyMeta.getString("publicKey"));
+                keyInfo.put("keyType", keyMeta.getString("keyType"));
+                keyInfo.put("createdAt", keyMeta.getString("createdAt"));
+                
+                keysArray.put(keyInfo);
+            }
+            
+            android.util.Log.d("SSHJPlugin", "Returning " + keysArray.length() + " keys");
+            
+            JSObject ret = new JSObject();
+            ret.put("keys", keysArray);
+            call.resolve(ret);
+            
+        } catch (Exception e) {
+            android.util.Log.e("SSHJPlugin", "Failed to list keys", e);
+            call.reject("Failed to list keys: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void deleteSecureKey(PluginCall call) {
+        String keyId = call.getString("keyId");
+        if (keyId == null) {
+            call.reject("keyId required");
+            return;
+        }
+
+        try {
+            JSONObject keyMeta = keyStore.get(keyId);
+            if (keyMeta == null) {
+                call.reject("Key not found");
+                return;
+            }
+            
+            String alias = keyMeta.getString("alias");
+            
+            // Delete from KeyStore
+            secureKeyManager.deleteKey(alias);
+            
+            // Delete from SharedPreferences
+            keyStore.remove(keyId);
+            
+            JSObject ret = new JSObject();
+            ret.put("success", true);
+            call.resolve(ret);
+            
+        } catch (Exception e) {
+            call.reject("Failed to delete key: " + e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void connectWithSecureKey(PluginCall call) {
+        String hostname = call.getString("hostname");
+        Integer port = call.getInt("port", 22);
+        String username = call.getString("username");
+        String keyId = call.getString("keyId");
+        CompressionAdvisor.Mode compression = CompressionAdvisor.Mode.parse(call.getString("compression", "off"));
+        String owner = call.getString("owner");
+
+        if (BuildConfig.DEBUG) {
+            Log.d("SSHJPlugin", "connectWithSecureKey called for " + username + "@" + hostname + " with keyId: " + keyId);
+        }
+
+        if (hostname == null || username == null || keyId == null) {
+            call.reject("Missing required parameters");
+            return;
+        }
+        if (askForNotifications(call, "connectWithSecureKeyAfterNotificationPrompt")) {
+            return;
+        }
+
+        try {
+            // 1. Load key metadata FIRST to get the alias and IV
+            JSONObject keyMeta = keyStore.get(keyId);
+            if (keyMeta == null) {
+                Log.e("SSHJPlugin", "Key not found in SharedPreferences: " + keyId);
+                call.reject("Key not found");
+                return;
+            }
+            
+            String alias = keyMeta.getString("alias");
+            String encryptedKey = keyMeta.getString("encryptedPrivateKey");
+            String iv = keyMeta.getString("iv");
+
+            // 2. Initialize Cipher for decryption BEFORE biometric prompt
+            // This Cipher will be wrapped in a CryptoObject and authenticated
+            Cipher cipher = secureKeyManager.getDecryptCipher(alias, iv);
+
+            // 3. Show biometric prompt with the Cipher
+            long promptStart = System.nanoTime();
+            getActivity().runOnUiThread(() -> {
+                BiometricHelper.authenticate(
+                    getActivity(),
+                    cipher, // Pass the cipher to be authenticated
+                    "SSH Authentication",
+                    "Authenticate to use your SSH key",
+                    "Use " + username + "@" + hostname,
+                    new BiometricHelper.AuthenticationCallback() {
+                        @Override
+                        public void onSuccess(Cipher authenticatedCipher) {
+                            metrics.recordPhase(PluginMetrics.PHASE_BIOMETRIC, System.nanoTime() - promptStart);
+                            
+                            // 4. Biometric success - use the AUTHENTICATED cipher to decrypt
+                            workerPool.execute(() -> {
+                                try {
+                                    // Decrypt private key using the authenticated cipher
+                                    long decryptStart = System.nanoTime();
+                                    String privateKeyPem = secureKeyManager.decryptDataWithCipher(encryptedKey, authenticatedCipher);
+                                    metrics.recordPhase(PluginMetrics.PHASE_KEY_DECRYPT, System.nanoTime() - decryptStart);
+                                    
+                                    // Connect and authenticate with the key held in memory only
+                                    String sessionId = sessionService.connectWithKey(hostname, port, username, privateKeyPem, null, compression);
+                                    
+                                    // CRITICAL: Clear decrypted key from memory
+                                    privateKeyPem = null;
+                                    if (owner != null) {
+                                        sessionService.getSessionManager().claim(sessionId, owner);
+                                    }
+                                    sessionHost.sessionsChanged();
+                                    
+                                    if (BuildConfig.DEBUG) {
+                                        Log.d("SSHJPlugin", "SSH session established: " + sessionId);
+                                    }
+                                    
+                                    JSObject ret = new JSObject();
+                                    ret.put("success", true);
+                                    ret.put("sessionId", sessionId);
+                                    ret.put("message", "Connected successfully with secure key");
+                                    call.resolve(ret);
+                                    
+                                } catch (Exception e) {
+                                    Log.e("SSHJPlugin", "Connection failed: " + e.getMessage(), e);
+                                    call.reject("Connection failed: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void onError(String message) {
+                            Log.e("SSHJPlugin", "Biometric error: " + message);
+                            call.reject("Biometric authentication failed: " + message);
+                        }
+
+                        @Override
+                        public void onCancel() {
+                            Log.d("SSHJPlugin", "Biometric canceled");
+                            call.reject("Biometric authentication canceled");
+                        }
+                    }
+                );
+            });
+
+        } catch (Exception e) {
+            Log.e("SSHJPlugin", "Setup failed", e);
+            call.reject("Failed to initiate secure connection: " + e.getMessage());
+        }
+    }
+}
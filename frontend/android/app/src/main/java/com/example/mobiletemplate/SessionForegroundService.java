@@ -0,0 +1,66 @@
+package com.example.mobiletemplate;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+
+/**
+ * Keeps the process in the foreground while SSH sessions are open, so shells survive
+ * the app going to the background. It holds no state and does no work of its own:
+ * the sessions live in {@link SessionHost}, this only carries the notification.
+ *
+ * Declared as specialUse: dataSync is capped at 6 hours a day from Android 15 on,
+ * and a remote shell is neither a transfer nor a sync.
+ */
+public class SessionForegroundService extends Service {
+    static final int NOTIFICATION_ID = 2201;
+    private static final String CHANNEL_ID = "ssh_sessions";
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        int count = SessionHost.get(this).getService().getSessions().size();
+        ServiceCompat.startForeground(this, NOTIFICATION_ID, buildNotification(this, Math.max(count, 1)),
+            Build.VERSION.SDK_INT >= 34 ? ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE : 0);
+        if (count == 0) {
+            // Everything closed while the start was on its way
+            stopSelf();
+        }
+        // A restarted process has no sessions to keep
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    static Notification buildNotification(Context context, int sessions) {
+        if (Build.VERSION.SDK_INT >= 26) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                context.getString(R.string.ssh_sessions_channel), NotificationManager.IMPORTANCE_LOW);
+            context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+        Intent open = new Intent(context, MainActivity.class)
+            .setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent content = PendingIntent.getActivity(context, 0, open, PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle(context.getResources().getQuantityString(R.plurals.ssh_sessions_active, sessions, sessions))
+            .setContentIntent(content)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setSilent(true)
+            .setCategory(NotificationCompat.CATEGORY_SERVICE)
+            .build();
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.mobiletemplate;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+
+import org.json.JSONObject;
+
+/**
+ * Owns the {@link SshSessionService} for the whole process, so sessions outlive the
+ * activity and the plugin instance that opened them. A plugin attaches itself as
+ * the event target while it has a UI; without one, events are dropped (shells hold
+ * their output meanwhile, see {@link SshSessionService#detachUi}).
+ *
+ * While any session is open, {@link SessionForegroundService} runs so Android
+ * keeps the process, and with it the connections, when the app is in the background.
+ * Its notification is how the user sees and stops those sessions, so without
+ * permission to post it (Android 13+, asked on the first connect) the service is
+ * not started: sessions then last as long as the process does.
+ */
+public final class SessionHost {
+    private static SessionHost instance;
+
+    private final Context context;
+    private final PluginMetrics metrics = new PluginMetrics();
+    private final SshSessionService service;
+    private volatile SessionBridge target;
+    private boolean foreground;
+
+    private SessionHost(Context context) {
+        this.context = context.getApplicationContext();
+        service = new SshSessionService(this::forward, metrics);
+    }
+
+    public static synchronized SessionHost get(Context context) {
+        if (instance == null) {
+            instance = new SessionHost(context);
+        }
+        return instance;
+    }
+
+    public SshSessionService getService() {
+        return service;
+    }
+
+    public PluginMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void forward(String event, JSONObject data) {
+        SessionBridge current = target;
+        if (current != null) {
+            current.emit(event, data);
+        }
+        if ("sessionClosed".equals(event)) {
+            sessionsChanged();
+        }
+    }
+
+    /** Events go to this target from now on, and shells deliver what they held. */
+    public void attach(SessionBridge bridge) {
+        target = bridge;
+        service.attachUi();
+    }
+
+    /** Stops events to this target, if it still is the current one. */
+    public void detach(SessionBridge bridge) {
+        if (target == bridge) {
+            service.detachUi();
+        }
+    }
+
+    /** Drops the target for good; with no session left the service is shut down too. */
+    public void release(SessionBridge bridge) {
+        synchronized (SessionHost.class) {
+            if (target != bridge) {
+                return;
+            }
+            target = null;
+            service.detachUi();
+            if (service.getSessions().isEmpty()) {
+                service.shutdown();
+                instance = null;
+            }
+        }
+    }
+
+    /** True while the foreground service keeps the process, and the sessions, alive. */
+    public synchronized boolean isKeepingAlive() {
+        return foreground;
+    }
+
+    /**
+     * Starts, updates or stops the foreground service after a session opened or closed.
+     * Starting only happens on connect, with the app in front, where Android allows it.
+     */
+    public synchronized void sessionsChanged() {
+        int count = service.getSessions().size();
+        if (count == 0) {
+            if (foreground) {
+                foreground = false;
+                context.stopService(new Intent(context, SessionForegroundService.class));
+            }
+            return;
+        }
+        if (!foreground) {
+            if (!NotificationManagerCompat.from(context).areNotificationsEnabled()) {
+                // Checked again on the next open or close, in case it was allowed since
+                Log.w("SessionHost", "Notifications are off, sessions are not kept in the background");
+                return;
+            }
+            try {
+                ContextCompat.startForegroundService(context, new Intent(context, SessionForegroundService.class));
+                foreground = true;
+            } catch (RuntimeException e) {
+                // Not allowed from the background; sessions then only live as long as the process
+                Log.w("SessionHost", "Could not start the session service", e);
+            }
+            return;
+        }
+        NotificationManager notifications = context.getSystemService(NotificationManager.class);
+        notifications.notify(SessionForegroundService.NOTIFICATION_ID,
+            SessionForegroundService.buildNotification(context, count));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.mobiletemplate.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.example.mobiletemplate.ShellOutputDecoder;
+import com.example.mobiletemplate.StreamServer;
+
+/**
+ * Per-chunk cost of getting shell output ready for the WebView: decode + JSON event
+ * (what the bridge serializes) vs a binary stream frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BridgeEncodingBenchmark {
+
+    @Param({"ansi", "utf8"})
+    public String content;
+
+    @Param({"1024", "32768"})
+    public int chunkSize;
+
+    private byte[] chunk;
+    private final ShellOutputDecoder decoder = new ShellOutputDecoder();
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setUp() {
+        // Escape-heavy: every ESC becomes \u001b in JSON
+        String line = "ansi".equals(content)
+            ? "\u001b[1;32muser@host\u001b[0m:\u001b[1;34m~/src\u001b[0m$ \u001b[38;5;208mwarn\u001b[0m \"quoted\"\t\\path\r\n"
+            : "\u250c\u2500\u2500 r\u00e9sum\u00e9 \u2014 \u65e5\u672c\u8a9e \u2502 \u2705 \u2500\u2500\u2510\r\n";
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        chunk = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i] = bytes[i % bytes.length];
+        }
+    }
+
+    @Benchmark
+    public String jsonEvent() {
+        JSONObject data = new JSONObject();
+        data.put("sessionId", "3f2b8c1e-6a4d-4c1b-9e7f-2d5a8b9c0e1f");
+        data.put("output", decoder.decode(chunk, 0, chunk.length));
+        return data.toString();
+    }
+
+    @Benchmark
+    public int binaryFrame() throws IOException {
+        frame.reset();
+        byte[] id = "3f2b8c1e-6a4d-4c1b-9e7f-2d5a8b9c0e1f".getBytes(StandardCharsets.US_ASCII);
+        StreamServer.writeFrame(frame, 0x2, id, chunk, 0, chunk.length);
+        return frame.size();
+    }
+}
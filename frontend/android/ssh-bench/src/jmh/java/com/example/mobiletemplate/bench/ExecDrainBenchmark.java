@@ -0,0 +1,75 @@
+package com.example.mobiletemplate.bench;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.example.mobiletemplate.EmbeddedSshServer;
+import com.example.mobiletemplate.ExecStreams;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * executeCommand round trip including the stdout drain, old Scanner-based read versus ExecStreams
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecDrainBenchmark {
+
+    @Param({"128", "262144"})
+    public int outputBytes;
+
+    private EmbeddedSshServer server;
+    private SSHClient ssh;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new EmbeddedSshServer();
+        ssh = server.connect();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        ssh.disconnect();
+        server.close();
+    }
+
+    @Benchmark
+    public ExecStreams.Result execStreams() throws Exception {
+        try (Session session = ssh.startSession()) {
+            Session.Command command = session.exec("stream " + outputBytes);
+            return ExecStreams.drain(command.getInputStream(), command.getErrorStream(), executor);
+        }
+    }
+
+    @Benchmark
+    public String scanner() throws Exception {
+        try (Session session = ssh.startSession()) {
+            Session.Command command = session.exec("stream " + outputBytes);
+            return readWithScanner(command.getInputStream()) + readWithScanner(command.getErrorStream());
+        }
+    }
+
+    private static String readWithScanner(InputStream inputStream) {
+        java.util.Scanner s = new java.util.Scanner(inputStream, StandardCharsets.UTF_8.name()).useDelimiter("\\A");
+        return s.hasNext() ? s.next() : "";
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.mobiletemplate.bench;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.example.mobiletemplate.KeyEncoding;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyEncodingBenchmark {
+
+    @Param({"rsa", "ed25519"})
+    public String keyType;
+
+    private KeyPair keyPair;
+    private String pem;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator;
+        if ("rsa".equals(keyType)) {
+            generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+        } else {
+            generator = KeyPairGenerator.getInstance("Ed25519");
+        }
+        keyPair = generator.generateKeyPair();
+        pem = KeyEncoding.convertPrivateKeyToPEM(keyPair.getPrivate(), keyType);
+    }
+
+    @Benchmark
+    public String encodePrivateKey() {
+        return KeyEncoding.convertPrivateKeyToPEM(keyPair.getPrivate(), keyType);
+    }
+
+    @Benchmark
+    public String encodePublicKey() {
+        return KeyEncoding.convertPublicKeyToOpenSSH(keyPair.getPublic(), keyType, "bench@device");
+    }
+
+    @Benchmark
+    public PrivateKey decodePrivateKey() throws Exception {
+        return KeyEncoding.decodePrivateKeyPEM(pem, keyType);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.mobiletemplate.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.example.mobiletemplate.KeyMetadataStore;
+
+/**
+ * Key metadata lookups and writes against an in-memory stand-in for SharedPreferences
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataStoreBenchmark {
+
+    @Param({"10", "100"})
+    public int keyCount;
+
+    private String savedJson;
+    private KeyMetadataStore store;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = new KeyMetadataStore(new KeyMetadataStore.Storage() {
+            @Override
+            public String load() {
+                return savedJson;
+            }
+
+            @Override
+            public void save(String json) {
+                savedJson = json;
+            }
+        });
+        for (int i = 0; i < keyCount; i++) {
+            store.put("key-" + i, metadata(i));
+        }
+    }
+
+    private static JSONObject metadata(int i) throws Exception {
+        JSONObject meta = new JSONObject();
+        meta.put("alias", "ssh_master_key-" + i);
+        meta.put("publicKey", "ssh-ed25519 AAAAC3NzaC1lZDI1NTE5AAAAIG" + i);
+        meta.put("encryptedPrivateKey", "x".repeat(1600));
+        meta.put("iv", "abcdefghijklmnop");
+        meta.put("label", "Key " + i);
+        meta.put("keyType", "ed25519");
+        meta.put("createdAt", "2024-01-01T00:00:00Z");
+        return meta;
+    }
+
+    @Benchmark
+    public JSONObject get() throws Exception {
+        return store.get("key-" + (keyCount / 2));
+    }
+
+    @Benchmark
+    public List<String> list() throws Exception {
+        return store.keyIds();
+    }
+
+    @Benchmark
+    public JSONObject putAndRemove() throws Exception {
+        store.put("bench", metadata(-1));
+        return store.remove("bench");
+    }
+
+    @Benchmark
+    public JSONObject getUncached() throws Exception {
+        // What the plugin did before the cache: parse the whole blob on every access
+        return new JSONObject(savedJson).getJSONObject("key-" + (keyCount / 2));
+    }
+}
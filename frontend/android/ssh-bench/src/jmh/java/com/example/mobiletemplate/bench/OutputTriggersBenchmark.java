@@ -0,0 +1,92 @@
+package com.example.mobiletemplate.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.example.mobiletemplate.OutputTriggers;
+
+/**
+ * Trigger matching throughput over 1 MiB of log-like shell output: ops/s x 1 MiB is
+ * the scan rate. indexOfPerPattern is what a JS-side check of each chunk would do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutputTriggersBenchmark {
+    private static final int BYTES = 1 << 20;
+    private static final String[] LITERALS = {
+        "ERROR", "FATAL", "panic:", "Traceback", "Connection refused", "Permission denied",
+        "No space left on device", "Segmentation fault", "OOMKilled", "BUILD FAILED",
+        "Killed", "timed out", "certificate verify failed", "exit status", "deadlock", "WARN"
+    };
+
+    @Param({"literals", "ignoreCase", "regex"})
+    public String kind;
+
+    @Param({"4096", "32768"})
+    public int chunkSize;
+
+    private byte[] output;
+    private OutputTriggers.Scanner scanner;
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] lines = {
+            "2024-01-12T09:41:07.113Z INFO  [worker-3] request GET /api/v1/items?page=2 200 in 13ms\r\n",
+            "-rw-r--r--  1 user staff  18231 Jan 12 09:41 \u001b[01;32mbuild.gradle\u001b[0m\r\n",
+            "   Compiling serde_json v1.0.108 (registry+https://github.com/rust-lang/crates.io-index)\r\n",
+            "2024-01-12T09:41:07.201Z DEBUG [pool-1] connection 10.0.3.17:5432 returned to pool\r\n"
+        };
+        output = new byte[BYTES];
+        int at = 0;
+        for (int i = 0; at < BYTES; i++) {
+            byte[] line = lines[i % lines.length].getBytes(StandardCharsets.UTF_8);
+            int n = Math.min(line.length, BYTES - at);
+            System.arraycopy(line, 0, output, at, n);
+            at += n;
+        }
+
+        List<OutputTriggers.Trigger> triggers = new ArrayList<>();
+        for (int i = 0; i < LITERALS.length; i++) {
+            triggers.add(new OutputTriggers.Trigger("t" + i, LITERALS[i], false, "ignoreCase".equals(kind)));
+        }
+        if ("regex".equals(kind)) {
+            triggers.add(new OutputTriggers.Trigger("slow", "in [0-9]{4,}ms", true, false));
+        }
+        // Matches are rare in this output; no event cost to measure
+        scanner = new OutputTriggers("bench", triggers, 1000, (event, data) -> { }).scanner("shell");
+    }
+
+    @Benchmark
+    public OutputTriggers.Scanner automaton() {
+        for (int off = 0; off < BYTES; off += chunkSize) {
+            scanner.scan(output, off, Math.min(chunkSize, BYTES - off));
+        }
+        return scanner;
+    }
+
+    @Benchmark
+    public int indexOfPerPattern() {
+        int found = 0;
+        for (int off = 0; off < BYTES; off += chunkSize) {
+            String chunk = new String(output, off, Math.min(chunkSize, BYTES - off), StandardCharsets.UTF_8);
+            for (String literal : LITERALS) {
+                if (chunk.indexOf(literal) >= 0) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.mobiletemplate.bench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.example.mobiletemplate.SessionRecorder;
+
+/**
+ * What recording costs the shell reader thread per chunk: the copy and the queue
+ * handoff. Formatting, compression and disk writes happen on the recorder's own
+ * thread; past its pending-bytes cap chunks are dropped, which is cheaper still.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionRecorderBenchmark {
+
+    @Param({"64", "4096"})
+    public int chunkSize;
+
+    @Param({"true", "false"})
+    public boolean compress;
+
+    private File directory;
+    private SessionRecorder recorder;
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("recorder-bench").toFile();
+        recorder = new SessionRecorder(directory, "bench", 80, 24, compress, 64L << 20);
+        byte[] line = "drwxr-xr-x  2 user user 4096 Jan  1 00:00 folder\r\n".getBytes(StandardCharsets.UTF_8);
+        chunk = new byte[chunkSize];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = line[i % line.length];
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : recorder.close()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public SessionRecorder recordOutput() {
+        recorder.recordOutput(chunk, 0, chunk.length);
+        return recorder;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.mobiletemplate.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.example.mobiletemplate.ShellOutputDecoder;
+
+/**
+ * Decoding cost alone, per chunk, for ASCII-heavy and UTF-8-heavy output
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ShellDecodeBenchmark {
+
+    @Param({"ascii", "utf8"})
+    public String content;
+
+    @Param({"1024", "32768"})
+    public int chunkSize;
+
+    private byte[] chunk;
+    private final ShellOutputDecoder decoder = new ShellOutputDecoder();
+
+    @Setup
+    public void setUp() {
+        String line = "ascii".equals(content)
+            ? "-rw-r--r--  1 user staff  18231 Jan 12 09:41 \u001b[01;32mbuild.gradle\u001b[0m\r\n"
+            : "\u250c\u2500\u2500 r\u00e9sum\u00e9 \u2014 \u65e5\u672c\u8a9e \u2502 \u2705 \u2500\u2500\u2510\r\n";
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        chunk = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i] = bytes[i % bytes.length];
+        }
+    }
+
+    @Benchmark
+    public String streamingDecoder() {
+        return decoder.decode(chunk, 0, chunk.length);
+    }
+
+    @Benchmark
+    public String newString() {
+        // What ShellSession used to do for every read
+        return new String(chunk, 0, chunk.length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.mobiletemplate.bench;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.mobiletemplate.EmbeddedSshServer;
+import com.example.mobiletemplate.ShellOutputDecoder;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * Reading and decoding 1 MiB of terminal output from the embedded server, with the
+ * plugin's old 1 KiB reads versus batched reads. Score is MiB per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ShellOutputBenchmark {
+    private static final int OUTPUT_BYTES = 1024 * 1024;
+
+    @Param({"1024", "32768"})
+    public int readBufferSize;
+
+    private EmbeddedSshServer server;
+    private SSHClient ssh;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new EmbeddedSshServer();
+        ssh = server.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ssh.disconnect();
+        server.close();
+    }
+
+    @Benchmark
+    public void readAndDecode(Blackhole blackhole) throws Exception {
+        ShellOutputDecoder decoder = new ShellOutputDecoder();
+        byte[] buffer = new byte[readBufferSize];
+        try (Session session = ssh.startSession()) {
+            Session.Command command = session.exec("stream " + OUTPUT_BYTES);
+            InputStream in = command.getInputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                blackhole.consume(decoder.decode(buffer, 0, read));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.mobiletemplate.bench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Compares two JMH JSON result files and flags regressions above a percentage threshold.
+ * Exits with status 1 when at least one benchmark regressed.
+ */
+public class BenchmarkComparison {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args[0].isEmpty()) {
+            System.err.println("Usage: BenchmarkComparison <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, JSONObject> baseline = load(new File(args[0]));
+        Map<String, JSONObject> current = load(new File(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            JSONObject before = baseline.get(entry.getKey());
+            JSONObject metric = entry.getValue().getJSONObject("primaryMetric");
+            double score = metric.getDouble("score");
+            String unit = metric.getString("scoreUnit");
+            if (before == null) {
+                System.out.printf("%-80s %14.3f %s (new)%n", entry.getKey(), score, unit);
+                continue;
+            }
+
+            double previous = before.getJSONObject("primaryMetric").getDouble("score");
+            // Throughput: higher is better, everything else is a time: lower is better
+            boolean higherIsBetter = "thrpt".equals(entry.getValue().getString("mode"));
+            double change = previous == 0 ? 0 : (score - previous) / previous * 100;
+            boolean regressed = higherIsBetter ? change < -threshold : change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-80s %14.3f %s %+7.1f%%%s%n",
+                entry.getKey(), score, unit, change, regressed ? "  REGRESSION" : "");
+        }
+
+        System.out.println(regressions + " regression(s) above " + threshold + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static Map<String, JSONObject> load(File file) throws Exception {
+        JSONArray runs = new JSONArray(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        Map<String, JSONObject> byName = new LinkedHashMap<>();
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            String name = run.getString("benchmark");
+            JSONObject params = run.optJSONObject("params");
+            if (params != null) {
+                name += params.toString();
+            }
+            byName.put(name, run);
+        }
+        return byName;
+    }
+}
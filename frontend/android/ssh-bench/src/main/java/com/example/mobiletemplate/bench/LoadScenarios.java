@@ -0,0 +1,1219 @@
+package com.example.mobiletemplate.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import com.example.mobiletemplate.EmbeddedSshServer;
+import com.example.mobiletemplate.LatencyHistogram;
+import com.example.mobiletemplate.PluginMetrics;
+import com.example.mobiletemplate.SessionBridge;
+import com.example.mobiletemplate.SessionException;
+import com.example.mobiletemplate.ShellInputWriter;
+import com.example.mobiletemplate.SshSessionService;
+
+/**
+ * Load scenarios for the session service against the embedded SSH server:
+ * <ul>
+ *   <li>sessions: N concurrent connections, each with an interactive shell doing a round trip</li>
+ *   <li>throughput: one shell streaming output as fast as it can be delivered to the bridge</li>
+ *   <li>storm: a burst of connect/disconnect cycles with high concurrency</li>
+ *   <li>paste: a large paste sent as small sendToShell chunks, with and without input coalescing</li>
+ *   <li>burst: a runaway `yes` rendered by a slow consumer, with and without flow control</li>
+ *   <li>transport: shell output over JSON bridge events vs the binary stream socket, MB/s and CPU per MB</li>
+ *   <li>compression: a large exec output through a bandwidth-throttled proxy, compression off / on / auto</li>
+ *   <li>coldstart: the first connect of a fresh JVM, with and without the background crypto warm-up</li>
+ *   <li>monitor: host metrics polled with an exec per sample vs streamed by one monitor channel</li>
+ *   <li>broadcast: keystrokes fanned out to 1, 10 and 100 shells, fan-out call and last-echo latency</li>
+ *   <li>tail: log files on several sessions merged by timestamp, lines per second and CPU per line</li>
+ *   <li>probe: reachability of hundreds of hosts, one NIO selector vs a thread per connect</li>
+ *   <li>echo: typing over a high-latency link, time until each key shows, predictive echo off / on</li>
+ *   <li>script: a long script run inline per exec vs from the host's script cache, first and later runs</li>
+ * </ul>
+ * Each prints a summary and writes it as JSON to the results directory.
+ *
+ * Usage: LoadScenarios &lt;resultsDir&gt; [sessions|throughput|storm|paste|burst|transport|compression|coldstart|monitor|broadcast|tail|probe|echo|script|all] [key=value ...]
+ */
+public class LoadScenarios {
+    private final File resultsDir;
+    private final EmbeddedSshServer server;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    // Shell events are counted, not kept, so the harness itself doesn't grow the heap
+    private final ConcurrentHashMap<String, AtomicLong> charsBySession = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CountDownLatch> markers = new ConcurrentHashMap<>();
+    private final AtomicLong bridgeEvents = new AtomicLong();
+    // Scenarios that need the events themselves register a sink for their session
+    private final ConcurrentHashMap<String, SessionBridge> sinks = new ConcurrentHashMap<>();
+
+    private final SessionBridge bridge = new SessionBridge() {
+        @Override
+        public void emit(String event, JSONObject data) {
+            bridgeEvents.incrementAndGet();
+            String sessionId = data.optString("sessionId");
+            SessionBridge sink = sinks.get(sessionId);
+            if (sink != null) {
+                sink.emit(event, data);
+                return;
+            }
+            String output = data.optString("output");
+            AtomicLong chars = charsBySession.get(sessionId);
+            if (chars != null) {
+                chars.addAndGet(output.length());
+            }
+            CountDownLatch marker = markers.get(sessionId);
+            if (marker != null && output.contains("ready")) {
+                marker.countDown();
+            }
+        }
+    };
+
+    LoadScenarios(File resultsDir) throws IOException {
+        this.resultsDir = resultsDir;
+        this.server = new EmbeddedSshServer();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File resultsDir = new File(args.length > 0 ? args[0] : "build/results/load");
+        String scenario = args.length > 1 ? args[1] : "all";
+        JSONObject options = new JSONObject();
+        for (int i = 2; i < args.length; i++) {
+            String[] pair = args[i].split("=", 2);
+            options.put(pair[0], pair.length > 1 ? pair[1] : "");
+        }
+
+        if (scenario.equals("firstConnect")) {
+            // Child JVM of the coldstart scenario, without a server of its own
+            firstConnect(options.getString("host"), options.getInt("port"), options.getBoolean("warm"));
+            System.exit(0);
+        }
+
+        LoadScenarios load = new LoadScenarios(resultsDir);
+        try {
+            if (scenario.equals("sessions") || scenario.equals("all")) {
+                load.concurrentSessions(options.optInt("sessions", 500), options.optInt("scrollbackBytes", 256 * 1024));
+            }
+            if (scenario.equals("throughput") || scenario.equals("all")) {
+                load.shellThroughput(options.optLong("megabytes", 500), options.optDouble("targetMBps", 50));
+            }
+            if (scenario.equals("storm") || scenario.equals("all")) {
+                load.connectStorm(options.optInt("connects", 300), options.optInt("concurrency", 100));
+            }
+            if (scenario.equals("paste") || scenario.equals("all")) {
+                load.paste(options.optInt("kilobytes", 1024), options.optInt("chunkBytes", 64));
+            }
+            if (scenario.equals("burst") || scenario.equals("all")) {
+                load.burst(options.optInt("megabytes", 100), options.optDouble("renderMBps", 20));
+            }
+            if (scenario.equals("transport") || scenario.equals("all")) {
+                load.transport(options.optLong("megabytes", 200));
+            }
+            if (scenario.equals("compression") || scenario.equals("all")) {
+                load.compression(options.optInt("megabytes", 4), options.optString("ratesKBps", "512,2048,0"));
+            }
+            if (scenario.equals("coldstart") || scenario.equals("all")) {
+                load.coldStart(options.optInt("runs", 5));
+            }
+            if (scenario.equals("monitor") || scenario.equals("all")) {
+                load.monitor(options.optInt("seconds", 20), options.optInt("intervalMs", 1000));
+            }
+            if (scenario.equals("broadcast") || scenario.equals("all")) {
+                load.broadcast(options.optString("sessions", "1,10,100"), options.optInt("keystrokes", 200));
+            }
+            if (scenario.equals("tail") || scenario.equals("all")) {
+                load.tail(options.optInt("hosts", 3), options.optInt("lines", 200_000));
+            }
+            if (scenario.equals("probe") || scenario.equals("all")) {
+                load.probe(options.optInt("hosts", 300), options.optInt("maxConcurrent", 64));
+            }
+            if (scenario.equals("echo") || scenario.equals("all")) {
+                load.echo(options.optInt("delayMs", 150), options.optInt("keystrokes", 200),
+                    options.optInt("intervalMs", 100));
+            }
+            if (scenario.equals("script") || scenario.equals("all")) {
+                load.script(options.optInt("kilobytes", 64), options.optInt("runs", 10), options.optInt("delayMs", 50),
+                    options.optInt("rateKBps", 256));
+            }
+        } finally {
+            load.server.close();
+        }
+        System.exit(0);
+    }
+
+    /** Opens N sessions concurrently, each with a shell, then checks every shell answers. */
+    void concurrentSessions(int count, int scrollbackBytes) throws Exception {
+        Run run = new Run("sessions");
+        SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        LatencyHistogram connectLatency = new LatencyHistogram();
+        LatencyHistogram roundTrip = new LatencyHistogram();
+        AtomicInteger failures = new AtomicInteger();
+        List<String> sessionIds = java.util.Collections.synchronizedList(new ArrayList<String>());
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(pool.submit(() -> {
+                try {
+                    long start = System.nanoTime();
+                    String sessionId = connect(service);
+                    connectLatency.recordNanos(System.nanoTime() - start);
+                    sessionIds.add(sessionId);
+
+                    CountDownLatch ready = new CountDownLatch(1);
+                    markers.put(sessionId, ready);
+                    service.startShell(sessionId, scrollbackBytes);
+                    long sent = System.nanoTime();
+                    service.sendToShell(sessionId, "echo ready\n");
+                    if (!ready.await(30, TimeUnit.SECONDS)) {
+                        throw new IOException("No shell output");
+                    }
+                    roundTrip.recordNanos(System.nanoTime() - sent);
+                    markers.remove(sessionId);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                run.sample();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        run.sample();
+        long openMillis = run.elapsedMillis();
+
+        JSONObject result = run.finish();
+        result.put("sessions", count);
+        result.put("open", service.getSessions().size());
+        result.put("failures", failures.get());
+        result.put("scrollbackBytes", scrollbackBytes);
+        result.put("connectsPerSecond", count * 1000.0 / openMillis);
+        result.put("connectLatencyMs", latency(connectLatency));
+        result.put("shellRoundTripMs", latency(roundTrip));
+
+        for (String sessionId : sessionIds) {
+            service.disconnect(sessionId);
+        }
+        service.shutdown();
+        pool.shutdown();
+        report(result);
+    }
+
+    /** Streams output through one shell and measures what reaches the bridge. */
+    void shellThroughput(long megabytes, double targetMBps) throws Exception {
+        Run run = new Run("throughput");
+        SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+        String sessionId = connect(service);
+        AtomicLong chars = new AtomicLong();
+        charsBySession.put(sessionId, chars);
+        service.startShell(sessionId, 4 * 1024 * 1024);
+
+        long bytes = megabytes * 1024 * 1024;
+        long eventsBefore = bridgeEvents.get();
+        long start = System.nanoTime();
+        service.sendToShell(sessionId, "stream " + bytes + "\n");
+
+        // The sample output is ASCII, so chars == bytes
+        long deadline = System.currentTimeMillis() + Math.max(60_000, megabytes * 1000);
+        while (chars.get() < bytes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            run.sample();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mbps = chars.get() / 1048576.0 / seconds;
+
+        JSONObject result = run.finish();
+        result.put("bytes", bytes);
+        result.put("delivered", chars.get());
+        result.put("seconds", seconds);
+        result.put("mbPerSecond", mbps);
+        result.put("targetMBps", targetMBps);
+        result.put("sustained", mbps >= targetMBps && chars.get() >= bytes);
+        result.put("bridgeEvents", bridgeEvents.get() - eventsBefore);
+
+        charsBySession.remove(sessionId);
+        service.shutdown();
+        report(result);
+    }
+
+    /** Connect/disconnect cycles fired with high concurrency. */
+    void connectStorm(int connects, int concurrency) throws Exception {
+        Run run = new Run("storm");
+        PluginMetrics metrics = new PluginMetrics();
+        metrics.setEnabled(true);
+        SshSessionService service = new SshSessionService(bridge, metrics);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < connects; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                long begin = System.nanoTime();
+                try {
+                    String sessionId = connect(service);
+                    latency.recordNanos(System.nanoTime() - begin);
+                    service.disconnect(sessionId);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                run.sample();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        JSONObject result = run.finish();
+        result.put("connects", connects);
+        result.put("concurrency", concurrency);
+        result.put("failures", failures.get());
+        result.put("connectsPerSecond", connects * 1000.0 / run.elapsedMillis());
+        result.put("connectLatencyMs", latency(latency));
+        JSONObject phases = new JSONObject();
+        for (java.util.Map.Entry<String, LatencyHistogram> phase : metrics.getPhases().entrySet()) {
+            phases.put(phase.getKey(), latency(phase.getValue()));
+        }
+        result.put("phasesMs", phases);
+
+        service.shutdown();
+        pool.shutdown();
+        report(result);
+    }
+
+    /**
+     * Sends a paste in xterm-sized chunks and waits for the shell to echo all of it,
+     * once per coalescing window. Packets are the input writer's write + flush calls.
+     */
+    void paste(int kilobytes, int chunkBytes) throws Exception {
+        Run run = new Run("paste");
+        JSONObject result = new JSONObject();
+        int total = kilobytes * 1024;
+        byte[] chunkBytesArray = new byte[chunkBytes];
+        java.util.Arrays.fill(chunkBytesArray, (byte) 'x');
+        String chunk = new String(chunkBytesArray, StandardCharsets.US_ASCII);
+
+        for (int coalesceMillis : new int[] { 0, ShellInputWriter.DEFAULT_COALESCE_MILLIS, 10 }) {
+            SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+            service.setInputOptions(coalesceMillis, ShellInputWriter.DEFAULT_MAX_QUEUED_BYTES);
+            String sessionId = connect(service);
+            AtomicLong echoed = new AtomicLong();
+            charsBySession.put(sessionId, echoed);
+            service.startShell(sessionId, 256 * 1024);
+            Thread.sleep(200);
+            echoed.set(0);
+
+            long refused = 0;
+            long start = System.nanoTime();
+            LatencyHistogram sendLatency = new LatencyHistogram();
+            for (int sent = 0; sent < total; sent += chunkBytes) {
+                long sendStart = System.nanoTime();
+                while (!service.sendToShell(sessionId, chunk)) {
+                    // What the JS side does until "shellInputDrained"
+                    refused++;
+                    Thread.sleep(1);
+                }
+                sendLatency.recordNanos(System.nanoTime() - sendStart);
+            }
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (echoed.get() < total && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            run.sample();
+
+            JSONObject window = new JSONObject();
+            window.put("packets", service.getShell(sessionId).getInputWriter().getPackets());
+            window.put("sendCalls", total / chunkBytes);
+            window.put("refused", refused);
+            window.put("echoed", echoed.get());
+            window.put("mbPerSecond", total / 1048576.0 / seconds);
+            window.put("sendLatencyMs", latency(sendLatency));
+            result.put("coalesce" + coalesceMillis + "ms", window);
+
+            charsBySession.remove(sessionId);
+            service.sendToShell(sessionId, "\u0003");
+            service.shutdown();
+        }
+
+        JSONObject summary = run.finish();
+        for (String key : summary.keySet()) {
+            result.put(key, summary.get(key));
+        }
+        result.put("bytes", total);
+        result.put("chunkBytes", chunkBytes);
+        report(result);
+    }
+
+    /**
+     * Runs `yes` until megabytes of output have been emitted, rendered by a consumer
+     * that only manages renderMBps (a busy WebView), then presses Ctrl-C. Reports the
+     * peak backlog between native and the consumer, heap, and how long the ^C took to
+     * show up, once without and once with flow control.
+     */
+    void burst(int megabytes, double renderMBps) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "burst");
+        result.put("megabytes", megabytes);
+        result.put("renderMBps", renderMBps);
+        long target = megabytes * 1024L * 1024L;
+
+        for (boolean flowControl : new boolean[] { false, true }) {
+            Run run = new Run("burst");
+            SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+            String sessionId = connect(service);
+
+            java.util.concurrent.LinkedBlockingQueue<String> backlog = new java.util.concurrent.LinkedBlockingQueue<>();
+            AtomicLong emitted = new AtomicLong();
+            AtomicLong queued = new AtomicLong();
+            AtomicLong peakQueued = new AtomicLong();
+            AtomicLong ctrlCShownNanos = new AtomicLong();
+            sinks.put(sessionId, new SessionBridge() {
+                @Override
+                public void emit(String event, JSONObject data) {
+                    if (!"shellOutput".equals(event)) {
+                        return;
+                    }
+                    String output = data.getString("output");
+                    emitted.addAndGet(output.length());
+                    long now = queued.addAndGet(output.length());
+                    if (now > peakQueued.get()) {
+                        peakQueued.set(now);
+                    }
+                    backlog.add(output);
+                }
+            });
+
+            Thread consumer = new Thread(() -> {
+                long unacked = 0;
+                try {
+                    while (true) {
+                        String output = backlog.take();
+                        java.util.concurrent.locks.LockSupport.parkNanos((long) (output.length() / (renderMBps * 1048576) * 1e9));
+                        queued.addAndGet(-output.length());
+                        if (output.contains("^C")) {
+                            ctrlCShownNanos.set(System.nanoTime());
+                        }
+                        unacked += output.length();
+                        // Acks are batched like useSSH does
+                        if (flowControl && (unacked >= 64 * 1024 || backlog.isEmpty())) {
+                            service.ackShellOutput(sessionId, unacked);
+                            unacked = 0;
+                        }
+                    }
+                } catch (Exception e) {
+                    // Stopped
+                }
+            }, "burst-consumer");
+            consumer.start();
+
+            service.startShell(sessionId, 256 * 1024, flowControl);
+            service.sendToShell(sessionId, "yes\n");
+            long start = System.nanoTime();
+            long deadline = System.currentTimeMillis() + 120_000;
+            while (emitted.get() < target && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                run.sample();
+            }
+
+            long ctrlC = System.nanoTime();
+            service.sendToShell(sessionId, "\u0003");
+            while (ctrlCShownNanos.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                run.sample();
+            }
+
+            JSONObject mode = run.finish();
+            mode.remove("scenario");
+            mode.put("emittedMb", emitted.get() / 1048576.0);
+            mode.put("burstSeconds", (ctrlC - start) / 1e9);
+            mode.put("peakBacklogMb", peakQueued.get() / 1048576.0);
+            mode.put("ctrlCToScreenMs", ctrlCShownNanos.get() == 0 ? -1 : (ctrlCShownNanos.get() - ctrlC) / 1e6);
+            mode.put("flowPauses", service.getShell(sessionId).getFlowPauses());
+            result.put(flowControl ? "flowControl" : "noFlowControl", mode);
+
+            consumer.interrupt();
+            sinks.remove(sessionId);
+            service.shutdown();
+        }
+        report(result);
+    }
+
+    /**
+     * Streams the same output once as "shellOutput" events and once over the binary
+     * stream socket. The events path includes serializing each event to JSON, which is
+     * what the Capacitor bridge does before handing it to the WebView; the binary path
+     * includes a real WebSocket client reading the frames. CPU is the whole process
+     * (server included), so compare the two modes rather than read the absolute value.
+     */
+    void transport(long megabytes) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "transport");
+        result.put("megabytes", megabytes);
+        long bytes = megabytes * 1024 * 1024;
+        com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        for (boolean binary : new boolean[] { false, true }) {
+            Run run = new Run("transport");
+            SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+            String sessionId = connect(service);
+            AtomicLong delivered = new AtomicLong();
+            AtomicLong wireBytes = new AtomicLong();
+            sinks.put(sessionId, new SessionBridge() {
+                @Override
+                public void emit(String event, JSONObject data) {
+                    if ("shellOutput".equals(event)) {
+                        wireBytes.addAndGet(data.toString().length());
+                        delivered.addAndGet(data.getString("output").length());
+                    }
+                }
+            });
+
+            java.net.http.WebSocket socket = null;
+            if (binary) {
+                java.net.URI uri = java.net.URI.create(service.openStreamTransport().getUrl());
+                socket = java.net.http.HttpClient.newHttpClient().newWebSocketBuilder()
+                    .buildAsync(uri, new java.net.http.WebSocket.Listener() {
+                        private boolean first = true;
+                        private int skip;
+
+                        @Override
+                        public java.util.concurrent.CompletionStage<?> onBinary(java.net.http.WebSocket webSocket,
+                                                                                java.nio.ByteBuffer data, boolean last) {
+                            int length = data.remaining();
+                            wireBytes.addAndGet(length);
+                            if (first) {
+                                skip = 1 + (data.get(data.position()) & 0xFF);
+                            }
+                            int header = Math.min(skip, length);
+                            skip -= header;
+                            delivered.addAndGet(length - header);
+                            first = last;
+                            webSocket.request(1);
+                            return null;
+                        }
+                    }).get(10, TimeUnit.SECONDS);
+                // Wait for the server side of the handshake
+                long ready = System.currentTimeMillis() + 5000;
+                while (!service.openStreamTransport().hasClient() && System.currentTimeMillis() < ready) {
+                    Thread.sleep(5);
+                }
+            }
+
+            service.startShell(sessionId, 4 * 1024 * 1024, false, binary);
+            Thread.sleep(200);
+            delivered.set(0);
+            wireBytes.set(0);
+
+            long cpuBefore = os.getProcessCpuTime();
+            long start = System.nanoTime();
+            service.sendToShell(sessionId, "stream " + bytes + "\n");
+            long deadline = System.currentTimeMillis() + Math.max(60_000, megabytes * 1000);
+            while (delivered.get() < bytes && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                run.sample();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double cpuMillis = (os.getProcessCpuTime() - cpuBefore) / 1e6;
+            double mb = delivered.get() / 1048576.0;
+
+            JSONObject mode = run.finish();
+            mode.remove("scenario");
+            mode.put("deliveredMb", mb);
+            mode.put("seconds", seconds);
+            mode.put("mbPerSecond", mb / seconds);
+            mode.put("cpuMsPerMb", cpuMillis / mb);
+            mode.put("wireBytesPerByte", wireBytes.get() / (double) Math.max(1, delivered.get()));
+            result.put(binary ? "binary" : "events", mode);
+
+            if (socket != null) {
+                socket.abort();
+            }
+            sinks.remove(sessionId);
+            service.shutdown();
+        }
+        report(result);
+    }
+
+    /**
+     * Time to complete a large `stream` exec (a `cat` of ls-like output) through a
+     * proxy capped at each rate (0 = unthrottled loopback), with compression off, on,
+     * and auto. Auto runs twice against one profile store: the first connect has
+     * nothing to go on, the second uses what the first measured. The sample text is
+     * very repetitive, so the compressed numbers are a best case.
+     */
+    void compression(int megabytes, String ratesKBps) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "compression");
+        result.put("megabytes", megabytes);
+        long bytes = megabytes * 1024L * 1024L;
+        com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        for (String rateText : ratesKBps.split(",")) {
+            long rate = Long.parseLong(rateText.trim()) * 1024;
+            JSONObject byMode = new JSONObject();
+            try (com.example.mobiletemplate.ThrottledProxy proxy =
+                     new com.example.mobiletemplate.ThrottledProxy(server.getHost(), server.getPort(), rate)) {
+                final String[] saved = new String[1];
+                com.example.mobiletemplate.HostProfileStore profiles = new com.example.mobiletemplate.HostProfileStore(
+                    new com.example.mobiletemplate.KeyMetadataStore.Storage() {
+                        @Override
+                        public String load() {
+                            return saved[0];
+                        }
+
+                        @Override
+                        public void save(String json) {
+                            saved[0] = json;
+                        }
+                    });
+                String[] runs = { "off", "on", "auto", "auto" };
+                for (int i = 0; i < runs.length; i++) {
+                    SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+                    service.setHostProfileStore(profiles);
+                    String sessionId = service.connectWithPassword(proxy.getHost(), proxy.getPort(),
+                        EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD,
+                        com.example.mobiletemplate.CompressionAdvisor.Mode.parse(runs[i]));
+
+                    long cpuBefore = os.getProcessCpuTime();
+                    long start = System.nanoTime();
+                    int received = service.executeCommand(sessionId, "stream " + bytes).length();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+
+                    JSONObject run = new JSONObject();
+                    run.put("seconds", seconds);
+                    run.put("cpuMs", (os.getProcessCpuTime() - cpuBefore) / 1e6);
+                    run.put("received", received);
+                    run.put("compressed", service.isCompressionOffered(sessionId));
+                    run.put("linkKBps", service.getCompressionAdvisor(sessionId).getThroughputBytesPerSec() / 1024);
+                    byMode.put(i == 3 ? "autoSecondConnect" : runs[i], run);
+                    service.shutdown();
+                }
+            }
+            result.put(rate > 0 ? rateText.trim() + "KBps" : "unthrottled", byMode);
+        }
+        report(result);
+    }
+
+    /**
+     * The first connect of a process is what the warm-up is for, so every sample is a
+     * fresh JVM (the embedded server would otherwise have initialized the crypto already).
+     * Warm runs let the warm-up finish first, as it does while the host list is on screen.
+     */
+    void coldStart(int runs) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "coldstart");
+        result.put("runs", runs);
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (String mode : new String[] { "cold", "warm" }) {
+            LatencyHistogram firstConnect = new LatencyHistogram();
+            LatencyHistogram warmup = new LatencyHistogram();
+            for (int i = 0; i < runs; i++) {
+                Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    LoadScenarios.class.getName(), resultsDir.getPath(), "firstConnect",
+                    "host=" + server.getHost(), "port=" + server.getPort(), "warm=" + mode.equals("warm"))
+                    .redirectErrorStream(true).start();
+                String output = new String(child.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+                if (child.waitFor() != 0) {
+                    throw new IOException("firstConnect failed: " + output);
+                }
+                JSONObject sample = new JSONObject(output.substring(output.lastIndexOf('\n') + 1));
+                firstConnect.recordNanos(sample.getLong("firstConnectNanos"));
+                if (sample.getLong("warmupNanos") >= 0) {
+                    warmup.recordNanos(sample.getLong("warmupNanos"));
+                }
+            }
+            JSONObject byMode = new JSONObject();
+            byMode.put("firstConnect", latency(firstConnect));
+            if (warmup.getCount() > 0) {
+                byMode.put("warmup", latency(warmup));
+            }
+            result.put(mode, byMode);
+        }
+        report(result);
+    }
+
+    /**
+     * The same samples two ways: a status widget's poll (an exec of cat and df per
+     * interval, as it would be written) and a monitor. Host cost is the CPU of the
+     * processes the embedded server ran, read from this JVM's waited-for children;
+     * device cost is the CPU of this process, which also serves the channels.
+     */
+    void monitor(int seconds, int intervalMs) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "monitor");
+        result.put("seconds", seconds);
+        result.put("intervalMs", intervalMs);
+        com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        java.util.List<String> all = java.util.Arrays.asList(com.example.mobiletemplate.HostMonitor.CPU,
+            com.example.mobiletemplate.HostMonitor.MEMORY, com.example.mobiletemplate.HostMonitor.LOAD,
+            com.example.mobiletemplate.HostMonitor.DISK);
+
+        for (String mode : new String[] { "poll", "monitor" }) {
+            SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+            String sessionId = connect(service);
+            long events = bridgeEvents.get();
+            long cpuBefore = os.getProcessCpuTime();
+            long childBefore = childCpuMillis();
+            long deadline = System.currentTimeMillis() + seconds * 1000L;
+            int samples = 0;
+            if (mode.equals("poll")) {
+                while (System.currentTimeMillis() < deadline) {
+                    service.executeCommand(sessionId, "sh -c 'cat /proc/stat /proc/meminfo /proc/loadavg; df -kP /'");
+                    samples++;
+                    Thread.sleep(intervalMs);
+                }
+            } else {
+                String monitorId = service.startMonitor(sessionId, intervalMs, all);
+                Thread.sleep(Math.max(0, deadline - System.currentTimeMillis()));
+                samples = (int) service.findMonitor(monitorId).getTicks();
+                service.stopMonitor(monitorId);
+            }
+            JSONObject run = new JSONObject();
+            run.put("samples", samples);
+            run.put("deviceCpuMs", (os.getProcessCpuTime() - cpuBefore) / 1e6);
+            run.put("bridgeEvents", bridgeEvents.get() - events);
+            service.shutdown();
+            // Lets the monitor's sh see the closed channel and be reaped
+            Thread.sleep(intervalMs * 2L);
+            run.put("hostCpuMs", childCpuMillis() - childBefore);
+            result.put(mode, run);
+        }
+        report(result);
+    }
+
+    /**
+     * Types into N shells at once through one sendToShells per keystroke, timing the
+     * call itself and the time until the last shell has echoed the key back.
+     */
+    void broadcast(String sessionCounts, int keystrokes) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "broadcast");
+        result.put("keystrokes", keystrokes);
+        for (String countText : sessionCounts.split(",")) {
+            int count = Integer.parseInt(countText.trim());
+            SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+            List<String> sessionIds = new ArrayList<>();
+            List<AtomicLong> echoed = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String sessionId = connect(service);
+                AtomicLong chars = new AtomicLong();
+                sinks.put(sessionId, new SessionBridge() {
+                    @Override
+                    public void emit(String event, JSONObject data) {
+                        if ("shellOutput".equals(event)) {
+                            chars.addAndGet(data.getString("output").length());
+                        }
+                    }
+                });
+                service.startShell(sessionId, 64 * 1024);
+                sessionIds.add(sessionId);
+                echoed.add(chars);
+            }
+            // Past the prompts
+            Thread.sleep(500);
+            long[] base = new long[count];
+            for (int i = 0; i < count; i++) {
+                base[i] = echoed.get(i).get();
+            }
+
+            LatencyHistogram fanOut = new LatencyHistogram();
+            LatencyHistogram lastEcho = new LatencyHistogram();
+            int failures = 0;
+            for (int k = 1; k <= keystrokes; k++) {
+                long start = System.nanoTime();
+                SshSessionService.BroadcastResult sent = service.sendToShells(sessionIds, "a");
+                fanOut.recordNanos(System.nanoTime() - start);
+                failures += sent.failed.size() + sent.refused.size();
+                for (int i = 0; i < count; i++) {
+                    while (echoed.get(i).get() < base[i] + k) {
+                        java.util.concurrent.locks.LockSupport.parkNanos(20_000);
+                    }
+                }
+                lastEcho.recordNanos(System.nanoTime() - start);
+                // Typing speed, not a paste
+                Thread.sleep(10);
+            }
+
+            JSONObject run = new JSONObject();
+            run.put("fanOutMs", latency(fanOut));
+            run.put("lastEchoMs", latency(lastEcho));
+            run.put("failures", failures);
+            result.put(String.valueOf(count), run);
+            for (String sessionId : sessionIds) {
+                sinks.remove(sessionId);
+            }
+            service.shutdown();
+        }
+        report(result);
+    }
+
+    /**
+     * Writes interleaved timestamped logs to one file per host, then tails them all from
+     * their start through the merger: end-to-end merged lines per second and device CPU.
+     */
+    void tail(int hosts, int linesPerHost) throws Exception {
+        com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        List<File> files = new ArrayList<>();
+        for (int h = 0; h < hosts; h++) {
+            File file = File.createTempFile("tail-" + h, ".log");
+            file.deleteOnExit();
+            try (java.io.Writer out = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                for (int i = 0; i < linesPerHost; i++) {
+                    // Hosts interleave: line i of every host falls in the same millisecond window
+                    long millis = 1705052467000L + i * 3L + h;
+                    out.write(new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", java.util.Locale.ROOT)
+                        .format(new java.util.Date(millis)));
+                    out.write(" INFO [worker-" + h + "] request GET /api/v1/items?page=" + i + " 200 in 13ms\n");
+                }
+            }
+            files.add(file);
+        }
+
+        AtomicLong received = new AtomicLong();
+        AtomicLong outOfOrder = new AtomicLong();
+        AtomicLong events = new AtomicLong();
+        SshSessionService service = new SshSessionService(new SessionBridge() {
+            private long last = Long.MIN_VALUE;
+
+            @Override
+            public void emit(String event, JSONObject data) {
+                if (!"tailLines".equals(event)) {
+                    return;
+                }
+                events.incrementAndGet();
+                org.json.JSONArray lines = data.getJSONArray("lines");
+                for (int i = 0; i < lines.length(); i++) {
+                    long time = lines.getJSONArray(i).getLong(1);
+                    if (time < last) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    last = time;
+                }
+                received.addAndGet(lines.length());
+            }
+        }, new PluginMetrics());
+        List<com.example.mobiletemplate.LogTailMerger.Source> sources = new ArrayList<>();
+        for (int h = 0; h < hosts; h++) {
+            sources.add(new com.example.mobiletemplate.LogTailMerger.Source(connect(service), files.get(h).getPath(),
+                "host" + h));
+        }
+
+        long total = (long) hosts * linesPerHost;
+        long cpuBefore = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        String tailId = service.startTailMerge(sources,
+            com.example.mobiletemplate.LogTimestamps.builtIn(java.util.Collections.<String>emptyList(),
+                java.util.TimeZone.getTimeZone("UTC")),
+            null, linesPerHost, 1000, 100, 500);
+        long deadline = System.currentTimeMillis() + 120_000;
+        while (received.get() < total && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double cpuMs = (os.getProcessCpuTime() - cpuBefore) / 1e6;
+        com.example.mobiletemplate.LogTailMerger merger = service.findTailMerge(tailId);
+
+        JSONObject result = new JSONObject();
+        result.put("scenario", "tail");
+        result.put("hosts", hosts);
+        result.put("lines", total);
+        result.put("received", received.get());
+        result.put("seconds", seconds);
+        result.put("linesPerSecond", received.get() / seconds);
+        result.put("deviceCpuMicrosPerLine", cpuMs * 1000 / Math.max(1, received.get()));
+        result.put("events", events.get());
+        result.put("outOfOrder", outOfOrder.get());
+        result.put("late", merger.getLate());
+        service.shutdown();
+        report(result);
+    }
+
+    /**
+     * hosts names, all the loopback address: two in three on the SSH server, the rest on a
+     * closed port. The prober's results as they arrive, against a pool of maxConcurrent
+     * threads each doing a blocking connect and banner read.
+     */
+    void probe(int hosts, int maxConcurrent) throws Exception {
+        java.net.ServerSocket closed = new java.net.ServerSocket(0, 1, java.net.InetAddress.getLoopbackAddress());
+        final int closedPort = closed.getLocalPort();
+        closed.close();
+        final List<java.net.InetSocketAddress> targets = new ArrayList<>();
+        for (int i = 0; i < hosts; i++) {
+            targets.add(java.net.InetSocketAddress.createUnresolved("host" + i, i % 3 == 2 ? closedPort : server.getPort()));
+        }
+        final com.example.mobiletemplate.DnsCache.Resolver loopback = new com.example.mobiletemplate.DnsCache.Resolver() {
+            @Override
+            public com.example.mobiletemplate.DnsCache.Answer resolve(String hostname) {
+                return new com.example.mobiletemplate.DnsCache.Answer(
+                    new java.net.InetAddress[] {java.net.InetAddress.getLoopbackAddress()}, 60_000);
+            }
+        };
+
+        JSONObject result = new JSONObject();
+        result.put("scenario", "probe");
+        result.put("hosts", hosts);
+        result.put("maxConcurrent", maxConcurrent);
+        for (String mode : new String[] {"selector", "threads"}) {
+            final LatencyHistogram latency = new LatencyHistogram();
+            final AtomicInteger up = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(hosts);
+            final long start = System.nanoTime();
+            int threadsBefore = threads.getThreadCount();
+            SshSessionService service = null;
+            ExecutorService pool = null;
+            if (mode.equals("selector")) {
+                service = new SshSessionService(new SessionBridge() {
+                    @Override
+                    public void emit(String event, JSONObject data) {
+                        if ("hostProbe".equals(event)) {
+                            latency.recordNanos(System.nanoTime() - start);
+                            if ("up".equals(data.getString("status"))) {
+                                up.incrementAndGet();
+                            }
+                            done.countDown();
+                        }
+                    }
+                }, new PluginMetrics());
+                service.getHappyEyeballs().getDnsCache().setResolver(loopback);
+                service.setProbeLimits(maxConcurrent, 3000, 0);
+                service.probeHosts(targets);
+            } else {
+                pool = Executors.newFixedThreadPool(maxConcurrent);
+                for (final java.net.InetSocketAddress target : targets) {
+                    pool.execute(() -> {
+                        try (java.net.Socket socket = new java.net.Socket()) {
+                            socket.connect(new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(),
+                                target.getPort()), 3000);
+                            socket.setSoTimeout(3000);
+                            String line = new java.io.BufferedReader(new java.io.InputStreamReader(
+                                socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+                            if (line != null && line.startsWith("SSH-")) {
+                                up.incrementAndGet();
+                            }
+                        } catch (IOException ignored) {
+                            // Refused: counted as a result all the same
+                        }
+                        latency.recordNanos(System.nanoTime() - start);
+                        done.countDown();
+                    });
+                }
+            }
+            int peakThreads = 0;
+            while (!done.await(5, TimeUnit.MILLISECONDS)) {
+                peakThreads = Math.max(peakThreads, threads.getThreadCount() - threadsBefore);
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            if (service != null) {
+                service.shutdown();
+            }
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            JSONObject run = new JSONObject();
+            run.put("totalMs", millis);
+            run.put("up", up.get());
+            run.put("extraThreads", peakThreads);
+            run.put("resultMs", latency(latency));
+            result.put(mode, run);
+        }
+        report(result);
+    }
+
+    /**
+     * Types command lines at a steady pace through a proxy that delays each direction,
+     * as over a satellite or congested mobile link. A key counts as seen once that many
+     * printable characters of the line are on screen: erasures from wrong guesses are
+     * taken back, so a prediction that is undone doesn't count twice.
+     */
+    void echo(int delayMs, int keystrokes, int intervalMs) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("scenario", "echo");
+        result.put("oneWayDelayMs", delayMs);
+        result.put("keystrokes", keystrokes);
+        result.put("intervalMs", intervalMs);
+        String words = "echo the quick brown fox jumps";
+        try (com.example.mobiletemplate.ThrottledProxy proxy =
+                 new com.example.mobiletemplate.ThrottledProxy(server.getHost(), server.getPort(), 0)) {
+            proxy.setDelayMillis(delayMs);
+            for (String mode : new String[] { "off", "on" }) {
+                SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+                String sessionId = service.connectWithPassword(proxy.getHost(), proxy.getPort(),
+                    EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+                final LatencyHistogram seen = new LatencyHistogram();
+                final long[] sentAt = new long[words.length()];
+                // visible, line start, keys typed on the line, keys seen on the line
+                final int[] screen = new int[4];
+                sinks.put(sessionId, new SessionBridge() {
+                    @Override
+                    public void emit(String event, JSONObject data) {
+                        if (!"shellOutput".equals(event)) {
+                            return;
+                        }
+                        long now = System.nanoTime();
+                        String output = data.getString("output");
+                        synchronized (screen) {
+                            for (int i = 0; i < output.length(); i++) {
+                                char c = output.charAt(i);
+                                if (c == 0x1b && i + 1 < output.length() && output.charAt(i + 1) == '[') {
+                                    int end = i + 2;
+                                    while (end < output.length() && (output.charAt(end) < 0x40 || output.charAt(end) > 0x7e)) {
+                                        end++;
+                                    }
+                                    if (end < output.length() && output.charAt(end) == 'D') {
+                                        String count = output.substring(i + 2, end);
+                                        screen[0] -= count.isEmpty() ? 1 : Integer.parseInt(count);
+                                    }
+                                    i = end;
+                                } else if (c >= 0x20 && c != 0x7f) {
+                                    screen[0]++;
+                                }
+                            }
+                            while (screen[3] < screen[2] && screen[3] < screen[0] - screen[1]) {
+                                seen.recordNanos(now - sentAt[screen[3]]);
+                                screen[3]++;
+                            }
+                        }
+                    }
+                });
+                service.startShell(sessionId, 64 * 1024);
+                if (mode.equals("on")) {
+                    service.setLocalEcho(sessionId, true,
+                        com.example.mobiletemplate.LocalEchoPredictor.DEFAULT_DISPLAY_THRESHOLD_MILLIS);
+                }
+                Thread.sleep(4L * delayMs + 200);
+
+                int typed = 0;
+                while (typed < keystrokes) {
+                    synchronized (screen) {
+                        screen[1] = screen[0];
+                        screen[2] = 0;
+                        screen[3] = 0;
+                    }
+                    for (int i = 0; i < words.length() && typed < keystrokes; i++, typed++) {
+                        synchronized (screen) {
+                            sentAt[i] = System.nanoTime();
+                            screen[2]++;
+                        }
+                        service.sendToShell(sessionId, String.valueOf(words.charAt(i)));
+                        Thread.sleep(intervalMs);
+                    }
+                    // Past the command's output and the next prompt
+                    Thread.sleep(2L * delayMs + 100);
+                    service.sendToShell(sessionId, "\r");
+                    Thread.sleep(4L * delayMs + 200);
+                }
+
+                JSONObject run = new JSONObject();
+                run.put("seenMs", latency(seen));
+                if (mode.equals("on")) {
+                    run.put("predictions", new JSONObject(service.getLocalEchoStats()));
+                }
+                result.put(mode, run);
+                sinks.remove(sessionId);
+                service.shutdown();
+            }
+        }
+        report(result);
+    }
+
+    /**
+     * The same maintenance script, padded with comments to the given size, run over a
+     * slow link: inline in each exec, then through runScript (the first run uploads it,
+     * the next ones run it by hash without a check). The script cache is a temporary
+     * directory, as the embedded server runs sh on this machine.
+     */
+    void script(int kilobytes, int runs, int delayMs, int rateKBps) throws Exception {
+        StringBuilder script = new StringBuilder();
+        String padding = "# rotate, vacuum, report and the like\n";
+        while (script.length() < kilobytes * 1024) {
+            script.append(padding);
+        }
+        script.append("echo done\n");
+        File directory = java.nio.file.Files.createTempDirectory("scripts").toFile();
+
+        JSONObject result = new JSONObject();
+        result.put("scenario", "script");
+        result.put("kilobytes", kilobytes);
+        result.put("oneWayDelayMs", delayMs);
+        result.put("rateKBps", rateKBps);
+        try (com.example.mobiletemplate.ThrottledProxy proxy = new com.example.mobiletemplate.ThrottledProxy(
+                 server.getHost(), server.getPort(), rateKBps * 1024L)) {
+            proxy.setDelayMillis(delayMs);
+            final java.util.concurrent.LinkedBlockingQueue<JSONObject> exits = new java.util.concurrent.LinkedBlockingQueue<>();
+            SshSessionService service = new SshSessionService(new SessionBridge() {
+                @Override
+                public void emit(String event, JSONObject data) {
+                    if ("scriptExit".equals(event)) {
+                        exits.add(data);
+                    }
+                }
+            }, new PluginMetrics());
+            service.getRemoteScripts().setDirectory(directory.getPath());
+            String sessionId = service.connectWithPassword(proxy.getHost(), proxy.getPort(),
+                EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+
+            // Linux refuses a single argument over 128 KB (MAX_ARG_STRLEN): there is no inline run to time
+            boolean fitsInline = script.length() < 128 * 1024 - 64;
+            LatencyHistogram inline = new LatencyHistogram();
+            for (int i = 0; fitsInline && i < runs; i++) {
+                long start = System.nanoTime();
+                service.executeCommand(sessionId, "sh -c '" + script + "'");
+                inline.recordNanos(System.nanoTime() - start);
+            }
+            LatencyHistogram first = new LatencyHistogram();
+            LatencyHistogram cached = new LatencyHistogram();
+            for (int i = 0; i <= runs; i++) {
+                long start = System.nanoTime();
+                service.runScript(sessionId, script.toString(), new ArrayList<String>());
+                JSONObject exit = exits.poll(60, TimeUnit.SECONDS);
+                if (exit == null || exit.getInt("exitStatus") != 0) {
+                    throw new IOException("Script run failed: " + exit);
+                }
+                (i == 0 ? first : cached).recordNanos(System.nanoTime() - start);
+            }
+            if (fitsInline) {
+                result.put("inlineMs", latency(inline));
+            }
+            result.put("firstRunMs", latency(first));
+            result.put("indexedRunMs", latency(cached));
+            result.put("stats", new JSONObject(service.getRemoteScripts().getStats()));
+            service.shutdown();
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+        report(result);
+    }
+
+    /** CPU of this process's terminated, waited-for children (cutime + cstime), Linux only. */
+    private static long childCpuMillis() throws IOException {
+        String stat = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get("/proc/self/stat")),
+            StandardCharsets.US_ASCII);
+        // Fields after the parenthesized command name, which may contain spaces
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        // USER_HZ is 100 on every Linux this runs on
+        return (Long.parseLong(fields[13]) + Long.parseLong(fields[14])) * 10;
+    }
+
+    private static void firstConnect(String host, int port, boolean warm) throws Exception {
+        SshSessionService service = new SshSessionService(new SessionBridge() {
+            @Override
+            public void emit(String event, JSONObject data) {
+            }
+        }, new PluginMetrics());
+        if (warm) {
+            service.startWarmup();
+            service.getWarmup().awaitReady();
+        }
+        service.connectWithPassword(host, port, EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+        JSONObject sample = new JSONObject();
+        sample.put("firstConnectNanos", service.getWarmup().getFirstConnectNanos());
+        sample.put("warm", service.getWarmup().isFirstConnectWarm());
+        sample.put("warmupNanos", warm ? service.getWarmup().getWarmupNanos() : -1);
+        System.out.println(sample);
+        service.shutdown();
+    }
+
+    private String connect(SshSessionService service) throws IOException, SessionException {
+        return service.connectWithPassword(server.getHost(), server.getPort(),
+            EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+    }
+
+    private static JSONObject latency(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("p50", histogram.getPercentileMicros(50) / 1000.0);
+        json.put("p90", histogram.getPercentileMicros(90) / 1000.0);
+        json.put("p99", histogram.getPercentileMicros(99) / 1000.0);
+        json.put("max", histogram.getMaxMicros() / 1000.0);
+        return json;
+    }
+
+    private void report(JSONObject result) throws IOException {
+        String text = result.toString(2);
+        System.out.println(text);
+        resultsDir.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(new File(resultsDir, result.getString("scenario") + ".json"))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Thread and heap bookkeeping for one scenario. */
+    private class Run {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private final int threadsBefore;
+        private final long heapBefore;
+        private final AtomicInteger peakThreads = new AtomicInteger();
+        private final AtomicLong peakHeap = new AtomicLong();
+
+        Run(String name) {
+            this.name = name;
+            System.gc();
+            threadsBefore = threads.getThreadCount();
+            heapBefore = memory.getHeapMemoryUsage().getUsed();
+        }
+
+        void sample() {
+            int threadCount = threads.getThreadCount();
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            int previousThreads;
+            while (threadCount > (previousThreads = peakThreads.get()) && !peakThreads.compareAndSet(previousThreads, threadCount)) {
+                // retry
+            }
+            long previousHeap;
+            while (heap > (previousHeap = peakHeap.get()) && !peakHeap.compareAndSet(previousHeap, heap)) {
+                // retry
+            }
+        }
+
+        long elapsedMillis() {
+            return Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        }
+
+        JSONObject finish() {
+            sample();
+            long elapsed = elapsedMillis();
+            // Heap that survives a GC while the sessions are still open
+            System.gc();
+            JSONObject result = new JSONObject();
+            result.put("scenario", name);
+            result.put("elapsedMs", elapsed);
+            result.put("threadsBefore", threadsBefore);
+            result.put("threadsPeak", peakThreads.get());
+            result.put("heapBeforeMb", heapBefore / 1048576.0);
+            result.put("heapPeakMb", peakHeap.get() / 1048576.0);
+            result.put("heapRetainedGrowthMb", (memory.getHeapMemoryUsage().getUsed() - heapBefore) / 1048576.0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.mobiletemplate;
+
+/**
+ * Decides whether a connection should use zlib@openssh.com compression from what
+ * the link looks like: the TCP connect time (about one RTT) and the throughput of
+ * bulk transfers measured on the raw socket.
+ *
+ * Compression only pays off when the link, not the CPU, is the bottleneck. zlib
+ * on a phone runs at tens of MB/s, so below ~1 MiB/s of wire throughput it wins
+ * for terminal text; above ~4 MiB/s it mostly burns CPU. Between the two the
+ * current setting is kept so the decision doesn't flap.
+ */
+public class CompressionAdvisor {
+
+    public enum Mode {
+        OFF, ON, AUTO;
+
+        /** "off" / "on" / "auto", anything else is OFF. */
+        public static Mode parse(String value) {
+            if ("on".equals(value)) {
+                return ON;
+            }
+            if ("auto".equals(value)) {
+                return AUTO;
+            }
+            return OFF;
+        }
+    }
+
+    public interface Listener {
+        void onRecommendationChanged(boolean compress);
+    }
+
+    public static final long COMPRESS_BELOW_BYTES_PER_SEC = 1024 * 1024;
+    public static final long UNCOMPRESS_ABOVE_BYTES_PER_SEC = 4 * 1024 * 1024;
+    // Without a throughput sample, a slow handshake is the only hint (cellular, far away)
+    public static final long COMPRESS_ABOVE_RTT_NANOS = 120_000_000L;
+    // Reads further apart than this end a burst; bursts smaller than MIN_BURST_BYTES are interactive.
+    // Long transfers are sampled every SAMPLE_WINDOW_NANOS instead of once at the end.
+    static final long BURST_GAP_NANOS = 100_000_000L;
+    static final long SAMPLE_WINDOW_NANOS = 1_000_000_000L;
+    static final long MIN_BURST_BYTES = 256 * 1024;
+
+    private final String host;
+    private final int port;
+    private final Mode mode;
+    private volatile Listener listener;
+
+    private long rttNanos = -1;
+    // Exponentially weighted, so one odd burst doesn't flip the decision
+    private double throughput = -1;
+    private int samples;
+    private boolean compress;
+
+    private long burstStartNanos;
+    private long lastReadNanos;
+    private long burstBytes;
+
+    public CompressionAdvisor(String host, int port, Mode mode) {
+        this.host = host;
+        this.port = port;
+        this.mode = mode;
+        this.compress = mode == Mode.ON;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Starts from what an earlier connection to this host learned. */
+    public synchronized void seed(HostProfileStore.Profile profile) {
+        if (profile == null) {
+            return;
+        }
+        if (profile.throughputBytesPerSec > 0) {
+            throughput = profile.throughputBytesPerSec;
+        }
+        if (mode == Mode.AUTO) {
+            compress = profile.compression;
+        }
+    }
+
+    public synchronized void recordRtt(long nanos) {
+        rttNanos = nanos;
+    }
+
+    /** Called for every read on the raw socket (after compression, before decryption). */
+    public void onWireRead(int bytes, long nowNanos) {
+        Boolean changed = null;
+        synchronized (this) {
+            if (lastReadNanos == 0 || nowNanos - lastReadNanos > BURST_GAP_NANOS) {
+                changed = closeBurst();
+                burstStartNanos = nowNanos;
+                burstBytes = 0;
+            }
+            burstBytes += bytes;
+            lastReadNanos = nowNanos;
+            if (nowNanos - burstStartNanos >= SAMPLE_WINDOW_NANOS && burstBytes >= MIN_BURST_BYTES) {
+                changed = closeBurst();
+                burstStartNanos = nowNanos;
+                burstBytes = 0;
+            }
+        }
+        notifyChange(changed);
+    }
+
+    /** Ends the current burst, e.g. when the transfer is known to be complete. */
+    public void flush() {
+        Boolean changed;
+        synchronized (this) {
+            changed = closeBurst();
+            burstBytes = 0;
+            lastReadNanos = 0;
+        }
+        notifyChange(changed);
+    }
+
+    private Boolean closeBurst() {
+        long duration = lastReadNanos - burstStartNanos;
+        if (burstBytes < MIN_BURST_BYTES || duration <= 0) {
+            return null;
+        }
+        double sample = burstBytes * 1e9 / duration;
+        throughput = throughput < 0 ? sample : throughput * 0.7 + sample * 0.3;
+        samples++;
+        return decide();
+    }
+
+    /** Returns the new recommendation when it changed, null otherwise. */
+    private Boolean decide() {
+        boolean next = recommend();
+        if (next == compress) {
+            return null;
+        }
+        compress = next;
+        return mode == Mode.AUTO ? Boolean.valueOf(next) : null;
+    }
+
+    private boolean recommend() {
+        if (throughput >= 0) {
+            if (throughput < COMPRESS_BELOW_BYTES_PER_SEC) {
+                return true;
+            }
+            if (throughput > UNCOMPRESS_ABOVE_BYTES_PER_SEC) {
+                return false;
+            }
+            return compress;
+        }
+        return rttNanos > COMPRESS_ABOVE_RTT_NANOS;
+    }
+
+    private void notifyChange(Boolean changed) {
+        Listener current = listener;
+        if (changed != null && current != null) {
+            current.onRecommendationChanged(changed);
+        }
+    }
+
+    /**
+     * What this connection should use: the mode for OFF/ON, the learned or measured
+     * recommendation for AUTO.
+     */
+    public synchronized boolean shouldCompress() {
+        if (mode != Mode.AUTO) {
+            return mode == Mode.ON;
+        }
+        if (samples == 0 && throughput < 0) {
+            compress = recommend();
+        }
+        return compress;
+    }
+
+    /** The recommendation regardless of mode, for reporting. */
+    public synchronized boolean recommendsCompression() {
+        return recommend();
+    }
+
+    public synchronized long getRttNanos() {
+        return rttNanos;
+    }
+
+    public synchronized double getThroughputBytesPerSec() {
+        return throughput;
+    }
+
+    public synchronized int getSamples() {
+        return samples;
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.mobiletemplate;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.schmizz.sshj.SSHClient;
+
+/**
+ * Connections opened ahead of a tap, so that connect() can adopt one instead of
+ * paying DNS + TCP + KEX (and auth, when the credentials were given up front).
+ *
+ * At most maxWarm entries exist at a time, each closed after idleMillis unused.
+ * Servers drop connections that don't authenticate within their login grace time
+ * (120s for OpenSSH), so the idle expiry has to stay below that.
+ */
+public class ConnectionPrewarmer {
+    public static final int DEFAULT_MAX_WARM = 3;
+    public static final long DEFAULT_IDLE_MILLIS = 60_000;
+
+    public interface Closer {
+        void close(SSHClient ssh);
+    }
+
+    /** A warm connection, or one still being warmed. */
+    public static class Entry {
+        final String key;
+        final byte[] credentialDigest;
+        final long startNanos = System.nanoTime();
+        final CountDownLatch ready = new CountDownLatch(1);
+        volatile SSHClient ssh;
+        volatile long setupNanos;
+        ScheduledFuture<?> expiry;
+
+        Entry(String key, byte[] credentialDigest) {
+            this.key = key;
+            this.credentialDigest = credentialDigest;
+        }
+
+        public SSHClient getClient() {
+            return ssh;
+        }
+
+        /** True when the entry was authenticated with the credentials it was warmed with. */
+        public boolean isAuthenticated() {
+            return credentialDigest != null;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Closer closer;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private volatile int maxWarm = DEFAULT_MAX_WARM;
+    private volatile long idleMillis = DEFAULT_IDLE_MILLIS;
+    private long expired;
+
+    public ConnectionPrewarmer(ScheduledExecutorService scheduler, Closer closer) {
+        this.scheduler = scheduler;
+        this.closer = closer;
+    }
+
+    public void setLimits(int maxWarm, long idleMillis) {
+        this.maxWarm = maxWarm;
+        this.idleMillis = idleMillis;
+    }
+
+    /** host:port plus what changes the KEX (compression) and, if authenticated, the user. */
+    public static String key(String host, int port, CompressionAdvisor.Mode compression, String username) {
+        return host + ":" + port + "/" + compression + (username != null ? "/" + username : "");
+    }
+
+    /**
+     * Claims a slot for warming key. Returns null when the key is already warm (or
+     * warming) or all slots are taken; the caller then does nothing.
+     */
+    public synchronized Entry reserve(String key, byte[] credentialDigest) {
+        if (entries.containsKey(key) || entries.size() >= maxWarm) {
+            return null;
+        }
+        Entry entry = new Entry(key, credentialDigest);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /** The warm-up finished: the entry can be adopted until it expires. */
+    public void ready(Entry entry, SSHClient ssh) {
+        entry.ssh = ssh;
+        entry.setupNanos = System.nanoTime() - entry.startNanos;
+        synchronized (this) {
+            if (entries.get(entry.key) == entry) {
+                entry.expiry = scheduler.schedule(() -> expire(entry), idleMillis, TimeUnit.MILLISECONDS);
+                ssh = null;
+            }
+        }
+        entry.ready.countDown();
+        if (ssh != null) {
+            // Taken away (cleared) while warming
+            closer.close(ssh);
+        }
+    }
+
+    /** The warm-up failed; frees the slot. */
+    public void failed(Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.key) == entry) {
+                entries.remove(entry.key);
+            }
+        }
+        entry.ready.countDown();
+    }
+
+    private void expire(Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.key) != entry) {
+                return;
+            }
+            entries.remove(entry.key);
+            expired++;
+        }
+        closer.close(entry.ssh);
+    }
+
+    /**
+     * Removes and returns the warm connection for key, waiting up to waitMillis if it
+     * is still being warmed. An authenticated entry is only handed out for the same
+     * credentials. Returns null when there is nothing usable.
+     */
+    public Entry take(String key, byte[] credentialDigest, long waitMillis) throws InterruptedException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry.credentialDigest != null
+            && (credentialDigest == null || !MessageDigest.isEqual(entry.credentialDigest, credentialDigest))) {
+            return null;
+        }
+        if (!entry.ready.await(waitMillis, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        synchronized (this) {
+            if (entries.get(key) != entry || entry.ssh == null) {
+                return null;
+            }
+            entries.remove(key);
+            if (entry.expiry != null) {
+                entry.expiry.cancel(false);
+            }
+        }
+        if (!entry.ssh.isConnected()) {
+            closer.close(entry.ssh);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Time the adopted entry saves the connect that takes it: its whole setup, or
+     * the part already done when it is taken while still warming.
+     */
+    public static long savedNanos(Entry entry, long connectStartNanos) {
+        return Math.min(entry.setupNanos, Math.max(0, connectStartNanos - entry.startNanos));
+    }
+
+    public synchronized int getWarmCount() {
+        return entries.size();
+    }
+
+    /** Warm connections closed without being used. */
+    public synchronized long getExpiredCount() {
+        return expired;
+    }
+
+    /** Closes every warm connection; ones still warming are closed when they finish. */
+    public void clear() {
+        List<Entry> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        for (Entry entry : removed) {
+            if (entry.expiry != null) {
+                entry.expiry.cancel(false);
+            }
+            if (entry.ssh != null) {
+                closer.close(entry.ssh);
+            }
+        }
+    }
+}
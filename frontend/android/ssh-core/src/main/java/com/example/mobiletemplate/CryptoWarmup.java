@@ -0,0 +1,152 @@
+package com.example.mobiletemplate;
+
+import java.security.Security;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.schmizz.sshj.Config;
+import net.schmizz.sshj.DefaultConfig;
+import net.schmizz.sshj.common.Factory;
+import net.schmizz.sshj.transport.cipher.Cipher;
+import net.schmizz.sshj.transport.kex.Curve25519DH;
+import net.schmizz.sshj.transport.mac.MAC;
+
+/**
+ * Everything the first connect of a process would otherwise do inline: registering
+ * BouncyCastle (it builds its whole algorithm table), loading sshj's factory tables,
+ * seeding the PRNG and the first JCA lookups of the KEX, ciphers and MACs servers
+ * are likely to settle on with sshj's order of preference (see LIKELY_CIPHERS).
+ *
+ * {@link #start} runs it on a minimum priority thread; {@link #awaitReady} is what
+ * connect calls first, and runs it inline if nobody started it. The first connect is
+ * timed and reported as warm when the warm-up had finished before it began.
+ */
+public class CryptoWarmup {
+    private static final Logger LOG = Logger.getLogger("CryptoWarmup");
+    // The client's order decides: chacha20 where the server allows it, else, as OpenSSH
+    // no longer offers CBC, the first CTR or GCM one. Not simply sshj's first few, the
+    // second of which is aes128-cbc.
+    static final List<String> LIKELY_CIPHERS =
+        Arrays.asList("chacha20-poly1305@openssh.com", "aes128-ctr", "aes128-gcm@openssh.com");
+    // Only used with CTR: SHA-1 unless the server turned it off (the -etm variants share the JCA MAC)
+    static final List<String> LIKELY_MACS = Arrays.asList("hmac-sha1", "hmac-sha2-256");
+
+    private final FutureTask<Long> task = new FutureTask<>(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+            long start = System.nanoTime();
+            warmUp();
+            long nanos = System.nanoTime() - start;
+            warmupNanos = nanos;
+            return nanos;
+        }
+    });
+    private boolean started;
+    private volatile long warmupNanos = -1;
+    private long firstConnectNanos = -1;
+    private boolean firstConnectWarm;
+
+    /** Registers BouncyCastle unless it already is: Android ships a stripped-down provider under the same name. */
+    static void registerBouncyCastle() {
+        synchronized (CryptoWarmup.class) {
+            if (!(Security.getProvider("BC") instanceof org.bouncycastle.jce.provider.BouncyCastleProvider)) {
+                Security.removeProvider("BC");
+                Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+            }
+        }
+    }
+
+    static void warmUp() throws Exception {
+        registerBouncyCastle();
+        Config config = new DefaultConfig();
+        config.getRandomFactory().create().fill(new byte[16]);
+        for (Factory.Named<?> factory : config.getKeyExchangeFactories()) {
+            factory.create();
+        }
+        // The default KEX; the others only load classes until negotiated
+        new Curve25519DH().init(null, config.getRandomFactory());
+        for (Factory.Named<Cipher> cipher : config.getCipherFactories()) {
+            if (LIKELY_CIPHERS.contains(cipher.getName())) {
+                cipher.create().init(Cipher.Mode.Encrypt, new byte[64], new byte[64]);
+            }
+        }
+        for (Factory.Named<MAC> mac : config.getMACFactories()) {
+            if (LIKELY_MACS.contains(mac.getName())) {
+                mac.create().init(new byte[64]);
+            }
+        }
+        for (Factory.Named<?> factory : config.getKeyAlgorithms()) {
+            factory.create();
+        }
+        for (Factory.Named<?> factory : config.getFileKeyProviderFactories()) {
+            factory.create();
+        }
+    }
+
+    /** Starts the warm-up in the background; later calls do nothing. */
+    public void start() {
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+        }
+        Thread thread = new Thread(task, "ssh-warmup");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns once the warm-up is done, running it here when it was never started.
+     * A failed warm-up is logged, not thrown: connect then pays for it as before.
+     */
+    public void awaitReady() throws InterruptedException {
+        boolean runHere;
+        synchronized (this) {
+            runHere = !started;
+            started = true;
+        }
+        if (runHere) {
+            task.run();
+        }
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            LOG.log(Level.WARNING, "Crypto warm-up failed", e.getCause());
+            // Whatever else failed, connect needs the provider
+            registerBouncyCastle();
+        }
+    }
+
+    public boolean isReady() {
+        return task.isDone();
+    }
+
+    /** How long the warm-up took, -1 until it finished. */
+    public long getWarmupNanos() {
+        return warmupNanos;
+    }
+
+    /** Keeps the duration of the first connect only; warm tells whether the warm-up had finished before it. */
+    public synchronized void recordConnect(long nanos, boolean warm) {
+        if (firstConnectNanos < 0) {
+            firstConnectNanos = nanos;
+            firstConnectWarm = warm;
+        }
+    }
+
+    /** -1 until a connect succeeded. */
+    public synchronized long getFirstConnectNanos() {
+        return firstConnectNanos;
+    }
+
+    public synchronized boolean isFirstConnectWarm() {
+        return firstConnectWarm;
+    }
+}
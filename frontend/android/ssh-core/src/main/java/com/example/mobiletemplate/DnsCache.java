@@ -0,0 +1,125 @@
+package com.example.mobiletemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+
+/**
+ * Resolved addresses per hostname, shared by every connect of the service and kept
+ * for as long as the resolver says the answer is good. Failed lookups are not cached.
+ *
+ * The address a connect ended up using is moved to the front of the cached answer,
+ * so the next race starts with it (RFC 8305 section 4 allows history to reorder).
+ */
+public class DnsCache {
+    /** The platform resolver gives no TTL; 30s is the JVM's own positive cache default. */
+    public static final long SYSTEM_TTL_MILLIS = 30_000;
+
+    public interface Resolver {
+        /** Every A and AAAA record of hostname, in the order the system prefers them. */
+        Answer resolve(String hostname) throws UnknownHostException;
+    }
+
+    public static class Answer {
+        final InetAddress[] addresses;
+        final long ttlMillis;
+
+        public Answer(InetAddress[] addresses, long ttlMillis) {
+            this.addresses = addresses;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+    /**
+     * getaddrinfo: bionic and glibc send the A and AAAA queries in parallel and sort
+     * the result by RFC 6724.
+     */
+    public static final Resolver SYSTEM = new Resolver() {
+        @Override
+        public Answer resolve(String hostname) throws UnknownHostException {
+            return new Answer(InetAddress.getAllByName(hostname), SYSTEM_TTL_MILLIS);
+        }
+    };
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long expiresAtNanos;
+
+        Entry(InetAddress[] addresses, long expiresAtNanos) {
+            this.addresses = addresses;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private volatile Resolver resolver;
+    private long hits;
+    private long misses;
+
+    public DnsCache(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public void setResolver(Resolver resolver) {
+        this.resolver = resolver;
+        clear();
+    }
+
+    /** Cached addresses of hostname, resolving when there are none or they expired. */
+    public InetAddress[] lookup(String hostname) throws UnknownHostException {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(hostname);
+            if (entry != null && now - entry.expiresAtNanos < 0) {
+                hits++;
+                return entry.addresses.clone();
+            }
+            misses++;
+        }
+        // Outside the lock: a slow lookup must not hold up connects to other hosts
+        Answer answer = resolver.resolve(hostname);
+        if (answer.addresses.length == 0) {
+            throw new UnknownHostException(hostname);
+        }
+        if (answer.ttlMillis > 0) {
+            synchronized (this) {
+                entries.put(hostname, new Entry(answer.addresses.clone(),
+                    now + answer.ttlMillis * 1_000_000L));
+            }
+        }
+        return answer.addresses.clone();
+    }
+
+    /** Puts address first in the cached answer for hostname, if it is still cached. */
+    public synchronized void preferred(String hostname, InetAddress address) {
+        Entry entry = entries.get(hostname);
+        if (entry == null || entry.addresses[0].equals(address)) {
+            return;
+        }
+        InetAddress[] reordered = new InetAddress[entry.addresses.length];
+        reordered[0] = address;
+        int i = 1;
+        for (InetAddress candidate : entry.addresses) {
+            if (!candidate.equals(address)) {
+                if (i == reordered.length) {
+                    // No longer part of the answer
+                    return;
+                }
+                reordered[i++] = candidate;
+            }
+        }
+        entries.put(hostname, new Entry(reordered, entry.expiresAtNanos));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
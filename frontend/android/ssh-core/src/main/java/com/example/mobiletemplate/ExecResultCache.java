@@ -0,0 +1,210 @@
+package com.example.mobiletemplate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outputs of read-only commands (uname -a, df -h) that several screens run on the
+ * same host within seconds, keyed by the host identity (user@host:port) and the
+ * command. Only used when a call asks for it with a max age: whoever knows the
+ * command has no side effects decides how stale is fine.
+ *
+ * Identical calls while one is running wait for it instead of opening their own
+ * channel. Entries are evicted least recently used first, past maxEntries or
+ * maxBytes of output; failures are never cached.
+ */
+public class ExecResultCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    /** Runs the command on a miss. */
+    public interface Loader {
+        String load() throws IOException, SessionException;
+    }
+
+    /** An output and where it came from. */
+    public static class Result {
+        public final String output;
+        // From the cache or from a call already running, not a channel of its own
+        public final boolean cached;
+        public final long ageMillis;
+
+        Result(String output, boolean cached, long ageMillis) {
+            this.output = output;
+            this.cached = cached;
+            this.ageMillis = ageMillis;
+        }
+    }
+
+    private static class Entry {
+        final String identity;
+        final String output;
+        final long storedNanos;
+
+        Entry(String identity, String output, long storedNanos) {
+            this.identity = identity;
+            this.output = output;
+            this.storedNanos = storedNanos;
+        }
+
+        long bytes() {
+            return 2L * output.length();
+        }
+    }
+
+    private static class InFlight {
+        final String identity;
+        final CountDownLatch done = new CountDownLatch(1);
+        String output;
+        Exception error;
+        boolean invalidated;
+
+        InFlight(String identity) {
+            this.identity = identity;
+        }
+    }
+
+    // Access order: iteration starts at the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, InFlight> inFlight = new HashMap<>();
+    private final int maxEntries;
+    private final long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+
+    public ExecResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public ExecResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    private static String key(String identity, String command) {
+        return identity + '\u0000' + command;
+    }
+
+    /**
+     * The output of command on the host, from the cache when it is at most maxAgeMillis
+     * old, else from a call already running, else from loader (whose failure goes to
+     * every caller waiting on it).
+     */
+    public Result get(String identity, String command, long maxAgeMillis, Loader loader)
+        throws IOException, SessionException {
+        String key = key(identity, command);
+        InFlight call;
+        boolean owner = false;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            long now = System.nanoTime();
+            if (entry != null && now - entry.storedNanos <= TimeUnit.MILLISECONDS.toNanos(maxAgeMillis)) {
+                hits++;
+                return new Result(entry.output, true, TimeUnit.NANOSECONDS.toMillis(now - entry.storedNanos));
+            }
+            call = inFlight.get(key);
+            if (call != null) {
+                coalesced++;
+            } else {
+                misses++;
+                call = new InFlight(identity);
+                inFlight.put(key, call);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                call.output = loader.load();
+            } catch (IOException | SessionException | RuntimeException e) {
+                call.error = e;
+            }
+            synchronized (this) {
+                inFlight.remove(key);
+                if (call.error == null && !call.invalidated) {
+                    store(key, new Entry(identity, call.output, System.nanoTime()));
+                }
+            }
+            call.done.countDown();
+        } else {
+            try {
+                call.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the same command");
+            }
+        }
+
+        if (call.error instanceof IOException) {
+            throw (IOException) call.error;
+        } else if (call.error instanceof SessionException) {
+            throw (SessionException) call.error;
+        } else if (call.error != null) {
+            throw (RuntimeException) call.error;
+        }
+        return new Result(call.output, !owner, 0);
+    }
+
+    private void store(String key, Entry entry) {
+        if (entry.bytes() > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.bytes();
+        }
+        bytes += entry.bytes();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /** Forgets everything from a host identity, including the outputs of calls still running. */
+    public synchronized void invalidate(String identity) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.identity.equals(identity)) {
+                bytes -= entry.bytes();
+                it.remove();
+            }
+        }
+        for (InFlight call : inFlight.values()) {
+            if (call.identity.equals(identity)) {
+                call.invalidated = true;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        for (InFlight call : inFlight.values()) {
+            call.invalidated = true;
+        }
+    }
+
+    /** hits, misses, coalesced, evictions, entries and bytes. */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("coalesced", coalesced);
+        stats.put("evictions", evictions);
+        stats.put("entries", (long) entries.size());
+        stats.put("bytes", bytes);
+        return stats;
+    }
+}
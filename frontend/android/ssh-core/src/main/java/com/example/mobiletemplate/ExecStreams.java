@@ -0,0 +1,80 @@
+package com.example.mobiletemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Drains the stdout and stderr of an exec channel.
+ *
+ * Both streams are read concurrently: reading stdout to the end before touching
+ * stderr stalls the command as soon as it fills the stderr channel window.
+ */
+public class ExecStreams {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    public static class Result {
+        public final String stdout;
+        public final String stderr;
+
+        Result(String stdout, String stderr) {
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+
+    public static Result drain(InputStream stdout, InputStream stderr, Executor executor) throws IOException {
+        return drain(stdout, stderr, executor, null, null);
+    }
+
+    /** Same, passing each chunk read through a trigger scanner per stream (either may be null). */
+    public static Result drain(InputStream stdout, InputStream stderr, Executor executor,
+                               OutputTriggers.Scanner stdoutTriggers, OutputTriggers.Scanner stderrTriggers)
+        throws IOException {
+        FutureTask<String> errorTask = new FutureTask<>(() -> readFully(stderr, stderrTriggers));
+        executor.execute(errorTask);
+
+        String output = readFully(stdout, stdoutTriggers);
+        try {
+            return new Result(output, errorTask.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading stderr", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    public static String readFully(InputStream inputStream) throws IOException {
+        return readFully(inputStream, null);
+    }
+
+    /** Reads to the end, keeping only the first maxBytes. */
+    static String readAtMost(InputStream inputStream, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, Math.min(read, maxBytes - out.size()));
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static String readFully(InputStream inputStream, OutputTriggers.Scanner triggers) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            if (triggers != null) {
+                triggers.scan(buffer, 0, read);
+            }
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.mobiletemplate;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+/**
+ * RFC 8305 connection racing. The addresses of a host are interleaved by family,
+ * starting with the family the resolver put first, and tried one after the other:
+ * the next attempt starts when the previous one fails or after attemptDelayMillis,
+ * whichever comes first, without cancelling the ones still running. The first
+ * socket to connect wins and the others are closed.
+ *
+ * On a dual-stack network with broken IPv6 this costs one attempt delay instead of
+ * a full connect timeout.
+ */
+public class HappyEyeballs {
+    /** RFC 8305 recommended Connection Attempt Delay. */
+    public static final long DEFAULT_ATTEMPT_DELAY_MILLIS = 250;
+
+    private final DnsCache dns;
+    private final ExecutorService pool;
+    private volatile long attemptDelayMillis = DEFAULT_ATTEMPT_DELAY_MILLIS;
+    private long fallbacks;
+
+    public HappyEyeballs(DnsCache dns, ExecutorService pool) {
+        this.dns = dns;
+        this.pool = pool;
+    }
+
+    public DnsCache getDnsCache() {
+        return dns;
+    }
+
+    public void setAttemptDelayMillis(long attemptDelayMillis) {
+        this.attemptDelayMillis = attemptDelayMillis;
+    }
+
+    /** Connects won by an address other than the first one tried. */
+    public synchronized long getFallbacks() {
+        return fallbacks;
+    }
+
+    /** Interleaves IPv6 and IPv4, keeping the resolver's order within each family. */
+    static List<InetAddress> order(InetAddress[] addresses) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        boolean firstIsV6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            ((address instanceof Inet6Address) == firstIsV6 ? first : second).add(address);
+        }
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+            if (i < second.size()) {
+                ordered.add(second.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    /** Resolves hostname (through the cache) and races its addresses. */
+    public Socket connect(String hostname, int port, int timeoutMillis, SocketFactory sockets) throws IOException {
+        return race(hostname, dns.lookup(hostname), port, timeoutMillis, sockets);
+    }
+
+    private static class Attempt {
+        final InetAddress address;
+        final Socket socket;
+        volatile IOException error;
+
+        Attempt(InetAddress address, Socket socket) {
+            this.address = address;
+            this.socket = socket;
+        }
+    }
+
+    /**
+     * Races the addresses of hostname. Sockets come unconnected from sockets.createSocket();
+     * the winner is returned connected. Throws the last attempt's error when all fail,
+     * SocketTimeoutException when none connected within timeoutMillis.
+     */
+    public Socket race(String hostname, InetAddress[] addresses, int port, int timeoutMillis, SocketFactory sockets)
+        throws IOException {
+        List<InetAddress> ordered = order(addresses);
+        final LinkedBlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int failed = 0;
+        IOException lastError = null;
+        try {
+            while (true) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Connect to " + hostname + ":" + port + " timed out");
+                }
+                if (attempts.size() < ordered.size()) {
+                    attempts.add(start(ordered.get(attempts.size()), port, (int) remaining, sockets, finished));
+                }
+                long wait = attempts.size() < ordered.size() ? Math.min(attemptDelayMillis, remaining) : remaining;
+                Attempt done = finished.poll(wait, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    continue;
+                }
+                if (done.error == null) {
+                    attempts.remove(done);
+                    if (done.address != ordered.get(0)) {
+                        synchronized (this) {
+                            fallbacks++;
+                        }
+                    }
+                    dns.preferred(hostname, done.address);
+                    return done.socket;
+                }
+                lastError = done.error;
+                if (++failed == ordered.size()) {
+                    throw lastError;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to " + hostname, e);
+        } finally {
+            // Losers, whether still connecting or already connected
+            for (Attempt attempt : attempts) {
+                try {
+                    attempt.socket.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    private Attempt start(InetAddress address, final int port, final int timeoutMillis, SocketFactory sockets,
+                          final LinkedBlockingQueue<Attempt> finished) throws IOException {
+        final Attempt attempt = new Attempt(address, sockets.createSocket());
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    attempt.socket.connect(new InetSocketAddress(attempt.address, port), timeoutMillis);
+                } catch (IOException e) {
+                    attempt.error = e;
+                }
+                finished.add(attempt);
+            }
+        });
+        return attempt;
+    }
+}
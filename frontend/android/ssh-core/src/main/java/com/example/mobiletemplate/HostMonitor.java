@@ -0,0 +1,339 @@
+package com.example.mobiletemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.connection.channel.direct.Signal;
+
+/**
+ * Samples CPU, memory, load and disk of the remote host over one long-lived exec
+ * channel, instead of an exec (a new channel and a few processes) per poll.
+ *
+ * The host runs a POSIX sh loop that reads /proc with shell builtins only, clocked
+ * by one long-lived vmstat where available (else a sleep per tick); the only other
+ * fork is a df every {@link #DISK_EVERY_MILLIS} when disk is monitored. Each tick
+ * is a block of lines:
+ * <pre>
+ * T
+ * C cpu  user nice system idle iowait irq softirq steal ...
+ * M MemTotal: kB
+ * M MemAvailable: kB
+ * L load1 load5 load15 running/total lastpid
+ * D totalKb usedKb
+ * E
+ * </pre>
+ * which is turned into numbers here. A "hostMetrics" event carries only the values
+ * that changed since the last one (at the precision shown), so a quiet host emits
+ * nothing at all.
+ *
+ * If the sampler ends without {@link #close} (killed, /proc gone, channel lost) a
+ * "hostMetricsEnded" event says why, with the start of what it wrote to stderr.
+ */
+public class HostMonitor {
+    private static final Logger LOG = Logger.getLogger("HostMonitor");
+
+    public static final String CPU = "cpu";
+    public static final String MEMORY = "memory";
+    public static final String LOAD = "load";
+    public static final String DISK = "disk";
+
+    public static final int MIN_INTERVAL_MILLIS = 500;
+    // Filesystem usage moves slowly and df is the only fork besides sleep
+    static final int DISK_EVERY_MILLIS = 30_000;
+    // Enough for a shell error message; the rest of stderr is read and dropped
+    static final int MAX_STDERR_BYTES = 4096;
+
+    /** Told when the sampler ends on its own, before "hostMetricsEnded" is emitted; not after {@link #close}. */
+    public interface Listener {
+        void onEnded(HostMonitor monitor);
+    }
+
+    private final String monitorId;
+    private final String sessionId;
+    private final SessionBridge bridge;
+    private Listener listener;
+    private Session session;
+    private Session.Command command;
+    private volatile boolean running;
+
+    // Current tick, filled line by line
+    private final Map<String, Double> tick = new LinkedHashMap<>();
+    // Last values sent, to only send what changed
+    private final Map<String, Double> sent = new LinkedHashMap<>();
+    private long lastBusyJiffies = -1;
+    private long lastTotalJiffies = -1;
+    private long memTotalKb = -1;
+    private long frames;
+    private long ticks;
+
+    public HostMonitor(String monitorId, String sessionId, SessionBridge bridge) {
+        this.monitorId = monitorId;
+        this.sessionId = sessionId;
+        this.bridge = bridge;
+    }
+
+    public String getMonitorId() {
+        return monitorId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /** Events emitted so far. */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /** Samples received from the host so far, changed or not. */
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    /** The sampler for the given metrics, as one sh -c command that the login shell doesn't interpret. */
+    static String command(int intervalMillis, Collection<String> metrics) {
+        int interval = Math.max(intervalMillis, MIN_INTERVAL_MILLIS);
+        int diskEvery = Math.max(1, DISK_EVERY_MILLIS / interval);
+        StringBuilder script = new StringBuilder();
+        // Output stops being read on close: the next echo then fails and ends the loop
+        script.append("trap \"exit 0\" HUP INT TERM PIPE; n=0; s() { echo T; ");
+        if (metrics.contains(CPU)) {
+            script.append("read -r c < /proc/stat && echo \"C $c\"; ");
+        }
+        if (metrics.contains(MEMORY)) {
+            script.append("while read -r k v u; do case $k in MemTotal:|MemAvailable:) echo \"M $k $v\";; esac; done < /proc/meminfo; ");
+        }
+        if (metrics.contains(LOAD)) {
+            script.append("read -r l < /proc/loadavg && echo \"L $l\"; ");
+        }
+        if (metrics.contains(DISK)) {
+            script.append("if [ $((n % ").append(diskEvery).append(")) -eq 0 ]; then df -kP / 2>/dev/null | { read -r h; read -r f s u a r; echo \"D $s $u\"; }; fi; n=$((n + 1)); ");
+        }
+        script.append("echo E; }; s; ");
+        // The clock: vmstat's output when the interval is whole seconds (one process for the
+        // monitor's life, past its headers and since-boot line), else a sleep per tick
+        String sleep = "while :; do sleep " + String.format(Locale.ROOT, "%d.%03d", interval / 1000, interval % 1000)
+            + "; echo; done";
+        if (interval % 1000 == 0) {
+            script.append("if command -v vmstat >/dev/null 2>&1; then vmstat ").append(interval / 1000)
+                .append(" | { read -r h; read -r h; read -r h; cat; }; else ").append(sleep).append("; fi");
+        } else {
+            script.append(sleep);
+        }
+        script.append(" | while read -r x; do s || exit 0; done");
+        // No single quotes inside, so it goes through the login shell untouched
+        return "sh -c '" + script + "'";
+    }
+
+    /** Opens the channel and starts reading stdout and stderr on the executor. */
+    public void start(SSHClient ssh, int intervalMillis, Collection<String> metrics, Executor executor,
+                      Listener listener) throws IOException {
+        start(ssh, command(intervalMillis, metrics), executor, listener);
+    }
+
+    void start(SSHClient ssh, String commandLine, Executor executor, Listener listener) throws IOException {
+        this.listener = listener;
+        session = ssh.startSession();
+        try {
+            command = session.exec(commandLine);
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+        running = true;
+        // Read alongside stdout, or a chatty stderr fills its window and stalls the sampler
+        final FutureTask<String> errorTask = new FutureTask<>(
+            () -> ExecStreams.readAtMost(command.getErrorStream(), MAX_STDERR_BYTES));
+        executor.execute(errorTask);
+        executor.execute(() -> readLoop(errorTask));
+    }
+
+    private void readLoop(FutureTask<String> errorTask) {
+        String reason = "exited";
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(command.getInputStream(), StandardCharsets.US_ASCII))) {
+            String line;
+            while (running && (line = reader.readLine()) != null) {
+                onLine(line);
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOG.log(Level.FINE, "Monitor " + monitorId + " stopped reading", e);
+                reason = "error: " + e.getMessage();
+            }
+        }
+        if (!running) {
+            // Stopped by close(), nothing to report
+            return;
+        }
+        running = false;
+
+        JSONObject data = new JSONObject();
+        data.put("monitorId", monitorId);
+        data.put("sessionId", sessionId);
+        data.put("reason", reason);
+        data.put("stderr", stderrOf(errorTask));
+        try {
+            command.join(1, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            // No exit status then
+        }
+        if (command.getExitStatus() != null) {
+            data.put("exitStatus", command.getExitStatus().intValue());
+        } else if (command.getExitSignal() != null) {
+            data.put("exitSignal", command.getExitSignal().name());
+        }
+        close();
+        listener.onEnded(this);
+        bridge.emit("hostMetricsEnded", data);
+    }
+
+    private static String stderrOf(FutureTask<String> errorTask) {
+        try {
+            // Ends with the channel, right after stdout
+            return errorTask.get(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            errorTask.cancel(true);
+        }
+        return "";
+    }
+
+    /** Parses one sampler line; the end of a tick emits the changes, if any. */
+    synchronized void onLine(String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+        String[] fields = line.trim().split("\\s+");
+        try {
+            switch (fields[0]) {
+                case "T":
+                    tick.clear();
+                    break;
+                case "C":
+                    parseCpu(fields);
+                    break;
+                case "M":
+                    parseMemory(fields);
+                    break;
+                case "L":
+                    tick.put("load1", round(Double.parseDouble(fields[1]), 100));
+                    tick.put("load5", round(Double.parseDouble(fields[2]), 100));
+                    tick.put("load15", round(Double.parseDouble(fields[3]), 100));
+                    break;
+                case "D":
+                    long totalKb = Long.parseLong(fields[1]);
+                    long usedKb = Long.parseLong(fields[2]);
+                    tick.put("diskTotalMB", (double) (totalKb / 1024));
+                    tick.put("diskUsedMB", (double) (usedKb / 1024));
+                    break;
+                case "E":
+                    ticks++;
+                    emitChanges();
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // A line cut short or a /proc format we don't know: skip it, not the monitor
+            LOG.log(Level.FINE, "Unparsable monitor line: " + line, e);
+        }
+    }
+
+    private void parseCpu(String[] fields) {
+        // cpu user nice system idle iowait irq softirq steal [guest guest_nice], guests are already in user
+        long total = 0;
+        long idle = 0;
+        for (int i = 2; i < Math.min(fields.length, 10); i++) {
+            long value = Long.parseLong(fields[i]);
+            total += value;
+            if (i == 5 || i == 6) {
+                idle += value;
+            }
+        }
+        long busy = total - idle;
+        if (lastTotalJiffies >= 0 && total > lastTotalJiffies) {
+            double percent = 100.0 * (busy - lastBusyJiffies) / (total - lastTotalJiffies);
+            tick.put("cpu", round(Math.max(0, Math.min(100, percent)), 10));
+        }
+        lastBusyJiffies = busy;
+        lastTotalJiffies = total;
+    }
+
+    private void parseMemory(String[] fields) {
+        long kb = Long.parseLong(fields[2]);
+        if ("MemTotal:".equals(fields[1])) {
+            memTotalKb = kb;
+            tick.put("memTotalMB", (double) (kb / 1024));
+        } else if (memTotalKb >= 0) {
+            tick.put("memUsedMB", (double) ((memTotalKb - kb) / 1024));
+        }
+    }
+
+    private static double round(double value, int scale) {
+        return Math.round(value * scale) / (double) scale;
+    }
+
+    private void emitChanges() {
+        JSONObject values = new JSONObject();
+        for (Map.Entry<String, Double> entry : tick.entrySet()) {
+            Double previous = sent.get(entry.getKey());
+            if (previous == null || !previous.equals(entry.getValue())) {
+                values.put(entry.getKey(), entry.getValue().doubleValue());
+                sent.put(entry.getKey(), entry.getValue());
+            }
+        }
+        tick.clear();
+        if (values.length() == 0) {
+            return;
+        }
+        frames++;
+        JSONObject data = new JSONObject();
+        data.put("monitorId", monitorId);
+        data.put("sessionId", sessionId);
+        data.put("values", values);
+        bridge.emit("hostMetrics", data);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stops the sampler and closes its channel. */
+    public void close() {
+        running = false;
+        Session.Command activeCommand = command;
+        if (activeCommand != null) {
+            try {
+                activeCommand.signal(Signal.TERM);
+            } catch (IOException ignored) {
+                // Many servers don't pass signals on; closing the channel stops it too
+            }
+        }
+        if (session != null) {
+            try {
+                session.close();
+            } catch (IOException ignored) {
+                // Already gone with the connection
+            }
+        }
+    }
+}
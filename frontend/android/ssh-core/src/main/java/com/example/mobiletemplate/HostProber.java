@@ -0,0 +1,428 @@
+package com.example.mobiletemplate;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Whether hosts answer on their SSH port, for the host list: a TCP connect and the
+ * server's identification line (SSH-2.0-OpenSSH_9.6), nothing more. The client
+ * never sends anything, so no key exchange or login attempt happens.
+ *
+ * All probes share one selector thread with non-blocking sockets, so hundreds of
+ * hosts cost one thread and at most maxConcurrent sockets; the rest wait for a
+ * slot. Names are resolved first on the given executor (lookups block), through the
+ * shared DNS cache; the timeout counts from the connect.
+ *
+ * Results are kept for cacheMillis, and a host already being probed isn't probed
+ * twice: the second caller gets the same result.
+ */
+public class HostProber {
+    private static final Logger LOG = Logger.getLogger("HostProber");
+
+    public static final int DEFAULT_MAX_CONCURRENT = 64;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 3000;
+    public static final long DEFAULT_CACHE_MILLIS = 15_000;
+    static final int MAX_CACHED = 1024;
+    // RFC 4253 4.2: lines before the identification are allowed, 255 bytes each at most
+    static final int MAX_BANNER_BYTES = 4096;
+
+    /** SSH identification received. */
+    public static final String UP = "up";
+    /** The port accepted the connection but sent no identification in time. */
+    public static final String OPEN = "open";
+    public static final String REFUSED = "refused";
+    public static final String TIMEOUT = "timeout";
+    /** No route, network down and other connect failures. */
+    public static final String UNREACHABLE = "unreachable";
+    public static final String UNRESOLVED = "unresolved";
+
+    /** Called once per probe, on the selector or resolver thread: keep it short. */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    public static class Result {
+        public final String host;
+        public final int port;
+        public final String status;
+        // TCP handshake time, -1 when there was no connection
+        public final long rttMillis;
+        // The identification without "SSH-2.0-", e.g. OpenSSH_9.6p1 Ubuntu-3ubuntu13; null unless UP
+        public final String serverVersion;
+        public final String error;
+        public final boolean cached;
+        final long finishedNanos;
+
+        Result(String host, int port, String status, long rttMillis, String serverVersion, String error,
+               boolean cached, long finishedNanos) {
+            this.host = host;
+            this.port = port;
+            this.status = status;
+            this.rttMillis = rttMillis;
+            this.serverVersion = serverVersion;
+            this.error = error;
+            this.cached = cached;
+            this.finishedNanos = finishedNanos;
+        }
+
+        /** The port accepted a connection. */
+        public boolean isReachable() {
+            return UP.equals(status) || OPEN.equals(status);
+        }
+
+        Result asCached() {
+            return new Result(host, port, status, rttMillis, serverVersion, error, true, finishedNanos);
+        }
+    }
+
+    private static class Probe {
+        final String host;
+        final int port;
+        final String key;
+        final List<Listener> listeners = new ArrayList<>();
+        InetAddress address;
+        SocketChannel channel;
+        long startNanos;
+        long deadlineNanos;
+        long rttMillis = -1;
+        ByteBuffer banner;
+
+        Probe(String host, int port, String key) {
+            this.host = host;
+            this.port = port;
+            this.key = key;
+        }
+    }
+
+    private final DnsCache dns;
+    private final Executor resolvers;
+    // Resolved, waiting for a socket slot; handed to the selector thread
+    private final ArrayDeque<Probe> waiting = new ArrayDeque<>();
+    private final HashMap<String, Probe> inFlight = new HashMap<>();
+    private final LinkedHashMap<String, Result> cache = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    private volatile int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+    private volatile long cacheNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CACHE_MILLIS);
+    private Selector selector;
+    private Thread thread;
+    // Sockets open; selector thread only
+    private int connecting;
+    private long probes;
+    private long cacheHits;
+    private boolean closed;
+
+    public HostProber(DnsCache dns, Executor resolvers) {
+        this.dns = dns;
+        this.resolvers = resolvers;
+    }
+
+    /** Sockets open at once, time for the connect and the identification, and how long results are reused. */
+    public void setLimits(int maxConcurrent, long timeoutMillis, long cacheMillis) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, timeoutMillis));
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheMillis));
+    }
+
+    /** Probes host:port, or answers from the cache right away (on the calling thread). */
+    public void probe(final String host, int port, Listener listener) throws IOException {
+        String key = host + ":" + port;
+        Result cached = null;
+        final Probe probe;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Prober closed");
+            }
+            Result result = cache.get(key);
+            if (result != null && System.nanoTime() - result.finishedNanos < cacheNanos) {
+                cacheHits++;
+                cached = result.asCached();
+                probe = null;
+            } else if (inFlight.containsKey(key)) {
+                inFlight.get(key).listeners.add(listener);
+                return;
+            } else {
+                startSelector();
+                probes++;
+                probe = new Probe(host, port, key);
+                probe.listeners.add(listener);
+                inFlight.put(key, probe);
+            }
+        }
+        if (cached != null) {
+            listener.onResult(cached);
+            return;
+        }
+        resolvers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probe.address = dns.lookup(host)[0];
+                } catch (UnknownHostException e) {
+                    finish(probe, UNRESOLVED, null, "Unknown host " + host);
+                    return;
+                }
+                Selector target;
+                synchronized (HostProber.this) {
+                    target = closed ? null : selector;
+                    if (target != null) {
+                        waiting.add(probe);
+                    }
+                }
+                if (target != null) {
+                    target.wakeup();
+                } else {
+                    finish(probe, TIMEOUT, null, "Prober closed");
+                }
+            }
+        });
+    }
+
+    private void startSelector() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        selector = Selector.open();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                selectLoop();
+            }
+        }, "HostProber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void selectLoop() {
+        Selector selector;
+        synchronized (this) {
+            selector = this.selector;
+        }
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (closed) {
+                        break;
+                    }
+                }
+                admit(selector);
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                for (SelectionKey key : selector.keys()) {
+                    wait = Math.min(wait, ((Probe) key.attachment()).deadlineNanos - now);
+                }
+                if (wait == Long.MAX_VALUE) {
+                    selector.select();
+                } else if (wait > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                while (ready.hasNext()) {
+                    SelectionKey key = ready.next();
+                    ready.remove();
+                    if (key.isValid()) {
+                        handle(key);
+                    }
+                }
+                now = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    Probe probe = (Probe) key.attachment();
+                    if (key.isValid() && now - probe.deadlineNanos >= 0) {
+                        close(key);
+                        finish(probe, probe.rttMillis < 0 ? TIMEOUT : OPEN, null, null);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Host probe selector failed", e);
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                close(key);
+                finish((Probe) key.attachment(), TIMEOUT, null, "Prober closed");
+            }
+        }
+        List<Probe> left;
+        synchronized (this) {
+            left = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        for (Probe probe : left) {
+            finish(probe, TIMEOUT, null, "Prober closed");
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // Nothing left to probe with it
+        }
+    }
+
+    /** Opens sockets for waiting probes while there are slots. */
+    private void admit(Selector selector) {
+        while (connecting < maxConcurrent) {
+            Probe probe;
+            synchronized (this) {
+                probe = waiting.poll();
+            }
+            if (probe == null) {
+                return;
+            }
+            try {
+                probe.channel = SocketChannel.open();
+                probe.channel.configureBlocking(false);
+                probe.startNanos = System.nanoTime();
+                probe.deadlineNanos = probe.startNanos + timeoutNanos;
+                boolean connected = probe.channel.connect(new InetSocketAddress(probe.address, probe.port));
+                probe.channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, probe);
+                connecting++;
+                if (connected) {
+                    onConnected(probe);
+                }
+            } catch (IOException e) {
+                closeQuietly(probe.channel);
+                finish(probe, failureStatus(e), null, e.getMessage());
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Probe probe = (Probe) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                probe.channel.finishConnect();
+                onConnected(probe);
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (key.isReadable()) {
+                int read = probe.channel.read(probe.banner);
+                String version = identification(probe.banner);
+                if (version != null) {
+                    close(key);
+                    finish(probe, UP, version, null);
+                } else if (read < 0 || !probe.banner.hasRemaining()) {
+                    // Closed, or a lot of something that isn't SSH
+                    close(key);
+                    finish(probe, OPEN, null, read < 0 ? "Closed without identification" : "No SSH identification");
+                }
+            }
+        } catch (IOException e) {
+            close(key);
+            finish(probe, probe.rttMillis < 0 ? failureStatus(e) : OPEN, null, e.getMessage());
+        }
+    }
+
+    private static void onConnected(Probe probe) {
+        probe.rttMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probe.startNanos);
+        probe.banner = ByteBuffer.allocate(MAX_BANNER_BYTES);
+    }
+
+    /**
+     * The version of the first complete line starting with "SSH-" read so far
+     * ("SSH-2.0-OpenSSH_9.6 comment" gives "OpenSSH_9.6 comment"), or null.
+     */
+    static String identification(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        int end = buffer.position();
+        int lineStart = 0;
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.US_ASCII);
+            if (line.startsWith("SSH-")) {
+                // SSH-protoversion-softwareversion SP comments
+                int dash = line.indexOf('-', 4);
+                return dash < 0 ? line.substring(4) : line.substring(dash + 1);
+            }
+            lineStart = i + 1;
+        }
+        return null;
+    }
+
+    private static String failureStatus(IOException e) {
+        return e instanceof ConnectException ? REFUSED : UNREACHABLE;
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        closeQuietly(((Probe) key.attachment()).channel);
+        connecting--;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+
+    private void finish(Probe probe, String status, String version, String error) {
+        long now = System.nanoTime();
+        Result result = new Result(probe.host, probe.port, status, UP.equals(status) || OPEN.equals(status)
+            ? probe.rttMillis : -1, version, error, false, now);
+        List<Listener> listeners;
+        synchronized (this) {
+            inFlight.remove(probe.key);
+            cache.put(probe.key, result);
+            listeners = new ArrayList<>(probe.listeners);
+        }
+        for (int i = 0; i < listeners.size(); i++) {
+            // Callers after the first share this probe
+            listeners.get(i).onResult(i == 0 ? result : result.asCached());
+        }
+    }
+
+    /** Probes started, and probe calls answered from the cache. */
+    public synchronized long getProbes() {
+        return probes;
+    }
+
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+
+    /** Ends every probe still running (as a timeout) and stops the selector thread. */
+    public void close() {
+        Selector target;
+        synchronized (this) {
+            closed = true;
+            target = selector;
+        }
+        if (target != null) {
+            target.wakeup();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.mobiletemplate;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What earlier connections learned about each host (keyed by host:port), persisted
+ * as a single JSON object like {@link KeyMetadataStore}.
+ */
+public class HostProfileStore {
+
+    public static class Profile {
+        public final double rttMs;
+        public final double throughputBytesPerSec;
+        public final boolean compression;
+        public final long updatedAt;
+
+        public Profile(double rttMs, double throughputBytesPerSec, boolean compression, long updatedAt) {
+            this.rttMs = rttMs;
+            this.throughputBytesPerSec = throughputBytesPerSec;
+            this.compression = compression;
+            this.updatedAt = updatedAt;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("rttMs", rttMs);
+            json.put("throughputBytesPerSec", throughputBytesPerSec);
+            json.put("compression", compression);
+            json.put("updatedAt", updatedAt);
+            return json;
+        }
+
+        static Profile fromJson(JSONObject json) {
+            return new Profile(json.optDouble("rttMs", -1), json.optDouble("throughputBytesPerSec", -1),
+                json.optBoolean("compression", false), json.optLong("updatedAt", 0));
+        }
+    }
+
+    private final KeyMetadataStore.Storage storage;
+    private JSONObject cache;
+
+    public HostProfileStore(KeyMetadataStore.Storage storage) {
+        this.storage = storage;
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    private JSONObject all() throws JSONException {
+        if (cache == null) {
+            String json = storage.load();
+            cache = new JSONObject(json != null ? json : "{}");
+        }
+        return cache;
+    }
+
+    public synchronized Profile get(String host, int port) throws JSONException {
+        JSONObject json = all().optJSONObject(key(host, port));
+        return json != null ? Profile.fromJson(json) : null;
+    }
+
+    public synchronized void put(String host, int port, Profile profile) throws JSONException {
+        JSONObject profiles = all();
+        profiles.put(key(host, port), profile.toJson());
+        storage.save(profiles.toString());
+    }
+
+    /**
+     * Saves what a finished connection measured. Keeps the previous throughput when
+     * this one saw no bulk transfer, so a short interactive session doesn't erase it.
+     */
+    public synchronized void record(CompressionAdvisor advisor) throws JSONException {
+        Profile previous = get(advisor.getHost(), advisor.getPort());
+        double throughput = advisor.getThroughputBytesPerSec();
+        if (throughput < 0 && previous != null) {
+            throughput = previous.throughputBytesPerSec;
+        }
+        double rttMs = advisor.getRttNanos() >= 0 ? advisor.getRttNanos() / 1e6 : (previous != null ? previous.rttMs : -1);
+        put(advisor.getHost(), advisor.getPort(),
+            new Profile(rttMs, throughput, advisor.recommendsCompression(), System.currentTimeMillis()));
+    }
+}
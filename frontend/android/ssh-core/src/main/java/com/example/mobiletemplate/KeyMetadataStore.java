@@ -0,0 +1,63 @@
+package com.example.mobiletemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Metadata of the hardware-backed SSH keys, persisted as a single JSON object
+ * keyed by keyId. The parsed object is cached so reads don't re-parse the blob.
+ */
+public class KeyMetadataStore {
+
+    public interface Storage {
+        String load();
+        void save(String json);
+    }
+
+    private final Storage storage;
+    private JSONObject cache;
+
+    public KeyMetadataStore(Storage storage) {
+        this.storage = storage;
+    }
+
+    private JSONObject all() throws JSONException {
+        if (cache == null) {
+            String json = storage.load();
+            cache = new JSONObject(json != null ? json : "{}");
+        }
+        return cache;
+    }
+
+    public synchronized JSONObject get(String keyId) throws JSONException {
+        return all().optJSONObject(keyId);
+    }
+
+    public synchronized void put(String keyId, JSONObject metadata) throws JSONException {
+        JSONObject keys = all();
+        keys.put(keyId, metadata);
+        storage.save(keys.toString());
+    }
+
+    public synchronized JSONObject remove(String keyId) throws JSONException {
+        JSONObject keys = all();
+        JSONObject removed = (JSONObject) keys.remove(keyId);
+        if (removed != null) {
+            storage.save(keys.toString());
+        }
+        return removed;
+    }
+
+    public synchronized List<String> keyIds() throws JSONException {
+        List<String> ids = new ArrayList<>();
+        Iterator<String> keys = all().keys();
+        while (keys.hasNext()) {
+            ids.add(keys.next());
+        }
+        return ids;
+    }
+}
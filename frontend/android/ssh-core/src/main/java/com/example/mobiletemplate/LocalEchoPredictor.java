@@ -0,0 +1,371 @@
+package com.example.mobiletemplate;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicted echo for typing in a shell over a slow link: printable keys are shown
+ * as soon as they are typed, and the server's echo of them, when it comes, is
+ * dropped from the output instead of printed a second time. Output that isn't the
+ * expected echo erases the shown predictions first (cursor back, erase to end of
+ * line), so the screen ends up as the server drew it.
+ *
+ * Whether the terminal echoes input (a shell prompt, cat) or not (a password
+ * prompt, a full-screen program) isn't visible over SSH, so it is inferred: after
+ * Enter or a wrong guess, keys are predicted but not shown until the echo of one
+ * comes back as predicted. A password prompt never confirms, and nothing is shown
+ * while the alternate screen is on. Keys other than printable ASCII and Enter
+ * (arrows, tab, backspace, control keys) stop predictions until the next Enter,
+ * since their echo can move the cursor anywhere. So do predictions that would
+ * reach the end of the line, as the cursor column is tracked from the output.
+ *
+ * Predictions are only shown while the smoothed echo round trip is at least the
+ * display threshold: on a fast link the real echo is as quick. Shown predictions
+ * that the server hasn't echoed after TIMEOUT_RTTS round trips (at least
+ * MIN_TIMEOUT_MILLIS) are erased by {@link #expire}.
+ *
+ * Not thread-safe: the shell calls it under its display lock.
+ */
+public class LocalEchoPredictor {
+    public static final long DEFAULT_DISPLAY_THRESHOLD_MILLIS = 30;
+    public static final int DEFAULT_COLUMNS = ShellSession.DEFAULT_COLUMNS;
+    static final long MIN_TIMEOUT_MILLIS = 1000;
+    static final int TIMEOUT_RTTS = 4;
+    static final int MAX_PENDING = 256;
+    // A longer escape sequence (an OSC title, say) is passed through before its end
+    static final int MAX_SEQUENCE_CHARS = 4096;
+
+    private static final int NORMAL = 0;
+    private static final int ESCAPE = 1;
+    private static final int CSI = 2;
+    private static final int STRING = 3;
+    private static final int STRING_ESCAPE = 4;
+
+    private static class Prediction {
+        final char c;
+        final long sentNanos;
+        boolean shown;
+
+        Prediction(char c, long sentNanos) {
+            this.c = c;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private int columns;
+    private final long thresholdNanos;
+    private final ArrayDeque<Prediction> pending = new ArrayDeque<>();
+    private int shown;
+    // An echo came back as predicted since the last Enter or wrong guess
+    private boolean confirmed;
+    // Input that could move the cursor was typed: nothing more until Enter
+    private boolean blocked;
+    private boolean alternateScreen;
+    // Of the server's cursor, -1 when unknown (after a cursor jump, until the next CR); a new shell starts at 0
+    private int column;
+    private long srttNanos;
+
+    // Escape sequence being read, held until complete to decide how it affects the predictions
+    private int state = NORMAL;
+    private final StringBuilder sequence = new StringBuilder();
+
+    private long predicted;
+    private long shownTotal;
+    private long echoed;
+    private long rolledBack;
+
+    public LocalEchoPredictor() {
+        this(DEFAULT_COLUMNS, DEFAULT_DISPLAY_THRESHOLD_MILLIS);
+    }
+
+    public LocalEchoPredictor(int columns, long displayThresholdMillis) {
+        this.columns = columns;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(displayThresholdMillis);
+    }
+
+    /**
+     * The terminal was resized. A cursor now past the last column has been wrapped
+     * or moved by the reflow, so it is unknown until the next CR.
+     */
+    public void setColumns(int columns) {
+        this.columns = columns;
+        if (column >= columns - 1) {
+            column = -1;
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /** Input about to be sent; returns the text to show for it now (empty if none). */
+    public String onInput(byte[] input, long nowNanos) {
+        StringBuilder display = new StringBuilder();
+        for (byte b : input) {
+            if (b == '\r' || b == '\n') {
+                // Likely a new prompt next, whose echo has to be confirmed again
+                blocked = false;
+                confirmed = false;
+                continue;
+            }
+            if (b < 0x20 || b > 0x7e) {
+                blocked = true;
+                continue;
+            }
+            if (blocked || alternateScreen || column < 0 || column + pending.size() >= columns - 1
+                || pending.size() >= MAX_PENDING) {
+                blocked = true;
+                continue;
+            }
+            Prediction prediction = new Prediction((char) b, nowNanos);
+            pending.add(prediction);
+            predicted++;
+            // In order only: behind a prediction still hidden, this one waits too
+            if (confirmed && shown == pending.size() - 1 && srttNanos >= thresholdNanos) {
+                prediction.shown = true;
+                shown++;
+                shownTotal++;
+                display.append(prediction.c);
+            }
+        }
+        return display.toString();
+    }
+
+    /** Output from the server; returns what to show instead: without the echo already shown, with any undo. */
+    public String onOutput(String output, long nowNanos) {
+        StringBuilder display = new StringBuilder(output.length() + 16);
+        for (int i = 0; i < output.length(); i++) {
+            char c = output.charAt(i);
+            if (state != NORMAL) {
+                sequence.append(c);
+                if (endsSequence(c) || sequence.length() >= MAX_SEQUENCE_CHARS) {
+                    endSequence(display);
+                }
+                continue;
+            }
+            if (c == 0x1b) {
+                state = ESCAPE;
+                sequence.setLength(0);
+                sequence.append(c);
+                continue;
+            }
+            Prediction next = pending.peek();
+            if (next != null) {
+                if (c == next.c) {
+                    pending.poll();
+                    echoed++;
+                    long rtt = nowNanos - next.sentNanos;
+                    srttNanos = srttNanos == 0 ? rtt : srttNanos - srttNanos / 8 + rtt / 8;
+                    confirmed = true;
+                    advance(c);
+                    if (next.shown) {
+                        shown--;
+                    } else {
+                        display.append(c);
+                    }
+                    continue;
+                }
+                rollBack(display);
+            }
+            advance(c);
+            display.append(c);
+        }
+        // The echo of the first key confirmed the others typed since: show them now
+        if (state == NORMAL && confirmed && shown == 0 && !pending.isEmpty() && srttNanos >= thresholdNanos
+            && !alternateScreen) {
+            for (Prediction prediction : pending) {
+                prediction.shown = true;
+                shown++;
+                shownTotal++;
+                display.append(prediction.c);
+            }
+        }
+        return display.toString();
+    }
+
+    /** Undoes shown predictions the server hasn't echoed in time; returns the text to show (empty if none). */
+    public String expire(long nowNanos) {
+        Prediction oldest = pending.peek();
+        if (oldest == null || nowNanos - oldest.sentNanos < getTimeoutNanos()) {
+            return "";
+        }
+        StringBuilder display = new StringBuilder();
+        rollBack(display);
+        return display.toString();
+    }
+
+    /** Undoes whatever is shown, e.g. when predictions are turned off. */
+    public String reset() {
+        StringBuilder display = new StringBuilder();
+        rollBack(display);
+        return display.toString();
+    }
+
+    long getTimeoutNanos() {
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_TIMEOUT_MILLIS), TIMEOUT_RTTS * srttNanos);
+    }
+
+    private void rollBack(StringBuilder display) {
+        if (shown > 0) {
+            // Back over what is shown ahead of the server's cursor, and clear it
+            display.append("\u001b[").append(shown).append("D\u001b[K");
+            rolledBack += shown;
+        }
+        pending.clear();
+        shown = 0;
+        confirmed = false;
+    }
+
+    private boolean endsSequence(char c) {
+        switch (state) {
+            case ESCAPE:
+                if (c == '[') {
+                    state = CSI;
+                    return false;
+                }
+                if (c == ']' || c == 'P' || c == '_' || c == '^') {
+                    // OSC, DCS and the like run until BEL or ST
+                    state = STRING;
+                    return false;
+                }
+                // Intermediate bytes, as in ESC ( B
+                return c < 0x20 || c > 0x2f;
+            case CSI:
+                return c >= 0x40 && c <= 0x7e;
+            case STRING:
+                if (c == 0x1b) {
+                    state = STRING_ESCAPE;
+                    return false;
+                }
+                return c == 0x07;
+            case STRING_ESCAPE:
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void endSequence(StringBuilder display) {
+        boolean csi = state == CSI;
+        boolean string = state == STRING || state == STRING_ESCAPE;
+        state = NORMAL;
+        char last = sequence.charAt(sequence.length() - 1);
+        // Colors don't move the cursor and titles don't touch the screen: predictions can stay
+        if (!(csi && last == 'm') && !string) {
+            rollBack(display);
+            if (csi) {
+                cursorCommand(last, sequence.substring(2, sequence.length() - 1));
+            } else {
+                // ESC 7 / 8, ESC M, a reset...: lose track until the next CR
+                column = -1;
+            }
+        }
+        display.append(sequence);
+        sequence.setLength(0);
+    }
+
+    private void cursorCommand(char command, String parameters) {
+        if (parameters.startsWith("?")) {
+            if (command == 'h' || command == 'l') {
+                for (String mode : parameters.substring(1).split(";")) {
+                    if (mode.equals("1049") || mode.equals("1047") || mode.equals("47")) {
+                        alternateScreen = command == 'h';
+                        column = -1;
+                    }
+                }
+            }
+            return;
+        }
+        int first = parameter(parameters, 0);
+        switch (command) {
+            case 'G':
+                column = Math.max(1, first) - 1;
+                break;
+            case 'H':
+            case 'f':
+                column = Math.max(1, parameter(parameters, 1)) - 1;
+                break;
+            case 'C':
+                if (column >= 0) {
+                    column = Math.min(columns - 1, column + Math.max(1, first));
+                }
+                break;
+            case 'D':
+                if (column >= 0) {
+                    column = Math.max(0, column - Math.max(1, first));
+                }
+                break;
+            case 'A':
+            case 'B':
+            case 'K':
+            case 'J':
+            case 'P':
+            case '@':
+            case 'X':
+                // Up / down or editing: the column stays
+                break;
+            default:
+                column = -1;
+        }
+    }
+
+    /** The index-th numeric parameter, 0 when missing or not a number. */
+    private static int parameter(String parameters, int index) {
+        String[] values = parameters.split(";", -1);
+        if (index >= values.length || values[index].isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(values[index]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void advance(char c) {
+        if (c == '\r') {
+            column = 0;
+        } else if (column < 0 || c == '\n' || c == 0x07) {
+            // LF keeps the column (the PTY's onlcr sends CR LF)
+            return;
+        } else if (c == '\b') {
+            column = Math.max(0, column - 1);
+        } else if (c == '\t') {
+            column = Math.min(columns - 1, (column / 8 + 1) * 8);
+        } else if (c >= 0x1100 || c < 0x20) {
+            // Maybe a double-width character, or an unusual control
+            column = -1;
+        } else if (++column >= columns) {
+            // Wrapped, or about to
+            column = -1;
+        }
+    }
+
+    public long getPredicted() {
+        return predicted;
+    }
+
+    /** Predictions shown before the server's echo. */
+    public long getShown() {
+        return shownTotal;
+    }
+
+    /** Predictions the server echoed as predicted. */
+    public long getEchoed() {
+        return echoed;
+    }
+
+    /** Shown predictions erased again: wrong guesses and timeouts. */
+    public long getRolledBack() {
+        return rolledBack;
+    }
+
+    /** Smoothed time from a key to its echo, in millis. */
+    public long getSrttMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(srttNanos);
+    }
+
+    public boolean isAlternateScreen() {
+        return alternateScreen;
+    }
+}
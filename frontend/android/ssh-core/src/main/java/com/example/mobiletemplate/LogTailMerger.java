@@ -0,0 +1,382 @@
+package com.example.mobiletemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.connection.channel.direct.Signal;
+
+/**
+ * Follows the same kind of log on several hosts (a tail -F exec per session and
+ * file) and merges the lines into one stream ordered by their timestamps, sent as
+ * "tailLines" events of up to maxBatchLines lines every batchMillis.
+ *
+ * Lines wait in a heap until every source that is still running has printed a
+ * line at least as recent (the sources' own output is in order), or until they
+ * have waited reorderWindowMillis, so one quiet host delays the others by at most
+ * the window. A line that arrives later than that still goes out, after lines it
+ * should have preceded, and counts as late. Lines without a timestamp (stack
+ * traces, wrapped messages) take the one of the line before them on their source.
+ *
+ * Past MAX_BUFFERED_LINES waiting, the readers of sources ahead of the others stop
+ * until lines go out, so a source far ahead (a backlog, a burst) is held back by
+ * its SSH channel rather than by memory, while the ones behind catch up.
+ *
+ * The optional filter is an extended regex applied by grep on the host, so lines
+ * nobody wants never cross the network.
+ */
+public class LogTailMerger {
+    private static final Logger LOG = Logger.getLogger("LogTailMerger");
+
+    public static final long DEFAULT_REORDER_WINDOW_MILLIS = 1000;
+    public static final long DEFAULT_BATCH_MILLIS = 100;
+    public static final int DEFAULT_MAX_BATCH_LINES = 500;
+    // Past this many waiting lines the readers stop, and so do the tails behind their channels
+    static final int MAX_BUFFERED_LINES = 20_000;
+    static final int MAX_LINE_CHARS = 8192;
+
+    /** One file on one session; host is the tag its lines carry. */
+    public static class Source {
+        final String sessionId;
+        final String file;
+        final String host;
+
+        public Source(String sessionId, String file, String host) {
+            this.sessionId = sessionId;
+            this.file = file;
+            this.host = host;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public String getHost() {
+            return host;
+        }
+    }
+
+    private static class Line {
+        final long timestamp;
+        final long sequence;
+        final long arrivalNanos;
+        final int source;
+        final String text;
+
+        Line(long timestamp, long sequence, long arrivalNanos, int source, String text) {
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+            this.arrivalNanos = arrivalNanos;
+            this.source = source;
+            this.text = text;
+        }
+    }
+
+    private static final Comparator<Line> ORDER = new Comparator<Line>() {
+        @Override
+        public int compare(Line a, Line b) {
+            if (a.timestamp != b.timestamp) {
+                return a.timestamp < b.timestamp ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final String tailId;
+    private final List<Source> sources;
+    private final SessionBridge bridge;
+    private final LogTimestamps[] timestamps;
+    private final long[] lastTimestamp;
+    private final boolean[] seen;
+    private final boolean[] ended;
+    private final Session[] sessions;
+    private final Session.Command[] commands;
+    private final PriorityQueue<Line> heap = new PriorityQueue<>(1024, ORDER);
+    private final JSONArray hosts = new JSONArray();
+    private long reorderWindowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REORDER_WINDOW_MILLIS);
+    private int maxBatchLines = DEFAULT_MAX_BATCH_LINES;
+    private long sequence;
+    private long lastEmitted = Long.MIN_VALUE;
+    private long lines;
+    private long late;
+    private long events;
+    private ScheduledFuture<?> flusher;
+    private volatile boolean running;
+    private volatile boolean closed;
+
+    public LogTailMerger(String tailId, List<Source> sources, List<LogTimestamps.Parser> parsers, SessionBridge bridge) {
+        this.tailId = tailId;
+        this.sources = sources;
+        this.bridge = bridge;
+        int count = sources.size();
+        timestamps = new LogTimestamps[count];
+        lastTimestamp = new long[count];
+        seen = new boolean[count];
+        ended = new boolean[count];
+        sessions = new Session[count];
+        commands = new Session.Command[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = new LogTimestamps(parsers);
+            hosts.put(sources.get(i).host);
+        }
+    }
+
+    public String getTailId() {
+        return tailId;
+    }
+
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    public void setReorderWindowMillis(long millis) {
+        reorderWindowNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public void setMaxBatchLines(int maxBatchLines) {
+        this.maxBatchLines = Math.max(1, maxBatchLines);
+    }
+
+    /**
+     * The tail for one file, as one sh -c command. backlogLines of the file's end come
+     * first; filter, if not null, is a grep -E pattern the lines must match.
+     */
+    static String command(String file, int backlogLines, String filter) {
+        StringBuilder script = new StringBuilder();
+        script.append("tail -n ").append(Math.max(0, backlogLines)).append(" -F -- ").append(quote(file))
+            .append(" 2>/dev/null");
+        if (filter != null && !filter.isEmpty()) {
+            // Line-buffered, else matches sit in grep's buffer until it fills
+            script.append(" | grep --line-buffered -E -e ").append(quote(filter));
+        }
+        return "sh -c '" + script + "'";
+    }
+
+    /** Double quotes for the inner sh, with the single quotes closed and reopened for the login shell. */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '$' || c == '`') {
+                quoted.append('\\').append(c);
+            } else if (c == '\'') {
+                quoted.append("'\\''");
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Opens one exec per source (clients in the order of the sources) and starts reading
+     * them on the executor; batches go out from the scheduler. On failure the channels
+     * opened so far are closed again.
+     */
+    public void start(List<SSHClient> clients, int backlogLines, String filter, long batchMillis, Executor executor,
+                      ScheduledExecutorService scheduler) throws IOException {
+        running = true;
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                sessions[i] = clients.get(i).startSession();
+                commands[i] = sessions[i].exec(command(sources.get(i).file, backlogLines, filter));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            final int source = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readLoop(source);
+                }
+            });
+        }
+        long period = Math.max(10, batchMillis);
+        flusher = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush(System.nanoTime());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void readLoop(int source) {
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(commands[source].getInputStream(), StandardCharsets.UTF_8), 32 * 1024)) {
+            String line;
+            while (running && (line = reader.readLine()) != null) {
+                onLine(source, line, System.nanoTime());
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOG.log(Level.FINE, "Tail " + tailId + " of " + sources.get(source).file + " stopped reading", e);
+            }
+        }
+        synchronized (heap) {
+            ended[source] = true;
+        }
+    }
+
+    /** Queues one line of a source, read at arrivalNanos. */
+    void onLine(int source, String line, long arrivalNanos) {
+        String text = line.length() > MAX_LINE_CHARS ? line.substring(0, MAX_LINE_CHARS) : line;
+        // Parsed outside the lock: only this source's reader uses its chain
+        long timestamp = timestamps[source].parse(text);
+        synchronized (heap) {
+            while (heap.size() >= MAX_BUFFERED_LINES && !closed && seen[source]
+                && lastTimestamp[source] > watermark()) {
+                try {
+                    heap.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (timestamp < 0) {
+                timestamp = seen[source] ? lastTimestamp[source] : System.currentTimeMillis();
+            } else if (!seen[source] || timestamp > lastTimestamp[source]) {
+                lastTimestamp[source] = timestamp;
+            }
+            seen[source] = true;
+            heap.add(new Line(timestamp, sequence++, arrivalNanos, source, text));
+            lines++;
+        }
+    }
+
+    /** Every running source has printed up to here, so nothing earlier can come from them. */
+    private long watermark() {
+        long watermark = Long.MAX_VALUE;
+        for (int i = 0; i < seen.length; i++) {
+            if (!ended[i] && !closed) {
+                watermark = Math.min(watermark, seen[i] ? lastTimestamp[i] : Long.MIN_VALUE);
+            }
+        }
+        return watermark;
+    }
+
+    /** Sends the lines that are due at nowNanos, in batches; everything once no source is left. */
+    void flush(long nowNanos) {
+        List<Line> due = new ArrayList<>();
+        synchronized (heap) {
+            long watermark = watermark();
+            while (!heap.isEmpty()) {
+                Line head = heap.peek();
+                if (head.timestamp > watermark && nowNanos - head.arrivalNanos < reorderWindowNanos) {
+                    break;
+                }
+                heap.poll();
+                if (head.timestamp < lastEmitted) {
+                    late++;
+                } else {
+                    lastEmitted = head.timestamp;
+                }
+                due.add(head);
+            }
+            if (!due.isEmpty()) {
+                heap.notifyAll();
+            }
+        }
+        for (int from = 0; from < due.size(); from += maxBatchLines) {
+            JSONArray batch = new JSONArray();
+            for (int i = from; i < Math.min(due.size(), from + maxBatchLines); i++) {
+                Line line = due.get(i);
+                JSONArray entry = new JSONArray();
+                entry.put(line.source);
+                entry.put(line.timestamp);
+                entry.put(line.text);
+                batch.put(entry);
+            }
+            JSONObject data = new JSONObject();
+            data.put("tailId", tailId);
+            data.put("hosts", hosts);
+            data.put("lines", batch);
+            synchronized (heap) {
+                events++;
+            }
+            bridge.emit("tailLines", data);
+        }
+    }
+
+    /** Lines read so far, from all sources. */
+    public long getLines() {
+        synchronized (heap) {
+            return lines;
+        }
+    }
+
+    /** Lines sent after a line with a later timestamp, having missed the reorder window. */
+    public long getLate() {
+        synchronized (heap) {
+            return late;
+        }
+    }
+
+    public long getEvents() {
+        synchronized (heap) {
+            return events;
+        }
+    }
+
+    public int getBuffered() {
+        synchronized (heap) {
+            return heap.size();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stops the tails, sending what is still waiting first. */
+    public void close() {
+        if (flusher != null) {
+            flusher.cancel(false);
+        }
+        running = false;
+        closed = true;
+        synchronized (heap) {
+            heap.notifyAll();
+        }
+        for (int i = 0; i < sessions.length; i++) {
+            Session.Command command = commands[i];
+            if (command != null) {
+                try {
+                    command.signal(Signal.TERM);
+                } catch (IOException ignored) {
+                    // Closing the channel stops tail at its next line anyway
+                }
+            }
+            if (sessions[i] != null) {
+                try {
+                    sessions[i].close();
+                } catch (IOException ignored) {
+                    // Already gone with the connection
+                }
+            }
+        }
+        flush(System.nanoTime());
+    }
+}
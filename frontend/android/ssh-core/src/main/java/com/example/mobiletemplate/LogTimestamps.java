@@ -0,0 +1,314 @@
+package com.example.mobiletemplate;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Timestamps at the start of log lines, as epoch millis. The common formats are
+ * parsed by hand, without a Date or a regex per line, since a merged tail runs
+ * every line of every host through here:
+ * <ul>
+ *   <li>iso8601: 2024-01-12T09:41:07.113Z, a space for the T, an offset or none</li>
+ *   <li>syslog: Jan 12 09:41:07, in the current year</li>
+ *   <li>clf: [12/Jan/2024:09:41:07 +0000], as in web server access logs</li>
+ *   <li>epoch: 1705052467 or 1705052467.113, seconds</li>
+ * </ul>
+ * Anything else is a custom format: a regex whose first group is the timestamp,
+ * read with a SimpleDateFormat pattern (much slower). Times without an offset are
+ * in the given time zone.
+ */
+public class LogTimestamps {
+    public static final String ISO8601 = "iso8601";
+    public static final String SYSLOG = "syslog";
+    public static final String CLF = "clf";
+    public static final String EPOCH = "epoch";
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    /** Reads the timestamp of one line; -1 when the line has none. */
+    public interface Parser {
+        long parse(String line);
+    }
+
+    private final Parser[] parsers;
+    // The parser that read the previous line goes first: a file rarely mixes formats
+    private int last;
+
+    /** A chain of parsers tried in order. The parsers can be shared, a chain can't: one per source. */
+    public LogTimestamps(List<Parser> parsers) {
+        this.parsers = parsers.toArray(new Parser[0]);
+    }
+
+    public long parse(String line) {
+        if (parsers.length == 0) {
+            return -1;
+        }
+        long millis = parsers[last].parse(line);
+        if (millis >= 0) {
+            return millis;
+        }
+        for (int i = 0; i < parsers.length; i++) {
+            if (i != last) {
+                millis = parsers[i].parse(line);
+                if (millis >= 0) {
+                    last = i;
+                    return millis;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Parsers for the named formats, in order; all four built-in ones when names is empty. */
+    public static List<Parser> builtIn(List<String> names, TimeZone zone) throws SessionException {
+        List<Parser> parsers = new ArrayList<>();
+        List<String> wanted = names;
+        if (wanted.isEmpty()) {
+            wanted = new ArrayList<>();
+            wanted.add(ISO8601);
+            wanted.add(SYSLOG);
+            wanted.add(CLF);
+            wanted.add(EPOCH);
+        }
+        for (String name : wanted) {
+            parsers.add(forName(name, zone));
+        }
+        return parsers;
+    }
+
+    public static Parser forName(String name, final TimeZone zone) throws SessionException {
+        switch (name) {
+            case ISO8601:
+                return new Parser() {
+                    @Override
+                    public long parse(String line) {
+                        return parseIso(line, zone);
+                    }
+                };
+            case SYSLOG:
+                final int year = Calendar.getInstance(zone).get(Calendar.YEAR);
+                return new Parser() {
+                    @Override
+                    public long parse(String line) {
+                        return parseSyslog(line, year, zone);
+                    }
+                };
+            case CLF:
+                return new Parser() {
+                    @Override
+                    public long parse(String line) {
+                        return parseClf(line);
+                    }
+                };
+            case EPOCH:
+                return new Parser() {
+                    @Override
+                    public long parse(String line) {
+                        return parseEpoch(line);
+                    }
+                };
+            default:
+                throw new SessionException("Unknown timestamp format: " + name);
+        }
+    }
+
+    /** A regex whose first group holds the timestamp, read with a SimpleDateFormat pattern. */
+    public static Parser custom(String regex, String dateFormat, TimeZone zone) throws SessionException {
+        final Pattern pattern;
+        final SimpleDateFormat format;
+        try {
+            pattern = Pattern.compile(regex);
+            format = new SimpleDateFormat(dateFormat, Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            throw new SessionException("Invalid timestamp format: " + e.getMessage());
+        }
+        format.setTimeZone(zone);
+        format.setLenient(false);
+        return new Parser() {
+            @Override
+            public long parse(String line) {
+                Matcher matcher = pattern.matcher(line);
+                if (!matcher.lookingAt() || matcher.groupCount() < 1 || matcher.group(1) == null) {
+                    return -1;
+                }
+                Date date;
+                // Built-in parsers are stateless, this one is shared by the sources too
+                synchronized (format) {
+                    date = format.parse(matcher.group(1), new ParsePosition(0));
+                }
+                return date == null ? -1 : date.getTime();
+            }
+        };
+    }
+
+    static long parseIso(String line, TimeZone zone) {
+        // yyyy-MM-ddTHH:mm:ss
+        if (line.length() < 19 || line.charAt(4) != '-' || line.charAt(7) != '-'
+            || (line.charAt(10) != 'T' && line.charAt(10) != ' ') || line.charAt(13) != ':' || line.charAt(16) != ':') {
+            return -1;
+        }
+        int year = digits(line, 0, 4);
+        int month = digits(line, 5, 2);
+        int day = digits(line, 8, 2);
+        int hour = digits(line, 11, 2);
+        int minute = digits(line, 14, 2);
+        int second = digits(line, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+            || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        int at = 19;
+        int millis = 0;
+        if (at < line.length() && (line.charAt(at) == '.' || line.charAt(at) == ',')) {
+            // Fraction: keep three digits, skip the rest
+            at++;
+            int scale = 100;
+            while (at < line.length() && isDigit(line.charAt(at))) {
+                millis += (line.charAt(at) - '0') * scale;
+                scale /= 10;
+                at++;
+            }
+        }
+        long local = utcMillis(year, month, day, hour, minute, second) + millis;
+        if (at < line.length()) {
+            char c = line.charAt(at);
+            if (c == 'Z') {
+                return local;
+            }
+            if ((c == '+' || c == '-') && at + 3 <= line.length()) {
+                int offsetHours = digits(line, at + 1, 2);
+                int offsetMinutes = 0;
+                int next = at + 3;
+                if (next < line.length() && line.charAt(next) == ':') {
+                    next++;
+                }
+                if (next + 2 <= line.length()) {
+                    int value = digits(line, next, 2);
+                    offsetMinutes = value < 0 ? 0 : value;
+                }
+                if (offsetHours >= 0) {
+                    long offset = (offsetHours * 60L + offsetMinutes) * 60_000L;
+                    return c == '+' ? local - offset : local + offset;
+                }
+            }
+        }
+        return local - zone.getOffset(local);
+    }
+
+    static long parseSyslog(String line, int year, TimeZone zone) {
+        // MMM dd HH:mm:ss, the day padded with a space
+        if (line.length() < 15 || line.charAt(3) != ' ' || line.charAt(9) != ':' || line.charAt(12) != ':') {
+            return -1;
+        }
+        int month = month(line, 0);
+        int day = line.charAt(4) == ' ' ? digits(line, 5, 1) : digits(line, 4, 2);
+        int hour = digits(line, 7, 2);
+        int minute = digits(line, 10, 2);
+        int second = digits(line, 13, 2);
+        if (month < 0 || day < 1 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+        long local = utcMillis(year, month, day, hour, minute, second);
+        return local - zone.getOffset(local);
+    }
+
+    static long parseClf(String line) {
+        // [dd/MMM/yyyy:HH:mm:ss +hhmm], anywhere in the first part of the line
+        int open = line.indexOf('[');
+        if (open < 0 || open > 64 || line.length() < open + 28 || line.charAt(open + 3) != '/'
+            || line.charAt(open + 7) != '/' || line.charAt(open + 12) != ':' || line.charAt(open + 21) != ' ') {
+            return -1;
+        }
+        int day = digits(line, open + 1, 2);
+        int month = month(line, open + 4);
+        int year = digits(line, open + 8, 4);
+        int hour = digits(line, open + 13, 2);
+        int minute = digits(line, open + 16, 2);
+        int second = digits(line, open + 19, 2);
+        int offsetHours = digits(line, open + 23, 2);
+        int offsetMinutes = digits(line, open + 25, 2);
+        char sign = line.charAt(open + 22);
+        if (day < 1 || month < 0 || year < 0 || hour < 0 || minute < 0 || second < 0 || offsetHours < 0
+            || offsetMinutes < 0 || (sign != '+' && sign != '-')) {
+            return -1;
+        }
+        long offset = (offsetHours * 60L + offsetMinutes) * 60_000L;
+        long local = utcMillis(year, month, day, hour, minute, second);
+        return sign == '+' ? local - offset : local + offset;
+    }
+
+    static long parseEpoch(String line) {
+        // Ten digits of seconds: 2001 to 2286, so a line starting with a small number isn't taken
+        if (line.length() < 10) {
+            return -1;
+        }
+        long seconds = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            seconds = seconds * 10 + (c - '0');
+        }
+        if (line.length() > 10 && isDigit(line.charAt(10))) {
+            return -1;
+        }
+        long millis = seconds * 1000;
+        if (line.length() > 11 && line.charAt(10) == '.') {
+            int scale = 100;
+            for (int i = 11; i < Math.min(line.length(), 14) && isDigit(line.charAt(i)); i++) {
+                millis += (line.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return millis;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** The number in count digits at from, -1 if any is not a digit. */
+    private static int digits(String line, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /** 1-12 for the month abbreviation at from, -1 if none. */
+    private static int month(String line, int from) {
+        for (int m = 0; m < MONTHS.length; m++) {
+            if (line.regionMatches(from, MONTHS[m], 0, 3)) {
+                return m + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Epoch millis of a UTC date and time, without a Calendar (days from civil, proleptic Gregorian). */
+    static long utcMillis(int year, int month, int day, int hour, int minute, int second) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+}
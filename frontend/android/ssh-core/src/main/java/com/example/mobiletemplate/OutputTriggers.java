@@ -0,0 +1,555 @@
+package com.example.mobiletemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.json.JSONObject;
+
+/**
+ * Output triggers of one session: literal patterns and regexes that raise an
+ * "outputMatch" event when shell or exec output contains them, so alerts work
+ * without the output itself crossing the bridge.
+ *
+ * Literals are matched by an Aho-Corasick automaton over raw bytes, one table
+ * lookup per byte whatever the number of patterns; patterns with ignoreCase go
+ * into a second automaton whose byte classes fold ASCII case. Regexes run on
+ * whole lines, at most {@link #MAX_LINE_BYTES} of each. That bounds the input, not
+ * the work: java.util.regex backtracks, and a pattern like (a+)+$ can take forever
+ * on a short line. So a regex gets {@link #REGEX_BUDGET_NANOS} per line on the
+ * reader thread; past it the line counts as not matching (see getRegexTimeouts).
+ * Scanners ({@link #scanner}) keep their state between chunks, so a match split
+ * across two reads is still found.
+ *
+ * Events are rate-limited per trigger: at most one per minIntervalMillis, the
+ * next one carrying in count how many matches it stands for. Matches held back
+ * are not lost if output goes quiet: with a scheduler they go out once the
+ * interval is over, with the line of the last one, and {@link #flush} sends
+ * what is left when the triggers are replaced or the session closes.
+ */
+public class OutputTriggers {
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+    static final int MAX_LINE_BYTES = 4096;
+    static final int MAX_PATTERN_LENGTH = 256;
+    static final int MAX_TRIGGERS = 64;
+    static final long REGEX_BUDGET_NANOS = 20_000_000L;
+    // Context sent with a match, either side of it
+    private static final int CONTEXT_BYTES = 160;
+
+    /** One pattern to watch for. */
+    public static class Trigger {
+        final String id;
+        final String pattern;
+        final boolean regex;
+        final boolean ignoreCase;
+
+        public Trigger(String id, String pattern, boolean regex, boolean ignoreCase) {
+            this.id = id;
+            this.pattern = pattern;
+            this.regex = regex;
+            this.ignoreCase = ignoreCase;
+        }
+    }
+
+    /**
+     * Byte-level Aho-Corasick automaton, as a full transition table over byte
+     * classes: bytes that appear in no pattern all share class 0, which keeps the
+     * table small (states x distinct pattern bytes) without a branch per byte.
+     * Entries are the target's row offset (state x classes), complemented when
+     * the target state has outputs, so the scan loop is a load and a sign test.
+     */
+    static class Automaton {
+        final int[] byteClass = new int[256];
+        final int classes;
+        final int[] next;
+        // Triggers ending at each state, suffix matches included; null for most states
+        final int[][] output;
+
+        /** The triggers for a complemented table entry. */
+        int[] outputAt(int entry) {
+            return output[~entry / classes];
+        }
+
+        Automaton(List<byte[]> patterns, List<Integer> triggerIndexes, boolean foldCase) {
+            int classCount = 1;
+            for (byte[] pattern : patterns) {
+                for (byte b : pattern) {
+                    int c = fold(b & 0xff, foldCase);
+                    if (byteClass[c] == 0) {
+                        byteClass[c] = classCount++;
+                    }
+                }
+            }
+            if (foldCase) {
+                for (int c = 'A'; c <= 'Z'; c++) {
+                    byteClass[c] = byteClass[c + ('a' - 'A')];
+                }
+            }
+            classes = classCount;
+
+            // Trie
+            List<int[]> goTo = new ArrayList<>();
+            List<List<Integer>> outputs = new ArrayList<>();
+            goTo.add(newRow(classes));
+            outputs.add(null);
+            for (int p = 0; p < patterns.size(); p++) {
+                int state = 0;
+                for (byte b : patterns.get(p)) {
+                    int c = byteClass[fold(b & 0xff, foldCase)];
+                    if (goTo.get(state)[c] < 0) {
+                        goTo.get(state)[c] = goTo.size();
+                        goTo.add(newRow(classes));
+                        outputs.add(null);
+                    }
+                    state = goTo.get(state)[c];
+                }
+                if (outputs.get(state) == null) {
+                    outputs.set(state, new ArrayList<Integer>());
+                }
+                outputs.get(state).add(triggerIndexes.get(p));
+            }
+
+            // Failure links, breadth first, folded into a complete transition table
+            int states = goTo.size();
+            next = new int[states * classes];
+            int[] fail = new int[states];
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int c = 0; c < classes; c++) {
+                int child = goTo.get(0)[c];
+                next[c] = child < 0 ? 0 : child;
+                if (child > 0) {
+                    queue[tail++] = child;
+                }
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                List<Integer> inherited = outputs.get(fail[state]);
+                if (inherited != null) {
+                    if (outputs.get(state) == null) {
+                        outputs.set(state, new ArrayList<Integer>());
+                    }
+                    outputs.get(state).addAll(inherited);
+                }
+                for (int c = 0; c < classes; c++) {
+                    int child = goTo.get(state)[c];
+                    if (child < 0) {
+                        next[state * classes + c] = next[fail[state] * classes + c];
+                    } else {
+                        next[state * classes + c] = child;
+                        fail[child] = next[fail[state] * classes + c];
+                        queue[tail++] = child;
+                    }
+                }
+            }
+            for (int i = 0; i < next.length; i++) {
+                int target = next[i];
+                next[i] = outputs.get(target) != null ? ~(target * classes) : target * classes;
+            }
+            output = new int[states][];
+            for (int s = 0; s < states; s++) {
+                List<Integer> list = outputs.get(s);
+                if (list != null) {
+                    output[s] = new int[list.size()];
+                    for (int i = 0; i < list.size(); i++) {
+                        output[s][i] = list.get(i);
+                    }
+                }
+            }
+        }
+
+        private static int[] newRow(int classes) {
+            int[] row = new int[classes];
+            java.util.Arrays.fill(row, -1);
+            return row;
+        }
+
+        private static int fold(int b, boolean foldCase) {
+            return foldCase && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+        }
+    }
+
+    private final String sessionId;
+    private final SessionBridge bridge;
+    private final long minIntervalNanos;
+    private final String[] ids;
+    private final Automaton exact;
+    private final Automaton folded;
+    private final Pattern[] regexes;
+    private final int[] regexTriggers;
+    private final ScheduledExecutorService scheduler;
+    private final long[] lastEmitNanos;
+    private final long[] pending;
+    // Line and stream of the last match held back, and whether a flush is on its way
+    private final String[] pendingLine;
+    private final String[] pendingStream;
+    private final boolean[] flushScheduled;
+    private long matches;
+    private long events;
+    private long regexTimeouts;
+    private volatile boolean forwardOutput = true;
+
+    /** Without a scheduler, matches held back only go out with a later one or on {@link #flush}. */
+    public OutputTriggers(String sessionId, List<Trigger> triggers, long minIntervalMillis, SessionBridge bridge)
+        throws SessionException {
+        this(sessionId, triggers, minIntervalMillis, bridge, null);
+    }
+
+    /** @throws SessionException for a bad regex, an empty or oversized pattern, or too many triggers */
+    public OutputTriggers(String sessionId, List<Trigger> triggers, long minIntervalMillis, SessionBridge bridge,
+                          ScheduledExecutorService scheduler) throws SessionException {
+        if (triggers.size() > MAX_TRIGGERS) {
+            throw new SessionException("Too many triggers (max " + MAX_TRIGGERS + ")");
+        }
+        this.sessionId = sessionId;
+        this.bridge = bridge;
+        this.minIntervalNanos = minIntervalMillis * 1_000_000L;
+        this.scheduler = scheduler;
+        ids = new String[triggers.size()];
+        lastEmitNanos = new long[triggers.size()];
+        pending = new long[triggers.size()];
+        pendingLine = new String[triggers.size()];
+        pendingStream = new String[triggers.size()];
+        flushScheduled = new boolean[triggers.size()];
+        // So that the first match of each trigger is sent
+        java.util.Arrays.fill(lastEmitNanos, System.nanoTime() - minIntervalNanos - 1);
+
+        List<byte[]> exactPatterns = new ArrayList<>();
+        List<Integer> exactIndexes = new ArrayList<>();
+        List<byte[]> foldedPatterns = new ArrayList<>();
+        List<Integer> foldedIndexes = new ArrayList<>();
+        List<Pattern> regexList = new ArrayList<>();
+        List<Integer> regexIndexes = new ArrayList<>();
+        for (int i = 0; i < triggers.size(); i++) {
+            Trigger trigger = triggers.get(i);
+            ids[i] = trigger.id;
+            if (trigger.pattern == null || trigger.pattern.isEmpty() || trigger.pattern.length() > MAX_PATTERN_LENGTH) {
+                throw new SessionException("Invalid trigger pattern for " + trigger.id);
+            }
+            if (trigger.regex) {
+                try {
+                    regexList.add(Pattern.compile(trigger.pattern, trigger.ignoreCase ? Pattern.CASE_INSENSITIVE : 0));
+                } catch (PatternSyntaxException e) {
+                    throw new SessionException("Invalid trigger pattern for " + trigger.id + ": " + e.getDescription());
+                }
+                regexIndexes.add(i);
+            } else if (trigger.ignoreCase) {
+                foldedPatterns.add(trigger.pattern.getBytes(StandardCharsets.UTF_8));
+                foldedIndexes.add(i);
+            } else {
+                exactPatterns.add(trigger.pattern.getBytes(StandardCharsets.UTF_8));
+                exactIndexes.add(i);
+            }
+        }
+        exact = exactPatterns.isEmpty() ? null : new Automaton(exactPatterns, exactIndexes, false);
+        folded = foldedPatterns.isEmpty() ? null : new Automaton(foldedPatterns, foldedIndexes, true);
+        regexes = regexList.toArray(new Pattern[0]);
+        regexTriggers = new int[regexIndexes.size()];
+        for (int i = 0; i < regexTriggers.length; i++) {
+            regexTriggers[i] = regexIndexes.get(i);
+        }
+    }
+
+    /** Whether shell output still goes to JS while these triggers watch it. */
+    public boolean isForwardOutput() {
+        return forwardOutput;
+    }
+
+    public void setForwardOutput(boolean forwardOutput) {
+        this.forwardOutput = forwardOutput;
+    }
+
+    /** State for one output stream ("shell", "exec"); not thread-safe, one reader per scanner. */
+    public Scanner scanner(String stream) {
+        return new Scanner(stream);
+    }
+
+    public class Scanner {
+        private final String stream;
+        private int exactState;
+        private int foldedState;
+        // Only kept when there are regexes
+        private final byte[] line = regexes.length > 0 ? new byte[MAX_LINE_BYTES] : null;
+        private int lineLength;
+
+        Scanner(String stream) {
+            this.stream = stream;
+        }
+
+        public void scan(byte[] buffer, int off, int len) {
+            int end = off + len;
+            if (exact != null) {
+                int state = exactState;
+                int[] byteClass = exact.byteClass;
+                int[] next = exact.next;
+                for (int i = off; i < end; i++) {
+                    int entry = next[state + byteClass[buffer[i] & 0xff]];
+                    if (entry < 0) {
+                        matched(exact.outputAt(entry), buffer, off, end, i);
+                        entry = ~entry;
+                    }
+                    state = entry;
+                }
+                exactState = state;
+            }
+            if (folded != null) {
+                int state = foldedState;
+                int[] byteClass = folded.byteClass;
+                int[] next = folded.next;
+                for (int i = off; i < end; i++) {
+                    int entry = next[state + byteClass[buffer[i] & 0xff]];
+                    if (entry < 0) {
+                        matched(folded.outputAt(entry), buffer, off, end, i);
+                        entry = ~entry;
+                    }
+                    state = entry;
+                }
+                foldedState = state;
+            }
+            if (line != null) {
+                scanLines(buffer, off, end);
+            }
+        }
+
+        private void scanLines(byte[] buffer, int off, int end) {
+            int start = off;
+            for (int i = off; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    append(buffer, start, i);
+                    matchLine();
+                    start = i + 1;
+                }
+            }
+            append(buffer, start, end);
+        }
+
+        private void append(byte[] buffer, int from, int to) {
+            // Past the cap the rest of the line is dropped, not matched
+            int n = Math.min(to - from, MAX_LINE_BYTES - lineLength);
+            if (n > 0) {
+                System.arraycopy(buffer, from, line, lineLength, n);
+                lineLength += n;
+            }
+        }
+
+        private void matchLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            lineLength = 0;
+            if (length == 0) {
+                return;
+            }
+            String text = new String(line, 0, length, StandardCharsets.UTF_8);
+            for (int r = 0; r < regexes.length; r++) {
+                if (find(regexes[r], text)) {
+                    offer(regexTriggers[r], stream,
+                        text.length() > 2 * CONTEXT_BYTES ? text.substring(0, 2 * CONTEXT_BYTES) : text);
+                }
+            }
+        }
+
+        private void matched(int[] triggers, byte[] buffer, int off, int end, int at) {
+            for (int trigger : triggers) {
+                offer(trigger, stream, literalContext(buffer, off, end, at));
+            }
+        }
+
+        private String literalContext(byte[] buffer, int off, int end, int at) {
+            // The line around the match, as far as this chunk has it
+            int from = at;
+            while (from > off && at - from < CONTEXT_BYTES && buffer[from - 1] != '\n') {
+                from--;
+            }
+            int to = at + 1;
+            while (to < end && to - at < CONTEXT_BYTES && buffer[to] != '\n' && buffer[to] != '\r') {
+                to++;
+            }
+            return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+
+    private boolean find(Pattern regex, String text) {
+        try {
+            return regex.matcher(new TimedLine(text, System.nanoTime() + REGEX_BUDGET_NANOS)).find();
+        } catch (RegexTimeoutException e) {
+            synchronized (this) {
+                regexTimeouts++;
+            }
+            return false;
+        }
+    }
+
+    /** The text of a line for a matcher, failing it once the deadline has passed. */
+    private static final class TimedLine implements CharSequence {
+        private final String text;
+        private final long deadlineNanos;
+        private int reads;
+
+        TimedLine(String text, long deadlineNanos) {
+            this.text = text;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public char charAt(int index) {
+            // The clock only every 1024 reads: a backtracking regex makes millions
+            if ((++reads & 0x3FF) == 0 && System.nanoTime() > deadlineNanos) {
+                throw new RegexTimeoutException();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static final class RegexTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        // Thrown once per timed-out scan, so skip the stack walk (the
+        // four-argument constructor that would do this needs API 24)
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Counts a match and sends it now if its trigger's interval is over; else keeps it
+     * for the next event of the trigger, scheduling one for when the interval ends.
+     */
+    private void offer(int trigger, String stream, String text) {
+        long count;
+        synchronized (this) {
+            matches++;
+            pending[trigger]++;
+            long now = System.nanoTime();
+            long wait = lastEmitNanos[trigger] + minIntervalNanos - now;
+            if (wait > 0) {
+                pendingLine[trigger] = text;
+                pendingStream[trigger] = stream;
+                scheduleFlush(trigger, wait);
+                return;
+            }
+            lastEmitNanos[trigger] = now;
+            count = take(trigger);
+        }
+        emit(trigger, stream, text, count);
+    }
+
+    private void scheduleFlush(final int trigger, long delayNanos) {
+        if (scheduler == null || flushScheduled[trigger]) {
+            return;
+        }
+        flushScheduled[trigger] = true;
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushWhenDue(trigger);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; flush() still sends it
+            flushScheduled[trigger] = false;
+        }
+    }
+
+    private void flushWhenDue(int trigger) {
+        String stream;
+        String text;
+        long count;
+        synchronized (this) {
+            flushScheduled[trigger] = false;
+            if (pending[trigger] == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long wait = lastEmitNanos[trigger] + minIntervalNanos - now;
+            if (wait > 0) {
+                // A match was sent meanwhile and more were held back since
+                scheduleFlush(trigger, wait);
+                return;
+            }
+            lastEmitNanos[trigger] = now;
+            stream = pendingStream[trigger];
+            text = pendingLine[trigger];
+            count = take(trigger);
+        }
+        emit(trigger, stream, text, count);
+    }
+
+    /** Sends every match still held back, whatever the interval: the triggers are going away. */
+    public void flush() {
+        for (int trigger = 0; trigger < ids.length; trigger++) {
+            String stream;
+            String text;
+            long count;
+            synchronized (this) {
+                if (pending[trigger] == 0) {
+                    continue;
+                }
+                lastEmitNanos[trigger] = System.nanoTime();
+                stream = pendingStream[trigger];
+                text = pendingLine[trigger];
+                count = take(trigger);
+            }
+            emit(trigger, stream, text, count);
+        }
+    }
+
+    /** The count for an event of the trigger, which is sent from now on. Under the lock. */
+    private long take(int trigger) {
+        long count = pending[trigger];
+        pending[trigger] = 0;
+        pendingLine[trigger] = null;
+        pendingStream[trigger] = null;
+        events++;
+        return count;
+    }
+
+    private void emit(int trigger, String stream, String text, long count) {
+        JSONObject data = new JSONObject();
+        data.put("sessionId", sessionId);
+        data.put("triggerId", ids[trigger]);
+        data.put("stream", stream);
+        data.put("line", text);
+        data.put("count", count);
+        bridge.emit("outputMatch", data);
+    }
+
+    /** Matches seen, sent or not. */
+    public synchronized long getMatches() {
+        return matches;
+    }
+
+    /** outputMatch events sent. */
+    public synchronized long getEvents() {
+        return events;
+    }
+
+    /** Lines a regex gave up on after REGEX_BUDGET_NANOS. */
+    public synchronized long getRegexTimeouts() {
+        return regexTimeouts;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.mobiletemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for the SSH plugin.
+ *
+ * Every recording method returns immediately while metrics are disabled, so the
+ * hot paths only pay for a volatile read.
+ */
+public class PluginMetrics {
+    public static final String PHASE_DNS = "dns";
+    public static final String PHASE_TCP = "tcp";
+    public static final String PHASE_KEX = "kex";
+    public static final String PHASE_AUTH = "auth";
+    public static final String PHASE_BIOMETRIC = "biometric";
+    public static final String PHASE_KEY_DECRYPT = "keyDecrypt";
+    // Not a phase: the part of the connect a prewarmed connection had already done
+    public static final String PHASE_PREWARM_SAVED = "prewarmSaved";
+
+    public static class SessionCounters {
+        public final AtomicLong bytesIn = new AtomicLong();
+        public final AtomicLong bytesOut = new AtomicLong();
+    }
+
+    private volatile boolean enabled = false;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+    private final LatencyHistogram execLatency = new LatencyHistogram();
+    private final ConcurrentHashMap<String, SessionCounters> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong bridgeEvents = new AtomicLong();
+    private final AtomicLong streamFrames = new AtomicLong();
+
+    private long lastRateEvents = 0;
+    private long lastRateNanos = System.nanoTime();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void recordPhase(String phase, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        LatencyHistogram histogram = phases.get(phase);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = phases.putIfAbsent(phase, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.recordNanos(nanos);
+    }
+
+    public void recordExec(long nanos) {
+        if (enabled) {
+            execLatency.recordNanos(nanos);
+        }
+    }
+
+    public void addBytesIn(String sessionId, long bytes) {
+        if (enabled) {
+            counters(sessionId).bytesIn.addAndGet(bytes);
+        }
+    }
+
+    public void addBytesOut(String sessionId, long bytes) {
+        if (enabled) {
+            counters(sessionId).bytesOut.addAndGet(bytes);
+        }
+    }
+
+    public void recordBridgeEvent() {
+        if (enabled) {
+            bridgeEvents.incrementAndGet();
+        }
+    }
+
+    /** Output chunks sent over the binary stream transport instead of the bridge. */
+    public void recordStreamFrame() {
+        if (enabled) {
+            streamFrames.incrementAndGet();
+        }
+    }
+
+    public void removeSession(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    public Map<String, LatencyHistogram> getPhases() {
+        return phases;
+    }
+
+    public LatencyHistogram getExecLatency() {
+        return execLatency;
+    }
+
+    public Map<String, SessionCounters> getSessions() {
+        return sessions;
+    }
+
+    public long getBridgeEvents() {
+        return bridgeEvents.get();
+    }
+
+    public long getStreamFrames() {
+        return streamFrames.get();
+    }
+
+    /**
+     * Bridge events per second since the previous call
+     */
+    public synchronized double sampleBridgeEventRate() {
+        long now = System.nanoTime();
+        long events = bridgeEvents.get();
+        double seconds = (now - lastRateNanos) / 1e9;
+        double rate = seconds > 0 ? (events - lastRateEvents) / seconds : 0;
+        lastRateEvents = events;
+        lastRateNanos = now;
+        return rate;
+    }
+
+    public void reset() {
+        phases.clear();
+        execLatency.reset();
+        sessions.clear();
+        bridgeEvents.set(0);
+        streamFrames.set(0);
+    }
+
+    private SessionCounters counters(String sessionId) {
+        SessionCounters counters = sessions.get(sessionId);
+        if (counters == null) {
+            SessionCounters created = new SessionCounters();
+            counters = sessions.putIfAbsent(sessionId, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+}
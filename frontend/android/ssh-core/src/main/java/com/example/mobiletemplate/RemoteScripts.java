@@ -0,0 +1,376 @@
+package com.example.mobiletemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * Runs scripts from a per-user cache on the host, where each is stored under its
+ * SHA-256, so a long maintenance script crosses the network once per host rather
+ * than inline in every exec (where the host's argument limits also cap it).
+ *
+ * When this device has already seen the host keep a script (the index, kept per
+ * user@host:port and persisted like {@link HostProfileStore}), a run is one exec.
+ * Otherwise an exec first checks for the file and, only if it is missing, takes
+ * the script on its stdin; it is written under a temporary name and renamed once
+ * all of it has arrived, so an interrupted upload never leaves a short script
+ * behind. The run itself checks once more: a script gone from the host since (a
+ * cleaned cache, another home directory behind the same address) is reported by
+ * a marker on stderr before anything runs, and is then uploaded again.
+ *
+ * Output goes out as it is read in "scriptOutput" events, then a "scriptExit".
+ */
+public class RemoteScripts {
+    public static final String DEFAULT_DIRECTORY = "${XDG_CACHE_HOME:-$HOME/.cache}/yuissh/scripts";
+    // Per host, the least recently run forgotten first
+    static final int MAX_INDEXED_PER_HOST = 128;
+    static final int MISSING_STATUS = 97;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    /** How one run went; exitStatus is -1 when unknown (the channel closed first, or an error). */
+    public static class Result {
+        public final String hash;
+        public final int exitStatus;
+        // The existence check was skipped: the index knew the host had it
+        public final boolean indexed;
+        public final boolean uploaded;
+        public final String error;
+
+        Result(String hash, int exitStatus, boolean indexed, boolean uploaded, String error) {
+            this.hash = hash;
+            this.exitStatus = exitStatus;
+            this.indexed = indexed;
+            this.uploaded = uploaded;
+            this.error = error;
+        }
+    }
+
+    private final SessionBridge bridge;
+    private volatile String directory = DEFAULT_DIRECTORY;
+    private KeyMetadataStore.Storage storage;
+    private JSONObject index;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong indexHits = new AtomicLong();
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong staleIndex = new AtomicLong();
+
+    public RemoteScripts(SessionBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    /** On the host, as sh expands it inside double quotes ($HOME and the like). */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /** Where the index is kept; without one it lasts as long as this object. */
+    public synchronized void setStorage(KeyMetadataStore.Storage storage) {
+        this.storage = storage;
+        index = null;
+    }
+
+    /** Lowercase hex SHA-256, which is also the script's file name on the host. */
+    public static String hash(byte[] script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(script);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JSONObject index() throws JSONException {
+        if (index == null) {
+            String json = storage != null ? storage.load() : null;
+            index = new JSONObject(json != null ? json : "{}");
+        }
+        return index;
+    }
+
+    public synchronized boolean isIndexed(String identity, String hash) {
+        JSONArray hashes = index().optJSONArray(identity);
+        if (hashes == null) {
+            return false;
+        }
+        for (int i = 0; i < hashes.length(); i++) {
+            if (hash.equals(hashes.optString(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Records that the host has the script, as its most recently run one. */
+    public synchronized void remember(String identity, String hash) {
+        JSONArray hashes = index().optJSONArray(identity);
+        List<String> others = new ArrayList<>();
+        if (hashes != null) {
+            for (int i = 0; i < hashes.length(); i++) {
+                if (!hash.equals(hashes.optString(i))) {
+                    others.add(hashes.optString(i));
+                }
+            }
+        }
+        // Oldest first: past the cap they are dropped
+        JSONArray updated = new JSONArray();
+        for (int i = Math.max(0, others.size() + 1 - MAX_INDEXED_PER_HOST); i < others.size(); i++) {
+            updated.put(others.get(i));
+        }
+        updated.put(hash);
+        index().put(identity, updated);
+        save();
+    }
+
+    private void save() {
+        if (storage != null) {
+            storage.save(index.toString());
+        }
+    }
+
+    /**
+     * Runs script with args on the host, uploading it first if need be, and emits its
+     * output and exit. Blocks until the script ends. identity is user@host:port, or
+     * null to check the host every time.
+     */
+    public Result run(SSHClient ssh, String identity, String sessionId, String runId, String script,
+                      List<String> args, Executor executor) {
+        byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+        String hash = hash(bytes);
+        boolean shebang = script.startsWith("#!");
+        runs.incrementAndGet();
+        boolean indexed = identity != null && isIndexed(identity, hash);
+        boolean uploaded = false;
+        Result result;
+        try {
+            if (indexed) {
+                indexHits.incrementAndGet();
+            } else {
+                uploaded = store(ssh, hash, bytes);
+                if (identity != null) {
+                    remember(identity, hash);
+                }
+            }
+            int status = execute(ssh, sessionId, runId, hash, shebang, args, executor);
+            if (status == MISSING) {
+                // Removed since it was indexed: once more, from the start
+                staleIndex.incrementAndGet();
+                indexed = false;
+                uploaded = store(ssh, hash, bytes);
+                status = execute(ssh, sessionId, runId, hash, shebang, args, executor);
+                if (status == MISSING) {
+                    throw new IOException("Script removed from the host while starting");
+                }
+            } else if (indexed) {
+                // Recently run: kept past the cap longer than the others
+                remember(identity, hash);
+            }
+            result = new Result(hash, status, indexed, uploaded, null);
+        } catch (IOException e) {
+            result = new Result(hash, -1, indexed, uploaded, e.getMessage());
+        }
+
+        JSONObject exit = new JSONObject();
+        exit.put("runId", runId);
+        exit.put("sessionId", sessionId);
+        exit.put("hash", hash);
+        exit.put("exitStatus", result.exitStatus);
+        exit.put("indexed", result.indexed);
+        exit.put("uploaded", result.uploaded);
+        if (result.error != null) {
+            exit.put("error", result.error);
+        }
+        bridge.emit("scriptExit", exit);
+        return result;
+    }
+
+    /** Makes sure the host has the script; returns whether it had to be sent. */
+    boolean store(SSHClient ssh, String hash, byte[] bytes) throws IOException {
+        checks.incrementAndGet();
+        try (Session session = ssh.startSession()) {
+            Session.Command command = session.exec(storeCommand(directory, hash, bytes.length));
+            InputStream stdout = command.getInputStream();
+            String answer = readLine(stdout);
+            if ("present".equals(answer)) {
+                return false;
+            }
+            if ("missing".equals(answer)) {
+                OutputStream stdin = command.getOutputStream();
+                stdin.write(bytes);
+                // Closing sends EOF, which ends the cat on the host
+                stdin.close();
+                answer = readLine(stdout);
+                if ("stored".equals(answer)) {
+                    uploads.incrementAndGet();
+                    uploadedBytes.addAndGet(bytes.length);
+                    return true;
+                }
+            }
+            String error = ExecStreams.readFully(command.getErrorStream()).trim();
+            throw new IOException("Could not store the script on the host"
+                + (error.isEmpty() ? "" : ": " + error));
+        }
+    }
+
+    /**
+     * Checks for the script and, if missing, says so and stores its stdin. Under umask
+     * 077, as a script may hold credentials.
+     */
+    static String storeCommand(String directory, String hash, int length) {
+        return "sh -c 'umask 077; d=\"" + directory + "\"; f=\"$d/" + hash + "\";"
+            + " if [ -f \"$f\" ]; then echo present; exit 0; fi;"
+            + " mkdir -p \"$d\" || exit 1; echo missing; t=\"$f.$$\";"
+            + " if cat > \"$t\" && [ $(wc -c < \"$t\") -eq " + length + " ] && chmod 700 \"$t\""
+            + " && mv -f \"$t\" \"$f\"; then echo stored; else rm -f \"$t\"; exit 1; fi'";
+    }
+
+    /** Runs the stored script; if it isn't there, prints the marker on stderr and exits with MISSING_STATUS. */
+    static String runCommand(String directory, String hash, boolean shebang, List<String> args) {
+        StringBuilder script = new StringBuilder();
+        script.append("f=\"").append(directory).append('/').append(hash).append("\";");
+        script.append(" if [ -f \"$f\" ]; then exec ").append(shebang ? "\"$f\"" : "sh \"$f\"");
+        for (String arg : args) {
+            script.append(' ').append(LogTailMerger.quote(arg));
+        }
+        script.append("; fi; echo ").append(marker(hash).trim()).append(" >&2; exit ").append(MISSING_STATUS);
+        return "sh -c '" + script + "'";
+    }
+
+    private static String marker(String hash) {
+        return "yuissh-script-missing-" + hash + "\n";
+    }
+
+    /** Exit status of the script, or MISSING if it wasn't on the host. */
+    private int execute(SSHClient ssh, final String sessionId, final String runId, String hash, boolean shebang,
+                        List<String> args, Executor executor) throws IOException {
+        try (Session session = ssh.startSession()) {
+            final Session.Command command = session.exec(runCommand(directory, hash, shebang, args));
+            final byte[] marker = marker(hash).getBytes(StandardCharsets.US_ASCII);
+            // Concurrently, as in ExecStreams: a full stderr window would stall stdout
+            FutureTask<Boolean> errorTask = new FutureTask<>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return pump(command.getErrorStream(), sessionId, runId, "stderr", marker);
+                }
+            });
+            executor.execute(errorTask);
+            pump(command.getInputStream(), sessionId, runId, "stdout", null);
+            boolean onlyMarker;
+            try {
+                onlyMarker = errorTask.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading stderr", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            command.join(5, TimeUnit.SECONDS);
+            Integer status = command.getExitStatus();
+            if (status == null) {
+                return -1;
+            }
+            return onlyMarker && status == MISSING_STATUS ? MISSING : status;
+        }
+    }
+
+    /**
+     * Emits the stream as it is read. With a marker, a stream that is nothing but the
+     * marker emits nothing and returns true; the start is held back until it differs.
+     */
+    private boolean pump(InputStream in, String sessionId, String runId, String stream, byte[] marker)
+        throws IOException {
+        ShellOutputDecoder decoder = new ShellOutputDecoder();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        boolean matching = marker != null;
+        int held = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            int start = 0;
+            if (matching) {
+                while (start < read && held < marker.length && buffer[start] == marker[held]) {
+                    start++;
+                    held++;
+                }
+                if (start == read) {
+                    continue;
+                }
+                matching = false;
+                emit(sessionId, runId, stream, decoder.decode(marker, 0, held));
+            }
+            emit(sessionId, runId, stream, decoder.decode(buffer, start, read - start));
+        }
+        if (matching && held < marker.length) {
+            // Ended partway through what looked like the marker
+            emit(sessionId, runId, stream, decoder.decode(marker, 0, held));
+            return false;
+        }
+        return matching;
+    }
+
+    private void emit(String sessionId, String runId, String stream, String output) {
+        if (output.isEmpty()) {
+            return;
+        }
+        JSONObject data = new JSONObject();
+        data.put("runId", runId);
+        data.put("sessionId", sessionId);
+        data.put("stream", stream);
+        data.put("output", output);
+        bridge.emit("scriptOutput", data);
+    }
+
+    /** One line of ASCII, read a byte at a time so nothing after it is consumed; null at EOF. */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(16);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /** runs, indexHits (no existence check), checks, uploads, uploadedBytes and staleIndex (removed from the host). */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("runs", runs.get());
+        stats.put("indexHits", indexHits.get());
+        stats.put("checks", checks.get());
+        stats.put("uploads", uploads.get());
+        stats.put("uploadedBytes", uploadedBytes.get());
+        stats.put("staleIndex", staleIndex.get());
+        return stats;
+    }
+}
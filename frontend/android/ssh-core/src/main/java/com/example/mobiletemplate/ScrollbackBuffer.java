@@ -0,0 +1,285 @@
+package com.example.mobiletemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size ring buffer holding the raw output of a shell session.
+ *
+ * Bytes are stored once in a power-of-two byte ring and every line start is
+ * recorded in a compact int ring (low 32 bits of the absolute offset), so lines
+ * can be paged and searched without copying the whole history.
+ * Line numbers are absolute: line 0 is the first line the session ever printed.
+ */
+public class ScrollbackBuffer {
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+    // Bytes a search scans per lock hold, so append() never waits on it for long
+    static final int SEARCH_SEGMENT = 64 * 1024;
+
+    private final byte[] data;
+    private final int mask;
+    private final int[] lineStarts;
+    private final int maxLines;
+    // Where writePos started: nothing before it was ever written
+    private final long origin;
+
+    // Total number of bytes ever appended
+    private long writePos;
+    // Oldest retained line and the number of the line currently being written
+    private long firstLine;
+    private long currentLine;
+
+    public ScrollbackBuffer(int capacityBytes) {
+        this(capacityBytes, 0, 0);
+    }
+
+    /** For tests: a buffer that behaves as if `line` lines and `pos` bytes had already gone by. */
+    ScrollbackBuffer(int capacityBytes, long pos, long line) {
+        int capacity = Integer.highestOneBit(Math.max(1024, capacityBytes));
+        if (capacity < capacityBytes) {
+            capacity <<= 1;
+        }
+        this.data = new byte[capacity];
+        this.mask = capacity - 1;
+        // Assume an average line of at least 8 bytes
+        this.maxLines = Math.max(64, capacity / 8);
+        this.lineStarts = new int[maxLines];
+        this.origin = pos;
+        this.writePos = pos;
+        this.firstLine = line;
+        this.currentLine = line;
+        this.lineStarts[(int) (line % maxLines)] = (int) pos;
+    }
+
+    public synchronized void append(byte[] bytes, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] == '\n') {
+                startLine(writePos + i + 1);
+            }
+        }
+
+        // Only the last `capacity` bytes can ever be read back
+        int skip = Math.max(0, length - data.length);
+        long pos = writePos + skip;
+        int remaining = length - skip;
+        int src = offset + skip;
+        while (remaining > 0) {
+            int index = (int) (pos & mask);
+            int chunk = Math.min(remaining, data.length - index);
+            System.arraycopy(bytes, src, data, index, chunk);
+            pos += chunk;
+            src += chunk;
+            remaining -= chunk;
+        }
+        writePos += length;
+
+        // Drop lines whose beginning has been overwritten (keep the open line)
+        long oldest = oldestRetainedByte();
+        while (firstLine < currentLine && lineStart(firstLine) < oldest) {
+            firstLine++;
+        }
+    }
+
+    private void startLine(long start) {
+        currentLine++;
+        if (currentLine - firstLine >= maxLines) {
+            firstLine = currentLine - maxLines + 1;
+        }
+        lineStarts[(int) (currentLine % maxLines)] = (int) start;
+    }
+
+    private long oldestRetainedByte() {
+        return Math.max(origin, writePos - data.length);
+    }
+
+    private long lineStart(long line) {
+        long stored = lineStarts[(int) (line % maxLines)] & 0xFFFFFFFFL;
+        long start = (writePos & ~0xFFFFFFFFL) | stored;
+        if (start > writePos) {
+            start -= 1L << 32;
+        }
+        return start;
+    }
+
+    private long lineEnd(long line) {
+        // Exclusive, without the trailing newline
+        return line < currentLine ? lineStart(line + 1) - 1 : writePos;
+    }
+
+    public synchronized long getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * Number of the line after the last retained one (the open line counts once it has content)
+     */
+    public synchronized long getNextLine() {
+        return lineStart(currentLine) < writePos ? currentLine + 1 : currentLine;
+    }
+
+    public synchronized long getSizeBytes() {
+        return writePos - oldestRetainedByte();
+    }
+
+    /**
+     * Decode up to `count` lines starting at `fromLine` (clamped to the retained range)
+     */
+    public synchronized List<String> getLines(long fromLine, int count) {
+        List<String> lines = new ArrayList<>();
+        long next = getNextLine();
+        long line = Math.max(fromLine, firstLine);
+        while (line < next && lines.size() < count) {
+            lines.add(decodeLine(line));
+            line++;
+        }
+        return lines;
+    }
+
+    public synchronized String getLine(long line) {
+        if (line < firstLine || line >= getNextLine()) {
+            return null;
+        }
+        return decodeLine(line);
+    }
+
+    private String decodeLine(long line) {
+        long start = Math.max(lineStart(line), oldestRetainedByte());
+        long end = lineEnd(line);
+        if (end > start && data[(int) ((end - 1) & mask)] == '\r') {
+            end--;
+        }
+        return new String(copy(start, end), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the lines containing `pattern` (Boyer-Moore-Horspool).
+     * Returns at most `maxResults` absolute line numbers in ascending order, among
+     * the bytes present when the search started.
+     * The ring is scanned in place, SEARCH_SEGMENT bytes per lock hold, so a long
+     * search never holds up append() on the shell reader thread. If output overtook
+     * the scan between two segments, it starts over from the oldest retained line.
+     */
+    public long[] search(String pattern, boolean ignoreCase, long fromLine, int maxResults) {
+        byte[] needle = pattern.getBytes(StandardCharsets.UTF_8);
+        if (needle.length == 0 || maxResults <= 0) {
+            return new long[0];
+        }
+        if (ignoreCase) {
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = toLower(needle[i]);
+            }
+        }
+
+        int[] shift = new int[256];
+        java.util.Arrays.fill(shift, needle.length);
+        for (int i = 0; i < needle.length - 1; i++) {
+            shift[needle[i] & 0xFF] = needle.length - 1 - i;
+        }
+
+        long[] results = new long[Math.min(maxResults, 64)];
+        int found = 0;
+        int last = needle.length - 1;
+        long end;
+        long line;
+        long pos;
+        // Lines are counted up to here (never past pos); `line` is the one containing it
+        long counted;
+        synchronized (this) {
+            end = writePos;
+            line = Math.min(Math.max(fromLine, firstLine), currentLine);
+            pos = Math.max(lineStart(line), oldestRetainedByte());
+            counted = pos;
+        }
+        // After a hit, the rest of its line is skipped: one hit per line is enough
+        boolean skipping = false;
+        boolean done = false;
+
+        while (!done) {
+            synchronized (this) {
+                if (counted < oldestRetainedByte()) {
+                    // Overwritten since the last segment, so the line count is lost
+                    line = firstLine;
+                    pos = Math.max(lineStart(line), oldestRetainedByte());
+                    counted = pos;
+                    skipping = false;
+                }
+                long segmentEnd = pos + SEARCH_SEGMENT;
+                while (!done && pos < segmentEnd) {
+                    if (skipping) {
+                        while (pos < end && pos < segmentEnd && data[(int) (pos & mask)] != '\n') {
+                            pos++;
+                        }
+                        counted = pos;
+                        if (pos >= end) {
+                            done = true;
+                        } else if (pos < segmentEnd) {
+                            pos++;
+                            counted = pos;
+                            line++;
+                            skipping = false;
+                        }
+                        continue;
+                    }
+                    if (pos + last >= end) {
+                        done = true;
+                        break;
+                    }
+                    // The window may straddle the end of the ring: byteAt wraps each index
+                    int j = last;
+                    while (j >= 0 && byteAt(pos + j, ignoreCase) == needle[j]) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        line += countLines(counted, pos);
+                        counted = pos;
+                        if (found == results.length) {
+                            results = java.util.Arrays.copyOf(results, Math.min(maxResults, results.length * 2));
+                        }
+                        results[found++] = line;
+                        done = found == maxResults;
+                        skipping = true;
+                    } else {
+                        pos += shift[byteAt(pos + last, ignoreCase) & 0xFF];
+                    }
+                }
+                if (!done && !skipping) {
+                    // Catch up while the bytes are still here, the next segment may not find them
+                    long to = Math.min(pos, end);
+                    line += countLines(counted, to);
+                    counted = to;
+                }
+            }
+        }
+        return java.util.Arrays.copyOf(results, found);
+    }
+
+    private int countLines(long from, long to) {
+        int lines = 0;
+        for (long i = from; i < to; i++) {
+            if (data[(int) (i & mask)] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private byte[] copy(long start, long end) {
+        int length = (int) Math.max(0, end - start);
+        byte[] bytes = new byte[length];
+        int index = (int) (start & mask);
+        int first = Math.min(length, data.length - index);
+        System.arraycopy(data, index, bytes, 0, first);
+        System.arraycopy(data, 0, bytes, first, length - first);
+        return bytes;
+    }
+
+    private byte byteAt(long pos, boolean ignoreCase) {
+        byte b = data[(int) (pos & mask)];
+        return ignoreCase ? toLower(b) : b;
+    }
+
+    private static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.mobiletemplate;
+
+import org.json.JSONObject;
+
+/**
+ * Where session events go. The Capacitor plugin forwards them to notifyListeners,
+ * tests and load scenarios collect or count them.
+ */
+public interface SessionBridge {
+    void emit(String event, JSONObject data);
+}
@@ -0,0 +1,13 @@
+package com.example.mobiletemplate;
+
+/**
+ * A request the session service refuses (unknown session, shell already closed...).
+ * The message is what the plugin rejects the call with.
+ */
+public class SessionException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public SessionException(String message) {
+        super(message);
+    }
+}
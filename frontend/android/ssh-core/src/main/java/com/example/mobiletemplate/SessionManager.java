@@ -0,0 +1,322 @@
+package com.example.mobiletemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Book-keeping for the lifetime of sessions: who owns each one, when it was last
+ * used and what it holds (open channels, reserved buffer bytes), plus the policies
+ * that decide when {@link SshSessionService} closes one on its own.
+ *
+ * An owner is whatever opened the session on the JS side (one id per page load);
+ * it proves it is alive with {@link #heartbeat}. When a WebView reloads, the old
+ * page's heartbeats stop and its sessions are reaped as orphaned once
+ * orphanTimeoutMillis has passed. Sessions without an owner are never orphaned.
+ *
+ * Limits of 0 and timeouts of 0 mean none.
+ */
+public class SessionManager {
+    public static final String REASON_DISCONNECT = "disconnect";
+    public static final String REASON_IDLE = "idle";
+    public static final String REASON_ORPHANED = "orphaned";
+    public static final String REASON_REMOTE = "remote";
+    public static final String REASON_SHUTDOWN = "shutdown";
+
+    public static final long DEFAULT_REAP_INTERVAL_MILLIS = 5000;
+
+    /** What the reaper asks the service about a session. */
+    public interface Liveness {
+        boolean isAlive(String sessionId);
+
+        /** When its shell last printed something, 0 without a shell. */
+        long lastOutputNanos(String sessionId);
+    }
+
+    /** What the manager knows about one session. */
+    public static class Record {
+        final String sessionId;
+        final long createdNanos = System.nanoTime();
+        volatile String owner;
+        volatile long lastActivityNanos = createdNanos;
+        final AtomicInteger channels = new AtomicInteger();
+        final AtomicLong bufferedBytes = new AtomicLong();
+
+        Record(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public long getIdleMillis(long nowNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nowNanos - lastActivityNanos);
+        }
+
+        public int getChannels() {
+            return channels.get();
+        }
+
+        public long getBufferedBytes() {
+            return bufferedBytes.get();
+        }
+    }
+
+    private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> heartbeats = new ConcurrentHashMap<>();
+    private final AtomicInteger channels = new AtomicInteger();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final HashMap<String, Long> closedByReason = new HashMap<>();
+    private volatile long idleTimeoutMillis;
+    private volatile long orphanTimeoutMillis;
+    private volatile int maxSessions;
+    private volatile int maxChannels;
+    private volatile long maxBufferedBytes;
+    private volatile boolean ownersPaused;
+
+    public void setPolicy(long idleTimeoutMillis, long orphanTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.orphanTimeoutMillis = orphanTimeoutMillis;
+    }
+
+    public void setLimits(int maxSessions, int maxChannels, long maxBufferedBytes) {
+        this.maxSessions = maxSessions;
+        this.maxChannels = maxChannels;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getOrphanTimeoutMillis() {
+        return orphanTimeoutMillis;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /** Cheap early refusal before a connect does any network work; {@link #add} is the binding check. */
+    public void checkSessionLimit() throws SessionException {
+        int max = maxSessions;
+        if (max > 0 && records.size() >= max) {
+            throw new SessionException("Session limit reached (" + max + ")");
+        }
+    }
+
+    synchronized Record add(String sessionId) throws SessionException {
+        checkSessionLimit();
+        Record record = new Record(sessionId);
+        records.put(sessionId, record);
+        return record;
+    }
+
+    /** Forgets a session, giving back whatever it still held. Returns false if it was already gone. */
+    boolean remove(String sessionId, String reason) {
+        Record record = records.remove(sessionId);
+        if (record == null) {
+            return false;
+        }
+        releaseFrom(record.channels, channels, Integer.MAX_VALUE);
+        releaseFrom(record.bufferedBytes, bufferedBytes, Long.MAX_VALUE);
+        synchronized (closedByReason) {
+            Long count = closedByReason.get(reason);
+            closedByReason.put(reason, count == null ? 1 : count + 1);
+        }
+        return true;
+    }
+
+    public Record get(String sessionId) {
+        return records.get(sessionId);
+    }
+
+    /** Gives a session to an owner, which keeps it alive with heartbeats from then on. */
+    public void claim(String sessionId, String owner) {
+        Record record = records.get(sessionId);
+        if (record != null) {
+            record.owner = owner;
+            heartbeat(owner);
+        }
+    }
+
+    /**
+     * While the app is in the background the WebView's timers stop, so owners can't
+     * beat: no session is orphaned then, and resuming restarts every owner's clock.
+     */
+    public void setOwnersPaused(boolean paused) {
+        ownersPaused = paused;
+        if (!paused) {
+            long now = System.nanoTime();
+            for (String owner : heartbeats.keySet()) {
+                heartbeats.put(owner, now);
+            }
+        }
+    }
+
+    public void heartbeat(String owner) {
+        heartbeats.put(owner, System.nanoTime());
+    }
+
+    public void touch(String sessionId) {
+        Record record = records.get(sessionId);
+        if (record != null) {
+            record.lastActivityNanos = System.nanoTime();
+        }
+    }
+
+    /** Counts a channel (exec or shell) against the session and the global cap. */
+    public void acquireChannel(String sessionId) throws SessionException {
+        Record record = records.get(sessionId);
+        if (record == null) {
+            throw new SessionException("Not connected");
+        }
+        int max = maxChannels;
+        if (channels.incrementAndGet() > max && max > 0) {
+            channels.decrementAndGet();
+            throw new SessionException("Channel limit reached (" + max + ")");
+        }
+        record.channels.incrementAndGet();
+        if (records.get(sessionId) != record) {
+            // Removed meanwhile, and remove() may not have seen this one
+            releaseFrom(record.channels, channels, 1);
+            throw new SessionException("Not connected");
+        }
+    }
+
+    public void releaseChannel(String sessionId) {
+        Record record = records.get(sessionId);
+        // A removed session already gave its channels back
+        if (record != null) {
+            releaseFrom(record.channels, channels, 1);
+        }
+    }
+
+    /** Moves up to amount from a session's count back out of the global one, never below zero. */
+    private static void releaseFrom(AtomicInteger session, AtomicInteger global, int amount) {
+        while (true) {
+            int held = session.get();
+            int released = Math.min(held, amount);
+            if (session.compareAndSet(held, held - released)) {
+                global.addAndGet(-released);
+                return;
+            }
+        }
+    }
+
+    private static void releaseFrom(AtomicLong session, AtomicLong global, long amount) {
+        while (true) {
+            long held = session.get();
+            long released = Math.min(held, amount);
+            if (session.compareAndSet(held, held - released)) {
+                global.addAndGet(-released);
+                return;
+            }
+        }
+    }
+
+    /** Reserves buffer space (scrollback, queued input) for a session against the global cap. */
+    public void reserveBytes(String sessionId, long bytes) throws SessionException {
+        Record record = records.get(sessionId);
+        if (record == null) {
+            throw new SessionException("Not connected");
+        }
+        long max = maxBufferedBytes;
+        if (bufferedBytes.addAndGet(bytes) > max && max > 0) {
+            bufferedBytes.addAndGet(-bytes);
+            throw new SessionException("Buffer limit reached (" + max + " bytes)");
+        }
+        record.bufferedBytes.addAndGet(bytes);
+        if (records.get(sessionId) != record) {
+            releaseFrom(record.bufferedBytes, bufferedBytes, bytes);
+            throw new SessionException("Not connected");
+        }
+    }
+
+    public void releaseBytes(String sessionId, long bytes) {
+        Record record = records.get(sessionId);
+        if (record != null) {
+            releaseFrom(record.bufferedBytes, bufferedBytes, bytes);
+        }
+    }
+
+    /**
+     * The sessions a reap pass should close now, each with its reason. lastOutputNanos
+     * gives shell output a say in idleness: a session printing a log isn't idle.
+     */
+    List<String[]> due(long nowNanos, Liveness liveness) {
+        List<String[]> due = new ArrayList<>();
+        long idle = idleTimeoutMillis;
+        long orphan = ownersPaused ? 0 : orphanTimeoutMillis;
+        for (Record record : records.values()) {
+            String reason = null;
+            String owner = record.owner;
+            Long beat = owner != null ? heartbeats.get(owner) : null;
+            if (!liveness.isAlive(record.sessionId)) {
+                reason = REASON_REMOTE;
+            } else if (orphan > 0 && beat != null && TimeUnit.NANOSECONDS.toMillis(nowNanos - beat) >= orphan) {
+                reason = REASON_ORPHANED;
+            } else if (idle > 0) {
+                long last = Math.max(record.lastActivityNanos, liveness.lastOutputNanos(record.sessionId));
+                if (TimeUnit.NANOSECONDS.toMillis(nowNanos - last) >= idle) {
+                    reason = REASON_IDLE;
+                }
+            }
+            if (reason != null) {
+                due.add(new String[] { record.sessionId, reason });
+            }
+        }
+        // Owners that have nothing left to keep alive
+        for (String owner : heartbeats.keySet()) {
+            boolean owns = false;
+            for (Record record : records.values()) {
+                if (owner.equals(record.owner)) {
+                    owns = true;
+                    break;
+                }
+            }
+            Long beat = heartbeats.get(owner);
+            if (!owns && beat != null && orphan > 0 && TimeUnit.NANOSECONDS.toMillis(nowNanos - beat) >= orphan) {
+                heartbeats.remove(owner, beat);
+            }
+        }
+        return due;
+    }
+
+    public int getSessionCount() {
+        return records.size();
+    }
+
+    public int getChannelCount() {
+        return channels.get();
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /** Sessions closed so far, by reason. */
+    public HashMap<String, Long> getClosedByReason() {
+        synchronized (closedByReason) {
+            return new HashMap<>(closedByReason);
+        }
+    }
+}
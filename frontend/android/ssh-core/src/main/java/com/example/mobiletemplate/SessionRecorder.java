@@ -0,0 +1,300 @@
+package com.example.mobiletemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records shell input/output in asciicast v2 format.
+ *
+ * The reader thread only copies the chunk and pushes it on a lock-free queue;
+ * a low-priority writer thread formats batches, compresses them and appends
+ * them to a FileChannel, rotating to a new file once maxFileBytes is reached.
+ * Terminal resizes are recorded as "r" events and carried into the header of
+ * the files rotated to after them.
+ */
+public class SessionRecorder {
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Events are dropped (and counted) rather than blocking the reader when the writer falls behind
+    private static final long MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+    private static final class Event {
+        final long timeNanos;
+        final char type;
+        final byte[] data;
+
+        Event(long timeNanos, char type, byte[] data) {
+            this.timeNanos = timeNanos;
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private final File directory;
+    private final String baseName;
+    private final int width;
+    private final int height;
+    private final boolean compress;
+    private final long maxFileBytes;
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final List<File> files = new ArrayList<>();
+    private final Thread writerThread;
+    private volatile boolean isRunning = true;
+
+    // Writer thread state
+    private FileChannel channel;
+    private OutputStream out;
+    private long fileStartNanos;
+    private int currentWidth;
+    private int currentHeight;
+    private byte[] pendingOutput = new byte[0];
+    private byte[] pendingInput = new byte[0];
+
+    public SessionRecorder(File directory, String baseName, int width, int height,
+                           boolean compress, long maxFileBytes) throws IOException {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.width = width;
+        this.height = height;
+        this.compress = compress;
+        this.maxFileBytes = maxFileBytes;
+        this.currentWidth = width;
+        this.currentHeight = height;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create recording directory: " + directory);
+        }
+        openNextFile();
+
+        writerThread = new Thread(this::writeLoop, "SessionRecorder-" + baseName);
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+
+    public void recordOutput(byte[] data, int offset, int length) {
+        enqueue('o', data, offset, length);
+    }
+
+    public void recordInput(byte[] data, int offset, int length) {
+        enqueue('i', data, offset, length);
+    }
+
+    /**
+     * Records a change of the terminal size, in columns and rows
+     */
+    public void recordResize(int columns, int rows) {
+        byte[] size = (columns + "x" + rows).getBytes(StandardCharsets.US_ASCII);
+        enqueue('r', size, 0, size.length);
+    }
+
+    /** Width the recording started with, as written in its first header. */
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private void enqueue(char type, byte[] data, int offset, int length) {
+        if (!isRunning || length <= 0) {
+            return;
+        }
+        if (pendingBytes.addAndGet(length) > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-length);
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        queue.offer(new Event(System.nanoTime(), type, copy));
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Stop recording, flush everything still queued and return the files written
+     */
+    public List<File> close() {
+        isRunning = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (files) {
+            return new ArrayList<>(files);
+        }
+    }
+
+    private void writeLoop() {
+        StringBuilder batch = new StringBuilder(64 * 1024);
+        try {
+            while (true) {
+                boolean running = isRunning;
+                Event event;
+                while ((event = queue.poll()) != null) {
+                    pendingBytes.addAndGet(-event.data.length);
+                    appendEvent(batch, event);
+                    if (batch.length() >= 64 * 1024) {
+                        writeBatch(batch);
+                    }
+                }
+                if (batch.length() > 0) {
+                    writeBatch(batch);
+                }
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+            }
+        } catch (IOException e) {
+            isRunning = false;
+            queue.clear();
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void appendEvent(StringBuilder batch, Event event) {
+        if (event.type == 'r') {
+            String size = new String(event.data, StandardCharsets.US_ASCII);
+            int x = size.indexOf('x');
+            currentWidth = Integer.parseInt(size.substring(0, x));
+            currentHeight = Integer.parseInt(size.substring(x + 1));
+            appendLine(batch, event, size);
+            return;
+        }
+        byte[] carried = event.type == 'o' ? pendingOutput : pendingInput;
+        byte[] bytes = event.data;
+        if (carried.length > 0) {
+            bytes = new byte[carried.length + event.data.length];
+            System.arraycopy(carried, 0, bytes, 0, carried.length);
+            System.arraycopy(event.data, 0, bytes, carried.length, event.data.length);
+        }
+
+        // Keep an incomplete UTF-8 sequence for the next chunk of the same stream
+        int complete = completeUtf8Length(bytes);
+        byte[] rest = new byte[bytes.length - complete];
+        System.arraycopy(bytes, complete, rest, 0, rest.length);
+        if (event.type == 'o') {
+            pendingOutput = rest;
+        } else {
+            pendingInput = rest;
+        }
+        if (complete == 0) {
+            return;
+        }
+
+        appendLine(batch, event, new String(bytes, 0, complete, StandardCharsets.UTF_8));
+    }
+
+    private void appendLine(StringBuilder batch, Event event, String data) {
+        long micros = Math.max(0, event.timeNanos - fileStartNanos) / 1000;
+        String fraction = Long.toString(1_000_000 + micros % 1_000_000).substring(1);
+        batch.append('[').append(micros / 1_000_000).append('.').append(fraction)
+            .append(", \"").append(event.type).append("\", ");
+        appendJsonString(batch, data);
+        batch.append("]\n");
+    }
+
+    private void writeBatch(StringBuilder batch) throws IOException {
+        out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        batch.setLength(0);
+        if (channel.size() >= maxFileBytes) {
+            closeFile();
+            openNextFile();
+        }
+    }
+
+    private void openNextFile() throws IOException {
+        String name;
+        synchronized (files) {
+            name = baseName + (files.isEmpty() ? "" : "." + files.size()) + (compress ? ".cast.gz" : ".cast");
+        }
+        File file = new File(directory, name);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+
+        OutputStream channelStream = Channels.newOutputStream(channel);
+        out = compress ? new GZIPOutputStream(channelStream, 64 * 1024, true) : channelStream;
+        fileStartNanos = System.nanoTime();
+
+        String header = "{\"version\": 2, \"width\": " + currentWidth + ", \"height\": " + currentHeight
+            + ", \"timestamp\": " + (System.currentTimeMillis() / 1000)
+            + ", \"env\": {\"TERM\": \"vt100\"}}\n";
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        synchronized (files) {
+            files.add(file);
+        }
+    }
+
+    private void closeFile() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+        out = null;
+        channel = null;
+    }
+
+    static int completeUtf8Length(byte[] bytes) {
+        int length = bytes.length;
+        // Look back at most 3 bytes for the lead byte of a truncated sequence
+        for (int i = length - 1; i >= Math.max(0, length - 3); i--) {
+            int b = bytes[i] & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int needed = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            return length - i < needed ? i : length;
+        }
+        return length;
+    }
+
+    static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c == 0x7F) {
+                        sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.mobiletemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-session input queue for a shell. Callers never block: {@link #offer} queues
+ * the bytes and returns. A drain task, run on a shared executor and never more
+ * than one at a time per session, writes everything queued within the coalescing
+ * window as a single write + flush, so a paste becomes a handful of SSH packets
+ * instead of one per keystroke event. Ordering is the order of offer() calls.
+ *
+ * When the queued bytes reach the cap, offer() refuses the data (the caller keeps
+ * it and retries) and the drained listener fires once the queue is half empty.
+ */
+public class ShellInputWriter {
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+    public static final int DEFAULT_COALESCE_MILLIS = 2;
+    // Larger writes are split by sshj into remote-max-packet sized chunks anyway
+    static final int MAX_WRITE = 64 * 1024;
+
+    public interface Listener {
+        void onDrained();
+        void onError(IOException e);
+    }
+
+    private final OutputStream out;
+    private final Executor writeExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final int coalesceMillis;
+    private final int maxQueuedBytes;
+    private final Listener listener;
+
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private int queuedBytes = 0;
+    private boolean scheduled = false;
+    private boolean refused = false;
+    private boolean closed = false;
+
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public ShellInputWriter(OutputStream out, Executor writeExecutor, ScheduledExecutorService scheduler,
+                            int coalesceMillis, int maxQueuedBytes, Listener listener) {
+        this.out = out;
+        this.writeExecutor = writeExecutor;
+        this.scheduler = scheduler;
+        this.coalesceMillis = coalesceMillis;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues bytes for the shell. Returns false, without queueing anything, when the
+     * queue is full.
+     */
+    public boolean offer(byte[] bytes) throws IOException {
+        synchronized (queue) {
+            if (closed) {
+                throw new IOException("Shell input is closed");
+            }
+            // An oversized chunk is still accepted into an empty queue, otherwise it could never be sent
+            if (queuedBytes > 0 && queuedBytes + bytes.length > maxQueuedBytes) {
+                refused = true;
+                return false;
+            }
+            queue.addLast(bytes);
+            queuedBytes += bytes.length;
+            if (scheduled) {
+                return true;
+            }
+            scheduled = true;
+        }
+        if (coalesceMillis > 0) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    writeExecutor.execute(drainTask);
+                }
+            }, coalesceMillis, TimeUnit.MILLISECONDS);
+        } else {
+            writeExecutor.execute(drainTask);
+        }
+        return true;
+    }
+
+    private void drain() {
+        byte[] pending = new byte[0];
+        while (true) {
+            boolean notifyDrained = false;
+            synchronized (queue) {
+                if (queue.isEmpty() || closed) {
+                    scheduled = false;
+                    return;
+                }
+                // Take as much as fits in one write; a single larger chunk goes alone
+                int size = 0;
+                for (byte[] chunk : queue) {
+                    if (size > 0 && size + chunk.length > MAX_WRITE) {
+                        break;
+                    }
+                    size += chunk.length;
+                }
+                if (pending.length != size) {
+                    pending = new byte[size];
+                }
+                int offset = 0;
+                while (offset < size) {
+                    byte[] chunk = queue.pollFirst();
+                    System.arraycopy(chunk, 0, pending, offset, chunk.length);
+                    offset += chunk.length;
+                }
+                queuedBytes -= size;
+                if (refused && queuedBytes <= maxQueuedBytes / 2) {
+                    refused = false;
+                    notifyDrained = true;
+                }
+            }
+
+            try {
+                // May block on the remote window; only this session's drain waits
+                out.write(pending, 0, pending.length);
+                out.flush();
+                packets.incrementAndGet();
+                bytesWritten.addAndGet(pending.length);
+            } catch (IOException e) {
+                synchronized (queue) {
+                    closed = true;
+                    queue.clear();
+                    queuedBytes = 0;
+                    scheduled = false;
+                }
+                listener.onError(e);
+                return;
+            }
+            if (notifyDrained) {
+                listener.onDrained();
+            }
+        }
+    }
+
+    public int getQueuedBytes() {
+        synchronized (queue) {
+            return queuedBytes;
+        }
+    }
+
+    /** Number of write + flush calls, i.e. SSH data packets for writes under the packet size. */
+    public long getPackets() {
+        return packets.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public void close() {
+        synchronized (queue) {
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.mobiletemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming UTF-8 decoder for shell output. A multi-byte character split across
+ * two reads is carried over to the next chunk instead of being replaced by U+FFFD.
+ */
+public class ShellOutputDecoder {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final byte[] carry = new byte[4];
+    private int carryLength = 0;
+    private CharBuffer chars = CharBuffer.allocate(8192);
+
+    public String decode(byte[] bytes, int offset, int length) {
+        ByteBuffer in;
+        if (carryLength > 0) {
+            byte[] joined = new byte[carryLength + length];
+            System.arraycopy(carry, 0, joined, 0, carryLength);
+            System.arraycopy(bytes, offset, joined, carryLength, length);
+            in = ByteBuffer.wrap(joined);
+            carryLength = 0;
+        } else {
+            in = ByteBuffer.wrap(bytes, offset, length);
+        }
+
+        // UTF-8 never yields more chars than bytes
+        if (chars.capacity() < in.remaining()) {
+            chars = CharBuffer.allocate(Math.max(in.remaining(), chars.capacity() * 2));
+        }
+        chars.clear();
+        decoder.decode(in, chars, false);
+
+        // Whatever is left is an incomplete trailing sequence (at most 3 bytes)
+        while (in.hasRemaining()) {
+            carry[carryLength++] = in.get();
+        }
+        chars.flip();
+        return chars.toString();
+    }
+
+    public int pendingBytes() {
+        return carryLength;
+    }
+}
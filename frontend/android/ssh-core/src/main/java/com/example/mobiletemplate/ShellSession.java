@@ -0,0 +1,573 @@
+package com.example.mobiletemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.PTYMode;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+/**
+ * An interactive shell on an SSH connection. A reader thread pushes output to the
+ * scrollback, the recorder (if any) and the bridge as "shellOutput" events, or as raw
+ * bytes over a {@link StreamServer} when one is attached and has a client.
+ *
+ * While detached (no UI to show it) output is held back instead, up to a cap; past
+ * it the reader stops, the channel window fills and the server stops sending, so a
+ * busy shell costs nothing in the background. Attaching delivers what was held in
+ * one event and reading resumes.
+ */
+public class ShellSession {
+    // java.util.logging ends up in logcat on Android and on stderr on the JVM
+    private static final Logger LOG = Logger.getLogger("ShellSession");
+    static final int READ_BUFFER = 32 * 1024;
+
+    private final String sessionId;
+    private final SessionBridge bridge;
+    private final PluginMetrics metrics;
+    private final ScrollbackBuffer scrollback;
+    private final Executor writeExecutor;
+    private final ScheduledExecutorService scheduler;
+    private volatile ShellInputWriter inputWriter;
+    private Session.Shell shell;
+    private OutputStream outputStream;
+    private InputStream inputStream;
+    private Thread readerThread;
+    private volatile boolean isRunning = false;
+    private volatile SessionRecorder recorder;
+    private volatile boolean recordInput = true;
+    private volatile StreamServer stream;
+    private volatile long lastOutputNanos;
+    public static final int DEFAULT_COLUMNS = 80;
+    public static final int DEFAULT_ROWS = 24;
+    // Resizes and the start of a recording are ordered, so a recording never misses a size
+    private final Object sizeLock = new Object();
+    private volatile int columns = DEFAULT_COLUMNS;
+    private volatile int rows = DEFAULT_ROWS;
+    private long reservedBytes;
+    // Multi-byte characters split across reads are carried to the next chunk
+    private final ShellOutputDecoder decoder = new ShellOutputDecoder();
+
+    public static final int DEFAULT_DETACHED_BUFFER_BYTES = 1024 * 1024;
+    private final Object detachLock = new Object();
+    private boolean detached;
+    private int detachedCapBytes = DEFAULT_DETACHED_BUFFER_BYTES;
+    private final ByteArrayOutputStream held = new ByteArrayOutputStream();
+    private volatile OutputTriggers.Scanner triggers;
+    private volatile boolean forwardOutput = true;
+    // Predicted echo goes out from the input side too, so output is sent under this lock while it is on
+    private final Object displayLock = new Object();
+    private volatile LocalEchoPredictor predictor;
+
+    // Credit-based flow control, in UTF-16 chars since that is what JS can count.
+    // Output sent over the stream transport is counted (and acked) in bytes instead.
+    public static final long DEFAULT_HIGH_WATER_CHARS = 1024 * 1024;
+    public static final long DEFAULT_LOW_WATER_CHARS = 256 * 1024;
+    private final Object creditLock = new Object();
+    private volatile boolean flowControl = false;
+    private long highWaterChars = DEFAULT_HIGH_WATER_CHARS;
+    private long lowWaterChars = DEFAULT_LOW_WATER_CHARS;
+    private long unackedChars = 0;
+    private long flowPauses = 0;
+
+    public ShellSession(String sessionId, int scrollbackBytes, SessionBridge bridge, PluginMetrics metrics,
+                        Executor writeExecutor, ScheduledExecutorService scheduler) {
+        this.sessionId = sessionId;
+        this.bridge = bridge;
+        this.metrics = metrics;
+        this.scrollback = new ScrollbackBuffer(scrollbackBytes);
+        this.writeExecutor = writeExecutor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Makes the reader wait for {@link #ackOutput} once more than highWaterChars are
+     * unacknowledged. Without it output is pushed as fast as the server sends it.
+     */
+    public void setFlowControl(boolean enabled, long highWaterChars, long lowWaterChars) {
+        synchronized (creditLock) {
+            this.highWaterChars = highWaterChars;
+            this.lowWaterChars = Math.min(lowWaterChars, highWaterChars);
+            this.flowControl = enabled;
+            creditLock.notifyAll();
+        }
+    }
+
+    /**
+     * Sends output as binary frames over the stream while it has a client; falls back
+     * to "shellOutput" events otherwise. Pass null to go back to events only.
+     */
+    public void setStreamTransport(StreamServer stream) {
+        this.stream = stream;
+    }
+
+    public void start(SSHClient sshClient) throws IOException {
+        start(sshClient, ShellInputWriter.DEFAULT_COALESCE_MILLIS, ShellInputWriter.DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public void start(SSHClient sshClient, int coalesceMillis, int maxQueuedInputBytes) throws IOException {
+        Session session = sshClient.startSession();
+        session.allocatePTY("vt100", columns, rows, 0, 0, Collections.<PTYMode, Integer>emptyMap());
+
+        shell = session.startShell();
+        outputStream = shell.getOutputStream();
+        inputStream = shell.getInputStream();
+        isRunning = true;
+        inputWriter = new ShellInputWriter(outputStream, writeExecutor, scheduler, coalesceMillis, maxQueuedInputBytes,
+            new ShellInputWriter.Listener() {
+                @Override
+                public void onDrained() {
+                    JSONObject data = new JSONObject();
+                    data.put("sessionId", sessionId);
+                    bridge.emit("shellInputDrained", data);
+                }
+
+                @Override
+                public void onError(IOException e) {
+                    LOG.log(Level.WARNING, "Error writing input", e);
+                }
+            });
+
+        // Start background thread to read output
+        readerThread = new Thread(this::readLoop, "ShellSession-" + sessionId);
+        readerThread.start();
+    }
+
+    private void readLoop() {
+        byte[] buffer = new byte[READ_BUFFER];
+        try {
+            while (isRunning) {
+                // Blocks until the server sends something, then takes whatever else is already buffered
+                int read = inputStream.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    break;
+                }
+                int available;
+                while (read < buffer.length && (available = inputStream.available()) > 0) {
+                    int n = inputStream.read(buffer, read, Math.min(available, buffer.length - read));
+                    if (n <= 0) {
+                        break;
+                    }
+                    read += n;
+                }
+
+                lastOutputNanos = System.nanoTime();
+                scrollback.append(buffer, 0, read);
+                SessionRecorder activeRecorder = recorder;
+                if (activeRecorder != null) {
+                    activeRecorder.recordOutput(buffer, 0, read);
+                }
+                metrics.addBytesIn(sessionId, read);
+                OutputTriggers.Scanner activeTriggers = triggers;
+                if (activeTriggers != null) {
+                    activeTriggers.scan(buffer, 0, read);
+                }
+                if (!forwardOutput) {
+                    // Only the triggers are watching; the scrollback has it for later
+                    continue;
+                }
+
+                synchronized (detachLock) {
+                    if (detached) {
+                        held.write(buffer, 0, read);
+                        // Whatever attach() finds held, it delivers; this chunk included
+                        while (detached && isRunning && held.size() >= detachedCapBytes) {
+                            detachLock.wait();
+                        }
+                        continue;
+                    }
+                }
+                deliver(buffer, 0, read, true);
+            }
+        } catch (InterruptedException | java.io.InterruptedIOException e) {
+            // Closed
+        } catch (Exception e) {
+            if (isRunning) {
+                LOG.log(Level.WARNING, "Error reading output", e);
+            }
+        }
+    }
+
+    /**
+     * Sends output to JS, raw over the stream when it has a client, else as an event.
+     * With mayWait the caller then waits for credit; attach() can't, it only counts.
+     */
+    private void deliver(byte[] buffer, int off, int len, boolean mayWait) throws InterruptedException {
+        LocalEchoPredictor activePredictor = predictor;
+        if (activePredictor != null) {
+            // Predictions are text: decode, drop the echo already shown and send the rest
+            String output = decoder.decode(buffer, off, len);
+            int sent;
+            synchronized (displayLock) {
+                sent = emitText(activePredictor.onOutput(output, System.nanoTime()));
+            }
+            if (flowControl && sent > 0) {
+                awaitCredit(sent, mayWait);
+            }
+            return;
+        }
+
+        // Raw bytes, no decoding or JSON escaping; xterm decodes UTF-8 itself
+        StreamServer activeStream = stream;
+        if (activeStream != null && activeStream.send(sessionId, buffer, off, len)) {
+            metrics.recordStreamFrame();
+            if (flowControl) {
+                awaitCredit(len, mayWait);
+            }
+            return;
+        }
+
+        String output = decoder.decode(buffer, off, len);
+        if (output.isEmpty()) {
+            return;
+        }
+
+        // Send output to frontend via event
+        JSONObject data = new JSONObject();
+        data.put("sessionId", sessionId);
+        data.put("output", output);
+        bridge.emit("shellOutput", data);
+        metrics.recordBridgeEvent();
+
+        if (flowControl) {
+            awaitCredit(output.length(), mayWait);
+        }
+    }
+
+    /**
+     * Sends text the way output goes: over the stream when it has a client, else as an
+     * event. Returns what it counts for flow control, bytes or chars.
+     */
+    private int emitText(String text) {
+        if (text.isEmpty()) {
+            return 0;
+        }
+        StreamServer activeStream = stream;
+        if (activeStream != null) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (activeStream.send(sessionId, bytes, 0, bytes.length)) {
+                metrics.recordStreamFrame();
+                return bytes.length;
+            }
+        }
+        JSONObject data = new JSONObject();
+        data.put("sessionId", sessionId);
+        data.put("output", text);
+        bridge.emit("shellOutput", data);
+        metrics.recordBridgeEvent();
+        return text.length();
+    }
+
+    /**
+     * Shows typed keys before the server echoes them, see {@link LocalEchoPredictor};
+     * null turns it off, erasing any prediction still on screen.
+     */
+    public void setPredictor(LocalEchoPredictor newPredictor) {
+        synchronized (displayLock) {
+            LocalEchoPredictor previous = predictor;
+            if (newPredictor != null) {
+                // Whatever it was made with, a resize since included
+                newPredictor.setColumns(columns);
+            }
+            predictor = newPredictor;
+            if (previous != null) {
+                count(emitText(previous.reset()));
+            }
+        }
+    }
+
+    public LocalEchoPredictor getPredictor() {
+        return predictor;
+    }
+
+    /**
+     * Queues input and shows what the predictor makes of it. Both under the display
+     * lock: output read meanwhile, its echo included, waits until the prediction is in.
+     */
+    private boolean offerPredicted(ShellInputWriter writer, byte[] input, final LocalEchoPredictor activePredictor)
+        throws IOException {
+        long timeoutMillis;
+        synchronized (displayLock) {
+            if (!writer.offer(input)) {
+                return false;
+            }
+            if (activePredictor != predictor) {
+                return true;
+            }
+            String shown = activePredictor.onInput(input, System.nanoTime());
+            if (shown.isEmpty()) {
+                return true;
+            }
+            count(emitText(shown));
+            timeoutMillis = TimeUnit.NANOSECONDS.toMillis(activePredictor.getTimeoutNanos());
+        }
+        // Erases what the server hasn't echoed by then (a hung host, a dropped connection)
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (displayLock) {
+                    if (activePredictor == predictor) {
+                        count(emitText(activePredictor.expire(System.nanoTime())));
+                    }
+                }
+            }
+        }, timeoutMillis + 1, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /** Counts text sent from outside the reader against the credit, without waiting. */
+    private void count(int sent) {
+        if (flowControl && sent > 0) {
+            try {
+                awaitCredit(sent, false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Holds output back from now on, up to capBytes (then the reader stops), until
+     * {@link #attach}. Scrollback and recording carry on as usual.
+     */
+    public void detach(int capBytes) {
+        synchronized (detachLock) {
+            detachedCapBytes = capBytes;
+            detached = true;
+        }
+    }
+
+    /**
+     * Scans output for triggers (null for none). With forwardOutput false the output
+     * isn't sent to JS at all, only matches are; the scrollback still keeps it.
+     */
+    public void setTriggers(OutputTriggers.Scanner triggers, boolean forwardOutput) {
+        this.triggers = triggers;
+        this.forwardOutput = forwardOutput;
+    }
+
+    /** Delivers the output held while detached, as one event, and lets the reader go on. */
+    public void attach() {
+        synchronized (detachLock) {
+            if (!detached) {
+                return;
+            }
+            detached = false;
+            if (held.size() > 0) {
+                byte[] output = held.toByteArray();
+                held.reset();
+                try {
+                    deliver(output, 0, output.length, false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            detachLock.notifyAll();
+        }
+    }
+
+    public boolean isDetached() {
+        synchronized (detachLock) {
+            return detached;
+        }
+    }
+
+    /** Output held back while detached, in bytes. */
+    public int getHeldBytes() {
+        synchronized (detachLock) {
+            return held.size();
+        }
+    }
+
+    /**
+     * Counts emitted chars against the credit and, past the high-water mark, stops
+     * reading until JS has acknowledged down to the low-water mark. While we don't
+     * read, sshj doesn't grow the channel window, so the server stops sending.
+     */
+    private void awaitCredit(int chars, boolean mayWait) throws InterruptedException {
+        synchronized (creditLock) {
+            unackedChars += chars;
+            if (unackedChars <= highWaterChars || !mayWait) {
+                return;
+            }
+            flowPauses++;
+            while (isRunning && flowControl && unackedChars > lowWaterChars) {
+                creditLock.wait();
+            }
+        }
+    }
+
+    /** Called when JS has rendered (consumed) this many chars of output. */
+    public void ackOutput(long chars) {
+        synchronized (creditLock) {
+            unackedChars = Math.max(0, unackedChars - chars);
+            if (unackedChars <= lowWaterChars) {
+                creditLock.notifyAll();
+            }
+        }
+    }
+
+    public long getUnackedChars() {
+        synchronized (creditLock) {
+            return unackedChars;
+        }
+    }
+
+    /** Times the reader stopped for lack of credit. */
+    public long getFlowPauses() {
+        synchronized (creditLock) {
+            return flowPauses;
+        }
+    }
+
+    /**
+     * Queues input for the shell without blocking. Returns false when the input queue
+     * is full: nothing was queued, and a "shellInputDrained" event follows once there
+     * is room again.
+     */
+    public boolean sendCommand(String command) throws IOException {
+        return sendInput(command.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Same, for input already encoded; the array is queued as is and must not change afterwards. */
+    public boolean sendInput(byte[] bytes) throws IOException {
+        ShellInputWriter writer = inputWriter;
+        if (writer == null) {
+            throw new IOException("Shell not started");
+        }
+        LocalEchoPredictor activePredictor = predictor;
+        // Nothing to predict for when the output isn't shown
+        boolean predicting = activePredictor != null && forwardOutput && !isDetached();
+        if (!(predicting ? offerPredicted(writer, bytes, activePredictor) : writer.offer(bytes))) {
+            return false;
+        }
+        metrics.addBytesOut(sessionId, bytes.length);
+        SessionRecorder activeRecorder = recorder;
+        if (activeRecorder != null && recordInput) {
+            activeRecorder.recordInput(bytes, 0, bytes.length);
+        }
+        return true;
+    }
+
+    public ShellInputWriter getInputWriter() {
+        return inputWriter;
+    }
+
+    /** Buffer bytes counted against the session manager's cap for this shell. */
+    void setReservedBytes(long reservedBytes) {
+        this.reservedBytes = reservedBytes;
+    }
+
+    long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /** When output was last read, 0 if never; output keeps a session from counting as idle. */
+    public long getLastOutputNanos() {
+        return lastOutputNanos;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public ScrollbackBuffer getScrollback() {
+        return scrollback;
+    }
+
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    public void startRecording(SessionRecorder newRecorder, boolean withInput) {
+        synchronized (sizeLock) {
+            recordInput = withInput;
+            if (newRecorder.getWidth() != columns || newRecorder.getHeight() != rows) {
+                newRecorder.recordResize(columns, rows);
+            }
+            recorder = newRecorder;
+        }
+    }
+
+    /**
+     * Sets the size of the terminal in characters. Before {@link #start} it is the size the
+     * PTY is opened with; after, the server is told of the change, and a recording and the
+     * local echo predictor follow it.
+     */
+    public void resize(int columns, int rows) throws IOException {
+        synchronized (sizeLock) {
+            if (shell != null) {
+                shell.changeWindowDimensions(columns, rows, 0, 0);
+            }
+            this.columns = columns;
+            this.rows = rows;
+            synchronized (displayLock) {
+                LocalEchoPredictor activePredictor = predictor;
+                if (activePredictor != null) {
+                    activePredictor.setColumns(columns);
+                }
+            }
+            SessionRecorder activeRecorder = recorder;
+            if (activeRecorder != null) {
+                activeRecorder.recordResize(columns, rows);
+            }
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public List<File> stopRecording() {
+        SessionRecorder activeRecorder = recorder;
+        recorder = null;
+        return activeRecorder != null ? activeRecorder.close() : Collections.<File>emptyList();
+    }
+
+    public void close() {
+        isRunning = false;
+        if (inputWriter != null) {
+            inputWriter.close();
+        }
+        stopRecording();
+        synchronized (creditLock) {
+            creditLock.notifyAll();
+        }
+        synchronized (detachLock) {
+            detachLock.notifyAll();
+        }
+        // Closing the channel ends a blocked read with EOF
+        try {
+            if (shell != null) {
+                shell.close();
+            }
+        } catch (IOException e) {
+            // Already gone
+        }
+        if (readerThread != null) {
+            readerThread.interrupt();
+            try {
+                readerThread.join(1000);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,1284 @@
+package com.example.mobiletemplate;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import net.schmizz.keepalive.KeepAlive;
+import net.schmizz.sshj.DefaultConfig;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.Factory;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.transport.NegotiatedAlgorithms;
+import net.schmizz.sshj.transport.compression.Compression;
+import net.schmizz.sshj.transport.compression.DelayedZlibCompression;
+import net.schmizz.sshj.transport.compression.NoneCompression;
+import net.schmizz.sshj.transport.compression.ZlibCompression;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import net.schmizz.sshj.userauth.keyprovider.KeyProvider;
+import net.schmizz.sshj.userauth.password.PasswordUtils;
+
+/**
+ * Connections, exec and shell sessions, independent of Capacitor. The plugin adapts
+ * PluginCall to these methods and events go out through a {@link SessionBridge};
+ * the JVM tests and load scenarios drive the same code against an embedded server.
+ */
+public class SshSessionService {
+    /** What became of one input fan-out, see {@link #sendToShells}. */
+    public static class BroadcastResult {
+        public final List<String> sent = new ArrayList<>();
+        // Input queue full: resend to these after their "shellInputDrained"
+        public final List<String> refused = new ArrayList<>();
+        // Session id to the reason, e.g. no shell
+        public final Map<String, String> failed = new LinkedHashMap<>();
+    }
+
+    private final SessionBridge bridge;
+    private final PluginMetrics metrics;
+    private final Map<String, SSHClient> activeSessions = new ConcurrentHashMap<>();
+    private final Map<String, ShellSession> activeShellSessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompressionAdvisor> advisors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HostMonitor> monitors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LogTailMerger> tails = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OutputTriggers> outputTriggers = new ConcurrentHashMap<>();
+    // Session id to user@host:port, the key of its cached exec outputs
+    private final ConcurrentMap<String, String> identities = new ConcurrentHashMap<>();
+    private final ExecResultCache execCache = new ExecResultCache();
+    private final RemoteScripts remoteScripts;
+    // Read on every broadcast keystroke, changed rarely
+    private final ConcurrentMap<String, CopyOnWriteArraySet<String>> broadcastGroups = new ConcurrentHashMap<>();
+    // Between openClient and register (or the failed auth that discards the client)
+    private final ConcurrentMap<SSHClient, CompressionAdvisor> pendingAdvisors = new ConcurrentHashMap<>();
+    // What the last KEX of each open client settled on
+    private final ConcurrentMap<SSHClient, NegotiatedAlgorithms> negotiated = new ConcurrentHashMap<>();
+    // stderr drains get their own threads: queueing them behind busy workers could deadlock exec calls
+    private final ExecutorService streamPool = Executors.newCachedThreadPool();
+    // Shell input drains: a write may block on the remote window, so each busy session gets a thread
+    private final ExecutorService inputPool = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService inputScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ConnectionPrewarmer prewarmer = new ConnectionPrewarmer(inputScheduler, this::discard);
+    private final CryptoWarmup warmup = new CryptoWarmup();
+    private final SessionManager sessionManager = new SessionManager();
+    private ScheduledFuture<?> reaper;
+    private long reapIntervalMillis;
+    private volatile boolean reaping;
+    private volatile boolean uiDetached;
+    private volatile int detachedBufferBytes = ShellSession.DEFAULT_DETACHED_BUFFER_BYTES;
+    private final HappyEyeballs happyEyeballs = new HappyEyeballs(new DnsCache(DnsCache.SYSTEM), streamPool);
+    // Lookups block: a few threads for a host list of hundreds, the sockets are all on one selector
+    private final ExecutorService probeResolvers = Executors.newFixedThreadPool(4);
+    private final HostProber hostProber = new HostProber(happyEyeballs.getDnsCache(), probeResolvers);
+    private volatile int inputCoalesceMillis = ShellInputWriter.DEFAULT_COALESCE_MILLIS;
+    private volatile int maxQueuedInputBytes = ShellInputWriter.DEFAULT_MAX_QUEUED_BYTES;
+    private volatile long highWaterChars = ShellSession.DEFAULT_HIGH_WATER_CHARS;
+    private volatile long lowWaterChars = ShellSession.DEFAULT_LOW_WATER_CHARS;
+    private volatile int connectTimeoutMs = 10000;
+
+    public static final int DEFAULT_KEEPALIVE_SECONDS = 60;
+    // Under the idle timeouts of carrier NATs, which start at about 5 minutes
+    public static final int DETACHED_KEEPALIVE_SECONDS = 180;
+    public static final long DETACHED_REAP_INTERVAL_MILLIS = 60_000;
+    private StreamServer streamServer;
+    private volatile HostProfileStore hostProfiles;
+
+    public SshSessionService(SessionBridge bridge, PluginMetrics metrics) {
+        this.bridge = bridge;
+        this.metrics = metrics;
+        this.remoteScripts = new RemoteScripts(bridge);
+        setReapIntervalMillis(SessionManager.DEFAULT_REAP_INTERVAL_MILLIS);
+    }
+
+    /** Owners, activity, caps and the idle / orphan policies, see {@link SessionManager}. */
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    /** How often sessions are checked against the policies (and for dropped connections). */
+    public synchronized void setReapIntervalMillis(long intervalMillis) {
+        reapIntervalMillis = intervalMillis;
+        scheduleReaper();
+    }
+
+    private synchronized void scheduleReaper() {
+        if (reaper != null) {
+            reaper.cancel(false);
+        }
+        // Nobody is waiting for a close while detached, so wake up less often
+        long interval = uiDetached ? Math.max(reapIntervalMillis, DETACHED_REAP_INTERVAL_MILLIS) : reapIntervalMillis;
+        reaper = inputScheduler.scheduleWithFixedDelay(this::reap, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The UI went away (app in the background, activity destroyed) while sessions are
+     * to stay up. Shells hold their output (see {@link ShellSession#detach}), owners
+     * stop being expected to beat, and the reaper and keepalives slow down: the only
+     * wakeups left are a keepalive every {@link #DETACHED_KEEPALIVE_SECONDS} per
+     * connection and output the server sends, until the hold buffers fill.
+     */
+    public synchronized void detachUi() {
+        if (uiDetached) {
+            return;
+        }
+        uiDetached = true;
+        sessionManager.setOwnersPaused(true);
+        for (ShellSession shell : activeShellSessions.values()) {
+            shell.detach(detachedBufferBytes);
+        }
+        for (SSHClient ssh : activeSessions.values()) {
+            setKeepAlive(ssh, DETACHED_KEEPALIVE_SECONDS);
+        }
+        scheduleReaper();
+    }
+
+    /** Undoes {@link #detachUi}; each shell delivers what it held as one event. */
+    public synchronized void attachUi() {
+        if (!uiDetached) {
+            return;
+        }
+        uiDetached = false;
+        sessionManager.setOwnersPaused(false);
+        for (ShellSession shell : activeShellSessions.values()) {
+            shell.attach();
+        }
+        for (SSHClient ssh : activeSessions.values()) {
+            setKeepAlive(ssh, DEFAULT_KEEPALIVE_SECONDS);
+        }
+        scheduleReaper();
+    }
+
+    public boolean isUiDetached() {
+        return uiDetached;
+    }
+
+    /** How much output each shell may hold while detached before its reader stops. */
+    public void setDetachedBufferBytes(int bytes) {
+        detachedBufferBytes = bytes;
+    }
+
+    /** Output held by detached shells, in bytes. */
+    public long getHeldOutputBytes() {
+        long held = 0;
+        for (ShellSession shell : activeShellSessions.values()) {
+            held += shell.getHeldBytes();
+        }
+        return held;
+    }
+
+    /** sshj's keepalive thread reads the interval again after each sleep. */
+    private static void setKeepAlive(SSHClient ssh, int seconds) {
+        ssh.getConnection().getKeepAlive().setKeepAliveInterval(seconds);
+    }
+
+    /**
+     * Started here rather than by connect: sshj starts it before the KEX when enabled,
+     * and its first SSH_MSG_IGNORE then breaks a strict KEX. Disconnect stops it.
+     */
+    private static void startKeepAlive(SSHClient ssh, int seconds) {
+        KeepAlive keepAlive = ssh.getConnection().getKeepAlive();
+        keepAlive.setKeepAliveInterval(seconds);
+        keepAlive.setDaemon(true);
+        keepAlive.start();
+    }
+
+    private final SessionManager.Liveness liveness = new SessionManager.Liveness() {
+        @Override
+        public boolean isAlive(String sessionId) {
+            SSHClient ssh = activeSessions.get(sessionId);
+            // Missing while register() or close() is under way: that call decides its fate
+            return ssh == null || ssh.isConnected();
+        }
+
+        @Override
+        public long lastOutputNanos(String sessionId) {
+            ShellSession shell = activeShellSessions.get(sessionId);
+            return shell != null ? shell.getLastOutputNanos() : 0;
+        }
+    };
+
+    /**
+     * One pass of the reaper. The closes run on the pool, one after the other: a shell
+     * close can block for a while, and a reload can orphan many sessions at once.
+     */
+    void reap() {
+        if (reaping) {
+            return;
+        }
+        final List<String[]> due = sessionManager.due(System.nanoTime(), liveness);
+        if (due.isEmpty()) {
+            return;
+        }
+        reaping = true;
+        streamPool.execute(() -> {
+            try {
+                for (String[] session : due) {
+                    close(session[0], session[1]);
+                }
+            } finally {
+                reaping = false;
+            }
+        });
+    }
+
+    /**
+     * Registers BouncyCastle and initializes sshj's factories in the background, so
+     * the first connect doesn't do it inline. Connect waits for it if still running.
+     */
+    public void startWarmup() {
+        warmup.start();
+    }
+
+    public CryptoWarmup getWarmup() {
+        return warmup;
+    }
+
+    public PluginMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    /** Where compression decisions are remembered per host; null keeps nothing. */
+    public void setHostProfileStore(HostProfileStore hostProfiles) {
+        this.hostProfiles = hostProfiles;
+    }
+
+    public HostProfileStore getHostProfileStore() {
+        return hostProfiles;
+    }
+
+    /** Resolution and address racing for every connect; its DNS cache is shared across sessions. */
+    public HappyEyeballs getHappyEyeballs() {
+        return happyEyeballs;
+    }
+
+    /**
+     * Probes the hosts' SSH ports (see {@link HostProber}), emitting a "hostProbe" event
+     * per host as it finishes, cached ones first, then "hostProbesDone". Returns the
+     * probe id the events carry.
+     */
+    public String probeHosts(List<InetSocketAddress> hosts) throws IOException {
+        final String probeId = UUID.randomUUID().toString();
+        final int[] remaining = {hosts.size()};
+        HostProber.Listener listener = new HostProber.Listener() {
+            @Override
+            public void onResult(HostProber.Result result) {
+                JSONObject data = new JSONObject();
+                data.put("probeId", probeId);
+                data.put("host", result.host);
+                data.put("port", result.port);
+                data.put("status", result.status);
+                data.put("reachable", result.isReachable());
+                data.put("rttMs", result.rttMillis);
+                if (result.serverVersion != null) {
+                    data.put("serverVersion", result.serverVersion);
+                }
+                if (result.error != null) {
+                    data.put("error", result.error);
+                }
+                data.put("cached", result.cached);
+                bridge.emit("hostProbe", data);
+                boolean done;
+                synchronized (remaining) {
+                    done = --remaining[0] == 0;
+                }
+                if (done) {
+                    JSONObject end = new JSONObject();
+                    end.put("probeId", probeId);
+                    bridge.emit("hostProbesDone", end);
+                }
+            }
+        };
+        if (hosts.isEmpty()) {
+            JSONObject end = new JSONObject();
+            end.put("probeId", probeId);
+            bridge.emit("hostProbesDone", end);
+        }
+        for (InetSocketAddress host : hosts) {
+            hostProber.probe(host.getHostString(), host.getPort(), listener);
+        }
+        return probeId;
+    }
+
+    /** Sockets a probe run may open at once, the timeout of each and how long results are reused. */
+    public void setProbeLimits(int maxConcurrent, long timeoutMillis, long cacheMillis) {
+        hostProber.setLimits(maxConcurrent, timeoutMillis, cacheMillis);
+    }
+
+    public HostProber getHostProber() {
+        return hostProber;
+    }
+
+    /** Cap on warm connections and how long an unused one is kept. */
+    public void setPrewarmLimits(int maxWarm, long idleMillis) {
+        prewarmer.setLimits(maxWarm, idleMillis);
+    }
+
+    public ConnectionPrewarmer getPrewarmer() {
+        return prewarmer;
+    }
+
+    /** Coalescing window and queue cap for shells started after this call. */
+    public void setInputOptions(int coalesceMillis, int maxQueuedBytes) {
+        this.inputCoalesceMillis = coalesceMillis;
+        this.maxQueuedInputBytes = maxQueuedBytes;
+    }
+
+    /** Flow control water marks for shells started after this call. */
+    public void setFlowControlWaterMarks(long highWaterChars, long lowWaterChars) {
+        this.highWaterChars = highWaterChars;
+        this.lowWaterChars = lowWaterChars;
+    }
+
+    public SSHClient openClient(String hostname, int port) throws IOException {
+        return openClient(hostname, port, CompressionAdvisor.Mode.OFF);
+    }
+
+    /**
+     * Opens TCP and completes KEX, recording the DNS, TCP and KEX phases when
+     * metrics are enabled. The client is not registered until {@link #register}.
+     *
+     * With {@link CompressionAdvisor.Mode#AUTO}, compression is decided before the
+     * first KEXINIT: from what the host profile learned last time or, for a new host,
+     * from the TCP connect time. It is not switched during the session: sshj waits
+     * for a KEX while holding its write lock, so a rekey racing any channel write
+     * (a window adjust, a keystroke) stalls until the timeout. The session keeps
+     * measuring instead, emits "compressionRecommended" when its view changes, and
+     * the profile carries it to the next connection.
+     */
+    public SSHClient openClient(String hostname, int port, CompressionAdvisor.Mode compression) throws IOException {
+        return openClient(hostname, port, compression, true);
+    }
+
+    private SSHClient openClient(String hostname, int port, CompressionAdvisor.Mode compression, boolean recordPhases)
+        throws IOException {
+        return openClient(hostname, port, compression, recordPhases, connectTimeoutMs);
+    }
+
+    /** As above, with timeoutMs for the TCP connect: what is left of the caller's deadline. */
+    private SSHClient openClient(String hostname, int port, CompressionAdvisor.Mode compression, boolean recordPhases,
+                                 int timeoutMs) throws IOException {
+        try {
+            warmup.awaitReady();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Interrupted while waiting for the crypto warm-up");
+        }
+        // Custom config to avoid X25519 issues on Android
+        SSHClient ssh = new SSHClient(new DefaultConfig());
+        ssh.addHostKeyVerifier(new PromiscuousVerifier());
+        ssh.addAlgorithmsVerifier(algorithms -> {
+            negotiated.put(ssh, algorithms);
+            return true;
+        });
+        ssh.setTimeout(connectTimeoutMs);
+        ssh.setConnectTimeout(timeoutMs);
+
+        CompressionAdvisor advisor = new CompressionAdvisor(hostname, port, compression);
+        HostProfileStore profiles = hostProfiles;
+        if (profiles != null && compression == CompressionAdvisor.Mode.AUTO) {
+            try {
+                advisor.seed(profiles.get(hostname, port));
+            } catch (org.json.JSONException e) {
+                // Unreadable profile, start from scratch
+            }
+        }
+
+        TimedSocketFactory socketFactory = new TimedSocketFactory();
+        socketFactory.advisor = advisor;
+        ssh.setSocketFactory(socketFactory);
+        try {
+            InetAddress address = socketFactory.connect(happyEyeballs, hostname, port, timeoutMs);
+            // TCP is up (which gave the RTT) and sshj hasn't sent its KEXINIT yet
+            offerCompression(ssh, advisor.shouldCompress());
+            ssh.connect(address, port);
+            startKeepAlive(ssh, uiDetached ? DETACHED_KEEPALIVE_SECONDS : DEFAULT_KEEPALIVE_SECONDS);
+        } catch (IOException e) {
+            negotiated.remove(ssh);
+            closeQuietly(ssh);
+            throw e;
+        }
+
+        if (recordPhases && metrics.isEnabled() && socketFactory.connectEndNanos > 0) {
+            metrics.recordPhase(PluginMetrics.PHASE_DNS, socketFactory.connectStartNanos - socketFactory.createdNanos);
+            metrics.recordPhase(PluginMetrics.PHASE_TCP, socketFactory.connectEndNanos - socketFactory.connectStartNanos);
+            metrics.recordPhase(PluginMetrics.PHASE_KEX, System.nanoTime() - socketFactory.connectEndNanos);
+        }
+        pendingAdvisors.put(ssh, advisor);
+        return ssh;
+    }
+
+    /**
+     * Offers zlib@openssh.com (delayed until after auth, so the handshake is not
+     * slowed down) and zlib, or no compression. Only takes effect at the next KEX.
+     */
+    static void offerCompression(SSHClient ssh, boolean enabled) {
+        List<Factory.Named<Compression>> factories = new ArrayList<>();
+        if (enabled) {
+            factories.add(new DelayedZlibCompression.Factory());
+            factories.add(new ZlibCompression.Factory());
+        }
+        factories.add(new NoneCompression.Factory());
+        ssh.getTransport().getConfig().setCompressionFactories(factories);
+    }
+
+    static boolean isCompressionOffered(SSHClient ssh) {
+        return ssh.getTransport().getConfig().getCompressionFactories().size() > 1;
+    }
+
+    /**
+     * Tracks an authenticated client and returns its session id. Refused past the
+     * session cap; the caller then still owns (and has to close) the client.
+     */
+    public String register(SSHClient ssh) throws SessionException {
+        String sessionId = UUID.randomUUID().toString();
+        sessionManager.add(sessionId);
+        activeSessions.put(sessionId, ssh);
+        CompressionAdvisor advisor = pendingAdvisors.remove(ssh);
+        if (advisor != null) {
+            advisors.put(sessionId, advisor);
+            if (advisor.getMode() == CompressionAdvisor.Mode.AUTO) {
+                // Called on sshj's reader thread
+                advisor.setListener(compress -> {
+                    JSONObject data = new JSONObject();
+                    data.put("sessionId", sessionId);
+                    data.put("compression", compress);
+                    bridge.emit("compressionRecommended", data);
+                });
+            }
+        }
+        return sessionId;
+    }
+
+    private String registerOrDiscard(SSHClient ssh) throws SessionException {
+        try {
+            return register(ssh);
+        } catch (SessionException e) {
+            discard(ssh);
+            throw e;
+        }
+    }
+
+    /** Closes a client that failed before {@link #register}. */
+    private void discard(SSHClient ssh) {
+        pendingAdvisors.remove(ssh);
+        negotiated.remove(ssh);
+        closeQuietly(ssh);
+    }
+
+    /** The compression advisor of a session (its mode, measurements and recommendation), or null. */
+    public CompressionAdvisor getCompressionAdvisor(String sessionId) {
+        return advisors.get(sessionId);
+    }
+
+    /**
+     * Whether the session offered compression when it connected. Servers that allow
+     * compression at all (OpenSSH does by default) accept zlib@openssh.com.
+     */
+    public boolean isCompressionOffered(String sessionId) {
+        SSHClient ssh = activeSessions.get(sessionId);
+        return ssh != null && isCompressionOffered(ssh);
+    }
+
+    /**
+     * The algorithms the session's key exchange settled on, or null. Offering compression
+     * is no promise of it: a server that doesn't allow it negotiates "none".
+     */
+    public NegotiatedAlgorithms getNegotiatedAlgorithms(String sessionId) {
+        SSHClient ssh = activeSessions.get(sessionId);
+        return ssh != null ? negotiated.get(ssh) : null;
+    }
+
+    public String connectWithPassword(String hostname, int port, String username, String password)
+        throws IOException, SessionException {
+        return connectWithPassword(hostname, port, username, password, CompressionAdvisor.Mode.OFF);
+    }
+
+    public String connectWithPassword(String hostname, int port, String username, String password,
+                                      CompressionAdvisor.Mode compression) throws IOException, SessionException {
+        sessionManager.checkSessionLimit();
+        long connectStart = System.nanoTime();
+        boolean warm = warmup.isReady();
+        // One deadline for waiting on a warm connection and opening a new one
+        long deadline = connectStart + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+        SSHClient ssh = adoptWarm(hostname, port, compression, username, credentialDigest(username, password), deadline);
+        if (ssh == null) {
+            ssh = openClient(hostname, port, compression, true, remainingConnectMillis(deadline));
+        }
+        if (!ssh.isAuthenticated()) {
+            try {
+                authPassword(ssh, username, password, true);
+            } catch (IOException e) {
+                discard(ssh);
+                throw e;
+            }
+        }
+        warmup.recordConnect(System.nanoTime() - connectStart, warm);
+        String sessionId = registerOrDiscard(ssh);
+        identities.put(sessionId, username + "@" + hostname + ":" + port);
+        return sessionId;
+    }
+
+    /**
+     * Authenticates with an in-memory private key (PEM / OpenSSH format), so the
+     * decrypted key never touches the filesystem.
+     */
+    public String connectWithKey(String hostname, int port, String username, String privateKey, String passphrase)
+        throws IOException, SessionException {
+        return connectWithKey(hostname, port, username, privateKey, passphrase, CompressionAdvisor.Mode.OFF);
+    }
+
+    public String connectWithKey(String hostname, int port, String username, String privateKey, String passphrase,
+                                 CompressionAdvisor.Mode compression) throws IOException, SessionException {
+        sessionManager.checkSessionLimit();
+        long connectStart = System.nanoTime();
+        boolean warm = warmup.isReady();
+        long deadline = connectStart + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+        SSHClient ssh = adoptWarm(hostname, port, compression, username,
+            keyCredentialDigest(username, privateKey, passphrase), deadline);
+        if (ssh == null) {
+            ssh = openClient(hostname, port, compression, true, remainingConnectMillis(deadline));
+        }
+        if (!ssh.isAuthenticated()) {
+            try {
+                authKey(ssh, username, privateKey, passphrase, true);
+            } catch (IOException | SessionException e) {
+                discard(ssh);
+                throw e;
+            }
+        }
+        warmup.recordConnect(System.nanoTime() - connectStart, warm);
+        String sessionId = registerOrDiscard(ssh);
+        identities.put(sessionId, username + "@" + hostname + ":" + port);
+        return sessionId;
+    }
+
+    private void authPassword(SSHClient ssh, String username, String password, boolean recordPhases) throws IOException {
+        long authStart = System.nanoTime();
+        ssh.authPassword(username, password);
+        if (recordPhases) {
+            metrics.recordPhase(PluginMetrics.PHASE_AUTH, System.nanoTime() - authStart);
+        }
+    }
+
+    private void authKey(SSHClient ssh, String username, String privateKey, String passphrase, boolean recordPhases)
+        throws IOException, SessionException {
+        long authStart = System.nanoTime();
+        KeyProvider keyProvider;
+        try {
+            keyProvider = passphrase != null && !passphrase.isEmpty()
+                ? ssh.loadKeys(privateKey, null, PasswordUtils.createOneOff(passphrase.toCharArray()))
+                : ssh.loadKeys(privateKey, null, null);
+            // Parsing is lazy, force it so a bad key is reported as such
+            keyProvider.getPrivate();
+        } catch (Exception keyError) {
+            throw new SessionException("Failed to load private key: " + keyError.getMessage()
+                + (keyError.getCause() != null ? " - " + keyError.getCause().getMessage() : ""));
+        }
+        ssh.authPublickey(username, keyProvider);
+        if (recordPhases) {
+            metrics.recordPhase(PluginMetrics.PHASE_AUTH, System.nanoTime() - authStart);
+        }
+    }
+
+    /**
+     * Opens a connection to the host in the background (DNS, TCP and KEX) so that a
+     * connect() shortly after can adopt it. Returns false when it is already warm or
+     * the cap on warm connections is reached.
+     */
+    public boolean prewarm(String hostname, int port, CompressionAdvisor.Mode compression) {
+        return warm(hostname, port, compression, null, null, null, null);
+    }
+
+    /** Like {@link #prewarm} and also authenticates; adopted only by a connect with the same credentials. */
+    public boolean prewarmWithPassword(String hostname, int port, String username, String password,
+                                       CompressionAdvisor.Mode compression) {
+        return warm(hostname, port, compression, username, password, null, null);
+    }
+
+    public boolean prewarmWithKey(String hostname, int port, String username, String privateKey, String passphrase,
+                                  CompressionAdvisor.Mode compression) {
+        return warm(hostname, port, compression, username, null, privateKey, passphrase);
+    }
+
+    private boolean warm(String hostname, int port, CompressionAdvisor.Mode compression, String username,
+                         String password, String privateKey, String passphrase) {
+        byte[] credentials = null;
+        if (password != null) {
+            credentials = credentialDigest(username, password);
+        } else if (privateKey != null) {
+            credentials = keyCredentialDigest(username, privateKey, passphrase);
+        }
+        String key = ConnectionPrewarmer.key(hostname, port, compression, credentials != null ? username : null);
+        ConnectionPrewarmer.Entry entry = prewarmer.reserve(key, credentials);
+        if (entry == null) {
+            return false;
+        }
+        streamPool.execute(() -> {
+            SSHClient ssh = null;
+            try {
+                // Phases are only recorded for connects someone waits on
+                ssh = openClient(hostname, port, compression, false);
+                if (password != null) {
+                    authPassword(ssh, username, password, false);
+                } else if (privateKey != null) {
+                    authKey(ssh, username, privateKey, passphrase, false);
+                }
+                prewarmer.ready(entry, ssh);
+            } catch (Exception e) {
+                if (ssh != null) {
+                    discard(ssh);
+                }
+                prewarmer.failed(entry);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * A warm connection for this connect, authenticated for these credentials if one
+     * exists, else a pre-auth one. Waits for one still warming, since it is ahead, but
+     * only until deadlineNanos: the connect's own timeout covers the waits too.
+     */
+    private SSHClient adoptWarm(String hostname, int port, CompressionAdvisor.Mode compression, String username,
+                                byte[] credentials, long deadlineNanos) {
+        long connectStart = System.nanoTime();
+        try {
+            ConnectionPrewarmer.Entry entry = null;
+            if (credentials != null) {
+                entry = prewarmer.take(ConnectionPrewarmer.key(hostname, port, compression, username), credentials,
+                    Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+            }
+            if (entry == null) {
+                entry = prewarmer.take(ConnectionPrewarmer.key(hostname, port, compression, null), null,
+                    Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())));
+            }
+            if (entry == null) {
+                return null;
+            }
+            metrics.recordPhase(PluginMetrics.PHASE_PREWARM_SAVED, ConnectionPrewarmer.savedNanos(entry, connectStart));
+            return entry.getClient();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** Time left before deadlineNanos for opening a connection, or a timeout if none is. */
+    private static int remainingConnectMillis(long deadlineNanos) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Connect timed out waiting for a warm connection");
+        }
+        return (int) remaining;
+    }
+
+    private static byte[] keyCredentialDigest(String username, String privateKey, String passphrase) {
+        return credentialDigest(username, privateKey + "\u0000" + (passphrase != null ? passphrase : ""));
+    }
+
+    /** Identifies credentials without keeping them: an authenticated warm connection stores only this. */
+    private static byte[] credentialDigest(String username, String secret) {
+        if (secret == null) {
+            return null;
+        }
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return sha256.digest((username + "\u0000" + secret).getBytes(StandardCharsets.UTF_8));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isConnected(String sessionId) {
+        SSHClient ssh = activeSessions.get(sessionId);
+        return ssh != null && ssh.isConnected();
+    }
+
+    public SSHClient getClient(String sessionId) {
+        return activeSessions.get(sessionId);
+    }
+
+    private SSHClient requireClient(String sessionId, String notConnectedMessage) throws SessionException {
+        SSHClient ssh = activeSessions.get(sessionId);
+        if (ssh == null || !ssh.isConnected()) {
+            throw new SessionException(notConnectedMessage);
+        }
+        return ssh;
+    }
+
+    /** Runs a command to completion; stderr, if any, is appended after a STDERR marker. */
+    public String executeCommand(String sessionId, String command) throws IOException, SessionException {
+        SSHClient ssh = requireClient(sessionId, "Not connected");
+        sessionManager.acquireChannel(sessionId);
+        sessionManager.touch(sessionId);
+        long execStart = System.nanoTime();
+        try (Session session = ssh.startSession()) {
+            Session.Command cmd = session.exec(command);
+            // Drain stderr concurrently so a chatty stderr can't stall stdout on the channel window
+            OutputTriggers triggers = outputTriggers.get(sessionId);
+            ExecStreams.Result result = ExecStreams.drain(cmd.getInputStream(), cmd.getErrorStream(), streamPool,
+                triggers != null ? triggers.scanner("exec") : null,
+                triggers != null ? triggers.scanner("exec-stderr") : null);
+            cmd.join(5, TimeUnit.SECONDS);
+
+            String output = result.stdout;
+            if (!result.stderr.isEmpty()) {
+                output += "\nSTDERR:\n" + result.stderr;
+            }
+            metrics.recordExec(System.nanoTime() - execStart);
+            return output;
+        } finally {
+            sessionManager.releaseChannel(sessionId);
+        }
+    }
+
+    /**
+     * {@link #executeCommand}, answered from the output of the same command on the same
+     * host and user if one is at most maxAgeMillis old or still running. Only for
+     * commands without side effects; maxAgeMillis of 0 or less skips the cache.
+     */
+    public ExecResultCache.Result executeCommand(final String sessionId, final String command, long maxAgeMillis)
+        throws IOException, SessionException {
+        String identity = identities.get(sessionId);
+        if (maxAgeMillis <= 0 || identity == null) {
+            return new ExecResultCache.Result(executeCommand(sessionId, command), false, 0);
+        }
+        requireClient(sessionId, "Not connected");
+        sessionManager.touch(sessionId);
+        return execCache.get(identity, command, maxAgeMillis, new ExecResultCache.Loader() {
+            @Override
+            public String load() throws IOException, SessionException {
+                return executeCommand(sessionId, command);
+            }
+        });
+    }
+
+    /** Cached command outputs and their hit / miss counters, see {@link #executeCommand(String, String, long)}. */
+    public ExecResultCache getExecCache() {
+        return execCache;
+    }
+
+    /**
+     * Runs script with args from the host's script cache, sending it there first if
+     * need be, see {@link RemoteScripts}. Returns the run id at once; the output
+     * follows as "scriptOutput" events and the exit status as "scriptExit". Holds a
+     * channel until the script ends.
+     */
+    public String runScript(final String sessionId, final String script, final List<String> args)
+        throws SessionException {
+        final SSHClient ssh = requireClient(sessionId, "Not connected");
+        sessionManager.acquireChannel(sessionId);
+        sessionManager.touch(sessionId);
+        final String identity = identities.get(sessionId);
+        final String runId = UUID.randomUUID().toString();
+        streamPool.execute(() -> {
+            try {
+                remoteScripts.run(ssh, identity, sessionId, runId, script, args, streamPool);
+            } finally {
+                sessionManager.releaseChannel(sessionId);
+            }
+        });
+        return runId;
+    }
+
+    /** The index of which host has which script, and the run counters. */
+    public RemoteScripts getRemoteScripts() {
+        return remoteScripts;
+    }
+
+    /**
+     * Starts sampling the host's metrics ({@link HostMonitor#CPU} and the others) every
+     * intervalMillis on one exec channel, emitted as "hostMetrics" events. Returns the
+     * monitor id for {@link #stopMonitor}; the monitor also stops with its session, and
+     * is dropped with a "hostMetricsEnded" event if the sampler dies on the host.
+     */
+    public String startMonitor(String sessionId, int intervalMillis, Collection<String> metricNames)
+        throws IOException, SessionException {
+        SSHClient ssh = requireClient(sessionId, "Not connected");
+        sessionManager.acquireChannel(sessionId);
+        HostMonitor monitor = new HostMonitor(UUID.randomUUID().toString(), sessionId, bridge);
+        // In the map before it starts, so a sampler that dies at once is found and released
+        monitors.put(monitor.getMonitorId(), monitor);
+        try {
+            monitor.start(ssh, intervalMillis, metricNames, streamPool, new HostMonitor.Listener() {
+                @Override
+                public void onEnded(HostMonitor ended) {
+                    if (monitors.remove(ended.getMonitorId(), ended)) {
+                        sessionManager.releaseChannel(ended.getSessionId());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            monitors.remove(monitor.getMonitorId());
+            sessionManager.releaseChannel(sessionId);
+            throw e;
+        }
+        if (!activeSessions.containsKey(sessionId)) {
+            // Closed meanwhile, which didn't see this monitor yet
+            stopMonitor(monitor.getMonitorId());
+            throw new SessionException("Not connected");
+        }
+        return monitor.getMonitorId();
+    }
+
+    /** Returns false if there was no such monitor. */
+    public boolean stopMonitor(String monitorId) {
+        HostMonitor monitor = monitors.remove(monitorId);
+        if (monitor == null) {
+            return false;
+        }
+        monitor.close();
+        sessionManager.releaseChannel(monitor.getSessionId());
+        return true;
+    }
+
+    public HostMonitor findMonitor(String monitorId) {
+        return monitors.get(monitorId);
+    }
+
+    /**
+     * Watches the session's shell and exec output for the triggers, see {@link OutputTriggers};
+     * an empty list removes them. With forwardOutput false, shell output stops going to
+     * JS as "shellOutput" and only matches do (the scrollback still keeps it). Replaces
+     * any earlier set, and applies to shells started later too.
+     */
+    public void setOutputTriggers(String sessionId, List<OutputTriggers.Trigger> triggers, long minIntervalMillis,
+                                  boolean forwardOutput) throws SessionException {
+        requireClient(sessionId, "Not connected");
+        OutputTriggers active = null;
+        OutputTriggers previous;
+        if (!triggers.isEmpty()) {
+            active = new OutputTriggers(sessionId, triggers, minIntervalMillis, bridge, inputScheduler);
+            active.setForwardOutput(forwardOutput);
+            previous = outputTriggers.put(sessionId, active);
+        } else {
+            previous = outputTriggers.remove(sessionId);
+        }
+        if (previous != null) {
+            previous.flush();
+        }
+        ShellSession shell = activeShellSessions.get(sessionId);
+        if (shell != null) {
+            applyTriggers(shell, active);
+        }
+    }
+
+    private static void applyTriggers(ShellSession shell, OutputTriggers triggers) {
+        if (triggers == null) {
+            shell.setTriggers(null, true);
+        } else {
+            shell.setTriggers(triggers.scanner("shell"), triggers.isForwardOutput());
+        }
+    }
+
+    public OutputTriggers findOutputTriggers(String sessionId) {
+        return outputTriggers.get(sessionId);
+    }
+
+    /**
+     * Tails files on one or more sessions and merges their lines by timestamp, see
+     * {@link LogTailMerger}; a source without a host tag gets its session's hostname.
+     * Takes a channel per source. Returns the tail id for {@link #stopTailMerge}; the
+     * tail also stops when any of its sessions closes.
+     */
+    public String startTailMerge(List<LogTailMerger.Source> sources, List<LogTimestamps.Parser> parsers, String filter,
+                                 int backlogLines, long reorderWindowMillis, long batchMillis, int maxBatchLines)
+        throws IOException, SessionException {
+        if (sources.isEmpty()) {
+            throw new SessionException("No files to tail");
+        }
+        List<SSHClient> clients = new ArrayList<>();
+        List<LogTailMerger.Source> tagged = new ArrayList<>();
+        for (LogTailMerger.Source source : sources) {
+            SSHClient ssh = requireClient(source.getSessionId(), "Not connected: " + source.getSessionId());
+            clients.add(ssh);
+            String host = source.getHost();
+            if (host == null || host.isEmpty()) {
+                // As connected to: sshj's own hostname may be a reverse lookup of the address
+                CompressionAdvisor advisor = advisors.get(source.getSessionId());
+                host = advisor != null ? advisor.getHost() : ssh.getRemoteHostname();
+            }
+            tagged.add(new LogTailMerger.Source(source.getSessionId(), source.getFile(), host));
+        }
+        int acquired = 0;
+        try {
+            for (LogTailMerger.Source source : tagged) {
+                sessionManager.acquireChannel(source.getSessionId());
+                acquired++;
+            }
+        } catch (SessionException e) {
+            for (int i = 0; i < acquired; i++) {
+                sessionManager.releaseChannel(tagged.get(i).getSessionId());
+            }
+            throw e;
+        }
+
+        LogTailMerger tail = new LogTailMerger(UUID.randomUUID().toString(), tagged, parsers, bridge);
+        tail.setReorderWindowMillis(reorderWindowMillis);
+        tail.setMaxBatchLines(maxBatchLines);
+        tails.put(tail.getTailId(), tail);
+        try {
+            tail.start(clients, backlogLines, filter, batchMillis, streamPool, inputScheduler);
+        } catch (IOException e) {
+            stopTailMerge(tail.getTailId());
+            throw e;
+        }
+        for (LogTailMerger.Source source : tagged) {
+            if (!activeSessions.containsKey(source.getSessionId())) {
+                // Closed meanwhile, which didn't see this tail yet
+                stopTailMerge(tail.getTailId());
+                throw new SessionException("Not connected: " + source.getSessionId());
+            }
+        }
+        return tail.getTailId();
+    }
+
+    /** Returns false if there was no such tail. */
+    public boolean stopTailMerge(String tailId) {
+        LogTailMerger tail = tails.remove(tailId);
+        if (tail == null) {
+            return false;
+        }
+        tail.close();
+        for (LogTailMerger.Source source : tail.getSources()) {
+            sessionManager.releaseChannel(source.getSessionId());
+        }
+        return true;
+    }
+
+    public LogTailMerger findTailMerge(String tailId) {
+        return tails.get(tailId);
+    }
+
+    public ShellSession startShell(String sessionId, int scrollbackBytes) throws IOException, SessionException {
+        return startShell(sessionId, scrollbackBytes, false);
+    }
+
+    /**
+     * @param flowControl when true, output stops being read once the high-water mark of
+     *                    chars is unacknowledged, see {@link #ackShellOutput}
+     */
+    public ShellSession startShell(String sessionId, int scrollbackBytes, boolean flowControl)
+        throws IOException, SessionException {
+        return startShell(sessionId, scrollbackBytes, flowControl, false);
+    }
+
+    /**
+     * @param binary when true, output goes over the stream transport (see
+     *               {@link #openStreamTransport}) while its client is connected
+     */
+    public ShellSession startShell(String sessionId, int scrollbackBytes, boolean flowControl, boolean binary)
+        throws IOException, SessionException {
+        return startShell(sessionId, scrollbackBytes, flowControl, binary,
+            ShellSession.DEFAULT_COLUMNS, ShellSession.DEFAULT_ROWS);
+    }
+
+    /**
+     * @param columns terminal width the PTY is opened with, see {@link #resizeShell}
+     */
+    public ShellSession startShell(String sessionId, int scrollbackBytes, boolean flowControl, boolean binary,
+                                   int columns, int rows) throws IOException, SessionException {
+        SSHClient ssh = requireClient(sessionId, "SSH session not found or not connected");
+        // Scrollback and the input queue are the shell's buffers
+        long reserved = (long) scrollbackBytes + maxQueuedInputBytes;
+        sessionManager.acquireChannel(sessionId);
+        try {
+            sessionManager.reserveBytes(sessionId, reserved);
+        } catch (SessionException e) {
+            sessionManager.releaseChannel(sessionId);
+            throw e;
+        }
+        ShellSession shellSession = new ShellSession(sessionId, scrollbackBytes, bridge, metrics, inputPool, inputScheduler);
+        shellSession.setReservedBytes(reserved);
+        try {
+            shellSession.setFlowControl(flowControl, highWaterChars, lowWaterChars);
+            if (uiDetached) {
+                shellSession.detach(detachedBufferBytes);
+            }
+            OutputTriggers triggers = outputTriggers.get(sessionId);
+            if (triggers != null) {
+                applyTriggers(shellSession, triggers);
+            }
+            if (binary) {
+                shellSession.setStreamTransport(openStreamTransport());
+            }
+            shellSession.resize(columns, rows);
+            shellSession.start(ssh, inputCoalesceMillis, maxQueuedInputBytes);
+        } catch (IOException e) {
+            release(shellSession);
+            throw e;
+        }
+        sessionManager.touch(sessionId);
+        ShellSession previous = activeShellSessions.put(sessionId, shellSession);
+        if (previous != null) {
+            previous.close();
+            release(previous);
+        }
+        return shellSession;
+    }
+
+    private void release(ShellSession shell) {
+        sessionManager.releaseChannel(shell.getSessionId());
+        sessionManager.releaseBytes(shell.getSessionId(), shell.getReservedBytes());
+    }
+
+    /** The shell of a session, or null. */
+    public ShellSession findShell(String sessionId) {
+        return activeShellSessions.get(sessionId);
+    }
+
+    public ShellSession getShell(String sessionId) throws SessionException {
+        ShellSession shellSession = activeShellSessions.get(sessionId);
+        if (shellSession == null) {
+            throw new SessionException("Shell session not found");
+        }
+        return shellSession;
+    }
+
+    /** Tells the server the terminal now has this many columns and rows. */
+    public void resizeShell(String sessionId, int columns, int rows) throws IOException, SessionException {
+        if (columns <= 0 || rows <= 0) {
+            throw new SessionException("Invalid terminal size: " + columns + "x" + rows);
+        }
+        getShell(sessionId).resize(columns, rows);
+        sessionManager.touch(sessionId);
+    }
+
+    /** Queues input without blocking; false means the queue is full, see {@link ShellSession#sendCommand}. */
+    public boolean sendToShell(String sessionId, String data) throws IOException, SessionException {
+        ShellSession shell = getShell(sessionId);
+        sessionManager.touch(sessionId);
+        return shell.sendCommand(data);
+    }
+
+    /**
+     * Sends the same input to many shells. Nothing here blocks on a session: the input
+     * is encoded once and queued on each shell's writer, whose drains then write to
+     * every channel in parallel on the input pool, so a keystroke costs about the
+     * same for 1 session as for 100. A session that can't take it is reported in the
+     * result without holding up the others.
+     */
+    public BroadcastResult sendToShells(Collection<String> sessionIds, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        BroadcastResult result = new BroadcastResult();
+        for (String sessionId : sessionIds) {
+            ShellSession shell = activeShellSessions.get(sessionId);
+            if (shell == null) {
+                result.failed.put(sessionId, "Shell session not found");
+                continue;
+            }
+            try {
+                if (shell.sendInput(bytes)) {
+                    result.sent.add(sessionId);
+                } else {
+                    result.refused.add(sessionId);
+                }
+                sessionManager.touch(sessionId);
+            } catch (IOException e) {
+                result.failed.put(sessionId, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keeps a named set of sessions to broadcast to with {@link #sendToGroup}, so the
+     * ids don't cross the bridge on every keystroke. An empty set removes the group;
+     * closed sessions leave their groups on their own.
+     */
+    public void setBroadcastGroup(String groupId, Collection<String> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            broadcastGroups.remove(groupId);
+        } else {
+            broadcastGroups.put(groupId, new CopyOnWriteArraySet<>(sessionIds));
+        }
+    }
+
+    /** The sessions of a group, empty if there is no such group. */
+    public List<String> getBroadcastGroup(String groupId) {
+        CopyOnWriteArraySet<String> group = broadcastGroups.get(groupId);
+        return group == null ? new ArrayList<String>() : new ArrayList<>(group);
+    }
+
+    public BroadcastResult sendToGroup(String groupId, String data) throws SessionException {
+        CopyOnWriteArraySet<String> group = broadcastGroups.get(groupId);
+        if (group == null) {
+            throw new SessionException("Broadcast group not found");
+        }
+        return sendToShells(group, data);
+    }
+
+    public void ackShellOutput(String sessionId, long chars) throws SessionException {
+        getShell(sessionId).ackOutput(chars);
+        sessionManager.touch(sessionId);
+    }
+
+    /**
+     * Turns predicted local echo on or off for a shell, see {@link LocalEchoPredictor}.
+     * Predictions are shown once the echo round trip reaches displayThresholdMillis.
+     */
+    public void setLocalEcho(String sessionId, boolean enabled, long displayThresholdMillis) throws SessionException {
+        ShellSession shell = getShell(sessionId);
+        shell.setPredictor(enabled ? new LocalEchoPredictor(shell.getColumns(), displayThresholdMillis) : null);
+    }
+
+    /** Predicted, shown, echoed and rolledBack keys, summed over the shells predicting now. */
+    public Map<String, Long> getLocalEchoStats() {
+        long predicted = 0;
+        long shown = 0;
+        long echoed = 0;
+        long rolledBack = 0;
+        for (ShellSession shell : activeShellSessions.values()) {
+            LocalEchoPredictor predictor = shell.getPredictor();
+            if (predictor != null) {
+                predicted += predictor.getPredicted();
+                shown += predictor.getShown();
+                echoed += predictor.getEchoed();
+                rolledBack += predictor.getRolledBack();
+            }
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("predicted", predicted);
+        stats.put("shown", shown);
+        stats.put("echoed", echoed);
+        stats.put("rolledBack", rolledBack);
+        return stats;
+    }
+
+    /** Starts the loopback stream server on first use; the same one is shared by all shells. */
+    public synchronized StreamServer openStreamTransport() throws IOException {
+        if (streamServer == null) {
+            StreamServer server = new StreamServer();
+            server.start();
+            streamServer = server;
+        }
+        return streamServer;
+    }
+
+    public void disconnect(String sessionId) {
+        close(sessionId, SessionManager.REASON_DISCONNECT);
+    }
+
+    /**
+     * Closes a session and everything it holds, then emits "sessionClosed" with the
+     * reason (see the SessionManager REASON_ constants). Does nothing if already closed.
+     */
+    public void close(String sessionId, String reason) {
+        for (HostMonitor monitor : monitors.values()) {
+            if (monitor.getSessionId().equals(sessionId)) {
+                stopMonitor(monitor.getMonitorId());
+            }
+        }
+        for (LogTailMerger tail : tails.values()) {
+            for (LogTailMerger.Source source : tail.getSources()) {
+                if (source.getSessionId().equals(sessionId)) {
+                    stopTailMerge(tail.getTailId());
+                    break;
+                }
+            }
+        }
+        OutputTriggers triggers = outputTriggers.remove(sessionId);
+        if (triggers != null) {
+            // Before sessionClosed, so matches held back don't arrive after it
+            triggers.flush();
+        }
+        String identity = identities.remove(sessionId);
+        if (identity != null && !identities.containsValue(identity)) {
+            // The last connection to the host: it may have rebooted or changed by the
+            // next one, so start over. Other sessions to it keep the outputs (and their
+            // calls still running); maxAgeMillis bounds how stale those get.
+            execCache.invalidate(identity);
+        }
+        for (CopyOnWriteArraySet<String> group : broadcastGroups.values()) {
+            group.remove(sessionId);
+        }
+        ShellSession shellSession = activeShellSessions.remove(sessionId);
+        if (shellSession != null) {
+            shellSession.close();
+        }
+        SSHClient ssh = activeSessions.remove(sessionId);
+        if (ssh != null) {
+            negotiated.remove(ssh);
+            closeQuietly(ssh);
+        }
+        CompressionAdvisor advisor = advisors.remove(sessionId);
+        HostProfileStore profiles = hostProfiles;
+        if (advisor != null && profiles != null) {
+            advisor.setListener(null);
+            advisor.flush();
+            try {
+                profiles.record(advisor);
+            } catch (org.json.JSONException e) {
+                // Not worth failing the disconnect over
+            }
+        }
+        metrics.removeSession(sessionId);
+        if (sessionManager.remove(sessionId, reason)) {
+            JSONObject data = new JSONObject();
+            data.put("sessionId", sessionId);
+            data.put("reason", reason);
+            bridge.emit("sessionClosed", data);
+        }
+    }
+
+    public Map<String, SSHClient> getSessions() {
+        return activeSessions;
+    }
+
+    public int getShellSessionCount() {
+        return activeShellSessions.size();
+    }
+
+    /** Disconnects everything and stops the helper threads. */
+    public void shutdown() {
+        prewarmer.clear();
+        synchronized (this) {
+            if (reaper != null) {
+                reaper.cancel(false);
+            }
+        }
+        for (String sessionId : activeSessions.keySet()) {
+            close(sessionId, SessionManager.REASON_SHUTDOWN);
+        }
+        synchronized (this) {
+            if (streamServer != null) {
+                streamServer.stop();
+                streamServer = null;
+            }
+        }
+        hostProber.close();
+        probeResolvers.shutdownNow();
+        streamPool.shutdownNow();
+        inputPool.shutdownNow();
+        inputScheduler.shutdownNow();
+    }
+
+    private static void closeQuietly(SSHClient ssh) {
+        try {
+            ssh.disconnect();
+        } catch (IOException ignored) {
+            // Ignore errors on disconnect
+        }
+    }
+}
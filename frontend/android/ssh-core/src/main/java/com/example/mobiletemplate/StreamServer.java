@@ -0,0 +1,326 @@
+package com.example.mobiletemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Loopback WebSocket endpoint carrying raw session output as binary frames, so
+ * terminal bytes skip the JSON escaping and string copies of the Capacitor bridge.
+ *
+ * Listens on 127.0.0.1 only and requires the per-process token in the request path
+ * (ws://127.0.0.1:PORT/stream?token=...). One client at a time; a newer client with
+ * the token replaces the old one. Each binary message is
+ * [1 byte session id length][session id, ASCII][payload bytes].
+ * Control traffic (acks, input, lifecycle events) stays on the plugin bridge.
+ */
+public class StreamServer {
+    private static final Logger LOG = Logger.getLogger("StreamServer");
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HANDSHAKE_BYTES = 8192;
+
+    private final String token;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    // A client going away clears it by compareAndSet, so never the one that replaced it
+    private final AtomicReference<Client> client = new AtomicReference<>();
+    private volatile boolean running;
+
+    /** One connected WebSocket client. Sends are serialized on the output stream. */
+    private static class Client {
+        final Socket socket;
+        final OutputStream out;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+
+    public StreamServer() {
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        this.token = Hex.toHexString(random);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        serverSocket = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "StreamServer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getUrl() {
+        return "ws://127.0.0.1:" + getPort() + "/stream?token=" + token;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean hasClient() {
+        return client.get() != null;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(Level.WARNING, "Accept failed", e);
+                }
+                return;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(5000);
+                if (!handshake(socket)) {
+                    socket.close();
+                    continue;
+                }
+                socket.setSoTimeout(0);
+                Client newClient = new Client(socket);
+                Client previous = client.getAndSet(newClient);
+                if (previous != null) {
+                    previous.close();
+                }
+                Thread reader = new Thread(() -> readLoop(newClient), "StreamServer-read");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Already closed
+                }
+            }
+        }
+    }
+
+    private boolean handshake(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder request = new StringBuilder();
+        int previous = -1;
+        int c;
+        // Read up to the blank line ending the HTTP headers
+        while ((c = in.read()) != -1) {
+            request.append((char) c);
+            if (request.length() > MAX_HANDSHAKE_BYTES) {
+                return false;
+            }
+            if (c == '\n' && previous == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                previous = c;
+            }
+        }
+
+        String[] lines = request.toString().split("\r\n");
+        if (lines.length == 0 || !lines[0].startsWith("GET ")) {
+            return false;
+        }
+        String path = lines[0].split(" ")[1];
+        int tokenIndex = path.indexOf("token=");
+        String presented = tokenIndex >= 0 ? path.substring(tokenIndex + 6).split("&")[0] : "";
+        if (!MessageDigest.isEqual(presented.getBytes(StandardCharsets.US_ASCII), token.getBytes(StandardCharsets.US_ASCII))) {
+            socket.getOutputStream().write("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            return false;
+        }
+
+        String key = null;
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                key = line.substring(colon + 1).trim();
+            }
+        }
+        if (key == null) {
+            return false;
+        }
+
+        String accept;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            accept = Base64.toBase64String(sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return true;
+    }
+
+    /** Handles what the client sends: close and ping. Data from the client is ignored. */
+    private void readLoop(Client reading) {
+        try {
+            InputStream in = reading.socket.getInputStream();
+            while (running) {
+                int b0 = in.read();
+                int b1 = in.read();
+                if (b0 < 0 || b1 < 0) {
+                    break;
+                }
+                int opcode = b0 & 0x0F;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = (in.read() << 8) | in.read();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | in.read();
+                    }
+                }
+                byte[] mask = new byte[4];
+                if ((b1 & 0x80) != 0) {
+                    readFully(in, mask, 4);
+                }
+                if (length > 125 && opcode >= 0x8) {
+                    break;
+                }
+                byte[] payload = new byte[(int) Math.min(length, 125)];
+                if (length <= 125) {
+                    readFully(in, payload, payload.length);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                } else {
+                    // Data frames from the client carry nothing we use
+                    long skipped = 0;
+                    while (skipped < length) {
+                        long n = in.skip(length - skipped);
+                        if (n <= 0) {
+                            throw new IOException("Truncated frame");
+                        }
+                        skipped += n;
+                    }
+                }
+                if (opcode == 0x8) {
+                    break;
+                } else if (opcode == 0x9) {
+                    synchronized (reading) {
+                        writeFrame(reading.out, 0xA, null, payload, 0, payload.length);
+                        reading.out.flush();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+        reading.close();
+        client.compareAndSet(reading, null);
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int n = in.read(buffer, offset, length - offset);
+            if (n < 0) {
+                throw new IOException("Truncated frame");
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * Sends one session's bytes as a binary message. Returns false when no client is
+     * connected (or it just went away), in which case the caller should fall back
+     * to the bridge.
+     */
+    public boolean send(String sessionId, byte[] data, int offset, int length) {
+        Client current = client.get();
+        if (current == null) {
+            return false;
+        }
+        byte[] id = sessionId.getBytes(StandardCharsets.US_ASCII);
+        try {
+            synchronized (current) {
+                writeFrame(current.out, 0x2, id, data, offset, length);
+                current.out.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            current.close();
+            client.compareAndSet(current, null);
+            return false;
+        }
+    }
+
+    /** Writes an unmasked server frame; a non-null prefix is the length-prefixed session id. */
+    public static void writeFrame(OutputStream out, int opcode, byte[] sessionId, byte[] data, int offset, int length)
+        throws IOException {
+        long payloadLength = length + (sessionId != null ? 1 + sessionId.length : 0);
+        out.write(0x80 | opcode);
+        if (payloadLength < 126) {
+            out.write((int) payloadLength);
+        } else if (payloadLength < 65536) {
+            out.write(126);
+            out.write((int) (payloadLength >>> 8) & 0xFF);
+            out.write((int) payloadLength & 0xFF);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (payloadLength >>> shift) & 0xFF);
+            }
+        }
+        if (sessionId != null) {
+            out.write(sessionId.length);
+            out.write(sessionId);
+        }
+        out.write(data, offset, length);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Client current = client.getAndSet(null);
+        if (current != null) {
+            current.close();
+        }
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.mobiletemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+
+import javax.net.SocketFactory;
+
+/**
+ * Socket factory for a single SSHClient connect. {@link #connect} resolves and races
+ * the host's addresses (see {@link HappyEyeballs}) and keeps the winner for the
+ * createSocket() sshj makes next; sshj's own connect on it is then a no-op. It
+ * records when resolution started, when the race started and when it was won, which
+ * gives the DNS and TCP phases; everything after connectEndNanos is the SSH handshake.
+ * A {@link CompressionAdvisor}, if set, gets the TCP connect time and sees every
+ * read on the raw socket.
+ */
+public class TimedSocketFactory extends SocketFactory {
+    public volatile long createdNanos;
+    public volatile long connectStartNanos;
+    public volatile long connectEndNanos;
+    public volatile CompressionAdvisor advisor;
+    private Socket connected;
+
+    /**
+     * Connects to hostname and returns the address that won, carrying the hostname
+     * so sshj doesn't reverse-resolve it. Pass it to SSHClient.connect(InetAddress, int).
+     */
+    public InetAddress connect(HappyEyeballs eyeballs, String hostname, int port, int timeoutMillis)
+        throws IOException {
+        createdNanos = System.nanoTime();
+        InetAddress[] addresses = eyeballs.getDnsCache().lookup(hostname);
+        connectStartNanos = System.nanoTime();
+        Socket socket = eyeballs.race(hostname, addresses, port, timeoutMillis, this);
+        connectEndNanos = System.nanoTime();
+        CompressionAdvisor current = advisor;
+        if (current != null) {
+            current.recordRtt(connectEndNanos - connectStartNanos);
+        }
+        synchronized (this) {
+            connected = socket;
+        }
+        return InetAddress.getByAddress(hostname, socket.getInetAddress().getAddress());
+    }
+
+    @Override
+    public Socket createSocket() {
+        synchronized (this) {
+            if (connected != null) {
+                Socket socket = connected;
+                connected = null;
+                return socket;
+            }
+        }
+        return new Socket() {
+            @Override
+            public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                // Already connected by the race
+                if (!isConnected()) {
+                    super.connect(endpoint, timeout);
+                }
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new FilterInputStream(super.getInputStream()) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        CompressionAdvisor current = advisor;
+                        if (n > 0 && current != null) {
+                            current.onWireRead(n, System.nanoTime());
+                        }
+                        return n;
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return SocketFactory.getDefault().createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return SocketFactory.getDefault().createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return SocketFactory.getDefault().createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return SocketFactory.getDefault().createSocket(address, port, localAddress, localPort);
+    }
+}
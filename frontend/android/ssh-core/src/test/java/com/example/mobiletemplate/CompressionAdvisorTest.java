@@ -0,0 +1,104 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompressionAdvisorTest {
+    private static final long MS = 1_000_000L;
+
+    /** Feeds one burst of 16K reads at the given rate, then a gap that closes it. */
+    private static long burst(CompressionAdvisor advisor, long startNanos, long bytes, long bytesPerSecond) {
+        long now = startNanos;
+        long nanosPerRead = 16 * 1024 * 1_000_000_000L / bytesPerSecond;
+        for (long read = 0; read < bytes; read += 16 * 1024) {
+            advisor.onWireRead(16 * 1024, now);
+            now += nanosPerRead;
+        }
+        return now + CompressionAdvisor.BURST_GAP_NANOS * 2;
+    }
+
+    @Test
+    public void slowBulkTransferSwitchesAutoOnAndFastSwitchesItOff() {
+        CompressionAdvisor advisor = new CompressionAdvisor("h", 22, CompressionAdvisor.Mode.AUTO);
+        List<Boolean> changes = new ArrayList<>();
+        advisor.setListener(changes::add);
+        assertFalse(advisor.shouldCompress());
+
+        long now = burst(advisor, 1, 2 * 1024 * 1024, 256 * 1024);
+        advisor.onWireRead(1, now);
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0));
+        assertTrue(advisor.shouldCompress());
+
+        // Mid-range throughput keeps the current setting
+        for (int i = 0; i < 10; i++) {
+            now = burst(advisor, now, 4 * 1024 * 1024, 2 * 1024 * 1024);
+        }
+        advisor.flush();
+        assertTrue(advisor.shouldCompress());
+
+        for (int i = 0; i < 10; i++) {
+            now = burst(advisor, now, 8 * 1024 * 1024, 50 * 1024 * 1024);
+        }
+        advisor.flush();
+        assertFalse(advisor.shouldCompress());
+        assertEquals(2, changes.size());
+        assertFalse(changes.get(1));
+    }
+
+    @Test
+    public void interactiveTrafficIsIgnoredAndRttDecidesANewHost() {
+        CompressionAdvisor advisor = new CompressionAdvisor("h", 22, CompressionAdvisor.Mode.AUTO);
+        long now = 1;
+        for (int i = 0; i < 100; i++) {
+            advisor.onWireRead(64, now);
+            now += 300 * MS;
+        }
+        advisor.flush();
+        assertEquals(0, advisor.getSamples());
+        assertFalse(advisor.shouldCompress());
+
+        advisor.recordRtt(200 * MS);
+        assertTrue(advisor.shouldCompress());
+    }
+
+    @Test
+    public void profileSeedsAutoButNotExplicitModes() {
+        HostProfileStore.Profile slow = new HostProfileStore.Profile(40, 200 * 1024, true, 0);
+
+        CompressionAdvisor auto = new CompressionAdvisor("h", 22, CompressionAdvisor.Mode.AUTO);
+        auto.seed(slow);
+        assertTrue(auto.shouldCompress());
+
+        CompressionAdvisor off = new CompressionAdvisor("h", 22, CompressionAdvisor.Mode.OFF);
+        off.seed(slow);
+        assertFalse(off.shouldCompress());
+        // Still reported, so the UI can suggest turning it on
+        assertTrue(off.recommendsCompression());
+
+        final String[] saved = new String[1];
+        HostProfileStore store = new HostProfileStore(new KeyMetadataStore.Storage() {
+            @Override
+            public String load() {
+                return saved[0];
+            }
+
+            @Override
+            public void save(String json) {
+                saved[0] = json;
+            }
+        });
+        try {
+            store.record(off);
+            HostProfileStore.Profile stored = store.get("h", 22);
+            assertTrue(stored.compression);
+            assertEquals(200 * 1024, stored.throughputBytesPerSec, 0.1);
+        } catch (org.json.JSONException e) {
+            fail(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.security.Security;
+
+import org.junit.Test;
+
+import net.schmizz.sshj.transport.NegotiatedAlgorithms;
+
+public class CryptoWarmupTest {
+    @Test(timeout = 30_000)
+    public void backgroundWarmupRegistersTheProviderAndConnectWaitsForIt() throws Exception {
+        CryptoWarmup warmup = new CryptoWarmup();
+        assertFalse(warmup.isReady());
+        warmup.start();
+        warmup.start();
+        warmup.awaitReady();
+        assertTrue(warmup.isReady());
+        assertTrue(warmup.getWarmupNanos() > 0);
+        assertTrue(Security.getProvider("BC") instanceof org.bouncycastle.jce.provider.BouncyCastleProvider);
+    }
+
+    @Test(timeout = 30_000)
+    public void unstartedWarmupRunsInlineAndOnlyTheFirstConnectIsKept() throws Exception {
+        CryptoWarmup warmup = new CryptoWarmup();
+        warmup.awaitReady();
+        assertTrue(warmup.isReady());
+        assertEquals(-1, warmup.getFirstConnectNanos());
+
+        warmup.recordConnect(5_000_000, false);
+        warmup.recordConnect(1_000_000, true);
+        assertEquals(5_000_000, warmup.getFirstConnectNanos());
+        assertFalse(warmup.isFirstConnectWarm());
+    }
+
+    /** The KEX, cipher and MAC a connect settled on are ones the warm-up prepared. */
+    private static void assertWarmed(NegotiatedAlgorithms algorithms) {
+        assertTrue(algorithms.toString(), algorithms.getKeyExchangeAlgorithm().startsWith("curve25519-sha256"));
+        String cipher = algorithms.getClient2ServerCipherAlgorithm();
+        assertTrue(algorithms.toString(), CryptoWarmup.LIKELY_CIPHERS.contains(cipher));
+        if (cipher.endsWith("-ctr")) {
+            String mac = algorithms.getClient2ServerMACAlgorithm().replace("-etm@openssh.com", "");
+            assertTrue(algorithms.toString(), CryptoWarmup.LIKELY_MACS.contains(mac));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void theWarmedAlgorithmsAreTheOnesServersNegotiate() throws Exception {
+        // Throws if any of them can't be set up
+        CryptoWarmup.warmUp();
+        String[][] servers = {
+            // As configured out of the box: chacha20
+            {null, null},
+            // Neither chacha20 nor CBC, and no SHA-1: sshj's second choice would be missed
+            {"aes128-ctr,aes256-ctr,aes256-gcm@openssh.com", "hmac-sha2-256-etm@openssh.com,hmac-sha2-512"},
+            {"aes256-gcm@openssh.com,aes128-gcm@openssh.com", null},
+        };
+        SshSessionService service = new SshSessionService(new SessionBridge() {
+            @Override
+            public void emit(String event, org.json.JSONObject data) {
+            }
+        }, new PluginMetrics());
+        try {
+            for (String[] algorithms : servers) {
+                try (EmbeddedSshServer server = new EmbeddedSshServer()) {
+                    if (algorithms[0] != null) {
+                        server.getServer().setCipherFactoriesNameList(algorithms[0]);
+                    }
+                    if (algorithms[1] != null) {
+                        server.getServer().setMacFactoriesNameList(algorithms[1]);
+                    }
+                    String sessionId = service.connectWithPassword(server.getHost(), server.getPort(),
+                        EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+                    assertWarmed(service.getNegotiatedAlgorithms(sessionId));
+                    service.disconnect(sessionId);
+                }
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void serviceRecordsItsFirstConnect() throws Exception {
+        try (EmbeddedSshServer server = new EmbeddedSshServer()) {
+            SshSessionService service = new SshSessionService(new SessionBridge() {
+                @Override
+                public void emit(String event, org.json.JSONObject data) {
+                }
+            }, new PluginMetrics());
+            try {
+                service.startWarmup();
+                service.getWarmup().awaitReady();
+                service.connectWithPassword(server.getHost(), server.getPort(),
+                    EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+                assertTrue(service.getWarmup().getFirstConnectNanos() > 0);
+                assertTrue(service.getWarmup().isFirstConnectWarm());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+}
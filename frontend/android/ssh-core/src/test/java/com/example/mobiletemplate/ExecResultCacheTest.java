@@ -0,0 +1,167 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ExecResultCacheTest {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private ExecResultCache.Loader loader(final String output) {
+        return new ExecResultCache.Loader() {
+            @Override
+            public String load() {
+                loads.incrementAndGet();
+                return output;
+            }
+        };
+    }
+
+    @Test
+    public void hitsUntilTheEntryIsOlderThanTheCallAllows() throws Exception {
+        ExecResultCache cache = new ExecResultCache();
+        ExecResultCache.Result first = cache.get("u@h:22", "uname -a", 60_000, loader("Linux\n"));
+        assertFalse(first.cached);
+        assertEquals("Linux\n", first.output);
+
+        ExecResultCache.Result second = cache.get("u@h:22", "uname -a", 60_000, loader("other"));
+        assertTrue(second.cached);
+        assertEquals("Linux\n", second.output);
+        assertEquals(1, loads.get());
+
+        // Another host, another user, another command: separate entries
+        assertFalse(cache.get("u@g:22", "uname -a", 60_000, loader("x")).cached);
+        assertFalse(cache.get("root@h:22", "uname -a", 60_000, loader("x")).cached);
+        assertFalse(cache.get("u@h:22", "uname -r", 60_000, loader("x")).cached);
+
+        Thread.sleep(20);
+        // Each call says how stale it can take
+        ExecResultCache.Result strict = cache.get("u@h:22", "uname -a", 10, loader("Linux 2\n"));
+        assertFalse(strict.cached);
+        assertEquals("Linux 2\n", strict.output);
+        assertEquals(5, loads.get());
+        assertEquals(Long.valueOf(1), cache.getStats().get("hits"));
+        assertEquals(Long.valueOf(5), cache.getStats().get("misses"));
+    }
+
+    @Test(timeout = 10_000)
+    public void identicalCallsShareTheRunningOne() throws Exception {
+        final ExecResultCache cache = new ExecResultCache();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecResultCache.Loader slow = new ExecResultCache.Loader() {
+            @Override
+            public String load() throws IOException {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "42%\n";
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<ExecResultCache.Result> owner = pool.submit(() -> cache.get("u@h:22", "df -h", 5000, slow));
+            started.await();
+            Future<ExecResultCache.Result> second = pool.submit(() -> cache.get("u@h:22", "df -h", 5000, slow));
+            Future<ExecResultCache.Result> third = pool.submit(() -> cache.get("u@h:22", "df -h", 5000, slow));
+            while (cache.getStats().get("coalesced") < 2) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            assertFalse(owner.get().cached);
+            assertTrue(second.get().cached);
+            assertEquals("42%\n", third.get().output);
+            assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void failuresReachEveryWaiterAndAreNotKept() throws Exception {
+        final ExecResultCache cache = new ExecResultCache();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecResultCache.Loader failing = new ExecResultCache.Loader() {
+            @Override
+            public String load() throws SessionException {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SessionException("Channel limit reached");
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<ExecResultCache.Result> owner = pool.submit(() -> cache.get("u@h:22", "uptime", 5000, failing));
+            started.await();
+            Future<ExecResultCache.Result> waiter = pool.submit(() -> cache.get("u@h:22", "uptime", 5000, failing));
+            while (cache.getStats().get("coalesced") < 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<ExecResultCache.Result> call : java.util.Arrays.asList(owner, waiter)) {
+                try {
+                    call.get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (java.util.concurrent.ExecutionException expected) {
+                    assertEquals("Channel limit reached", expected.getCause().getMessage());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(Long.valueOf(0), cache.getStats().get("entries"));
+        assertEquals("up\n", cache.get("u@h:22", "uptime", 5000, loader("up\n")).output);
+    }
+
+    @Test
+    public void leastRecentlyUsedGoFirst() throws Exception {
+        ExecResultCache cache = new ExecResultCache(2, 1000);
+        cache.get("u@h:22", "a", 60_000, loader("1"));
+        cache.get("u@h:22", "b", 60_000, loader("2"));
+        // a is now the most recent
+        assertTrue(cache.get("u@h:22", "a", 60_000, loader("1")).cached);
+        cache.get("u@h:22", "c", 60_000, loader("3"));
+        assertTrue(cache.get("u@h:22", "a", 60_000, loader("1")).cached);
+        assertFalse(cache.get("u@h:22", "b", 60_000, loader("2")).cached);
+        assertEquals(Long.valueOf(2), cache.getStats().get("evictions"));
+
+        // Bounded by bytes too (two per char); an output over the whole budget isn't kept
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            big.append('x');
+        }
+        cache.get("u@h:22", "big", 60_000, loader(big.toString()));
+        assertEquals(Long.valueOf(600 + 2), cache.getStats().get("bytes"));
+        cache.get("u@h:22", "huge", 60_000, loader(big.toString() + big + big));
+        assertFalse(cache.get("u@h:22", "huge", 60_000, loader("")).cached);
+    }
+
+    @Test
+    public void invalidateDropsOneIdentity() throws Exception {
+        ExecResultCache cache = new ExecResultCache();
+        cache.get("u@h:22", "uname", 60_000, loader("a"));
+        cache.get("u@g:22", "uname", 60_000, loader("b"));
+        cache.invalidate("u@h:22");
+        assertFalse(cache.get("u@h:22", "uname", 60_000, loader("a")).cached);
+        assertTrue(cache.get("u@g:22", "uname", 60_000, loader("b")).cached);
+        assertEquals(Long.valueOf(2), cache.getStats().get("entries"));
+    }
+}
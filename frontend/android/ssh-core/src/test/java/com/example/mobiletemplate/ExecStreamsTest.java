@@ -0,0 +1,67 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+
+public class ExecStreamsTest {
+    private EmbeddedSshServer server;
+    private SSHClient ssh;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedSshServer();
+        ssh = server.connect();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        ssh.disconnect();
+        server.close();
+    }
+
+    @Test
+    public void drainsStdoutAndStderr() throws Exception {
+        try (Session session = ssh.startSession()) {
+            Session.Command command = session.exec("echo hello");
+            ExecStreams.Result result = ExecStreams.drain(command.getInputStream(), command.getErrorStream(), executor);
+            assertEquals("hello\n", result.stdout);
+            assertEquals("", result.stderr);
+        }
+    }
+
+    @Test(timeout = 20_000)
+    public void largeStderrDoesNotStallStdout() throws Exception {
+        // Far beyond the channel window: reading the streams one after the other would hang here
+        int size = 8 * 1024 * 1024;
+        try (Session session = ssh.startSession()) {
+            Session.Command command = session.exec("stderr " + size);
+            ExecStreams.Result result = ExecStreams.drain(command.getInputStream(), command.getErrorStream(), executor);
+            assertEquals(size, result.stderr.length());
+        }
+    }
+
+    @Test
+    public void decoderCarriesSplitCharacters() {
+        byte[] bytes = "a\u20acb\u65e5".getBytes(StandardCharsets.UTF_8);
+        ShellOutputDecoder decoder = new ShellOutputDecoder();
+        StringBuilder out = new StringBuilder();
+        for (byte b : bytes) {
+            out.append(decoder.decode(new byte[] { b }, 0, 1));
+        }
+        assertEquals("a\u20acb\u65e5", out.toString());
+        assertEquals(0, decoder.pendingBytes());
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.SocketFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HappyEyeballsTest {
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final List<java.io.Closeable> closeables = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (java.io.Closeable closeable : closeables) {
+            closeable.close();
+        }
+        pool.shutdownNow();
+    }
+
+    private static InetAddress address(String host, int a, int b, int c, int d) throws IOException {
+        return InetAddress.getByAddress(host, new byte[] {(byte) a, (byte) b, (byte) c, (byte) d});
+    }
+
+    /** Answers every lookup with the given addresses and counts the lookups. */
+    private static DnsCache.Resolver stub(final AtomicInteger lookups, final long ttlMillis,
+                                          final InetAddress... addresses) {
+        return new DnsCache.Resolver() {
+            @Override
+            public DnsCache.Answer resolve(String hostname) {
+                lookups.incrementAndGet();
+                return new DnsCache.Answer(addresses, ttlMillis);
+            }
+        };
+    }
+
+    /**
+     * A listener on address:port that never completes a handshake: once its accept
+     * queue is full the kernel drops further SYNs, like a broken IPv6 route does.
+     */
+    private void blackHole(InetAddress address, int port) throws IOException {
+        ServerSocket hole = new ServerSocket();
+        closeables.add(hole);
+        hole.bind(new InetSocketAddress(address, port), 1);
+        for (int i = 0; i < 16; i++) {
+            Socket filler = new Socket();
+            closeables.add(filler);
+            try {
+                filler.connect(hole.getLocalSocketAddress(), 200);
+            } catch (SocketTimeoutException full) {
+                return;
+            }
+        }
+        fail("Could not fill the accept queue");
+    }
+
+    @Test(timeout = 10_000)
+    public void blackHoledFirstAddressCostsOneAttemptDelay() throws Exception {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        closeables.add(server);
+        int port = server.getLocalPort();
+        InetAddress broken = address("dual.test", 127, 0, 0, 2);
+        InetAddress working = address("dual.test", 127, 0, 0, 1);
+        blackHole(broken, port);
+
+        AtomicInteger lookups = new AtomicInteger();
+        HappyEyeballs eyeballs = new HappyEyeballs(new DnsCache(stub(lookups, 60_000, broken, working)), pool);
+        long start = System.nanoTime();
+        Socket socket = eyeballs.connect("dual.test", port, 5000, SocketFactory.getDefault());
+        closeables.add(socket);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(working, socket.getInetAddress());
+        assertTrue(millis + "ms", millis >= HappyEyeballs.DEFAULT_ATTEMPT_DELAY_MILLIS && millis < 2000);
+        assertEquals(1, eyeballs.getFallbacks());
+
+        // Cached, and the address that won is now tried first
+        start = System.nanoTime();
+        Socket again = eyeballs.connect("dual.test", port, 5000, SocketFactory.getDefault());
+        closeables.add(again);
+        assertTrue((System.nanoTime() - start) / 1_000_000 < HappyEyeballs.DEFAULT_ATTEMPT_DELAY_MILLIS);
+        assertEquals(working, again.getInetAddress());
+        assertEquals(1, eyeballs.getFallbacks());
+        assertEquals(1, lookups.get());
+        assertEquals(1, eyeballs.getDnsCache().getHits());
+    }
+
+    @Test(timeout = 20_000)
+    public void sshClientGetsTheWinningSocket() throws Exception {
+        try (EmbeddedSshServer server = new EmbeddedSshServer()) {
+            blackHole(address("dual.test", 127, 0, 0, 2), server.getPort());
+            SshSessionService service = new SshSessionService(new SessionBridge() {
+                @Override
+                public void emit(String event, org.json.JSONObject data) {
+                }
+            }, new PluginMetrics());
+            service.getHappyEyeballs().getDnsCache().setResolver(stub(new AtomicInteger(), 60_000,
+                address("dual.test", 127, 0, 0, 2), address("dual.test", 127, 0, 0, 1)));
+            try {
+                String sessionId = service.connectWithPassword("dual.test", server.getPort(),
+                    EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+                assertEquals("ok\n", service.executeCommand(sessionId, "echo ok"));
+                assertEquals(1, service.getHappyEyeballs().getFallbacks());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void failuresStartTheNextAttemptAndTheLastErrorIsThrown() throws Exception {
+        // Bound but not listening: both refuse at once
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int port = closed.getLocalPort();
+        closed.close();
+
+        AtomicInteger lookups = new AtomicInteger();
+        HappyEyeballs eyeballs = new HappyEyeballs(new DnsCache(stub(lookups, 60_000,
+            address("down.test", 127, 0, 0, 2), address("down.test", 127, 0, 0, 1))), pool);
+        eyeballs.setAttemptDelayMillis(2000);
+        long start = System.nanoTime();
+        try {
+            eyeballs.connect("down.test", port, 5000, SocketFactory.getDefault());
+            fail();
+        } catch (java.net.ConnectException expected) {
+            // Refused
+        }
+        // Didn't wait out the attempt delay
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1000);
+    }
+
+    @Test
+    public void cacheRespectsTtlAndOrderInterleavesFamilies() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        DnsCache cache = new DnsCache(stub(lookups, 50, address("ttl.test", 10, 0, 0, 1)));
+        cache.lookup("ttl.test");
+        cache.lookup("ttl.test");
+        assertEquals(1, lookups.get());
+        Thread.sleep(80);
+        cache.lookup("ttl.test");
+        assertEquals(2, lookups.get());
+
+        // A zero TTL isn't cached at all
+        cache.setResolver(stub(lookups, 0, address("ttl.test", 10, 0, 0, 1)));
+        cache.lookup("ttl.test");
+        cache.lookup("ttl.test");
+        assertEquals(4, lookups.get());
+
+        InetAddress v6a = InetAddress.getByName("2001:db8::1");
+        InetAddress v6b = InetAddress.getByName("2001:db8::2");
+        InetAddress v4a = InetAddress.getByName("192.0.2.1");
+        InetAddress v4b = InetAddress.getByName("192.0.2.2");
+        List<InetAddress> ordered = HappyEyeballs.order(new InetAddress[] {v6a, v6b, v4a, v4b});
+        assertEquals(java.util.Arrays.asList(v6a, v4a, v6b, v4b), ordered);
+        ordered = HappyEyeballs.order(new InetAddress[] {v4a, v6a, v6b});
+        assertEquals(java.util.Arrays.asList(v4a, v6a, v6b), ordered);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HostMonitorTest {
+    private static final List<String> ALL = Arrays.asList(HostMonitor.CPU, HostMonitor.MEMORY, HostMonitor.LOAD,
+        HostMonitor.DISK);
+
+    private EmbeddedSshServer server;
+    private SshSessionService service;
+    private final CopyOnWriteArrayList<JSONObject> frames = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<JSONObject> ends = new LinkedBlockingQueue<>();
+    private final SessionBridge bridge = new SessionBridge() {
+        @Override
+        public void emit(String event, JSONObject data) {
+            if ("hostMetrics".equals(event)) {
+                frames.add(data);
+            } else if ("hostMetricsEnded".equals(event)) {
+                ends.add(data);
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedSshServer();
+        service = new SshSessionService(bridge, new PluginMetrics());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.shutdown();
+        server.close();
+    }
+
+    private static void tick(HostMonitor monitor, String cpu, String memAvailableKb, String load) {
+        monitor.onLine("T");
+        monitor.onLine("C cpu  " + cpu);
+        monitor.onLine("M MemTotal: 8388608");
+        monitor.onLine("M MemAvailable: " + memAvailableKb);
+        monitor.onLine("L " + load + " 1/200 4242");
+        monitor.onLine("E");
+    }
+
+    @Test
+    public void samplesBecomeNumbersAndOnlyChangesAreSent() {
+        HostMonitor monitor = new HostMonitor("m1", "s1", bridge);
+        tick(monitor, "100 0 100 800 0 0 0 0 0 0", "4194304", "0.50 0.40 0.30");
+        monitor.onLine("T");
+        monitor.onLine("D 264212084 4126200");
+        monitor.onLine("E");
+        assertEquals(2, frames.size());
+        JSONObject first = frames.get(0).getJSONObject("values");
+        // The first CPU line only gives a baseline
+        assertFalse(first.has("cpu"));
+        assertEquals(8192, first.getDouble("memTotalMB"), 0);
+        assertEquals(4096, first.getDouble("memUsedMB"), 0);
+        assertEquals(0.5, first.getDouble("load1"), 0);
+        assertEquals(0.3, first.getDouble("load15"), 0);
+        assertEquals(258019, frames.get(1).getJSONObject("values").getDouble("diskTotalMB"), 0);
+
+        // 300 of 1000 jiffies busy; memory moved by less than a MB
+        tick(monitor, "250 0 250 1500 0 0 0 0 0 0", "4194000", "0.50 0.40 0.30");
+        assertEquals(3, frames.size());
+        JSONObject changed = frames.get(2).getJSONObject("values");
+        assertEquals(1, changed.length());
+        assertEquals(30.0, changed.getDouble("cpu"), 0);
+
+        // Same load again: nothing to send
+        tick(monitor, "400 0 400 2200 0 0 0 0 0 0", "4194000", "0.50 0.40 0.30");
+        assertEquals(3, frames.size());
+        assertEquals(3, monitor.getFrames());
+        assertEquals(4, monitor.getTicks());
+
+        // A garbled line is skipped, not fatal
+        monitor.onLine("L nope");
+        tick(monitor, "400 0 400 2200 0 0 0 0 0 0", "4194000", "1.00 0.40 0.30");
+        assertEquals(1.0, frames.get(3).getJSONObject("values").getDouble("load1"), 0);
+    }
+
+    @Test(timeout = 20_000)
+    public void monitorStreamsFromTheHostAndStopsWithItsChannel() throws Exception {
+        String sessionId = service.connectWithPassword(server.getHost(), server.getPort(),
+            EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+        String monitorId = service.startMonitor(sessionId, 500, ALL);
+        HostMonitor monitor = service.findMonitor(monitorId);
+        assertEquals(1, service.getSessionManager().getChannelCount());
+
+        while (monitor.getTicks() < 3) {
+            Thread.sleep(50);
+        }
+        JSONObject first = frames.get(0).getJSONObject("values");
+        assertEquals(monitorId, frames.get(0).getString("monitorId"));
+        assertTrue(first.getDouble("memTotalMB") > 0);
+        assertTrue(first.has("load1"));
+        assertTrue(first.getDouble("diskTotalMB") > 0);
+        boolean sawCpu = false;
+        for (JSONObject frame : frames) {
+            sawCpu |= frame.getJSONObject("values").has("cpu");
+        }
+        assertTrue(sawCpu);
+
+        assertTrue(service.stopMonitor(monitorId));
+        assertFalse(service.stopMonitor(monitorId));
+        assertEquals(0, service.getSessionManager().getChannelCount());
+        while (monitor.isRunning()) {
+            Thread.sleep(20);
+        }
+        long ticks = monitor.getTicks();
+        Thread.sleep(1200);
+        assertEquals(ticks, monitor.getTicks());
+        // The session itself is fine
+        assertEquals("hi\n", service.executeCommand(sessionId, "echo hi"));
+        // Stopped on request: not an end to report
+        assertTrue(ends.isEmpty());
+    }
+
+    @Test(timeout = 20_000)
+    public void aSamplerKilledOnTheHostEndsTheMonitor() throws Exception {
+        String sessionId = service.connectWithPassword(server.getHost(), server.getPort(),
+            EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+        String monitorId = service.startMonitor(sessionId, 500, Arrays.asList(HostMonitor.LOAD));
+        HostMonitor monitor = service.findMonitor(monitorId);
+        while (monitor.getTicks() < 1) {
+            Thread.sleep(20);
+        }
+
+        // Every process of the sampler; the bracket keeps pkill's own command line from matching
+        service.executeCommand(sessionId, "sh -c 'pkill -KILL -f \"tra[p] .exit 0. HUP INT TERM PIPE\"'");
+        JSONObject end = ends.poll(10, TimeUnit.SECONDS);
+        assertNotNull("No hostMetricsEnded", end);
+        assertEquals(monitorId, end.getString("monitorId"));
+        assertEquals(sessionId, end.getString("sessionId"));
+        assertEquals("exited", end.getString("reason"));
+        assertFalse(monitor.isRunning());
+        // Gone from the service with its channel
+        assertNull(service.findMonitor(monitorId));
+        assertFalse(service.stopMonitor(monitorId));
+        assertEquals(0, service.getSessionManager().getChannelCount());
+        assertEquals("hi\n", service.executeCommand(sessionId, "echo hi"));
+    }
+
+    @Test(timeout = 20_000)
+    public void theEndCarriesTheSamplersStderrAndStatus() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        final LinkedBlockingQueue<HostMonitor> ended = new LinkedBlockingQueue<>();
+        try (net.schmizz.sshj.SSHClient ssh = server.connect()) {
+            HostMonitor monitor = new HostMonitor("m1", "s1", bridge);
+            // More stderr than is kept, after a sample; as a host without /proc/loadavg would
+            monitor.start(ssh, "sh -c 'echo T; echo E; echo \"cannot open /proc/loadavg\" >&2; "
+                + "head -c 100000 /dev/zero | tr \"\\\\0\" x >&2; exit 3'", executor, new HostMonitor.Listener() {
+                    @Override
+                    public void onEnded(HostMonitor monitor) {
+                        ended.add(monitor);
+                    }
+                });
+
+            JSONObject end = ends.poll(10, TimeUnit.SECONDS);
+            assertNotNull("No hostMetricsEnded", end);
+            assertSame(monitor, ended.poll());
+            assertEquals(1, monitor.getTicks());
+            assertEquals(3, end.getInt("exitStatus"));
+            String stderr = end.getString("stderr");
+            assertTrue(stderr, stderr.startsWith("cannot open /proc/loadavg\nxxx"));
+            assertEquals(HostMonitor.MAX_STDERR_BYTES, stderr.length());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 20_000)
+    public void monitorsCloseWithTheirSession() throws Exception {
+        String sessionId = service.connectWithPassword(server.getHost(), server.getPort(),
+            EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+        String monitorId = service.startMonitor(sessionId, 500, Arrays.asList(HostMonitor.LOAD));
+        service.disconnect(sessionId);
+        assertNull(service.findMonitor(monitorId));
+        assertTrue(ends.isEmpty());
+        try {
+            service.startMonitor(sessionId, 500, ALL);
+            fail();
+        } catch (SessionException expected) {
+            assertEquals("Not connected", expected.getMessage());
+        }
+    }
+}
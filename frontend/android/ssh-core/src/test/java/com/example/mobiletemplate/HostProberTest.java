@@ -0,0 +1,203 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class HostProberTest {
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final List<java.io.Closeable> closeables = new ArrayList<>();
+    private final LinkedBlockingQueue<HostProber.Result> results = new LinkedBlockingQueue<>();
+    private final HostProber.Listener collect = new HostProber.Listener() {
+        @Override
+        public void onResult(HostProber.Result result) {
+            results.add(result);
+        }
+    };
+
+    @After
+    public void tearDown() throws IOException {
+        for (java.io.Closeable closeable : closeables) {
+            closeable.close();
+        }
+        pool.shutdownNow();
+    }
+
+    /** Every name is the loopback address, except those starting with "missing". */
+    private HostProber prober() {
+        HostProber prober = new HostProber(new DnsCache(new DnsCache.Resolver() {
+            @Override
+            public DnsCache.Answer resolve(String hostname) throws UnknownHostException {
+                if (hostname.startsWith("missing")) {
+                    throw new UnknownHostException(hostname);
+                }
+                return new DnsCache.Answer(new InetAddress[] {InetAddress.getLoopbackAddress()}, 60_000);
+            }
+        }), pool);
+        closeables.add(prober::close);
+        return prober;
+    }
+
+    /** Accepts connections and never writes. */
+    private ServerSocket silent() throws IOException {
+        final ServerSocket server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        closeables.add(server);
+        pool.execute(() -> {
+            while (!server.isClosed()) {
+                try {
+                    final Socket socket = server.accept();
+                    pool.execute(() -> {
+                        try {
+                            // Returns -1 once the prober closes its side
+                            socket.getInputStream().read();
+                        } catch (IOException ignored) {
+                            // Same
+                        }
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                            // Done with it
+                        }
+                    });
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        return server;
+    }
+
+    private HostProber.Result next() throws InterruptedException {
+        HostProber.Result result = results.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for a probe", result);
+        return result;
+    }
+
+    @Test
+    public void identificationSkipsOtherLines() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put("Welcome\r\nSSH-2.0-OpenSSH_9.6p1 Ubuntu-3ubuntu13\r".getBytes(StandardCharsets.US_ASCII));
+        // Not a whole line yet
+        assertNull(HostProber.identification(buffer));
+        buffer.put((byte) '\n');
+        assertEquals("OpenSSH_9.6p1 Ubuntu-3ubuntu13", HostProber.identification(buffer));
+    }
+
+    @Test(timeout = 30_000)
+    public void reportsEachKindOfHost() throws Exception {
+        EmbeddedSshServer ssh = new EmbeddedSshServer();
+        closeables.add(ssh);
+        ServerSocket silent = silent();
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int closedPort = closed.getLocalPort();
+        closed.close();
+
+        HostProber prober = prober();
+        prober.setLimits(8, 500, 60_000);
+        prober.probe("ssh", ssh.getPort(), collect);
+        prober.probe("silent", silent.getLocalPort(), collect);
+        prober.probe("closed", closedPort, collect);
+        prober.probe("missing", 22, collect);
+
+        java.util.Map<String, HostProber.Result> byHost = new java.util.HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            HostProber.Result result = next();
+            byHost.put(result.host, result);
+        }
+        HostProber.Result up = byHost.get("ssh");
+        assertEquals(HostProber.UP, up.status);
+        assertTrue(up.serverVersion, up.serverVersion.contains("SSHD"));
+        assertTrue(up.rttMillis >= 0);
+        assertTrue(up.isReachable());
+        assertEquals(HostProber.OPEN, byHost.get("silent").status);
+        assertTrue(byHost.get("silent").isReachable());
+        assertEquals(HostProber.REFUSED, byHost.get("closed").status);
+        assertEquals(-1, byHost.get("closed").rttMillis);
+        assertEquals(HostProber.UNRESOLVED, byHost.get("missing").status);
+        assertFalse(byHost.get("missing").isReachable());
+
+        // Reused, on the calling thread
+        prober.probe("ssh", ssh.getPort(), collect);
+        HostProber.Result again = results.poll();
+        assertTrue(again.cached);
+        assertEquals(up.serverVersion, again.serverVersion);
+        assertEquals(4, prober.getProbes());
+        assertEquals(1, prober.getCacheHits());
+    }
+
+    @Test(timeout = 30_000)
+    public void concurrencyIsCappedAndSameHostsShareAProbe() throws Exception {
+        ServerSocket silent = silent();
+        HostProber prober = prober();
+        prober.setLimits(4, 200, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            prober.probe("host" + i, silent.getLocalPort(), collect);
+        }
+        // Already running: answered by the probe above
+        prober.probe("host0", silent.getLocalPort(), collect);
+        int cached = 0;
+        for (int i = 0; i < 21; i++) {
+            HostProber.Result result = next();
+            assertEquals(HostProber.OPEN, result.status);
+            if (result.cached) {
+                cached++;
+            }
+        }
+        assertEquals(1, cached);
+        assertEquals(20, prober.getProbes());
+        // Five rounds of four sockets, each held for the whole timeout
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(5 * 200));
+    }
+
+    @Test(timeout = 30_000)
+    public void serviceEmitsOneEventPerHostThenDone() throws Exception {
+        EmbeddedSshServer ssh = new EmbeddedSshServer();
+        closeables.add(ssh);
+        final LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        SshSessionService service = new SshSessionService(new SessionBridge() {
+            @Override
+            public void emit(String event, JSONObject data) {
+                if (event.startsWith("hostProbe")) {
+                    events.add(event + " " + data.optString("status") + " " + data.optBoolean("cached"));
+                }
+            }
+        }, new PluginMetrics());
+        try {
+            List<InetSocketAddress> hosts = Arrays.asList(
+                InetSocketAddress.createUnresolved(ssh.getHost(), ssh.getPort()),
+                InetSocketAddress.createUnresolved(ssh.getHost(), ssh.getPort()));
+            service.probeHosts(hosts);
+            assertEquals("hostProbe up false", events.poll(10, TimeUnit.SECONDS));
+            assertEquals("hostProbe up true", events.poll(10, TimeUnit.SECONDS));
+            assertEquals("hostProbesDone  false", events.poll(10, TimeUnit.SECONDS));
+
+            service.probeHosts(hosts.subList(0, 1));
+            assertEquals("hostProbe up true", events.poll(10, TimeUnit.SECONDS));
+            assertEquals("hostProbesDone  false", events.poll(10, TimeUnit.SECONDS));
+            // No session was opened for any of it
+            assertTrue(service.getSessions().isEmpty());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.recordNanos(ms * 1_000_000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxMicros());
+        assertEquals(500_000, histogram.getPercentileMicros(50), 500_000 * 0.04);
+        assertEquals(990_000, histogram.getPercentileMicros(99), 990_000 * 0.04);
+        assertEquals(500_500, histogram.getMeanMicros(), 1);
+    }
+
+    @Test
+    public void bucketIndexIsMonotonic() {
+        int previous = -1;
+        for (long micros = 0; micros < 10_000_000; micros = micros * 2 + 1) {
+            int index = LatencyHistogram.indexOf(micros);
+            assertTrue(index >= previous);
+            long value = LatencyHistogram.valueAt(index);
+            assertEquals(micros, value, Math.max(1, micros * 0.07));
+            previous = index;
+        }
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        PluginMetrics metrics = new PluginMetrics();
+        metrics.recordPhase(PluginMetrics.PHASE_TCP, 1_000_000);
+        metrics.addBytesIn("session", 100);
+        assertTrue(metrics.getPhases().isEmpty());
+        assertTrue(metrics.getSessions().isEmpty());
+
+        metrics.setEnabled(true);
+        metrics.recordPhase(PluginMetrics.PHASE_TCP, 1_000_000);
+        metrics.addBytesIn("session", 100);
+        assertEquals(1, metrics.getPhases().get(PluginMetrics.PHASE_TCP).getCount());
+        assertEquals(100, metrics.getSessions().get("session").bytesIn.get());
+    }
+}
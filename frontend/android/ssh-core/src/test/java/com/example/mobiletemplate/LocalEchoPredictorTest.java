@@ -0,0 +1,180 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LocalEchoPredictorTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LocalEchoPredictor predictor = new LocalEchoPredictor(80, 30);
+    private long now = 1_000 * MS;
+
+    private String type(String keys) {
+        return predictor.onInput(keys.getBytes(StandardCharsets.US_ASCII), now);
+    }
+
+    private String receive(String output) {
+        return predictor.onOutput(output, now);
+    }
+
+    /** Types one key and echoes it 200 ms later, so the next ones are shown. */
+    private void confirm() {
+        type("l");
+        now += 200 * MS;
+        assertEquals("l", receive("l"));
+    }
+
+    @Test
+    public void keysAreShownOnceTheEchoIsConfirmedAndTheirEchoIsDropped() {
+        receive("$ ");
+        // Nothing known about this prompt yet
+        assertEquals("", type("l"));
+        assertEquals("", type("s"));
+        now += 200 * MS;
+        // The first echo confirms: the key typed since is shown right after it
+        assertEquals("ls", receive("l"));
+        assertEquals("", receive("s"));
+        assertEquals(200, predictor.getSrttMillis());
+
+        assertEquals("a", type("a"));
+        assertEquals("b", type("b"));
+        now += 200 * MS;
+        assertEquals("", receive("ab"));
+        assertEquals(4, predictor.getPredicted());
+        assertEquals(3, predictor.getShown());
+        assertEquals(4, predictor.getEchoed());
+        assertEquals(0, predictor.getRolledBack());
+    }
+
+    @Test
+    public void aWrongGuessIsErasedBeforeTheRealOutput() {
+        receive("$ ");
+        confirm();
+        assertEquals("sx", type("sx"));
+        now += 200 * MS;
+        // The s was right; back over the x, then what the server drew
+        assertEquals("\u001b[1D\u001b[Ky", receive("sy"));
+        assertEquals(1, predictor.getRolledBack());
+        // Unconfirmed again until an echo matches
+        assertEquals("", type("z"));
+    }
+
+    @Test
+    public void noEchoMeansNothingIsShown() {
+        receive("Password: ");
+        assertEquals("", type("hunter2"));
+        now += 200 * MS;
+        assertEquals("", type("x"));
+        assertEquals("\r\nWelcome\r\n$ ", receive("\r\nWelcome\r\n$ "));
+        assertEquals(0, predictor.getShown());
+        assertEquals(0, predictor.getRolledBack());
+    }
+
+    @Test
+    public void controlKeysStopPredictionsUntilEnter() {
+        receive("$ ");
+        confirm();
+        // Tab completion can print anything
+        assertEquals("", type("\t"));
+        assertEquals("", type("s"));
+        assertEquals("s ", receive("s "));
+        type("\r");
+        now += 200 * MS;
+        receive("\r\nfile\r\n$ ");
+        confirm();
+        assertEquals("x", type("x"));
+    }
+
+    @Test
+    public void theAlternateScreenTurnsPredictionsOff() {
+        receive("$ ");
+        confirm();
+        assertEquals("s", type("s"));
+        // vim starting: the shown key is erased first
+        assertEquals("\u001b[1D\u001b[K\u001b[?1049h\u001b[H", receive("\u001b[?1049h\u001b[H"));
+        assertTrue(predictor.isAlternateScreen());
+        assertEquals("", type("i"));
+        assertEquals("\u001b[?1049l", receive("\u001b[?1049l"));
+        assertFalse(predictor.isAlternateScreen());
+    }
+
+    @Test
+    public void colorsAndSplitSequencesKeepPredictions() {
+        receive("$ ");
+        confirm();
+        assertEquals("sx", type("sx"));
+        now += 200 * MS;
+        // A syntax-highlighting shell echoes in color, split across reads: held until whole
+        assertEquals("", receive("\u001b[3"));
+        assertEquals("\u001b[32m", receive("2ms"));
+        assertEquals("\u001b[0m", receive("\u001b[0mx"));
+        assertEquals(0, predictor.getRolledBack());
+        assertEquals(3, predictor.getEchoed());
+    }
+
+    @Test
+    public void predictionsStopBeforeTheEndOfTheLine() {
+        LocalEchoPredictor narrow = new LocalEchoPredictor(10, 0);
+        narrow.onOutput("$ ", now);
+        narrow.onInput("a".getBytes(StandardCharsets.US_ASCII), now);
+        narrow.onOutput("a", now + 50 * MS);
+        // Column 3 of 10: six more fit before the last column
+        assertEquals("bcdefg", narrow.onInput("bcdefghij".getBytes(StandardCharsets.US_ASCII), now));
+        assertEquals(7, narrow.getPredicted());
+    }
+
+    @Test
+    public void aResizeMovesTheEndOfTheLine() {
+        LocalEchoPredictor resized = new LocalEchoPredictor(10, 0);
+        resized.onOutput("$ ", now);
+        resized.onInput("a".getBytes(StandardCharsets.US_ASCII), now);
+        resized.onOutput("a", now + 50 * MS);
+        // Wider: column 3 of 20 leaves sixteen, far past the old last column
+        resized.setColumns(20);
+        assertEquals("bcdefghijklmnopq", resized.onInput("bcdefghijklmnopqrs".getBytes(StandardCharsets.US_ASCII), now));
+        resized.onInput("\r".getBytes(StandardCharsets.US_ASCII), now);
+        resized.onOutput("bcdefghijklmnopq\r\n$ ", now + 50 * MS);
+
+        // Narrower than where the cursor is: wrapped by the reflow, so nothing until the next CR
+        resized.onInput("a".getBytes(StandardCharsets.US_ASCII), now);
+        resized.onOutput("a", now + 50 * MS);
+        resized.onInput("bcdef".getBytes(StandardCharsets.US_ASCII), now);
+        resized.onOutput("bcdef", now + 50 * MS);
+        resized.setColumns(6);
+        assertEquals("", resized.onInput("g".getBytes(StandardCharsets.US_ASCII), now));
+        resized.onInput("\r".getBytes(StandardCharsets.US_ASCII), now);
+        resized.onOutput("\r\n$ ", now + 50 * MS);
+        resized.onInput("a".getBytes(StandardCharsets.US_ASCII), now);
+        resized.onOutput("a", now + 50 * MS);
+        // Column 3 of 6: two more
+        assertEquals("bc", resized.onInput("bcd".getBytes(StandardCharsets.US_ASCII), now));
+    }
+
+    @Test
+    public void unansweredPredictionsExpire() {
+        receive("$ ");
+        confirm();
+        assertEquals("s", type("s"));
+        // Not yet: at least a second
+        assertEquals("", predictor.expire(now + 500 * MS));
+        assertEquals("\u001b[1D\u001b[K", predictor.expire(now + 1_000 * MS));
+        assertEquals(1, predictor.getRolledBack());
+        // The late echo is printed as is
+        assertEquals("s", receive("s"));
+    }
+
+    @Test
+    public void aFastLinkShowsNothing() {
+        receive("$ ");
+        type("l");
+        now += 5 * MS;
+        receive("l");
+        assertEquals("", type("s"));
+        assertEquals("s", receive("s"));
+        assertEquals(0, predictor.getShown());
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class LogTailMergerTest {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    // 2024-01-12T09:41:07Z
+    private static final long T = 1705052467000L;
+
+    private final CopyOnWriteArrayList<JSONObject> batches = new CopyOnWriteArrayList<>();
+    private final SessionBridge bridge = new SessionBridge() {
+        @Override
+        public void emit(String event, JSONObject data) {
+            if ("tailLines".equals(event)) {
+                batches.add(data);
+            }
+        }
+    };
+
+    /** host|text of every line sent so far, in order. */
+    private List<String> merged() {
+        List<String> lines = new ArrayList<>();
+        for (JSONObject batch : batches) {
+            JSONArray entries = batch.getJSONArray("lines");
+            for (int i = 0; i < entries.length(); i++) {
+                JSONArray entry = entries.getJSONArray(i);
+                lines.add(batch.getJSONArray("hosts").getString(entry.getInt(0)) + "|" + entry.getString(2));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void builtInFormatsParseWithoutADate() throws Exception {
+        LogTimestamps chain = new LogTimestamps(LogTimestamps.builtIn(Collections.<String>emptyList(), UTC));
+        assertEquals(T + 113, chain.parse("2024-01-12T09:41:07.113Z GET /"));
+        assertEquals(T + 113, chain.parse("2024-01-12 09:41:07,113456 INFO worker"));
+        assertEquals(T, chain.parse("2024-01-12T11:41:07+02:00 up"));
+        assertEquals(T, chain.parse("2024-01-12T04:41:07-0500 up"));
+        assertEquals(T, chain.parse("10.0.0.1 - - [12/Jan/2024:10:41:07 +0100] \"GET / HTTP/1.1\" 200"));
+        assertEquals(T + 500, chain.parse("1705052467.5 tick"));
+        assertEquals(-1, chain.parse("    at com.example.Foo.bar(Foo.java:12)"));
+        assertEquals(-1, chain.parse("12345 is not a time"));
+
+        int year = java.util.Calendar.getInstance(UTC).get(java.util.Calendar.YEAR);
+        long syslog = new LogTimestamps(LogTimestamps.builtIn(Arrays.asList(LogTimestamps.SYSLOG), UTC))
+            .parse("Jan  2 03:04:05 web1 sshd[42]: Accepted");
+        assertEquals(LogTimestamps.utcMillis(year, 1, 2, 3, 4, 5), syslog);
+
+        // No offset: the given zone
+        TimeZone tokyo = TimeZone.getTimeZone("Asia/Tokyo");
+        assertEquals(T, LogTimestamps.parseIso("2024-01-12 18:41:07 local", tokyo));
+
+        LogTimestamps.Parser custom = LogTimestamps.custom("I(\\d{4} \\d\\d:\\d\\d:\\d\\d)", "MMdd HH:mm:ss", UTC);
+        assertEquals(LogTimestamps.utcMillis(1970, 1, 12, 9, 41, 7), custom.parse("I0112 09:41:07 glog line"));
+        try {
+            LogTimestamps.forName("rfc9999", UTC);
+            fail();
+        } catch (SessionException expected) {
+            assertEquals("Unknown timestamp format: rfc9999", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void linesWaitForTheOtherSourcesOrTheWindow() throws Exception {
+        List<LogTailMerger.Source> sources = Arrays.asList(
+            new LogTailMerger.Source("s1", "/var/log/app.log", "web1"),
+            new LogTailMerger.Source("s2", "/var/log/app.log", "web2"));
+        LogTailMerger merger = new LogTailMerger("t1", sources,
+            LogTimestamps.builtIn(Collections.<String>emptyList(), UTC), bridge);
+        merger.setReorderWindowMillis(1000);
+        long now = 0;
+        merger.onLine(0, "2024-01-12T09:41:01Z a1", now);
+        merger.onLine(0, "2024-01-12T09:41:03Z a3", now);
+        merger.onLine(0, "    at Foo.bar(Foo.java:3)", now);
+        merger.onLine(1, "2024-01-12T09:41:02Z b2", now);
+
+        // web2 has only got to :02, so a3 might still be preceded by one of its lines
+        merger.flush(now);
+        assertEquals(Arrays.asList("web1|2024-01-12T09:41:01Z a1", "web2|2024-01-12T09:41:02Z b2"), merged());
+        assertEquals(2, merger.getBuffered());
+
+        merger.onLine(1, "2024-01-12T09:41:04Z b4", now + TimeUnit.MILLISECONDS.toNanos(100));
+        merger.flush(now + TimeUnit.MILLISECONDS.toNanos(200));
+        // The continuation line stays with its parent
+        assertEquals("web1|    at Foo.bar(Foo.java:3)", merged().get(3));
+        assertEquals(1, merger.getBuffered());
+
+        // Nothing more from web1: b4 goes once it has waited the window
+        merger.flush(now + TimeUnit.MILLISECONDS.toNanos(1099));
+        assertEquals(1, merger.getBuffered());
+        merger.flush(now + TimeUnit.MILLISECONDS.toNanos(1100));
+        assertEquals("web2|2024-01-12T09:41:04Z b4", merged().get(4));
+
+        // Too late to be put in its place: sent anyway, and counted
+        merger.onLine(0, "2024-01-12T09:41:02.5Z a2", now + TimeUnit.SECONDS.toNanos(2));
+        merger.flush(now + TimeUnit.SECONDS.toNanos(4));
+        assertEquals(6, merged().size());
+        assertEquals(1, merger.getLate());
+        assertEquals(6, merger.getLines());
+        assertEquals(4, batches.size());
+    }
+
+    @Test
+    public void batchesAreCapped() throws Exception {
+        LogTailMerger merger = new LogTailMerger("t1",
+            Collections.singletonList(new LogTailMerger.Source("s1", "a.log", "web1")),
+            LogTimestamps.builtIn(Collections.<String>emptyList(), UTC), bridge);
+        merger.setMaxBatchLines(100);
+        for (int i = 0; i < 250; i++) {
+            merger.onLine(0, "1705052467." + (100 + i) + " line", 0);
+        }
+        merger.flush(0);
+        assertEquals(3, batches.size());
+        assertEquals(50, batches.get(2).getJSONArray("lines").length());
+    }
+
+    @Test
+    public void commandQuotesForBothShells() {
+        assertEquals("sh -c 'tail -n 0 -F -- \"/var/log/a b.log\" 2>/dev/null'",
+            LogTailMerger.command("/var/log/a b.log", 0, null));
+        assertEquals("sh -c 'tail -n 5 -F -- \"x\" 2>/dev/null | grep --line-buffered -E -e \"ERROR|\\$HOME\"'",
+            LogTailMerger.command("x", 5, "ERROR|$HOME"));
+    }
+
+    @Test(timeout = 30_000)
+    public void tailsFromTwoSessionsMergeInTimeOrder() throws Exception {
+        File first = File.createTempFile("tail-a", ".log");
+        File second = File.createTempFile("tail-b", ".log");
+        first.deleteOnExit();
+        second.deleteOnExit();
+        append(first, "2024-01-12T09:41:01Z a1\n2024-01-12T09:41:03Z a3 ERROR\n");
+        append(second, "2024-01-12T09:41:02Z b2 ERROR\n2024-01-12T09:41:04Z b4\n");
+
+        EmbeddedSshServer server = new EmbeddedSshServer();
+        SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+        try {
+            String a = service.connectWithPassword(server.getHost(), server.getPort(),
+                EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+            String b = service.connectWithPassword(server.getHost(), server.getPort(),
+                EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+            String tailId = service.startTailMerge(Arrays.asList(
+                new LogTailMerger.Source(a, first.getPath(), "web1"),
+                new LogTailMerger.Source(b, second.getPath(), null)),
+                LogTimestamps.builtIn(Collections.<String>emptyList(), UTC), "ERROR|a1|b4|a5", 10, 300, 50, 500);
+            assertEquals(2, service.getSessionManager().getChannelCount());
+
+            // Filtered on the host: a3's neighbours that don't match never arrive
+            append(first, "2024-01-12T09:41:05Z a5\n2024-01-12T09:41:06Z dropped\n");
+            while (merged().size() < 5) {
+                Thread.sleep(20);
+            }
+            List<String> lines = merged();
+            assertEquals("web1|2024-01-12T09:41:01Z a1", lines.get(0));
+            assertTrue(lines.get(1).endsWith("|2024-01-12T09:41:02Z b2 ERROR"));
+            // Untagged: the session's hostname
+            assertEquals(server.getHost(), lines.get(1).substring(0, lines.get(1).indexOf('|')));
+            assertTrue(lines.get(2).endsWith("a3 ERROR"));
+            assertTrue(lines.get(3).endsWith("b4"));
+            assertTrue(lines.get(4).endsWith("a5"));
+
+            service.disconnect(b);
+            assertNull(service.findTailMerge(tailId));
+            assertFalse(service.stopTailMerge(tailId));
+            assertEquals(0, service.getSessionManager().getChannelCount());
+            Thread.sleep(300);
+            assertFalse(merged().toString().contains("dropped"));
+        } finally {
+            service.shutdown();
+            server.close();
+        }
+    }
+
+    private static void append(File file, String text) throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class OutputTriggersTest {
+    private final CopyOnWriteArrayList<JSONObject> matches = new CopyOnWriteArrayList<>();
+    private final StringBuffer shellOutput = new StringBuffer();
+    private final SessionBridge bridge = new SessionBridge() {
+        @Override
+        public void emit(String event, JSONObject data) {
+            if ("outputMatch".equals(event)) {
+                matches.add(data);
+            } else if ("shellOutput".equals(event)) {
+                shellOutput.append(data.getString("output"));
+            }
+        }
+    };
+
+    private static OutputTriggers.Trigger literal(String id, String pattern) {
+        return new OutputTriggers.Trigger(id, pattern, false, false);
+    }
+
+    private static void feed(OutputTriggers.Scanner scanner, String text, int chunkSize) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int off = 0; off < bytes.length; off += chunkSize) {
+            scanner.scan(bytes, off, Math.min(chunkSize, bytes.length - off));
+        }
+    }
+
+    private List<String> triggerIds() {
+        List<String> ids = new ArrayList<>();
+        for (JSONObject match : matches) {
+            ids.add(match.getString("triggerId"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void literalsMatchAcrossChunksAndOverlap() throws Exception {
+        OutputTriggers triggers = new OutputTriggers("s1", Arrays.asList(
+            literal("error", "ERROR"),
+            literal("refused", "Connection refused"),
+            // Suffix of another pattern: both fire
+            literal("used", "used"),
+            new OutputTriggers.Trigger("oom", "out of memory", false, true)), 0, bridge);
+        OutputTriggers.Scanner scanner = triggers.scanner("shell");
+
+        // One byte at a time: every match straddles a chunk boundary
+        feed(scanner, "ok\r\nssh: connect to host: Connection refused\r\nERRO", 1);
+        feed(scanner, "R: Out Of Memory\n", 3);
+
+        assertEquals(Arrays.asList("refused", "used", "error", "oom"), triggerIds());
+        assertEquals("shell", matches.get(0).getString("stream"));
+        assertEquals("s1", matches.get(0).getString("sessionId"));
+        assertEquals(1, matches.get(0).getLong("count"));
+        // With one byte per chunk, the context is the byte that completed it
+        assertEquals("d", matches.get(0).getString("line"));
+
+        matches.clear();
+        feed(scanner, "fatal: ERROR here\n", 4096);
+        assertEquals("fatal: ERROR here", matches.get(0).getString("line"));
+        // Case only folds for ignoreCase patterns
+        feed(scanner, "error\n", 4096);
+        assertEquals(1, matches.size());
+        assertEquals(5, triggers.getMatches());
+    }
+
+    @Test
+    public void regexesMatchWholeLinesUpToTheCap() throws Exception {
+        OutputTriggers triggers = new OutputTriggers("s1", Collections.singletonList(
+            new OutputTriggers.Trigger("exit", "exit (code|status) [1-9][0-9]*", true, true)), 0, bridge);
+        OutputTriggers.Scanner scanner = triggers.scanner("exec");
+
+        feed(scanner, "build done, exit code 0\r\nbuild failed, EXIT STA", 7);
+        feed(scanner, "TUS 2\r\nnext", 2);
+        assertEquals(1, matches.size());
+        assertEquals("build failed, EXIT STATUS 2", matches.get(0).getString("line"));
+
+        // Past MAX_LINE_BYTES the rest of the line isn't looked at
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < OutputTriggers.MAX_LINE_BYTES; i++) {
+            longLine.append('x');
+        }
+        feed(scanner, longLine + " exit code 3\n", 512);
+        assertEquals(1, matches.size());
+    }
+
+    @Test
+    public void eventsAreRateLimitedAndCountWhatTheyStandFor() throws Exception {
+        OutputTriggers triggers = new OutputTriggers("s1", Collections.singletonList(literal("warn", "WARN")),
+            300, bridge);
+        OutputTriggers.Scanner scanner = triggers.scanner("shell");
+        for (int i = 0; i < 10; i++) {
+            feed(scanner, "WARN " + i + "\n", 64);
+        }
+        assertEquals(1, matches.size());
+        assertEquals(10, triggers.getMatches());
+
+        Thread.sleep(350);
+        feed(scanner, "WARN again\n", 64);
+        assertEquals(2, matches.size());
+        // The nine held back plus this one
+        assertEquals(10, matches.get(1).getLong("count"));
+        assertEquals(2, triggers.getEvents());
+    }
+
+    @Test(timeout = 10_000)
+    public void aBurstFollowedBySilenceIsStillDelivered() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            OutputTriggers triggers = new OutputTriggers("s1", Collections.singletonList(literal("err", "ERROR")),
+                200, bridge, scheduler);
+            OutputTriggers.Scanner scanner = triggers.scanner("shell");
+            for (int i = 0; i < 5; i++) {
+                feed(scanner, "ERROR " + i + "\n", 64);
+            }
+            // Then nothing more: the four held back arrive once the interval is over
+            assertEquals(1, matches.size());
+            while (matches.size() < 2) {
+                Thread.sleep(20);
+            }
+            assertEquals(4, matches.get(1).getLong("count"));
+            assertEquals("ERROR 4", matches.get(1).getString("line"));
+            assertEquals(5, triggers.getMatches());
+            Thread.sleep(300);
+            assertEquals(2, matches.size());
+
+            // One more after a quiet spell goes out at once, counting only itself
+            feed(scanner, "ERROR 5\n", 64);
+            assertEquals(3, matches.size());
+            assertEquals(1, matches.get(2).getLong("count"));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void whatIsHeldBackGoesOutOnFlush() throws Exception {
+        OutputTriggers triggers = new OutputTriggers("s1", Arrays.asList(literal("warn", "WARN"),
+            literal("err", "ERROR")), 60_000, bridge);
+        OutputTriggers.Scanner scanner = triggers.scanner("exec");
+        feed(scanner, "WARN a\nWARN b\nERROR c\nWARN d\n", 4096);
+        assertEquals(Arrays.asList("warn", "err"), triggerIds());
+
+        // The session closing: a last event for what's left, however soon
+        triggers.flush();
+        assertEquals(Arrays.asList("warn", "err", "warn"), triggerIds());
+        assertEquals(2, matches.get(2).getLong("count"));
+        assertEquals("WARN d", matches.get(2).getString("line"));
+        assertEquals("exec", matches.get(2).getString("stream"));
+        triggers.flush();
+        assertEquals(3, matches.size());
+    }
+
+    @Test(timeout = 10_000)
+    public void aBacktrackingRegexGivesUpOnTheLine() throws Exception {
+        OutputTriggers triggers = new OutputTriggers("s1", Arrays.asList(
+            new OutputTriggers.Trigger("slow", "(.*a){20}x|ready", true, false),
+            new OutputTriggers.Trigger("fail", "FAIL", true, false)), 0, bridge);
+        OutputTriggers.Scanner scanner = triggers.scanner("shell");
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            line.append('a');
+        }
+        // Every way of splitting the a's into twenty is tried before there's no x
+        feed(scanner, line + "!\n", 4096);
+        assertEquals(1, triggers.getRegexTimeouts());
+        assertTrue(matches.isEmpty());
+
+        // The other triggers and the next lines are still looked at
+        feed(scanner, "FAIL\nready\n", 4096);
+        assertEquals(Arrays.asList("fail", "slow"), triggerIds());
+        assertEquals(1, triggers.getRegexTimeouts());
+    }
+
+    @Test
+    public void badTriggersAreRefused() {
+        try {
+            new OutputTriggers("s1", Collections.singletonList(new OutputTriggers.Trigger("t", "(unclosed", true, false)),
+                0, bridge);
+            fail();
+        } catch (SessionException expected) {
+            assertTrue(expected.getMessage().startsWith("Invalid trigger pattern for t"));
+        }
+        try {
+            new OutputTriggers("s1", Collections.singletonList(literal("empty", "")), 0, bridge);
+            fail();
+        } catch (SessionException expected) {
+            assertEquals("Invalid trigger pattern for empty", expected.getMessage());
+        }
+        List<OutputTriggers.Trigger> many = new ArrayList<>();
+        for (int i = 0; i <= OutputTriggers.MAX_TRIGGERS; i++) {
+            many.add(literal("t" + i, "p" + i));
+        }
+        try {
+            new OutputTriggers("s1", many, 0, bridge);
+            fail();
+        } catch (SessionException expected) {
+            assertEquals("Too many triggers (max 64)", expected.getMessage());
+        }
+    }
+
+    @Test(timeout = 20_000)
+    public void triggersAloneKeepShellOutputOffTheBridge() throws Exception {
+        EmbeddedSshServer server = new EmbeddedSshServer();
+        SshSessionService service = new SshSessionService(bridge, new PluginMetrics());
+        try {
+            String sessionId = service.connectWithPassword(server.getHost(), server.getPort(),
+                EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+            ShellSession shell = service.startShell(sessionId, 64 * 1024);
+            service.setOutputTriggers(sessionId, Collections.singletonList(literal("done", "job-done")), 0, false);
+            service.sendToShell(sessionId, "echo job-done\n");
+            while (matches.isEmpty()) {
+                Thread.sleep(20);
+            }
+            assertEquals("shell", matches.get(0).getString("stream"));
+            Thread.sleep(200);
+            assertTrue(shellOutput.indexOf("job-done") < 0);
+            // The scrollback still has it
+            ScrollbackBuffer scrollback = shell.getScrollback();
+            assertTrue(scrollback.search("job-done", false, scrollback.getFirstLine(), 10).length > 0);
+
+            // Exec output is watched too
+            assertEquals("job-done\n", service.executeCommand(sessionId, "echo job-done"));
+            assertEquals("exec", matches.get(matches.size() - 1).getString("stream"));
+
+            // Clearing them brings the output back
+            service.setOutputTriggers(sessionId, Collections.<OutputTriggers.Trigger>emptyList(), 0, false);
+            assertNull(service.findOutputTriggers(sessionId));
+            service.sendToShell(sessionId, "echo visible\n");
+            while (shellOutput.indexOf("visible\n") < 0) {
+                Thread.sleep(20);
+            }
+            service.disconnect(sessionId);
+            assertNull(service.findOutputTriggers(sessionId));
+        } finally {
+            service.shutdown();
+            server.close();
+        }
+    }
+}
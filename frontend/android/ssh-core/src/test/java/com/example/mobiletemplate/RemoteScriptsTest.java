@@ -0,0 +1,175 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteScriptsTest {
+    private static final String SCRIPT = "echo \"hello $1\"\necho oops >&2\nexit 3\n";
+
+    private EmbeddedSshServer server;
+    private SshSessionService service;
+    private File directory;
+    private final StringBuffer stdout = new StringBuffer();
+    private final StringBuffer stderr = new StringBuffer();
+    private final LinkedBlockingQueue<JSONObject> exits = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedSshServer();
+        directory = Files.createTempDirectory("scripts").toFile();
+        service = service();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.shutdown();
+        server.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /** A service as on another device: an index of its own. The server runs sh on this machine. */
+    private SshSessionService service() {
+        SshSessionService created = new SshSessionService(new SessionBridge() {
+            @Override
+            public void emit(String event, JSONObject data) {
+                if ("scriptOutput".equals(event)) {
+                    ("stdout".equals(data.getString("stream")) ? stdout : stderr).append(data.getString("output"));
+                } else if ("scriptExit".equals(event)) {
+                    exits.add(data);
+                }
+            }
+        }, new PluginMetrics());
+        created.getRemoteScripts().setDirectory(directory.getPath());
+        return created;
+    }
+
+    private JSONObject run(SshSessionService on, String script, String... args) throws Exception {
+        String sessionId = on.connectWithPassword(server.getHost(), server.getPort(),
+            EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+        String runId = on.runScript(sessionId, script, Arrays.asList(args));
+        JSONObject exit = exits.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for the script", exit);
+        assertEquals(runId, exit.getString("runId"));
+        return exit;
+    }
+
+    @Test(timeout = 30_000)
+    public void uploadsOnceThenRunsWithoutChecking() throws Exception {
+        JSONObject first = run(service, SCRIPT, "world");
+        assertEquals(3, first.getInt("exitStatus"));
+        assertTrue(first.getBoolean("uploaded"));
+        assertFalse(first.getBoolean("indexed"));
+        assertEquals("hello world\n", stdout.toString());
+        assertEquals("oops\n", stderr.toString());
+        String hash = RemoteScripts.hash(SCRIPT.getBytes(StandardCharsets.UTF_8));
+        assertEquals(hash, first.getString("hash"));
+        assertTrue(new File(directory, hash).isFile());
+
+        JSONObject second = run(service, SCRIPT, "again");
+        assertTrue(second.getBoolean("indexed"));
+        assertFalse(second.getBoolean("uploaded"));
+        assertTrue(stdout.toString().endsWith("hello again\n"));
+        assertEquals(Long.valueOf(1), service.getRemoteScripts().getStats().get("checks"));
+        assertEquals(Long.valueOf(1), service.getRemoteScripts().getStats().get("indexHits"));
+        // No temporary files left behind
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test(timeout = 30_000)
+    public void anotherDeviceFindsItOnTheHost() throws Exception {
+        run(service, SCRIPT);
+        SshSessionService other = service();
+        try {
+            JSONObject exit = run(other, SCRIPT);
+            assertFalse(exit.getBoolean("indexed"));
+            assertFalse(exit.getBoolean("uploaded"));
+            assertEquals(Long.valueOf(1), other.getRemoteScripts().getStats().get("checks"));
+            assertEquals(Long.valueOf(0), other.getRemoteScripts().getStats().get("uploads"));
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void aScriptRemovedFromTheHostIsSentAgain() throws Exception {
+        run(service, SCRIPT, "one");
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        stderr.setLength(0);
+
+        JSONObject exit = run(service, SCRIPT, "two");
+        assertEquals(3, exit.getInt("exitStatus"));
+        assertTrue(exit.getBoolean("uploaded"));
+        assertFalse(exit.getBoolean("indexed"));
+        // The missing-script marker isn't passed on
+        assertEquals("oops\n", stderr.toString());
+        assertTrue(stdout.toString().endsWith("hello two\n"));
+        assertEquals(Long.valueOf(1), service.getRemoteScripts().getStats().get("staleIndex"));
+    }
+
+    @Test(timeout = 30_000)
+    public void scriptsPastTheArgumentLimitRun() throws Exception {
+        StringBuilder script = new StringBuilder("#!/bin/sh\n");
+        // Several MB of comments, far past ARG_MAX for an inline sh -c
+        String padding = "# " + String.join("", Collections.nCopies(100, "x")) + "\n";
+        for (int i = 0; i < 40_000; i++) {
+            script.append(padding);
+        }
+        script.append("echo done \"$#\"\n");
+        JSONObject exit = run(service, script.toString(), "a b", "c");
+        assertEquals(0, exit.getInt("exitStatus"));
+        assertEquals("done 2\n", stdout.toString());
+        assertEquals(Long.valueOf(script.length()), service.getRemoteScripts().getStats().get("uploadedBytes"));
+    }
+
+    @Test
+    public void theIndexIsSavedAndKeepsTheMostRecentlyRun() {
+        final String[] saved = new String[1];
+        KeyMetadataStore.Storage storage = new KeyMetadataStore.Storage() {
+            @Override
+            public String load() {
+                return saved[0];
+            }
+
+            @Override
+            public void save(String json) {
+                saved[0] = json;
+            }
+        };
+        RemoteScripts scripts = new RemoteScripts(null);
+        scripts.setStorage(storage);
+        for (int i = 0; i < RemoteScripts.MAX_INDEXED_PER_HOST; i++) {
+            scripts.remember("u@h:22", "hash" + i);
+        }
+        // Run again: now the most recent
+        scripts.remember("u@h:22", "hash0");
+        scripts.remember("u@h:22", "new");
+        assertTrue(scripts.isIndexed("u@h:22", "hash0"));
+        assertFalse(scripts.isIndexed("u@h:22", "hash1"));
+        assertFalse(scripts.isIndexed("root@h:22", "new"));
+
+        RemoteScripts reloaded = new RemoteScripts(null);
+        reloaded.setStorage(storage);
+        assertTrue(reloaded.isIndexed("u@h:22", "new"));
+        assertTrue(reloaded.isIndexed("u@h:22", "hash2"));
+    }
+}
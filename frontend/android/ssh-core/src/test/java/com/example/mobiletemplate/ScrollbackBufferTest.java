@@ -0,0 +1,157 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ScrollbackBufferTest {
+
+    private static void append(ScrollbackBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.append(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void pagesLinesAcrossChunks() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(4096);
+        append(buffer, "first li");
+        append(buffer, "ne\r\nsecond\nthi");
+        append(buffer, "rd");
+
+        assertEquals(0, buffer.getFirstLine());
+        assertEquals(3, buffer.getNextLine());
+        List<String> lines = buffer.getLines(0, 10);
+        assertEquals("first line", lines.get(0));
+        assertEquals("second", lines.get(1));
+        assertEquals("third", lines.get(2));
+    }
+
+    @Test
+    public void evictsOldestLinesWhenFull() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(1024);
+        for (int i = 0; i < 1000; i++) {
+            append(buffer, "line " + i + "\n");
+        }
+
+        assertTrue(buffer.getFirstLine() > 0);
+        assertEquals(1000, buffer.getNextLine());
+        assertTrue(buffer.getSizeBytes() <= 1024);
+        assertEquals("line 999", buffer.getLine(999));
+        assertNull(buffer.getLine(0));
+        assertEquals("line " + buffer.getFirstLine(), buffer.getLine(buffer.getFirstLine()));
+    }
+
+    @Test
+    public void searchReturnsOneHitPerLine() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(1 << 16);
+        for (int i = 0; i < 100; i++) {
+            append(buffer, (i % 10 == 0 ? "Error error" : "ok") + " " + i + "\n");
+        }
+
+        long[] hits = buffer.search("error", true, 0, 100);
+        assertEquals(10, hits.length);
+        assertEquals(0, hits[0]);
+        assertEquals(90, hits[9]);
+
+        assertEquals(0, buffer.search("missing", false, 0, 100).length);
+        assertEquals(3, buffer.search("Error", false, 25, 3).length);
+    }
+
+    @Test
+    public void searchWrapsAroundTheRing() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(1024);
+        for (int i = 0; i < 300; i++) {
+            append(buffer, "padding-" + i + "\n");
+        }
+        append(buffer, "needle at the end\n");
+
+        long[] hits = buffer.search("needle", false, 0, 10);
+        assertEquals(1, hits.length);
+        assertEquals("needle at the end", buffer.getLine(hits[0]));
+    }
+
+    @Test
+    public void searchMatchesAcrossTheEndOfTheRing() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(1024);
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < 1019) {
+            filler.append('x');
+        }
+        // "nee" fills the last bytes of the ring, "dle" starts it over
+        append(buffer, filler + "\nneedle\n");
+
+        long[] hits = buffer.search("NEEDLE", true, 0, 10);
+        assertEquals(1, hits.length);
+        assertEquals(1, hits[0]);
+        assertEquals("needle", buffer.getLine(1));
+    }
+
+    @Test
+    public void searchCountsLinesAcrossSegments() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(1 << 20);
+        int lines = 4 * ScrollbackBuffer.SEARCH_SEGMENT / 16;
+        for (int i = 0; i < lines; i++) {
+            append(buffer, (i % 1000 == 999 ? "match " : "line  ") + String.format("%08d", i) + "\n");
+        }
+
+        long[] hits = buffer.search("match", false, 0, 100);
+        assertEquals(lines / 1000, hits.length);
+        for (int i = 0; i < hits.length; i++) {
+            assertEquals(i * 1000 + 999, hits[i]);
+        }
+    }
+
+    @Test(timeout = 20_000)
+    public void searchWhileOutputOvertakesIt() throws Exception {
+        final ScrollbackBuffer buffer = new ScrollbackBuffer(2 * ScrollbackBuffer.SEARCH_SEGMENT);
+        for (int i = 0; i < 20_000; i++) {
+            append(buffer, "match " + i + "\n");
+        }
+        final java.util.concurrent.atomic.AtomicBoolean stop = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 20_000; !stop.get(); i++) {
+                append(buffer, "match " + i + "\n");
+            }
+        });
+        writer.start();
+        try {
+            for (int round = 0; round < 50; round++) {
+                long[] hits = buffer.search("match", false, 0, Integer.MAX_VALUE);
+                assertTrue(hits.length > 0);
+                for (int i = 1; i < hits.length; i++) {
+                    // Line numbers survive a restart: still one per line, in order
+                    assertTrue(hits[i] > hits[i - 1]);
+                }
+                String line = buffer.getLine(hits[hits.length - 1]);
+                assertTrue(line == null || line.equals("match " + hits[hits.length - 1]));
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void lineNumbersPastIntegerRange() {
+        // Just short of 2^31 lines and 2^32 bytes, as if a long session had gone by
+        long firstLine = Integer.MAX_VALUE - 2L;
+        ScrollbackBuffer buffer = new ScrollbackBuffer(1024, (1L << 32) - 20, firstLine);
+        assertEquals(0, buffer.getSizeBytes());
+        append(buffer, "\n\n\nbefore\nneedle one\nnothing\nneedle two\n");
+        long target = firstLine + 3;
+        assertTrue(target > Integer.MAX_VALUE);
+
+        long[] hits = buffer.search("needle", false, target, 10);
+        assertEquals(2, hits.length);
+        assertEquals(target + 1, hits[0]);
+        assertEquals(target + 3, hits[1]);
+        assertEquals("needle one", buffer.getLine(hits[0]));
+        assertEquals("needle two", buffer.getLine(hits[1]));
+        // Past the end clamps to the open line
+        assertEquals(0, buffer.search("needle", false, Long.MAX_VALUE, 10).length);
+        assertEquals(1, buffer.search("needle", false, target + 2, 10).length);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionManagerTest {
+    private EmbeddedSshServer server;
+    private SshSessionService service;
+    private final ConcurrentHashMap<String, String> closed = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedSshServer();
+        service = new SshSessionService(new SessionBridge() {
+            @Override
+            public void emit(String event, JSONObject data) {
+                if ("sessionClosed".equals(event)) {
+                    closed.put(data.getString("sessionId"), data.getString("reason"));
+                }
+            }
+        }, new PluginMetrics());
+        service.setReapIntervalMillis(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.shutdown();
+        server.close();
+    }
+
+    private String connect() throws Exception {
+        return service.connectWithPassword(server.getHost(), server.getPort(),
+            EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+    }
+
+    private static int threadsNamed(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void await(String what, java.util.concurrent.Callable<Boolean> condition, long millis)
+        throws Exception {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!condition.call()) {
+            assertTrue("Timed out waiting for " + what, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test(timeout = 180_000)
+    public void thousandAbandonedSessionsAreReapedAsOrphans() throws Exception {
+        // A page that opens sessions (every tenth with a shell) and is then reloaded away
+        final SessionManager sessions = service.getSessionManager();
+        final int count = 1000;
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        final AtomicInteger opened = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final boolean withShell = i % 10 == 0;
+            futures.add(pool.submit(() -> {
+                String sessionId = connect();
+                sessions.claim(sessionId, "page-1");
+                if (withShell) {
+                    service.startShell(sessionId, 64 * 1024);
+                }
+                opened.incrementAndGet();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        assertEquals(count, opened.get());
+        // Only now, so that a slow machine doesn't reap sessions still being set up
+        sessions.setPolicy(0, 500);
+
+        await("all sessions reaped", () -> closed.size() == count && service.getSessions().isEmpty(), 60_000);
+        for (String reason : closed.values()) {
+            assertEquals(SessionManager.REASON_ORPHANED, reason);
+        }
+        assertEquals(0, sessions.getSessionCount());
+        assertEquals(0, service.getShellSessionCount());
+        assertEquals(0, sessions.getChannelCount());
+        assertEquals(0, sessions.getBufferedBytes());
+        assertEquals(Long.valueOf(count), sessions.getClosedByReason().get(SessionManager.REASON_ORPHANED));
+        // Reader threads of sshj and of the shells are gone with them
+        await("threads to exit", () -> threadsNamed("sshj-") == 0 && threadsNamed("ShellSession-") == 0, 10_000);
+    }
+
+    @Test(timeout = 30_000)
+    public void heartbeatsKeepSessionsAndIdleOnesAreReaped() throws Exception {
+        SessionManager sessions = service.getSessionManager();
+        sessions.setPolicy(2000, 1000);
+        String owned = connect();
+        sessions.claim(owned, "page-2");
+        String busy = connect();
+        String idle = connect();
+
+        long until = System.currentTimeMillis() + 3500;
+        while (System.currentTimeMillis() < until) {
+            sessions.heartbeat("page-2");
+            service.executeCommand(busy, "echo hi");
+            Thread.sleep(100);
+        }
+        assertEquals(SessionManager.REASON_IDLE, closed.get(idle));
+        assertFalse(closed.containsKey(busy));
+        // Heartbeats don't count as use of the session itself
+        assertEquals(SessionManager.REASON_IDLE, closed.get(owned));
+
+        service.disconnect(busy);
+        assertEquals(SessionManager.REASON_DISCONNECT, closed.get(busy));
+    }
+
+    @Test(timeout = 30_000)
+    public void capsRefuseSessionsChannelsAndBuffers() throws Exception {
+        SessionManager sessions = service.getSessionManager();
+        sessions.setLimits(2, 1, 128 * 1024 + ShellInputWriter.DEFAULT_MAX_QUEUED_BYTES);
+        String first = connect();
+        String second = connect();
+        try {
+            connect();
+            fail();
+        } catch (SessionException expected) {
+            assertEquals("Session limit reached (2)", expected.getMessage());
+        }
+
+        service.startShell(first, 64 * 1024);
+        try {
+            service.executeCommand(second, "echo hi");
+            fail();
+        } catch (SessionException expected) {
+            assertEquals("Channel limit reached (1)", expected.getMessage());
+        }
+
+        sessions.setLimits(2, 2, 128 * 1024 + ShellInputWriter.DEFAULT_MAX_QUEUED_BYTES);
+        try {
+            service.startShell(second, 128 * 1024);
+            fail();
+        } catch (SessionException expected) {
+            assertTrue(expected.getMessage().startsWith("Buffer limit reached"));
+        }
+        // The refused shell gave its channel back
+        assertEquals(1, sessions.getChannelCount());
+
+        // Closing gives everything back
+        service.disconnect(first);
+        assertEquals(0, sessions.getChannelCount());
+        assertEquals(0, sessions.getBufferedBytes());
+        service.startShell(second, 128 * 1024);
+        assertEquals(1, sessions.getSessionCount());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class SessionRecorderTest {
+
+    private static List<String> readLines(File file) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void writesAsciicastEvents() throws Exception {
+        File dir = Files.createTempDirectory("recorder").toFile();
+        SessionRecorder recorder = new SessionRecorder(dir, "session", 80, 24, true, 1 << 20);
+
+        byte[] euro = "\u20ac\"quoted\"\r\n".getBytes(StandardCharsets.UTF_8);
+        // Split the multi-byte character across two chunks
+        recorder.recordOutput(euro, 0, 1);
+        recorder.recordOutput(euro, 1, euro.length - 1);
+        recorder.recordInput("ls\r".getBytes(StandardCharsets.UTF_8), 0, 3);
+        List<File> files = recorder.close();
+
+        assertEquals(1, files.size());
+        List<String> lines = readLines(files.get(0));
+        assertTrue(lines.get(0).startsWith("{\"version\": 2, \"width\": 80, \"height\": 24"));
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1).endsWith(", \"o\", \"\u20ac\\\"quoted\\\"\\r\\n\"]"));
+        assertTrue(lines.get(2).endsWith(", \"i\", \"ls\\r\"]"));
+    }
+
+    @Test
+    public void rotatesWhenFileIsFull() throws Exception {
+        File dir = Files.createTempDirectory("recorder").toFile();
+        SessionRecorder recorder = new SessionRecorder(dir, "session", 80, 24, false, 4096);
+
+        byte[] chunk = new byte[1024];
+        java.util.Arrays.fill(chunk, (byte) 'x');
+        for (int i = 0; i < 64; i++) {
+            recorder.recordOutput(chunk, 0, chunk.length);
+            Thread.sleep(1);
+        }
+        List<File> files = recorder.close();
+
+        assertTrue(files.size() > 1);
+        assertEquals("session.1.cast", files.get(1).getName());
+        for (File file : files) {
+            String first = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).split("\n")[0];
+            assertTrue(first.startsWith("{\"version\": 2"));
+        }
+    }
+
+    @Test
+    public void aBurstIsWrittenWholeAndInOrder() throws Exception {
+        File dir = Files.createTempDirectory("recorder").toFile();
+        SessionRecorder recorder = new SessionRecorder(dir, "session", 80, 24, true, 64 << 20);
+
+        // Far more than the writer takes per wakeup, in well under a flush interval
+        for (int i = 0; i < 20_000; i++) {
+            byte[] line = ("line " + i + "\r\n").getBytes(StandardCharsets.UTF_8);
+            recorder.recordOutput(line, 0, line.length);
+        }
+        List<File> files = recorder.close();
+
+        assertEquals(0, recorder.getDroppedEvents());
+        List<String> lines = readLines(files.get(0));
+        assertEquals(20_001, lines.size());
+        double last = 0;
+        for (int i = 0; i < 20_000; i++) {
+            String event = lines.get(i + 1);
+            assertTrue(event, event.endsWith(", \"o\", \"line " + i + "\\r\\n\"]"));
+            double time = Double.parseDouble(event.substring(1, event.indexOf(',')));
+            assertTrue(time >= last);
+            last = time;
+        }
+    }
+
+    @Test
+    public void resizesAreRecordedAndCarriedIntoRotatedFiles() throws Exception {
+        File dir = Files.createTempDirectory("recorder").toFile();
+        SessionRecorder recorder = new SessionRecorder(dir, "session", 80, 24, false, 4096);
+
+        byte[] chunk = new byte[1024];
+        java.util.Arrays.fill(chunk, (byte) 'x');
+        recorder.recordOutput(chunk, 0, chunk.length);
+        recorder.recordResize(132, 43);
+        for (int i = 0; i < 8; i++) {
+            recorder.recordOutput(chunk, 0, chunk.length);
+            Thread.sleep(60);
+        }
+        List<File> files = recorder.close();
+
+        assertTrue(files.size() > 1);
+        String[] first = new String(Files.readAllBytes(files.get(0).toPath()), StandardCharsets.UTF_8).split("\n");
+        assertTrue(first[0].startsWith("{\"version\": 2, \"width\": 80, \"height\": 24"));
+        assertTrue(first[2], first[2].endsWith(", \"r\", \"132x43\"]"));
+        String last = new String(Files.readAllBytes(files.get(files.size() - 1).toPath()), StandardCharsets.UTF_8);
+        assertTrue(last.startsWith("{\"version\": 2, \"width\": 132, \"height\": 43"));
+    }
+}
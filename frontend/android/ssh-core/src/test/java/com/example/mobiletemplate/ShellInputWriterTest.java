@@ -0,0 +1,153 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ShellInputWriterTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /** Records writes; flush() blocks until released, like a channel with no remote window. */
+    private static class GatedStream extends OutputStream {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final CountDownLatch gate;
+        int flushes;
+
+        GatedStream(boolean open) {
+            gate = new CountDownLatch(open ? 0 : 1);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            written.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            written.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            synchronized (this) {
+                flushes++;
+            }
+        }
+
+        synchronized String text() {
+            return written.toString();
+        }
+    }
+
+    private static class RecordingListener implements ShellInputWriter.Listener {
+        final CountDownLatch drained = new CountDownLatch(1);
+        volatile IOException error;
+
+        @Override
+        public void onDrained() {
+            drained.countDown();
+        }
+
+        @Override
+        public void onError(IOException e) {
+            error = e;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private static void awaitLength(GatedStream stream, int length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stream.text().length() < length) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void coalescesKeystrokesInOrder() throws Exception {
+        GatedStream stream = new GatedStream(true);
+        ShellInputWriter writer = new ShellInputWriter(stream, executor, scheduler, 5, 1 << 20, new RecordingListener());
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String key = Integer.toString(i % 10);
+            expected.append(key);
+            assertTrue(writer.offer(key.getBytes()));
+        }
+        awaitLength(stream, expected.length());
+
+        assertEquals(expected.toString(), stream.text());
+        assertEquals(1000, writer.getBytesWritten());
+        assertTrue("packets: " + writer.getPackets(), writer.getPackets() < 50);
+    }
+
+    @Test
+    public void fullQueueRefusesWithoutBlocking() throws Exception {
+        GatedStream stream = new GatedStream(false);
+        RecordingListener listener = new RecordingListener();
+        ShellInputWriter writer = new ShellInputWriter(stream, executor, scheduler, 0, 4096, listener);
+
+        byte[] chunk = new byte[512];
+        java.util.Arrays.fill(chunk, (byte) 'a');
+        int accepted = 0;
+        long start = System.nanoTime();
+        // The first chunk is taken by the drain, which then blocks on flush
+        while (writer.offer(chunk)) {
+            accepted++;
+            assertTrue(accepted < 100);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertFalse(writer.offer(chunk));
+
+        stream.gate.countDown();
+        assertTrue(listener.drained.await(5, TimeUnit.SECONDS));
+        assertTrue(writer.offer(chunk));
+        awaitLength(stream, (accepted + 1) * chunk.length);
+    }
+
+    @Test
+    public void writeErrorClosesTheWriter() throws Exception {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("channel closed");
+            }
+        };
+        RecordingListener listener = new RecordingListener();
+        ShellInputWriter writer = new ShellInputWriter(broken, executor, scheduler, 0, 4096, listener);
+        assertTrue(writer.offer("ls\n".getBytes()));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.error == null) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        try {
+            writer.offer("ls\n".getBytes());
+            fail();
+        } catch (IOException expected) {
+            // closed
+        }
+    }
+}
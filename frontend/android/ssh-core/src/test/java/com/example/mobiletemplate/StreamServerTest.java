@@ -0,0 +1,208 @@
+package com.example.mobiletemplate;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamServerTest {
+    private final StreamServer server = new StreamServer();
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    /** Collects whole binary messages, and notes when the server drops the connection. */
+    private static class Collector implements WebSocket.Listener {
+        final LinkedBlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        final CountDownLatch gone = new CountDownLatch(1);
+        private final java.io.ByteArrayOutputStream partial = new java.io.ByteArrayOutputStream();
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            partial.write(bytes, 0, bytes.length);
+            if (last) {
+                messages.add(partial.toByteArray());
+                partial.reset();
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            gone.countDown();
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            gone.countDown();
+        }
+
+        /** Payloads of the frames for sessionId, as text, until it contains expected twice (typed and printed). */
+        String awaitTwice(String sessionId, String expected) throws InterruptedException {
+            StringBuilder text = new StringBuilder();
+            while (text.indexOf(expected) == text.lastIndexOf(expected)) {
+                byte[] frame = messages.poll(5, TimeUnit.SECONDS);
+                assertNotNull("Timed out waiting for " + expected + " in " + text, frame);
+                assertEquals(sessionId.length(), frame[0]);
+                assertEquals(sessionId, new String(frame, 1, frame[0], StandardCharsets.US_ASCII));
+                text.append(new String(frame, 1 + frame[0], frame.length - 1 - frame[0], StandardCharsets.UTF_8));
+            }
+            return text.toString();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private WebSocket connect(Collector collector) throws Exception {
+        WebSocket socket = http.newWebSocketBuilder().buildAsync(URI.create(server.getUrl()), collector).get(5, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!server.hasClient() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return socket;
+    }
+
+    @Test
+    public void sendsFramedBytesPerSession() throws Exception {
+        Collector collector = new Collector();
+        WebSocket socket = connect(collector);
+
+        byte[] small = "hello\u001b[0m".getBytes(StandardCharsets.UTF_8);
+        assertTrue(server.send("abc", small, 0, small.length));
+        byte[] large = new byte[70000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        assertTrue(server.send("session-2", large, 0, large.length));
+
+        byte[] first = collector.messages.poll(5, TimeUnit.SECONDS);
+        assertEquals(3, first[0]);
+        assertEquals("abc", new String(first, 1, 3, StandardCharsets.US_ASCII));
+        assertEquals("hello\u001b[0m", new String(first, 4, first.length - 4, StandardCharsets.UTF_8));
+
+        byte[] second = collector.messages.poll(5, TimeUnit.SECONDS);
+        assertEquals(1 + 9 + large.length, second.length);
+        for (int i = 0; i < large.length; i++) {
+            assertEquals(large[i], second[10 + i]);
+        }
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 20_000)
+    public void aNewerClientTakesOver() throws Exception {
+        Collector first = new Collector();
+        connect(first);
+        Collector second = new Collector();
+        http.newWebSocketBuilder().buildAsync(URI.create(server.getUrl()), second).get(5, TimeUnit.SECONDS);
+        byte[] data = "x".getBytes(StandardCharsets.US_ASCII);
+        // Until the server has switched, frames still go to the first
+        while (second.messages.isEmpty()) {
+            assertTrue(server.send("abc", data, 0, data.length));
+            Thread.sleep(10);
+        }
+        assertTrue(first.gone.await(5, TimeUnit.SECONDS));
+        first.messages.clear();
+
+        assertTrue(server.send("abc", data, 0, data.length));
+        assertNotNull(second.messages.poll(5, TimeUnit.SECONDS));
+        assertTrue(first.messages.isEmpty());
+        assertTrue(server.hasClient());
+    }
+
+    @Test(timeout = 30_000)
+    public void shellOutputFallsBackToEventsWhenTheClientLeaves() throws Exception {
+        final StringBuffer events = new StringBuffer();
+        EmbeddedSshServer ssh = new EmbeddedSshServer();
+        SshSessionService service = new SshSessionService(new SessionBridge() {
+            @Override
+            public void emit(String event, JSONObject data) {
+                if ("shellOutput".equals(event)) {
+                    events.append(data.getString("output"));
+                }
+            }
+        }, new PluginMetrics());
+        try {
+            String sessionId = service.connectWithPassword(ssh.getHost(), ssh.getPort(),
+                EmbeddedSshServer.USERNAME, EmbeddedSshServer.PASSWORD);
+            StreamServer stream = service.openStreamTransport();
+            Collector collector = new Collector();
+            WebSocket socket = http.newWebSocketBuilder().buildAsync(URI.create(stream.getUrl()), collector)
+                .get(5, TimeUnit.SECONDS);
+            while (!stream.hasClient()) {
+                Thread.sleep(10);
+            }
+            service.startShell(sessionId, 64 * 1024, false, true);
+
+            service.sendToShell(sessionId, "echo over-the-stream\n");
+            collector.awaitTwice(sessionId, "over-the-stream");
+            // None of it through the bridge
+            assertEquals("", events.toString());
+
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(5, TimeUnit.SECONDS);
+            while (stream.hasClient()) {
+                Thread.sleep(10);
+            }
+            service.sendToShell(sessionId, "echo back-on-events\n");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.indexOf("back-on-events") == events.lastIndexOf("back-on-events")) {
+                assertTrue("Timed out: " + events, System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            // The scrollback has both, whichever way they went
+            ScrollbackBuffer scrollback = service.getShell(sessionId).getScrollback();
+            assertTrue(scrollback.search("over-the-stream", false, scrollback.getFirstLine(), 10).length > 0);
+        } finally {
+            service.shutdown();
+            ssh.close();
+        }
+    }
+
+    @Test
+    public void rejectsWrongToken() throws Exception {
+        URI wrong = URI.create("ws://127.0.0.1:" + server.getPort() + "/stream?token=nope");
+        try {
+            http.newWebSocketBuilder().buildAsync(wrong, new Collector()).join();
+            fail("Handshake should fail");
+        } catch (CompletionException expected) {
+            // 403
+        }
+        assertFalse(server.hasClient());
+        assertFalse(server.send("abc", new byte[1], 0, 1));
+    }
+
+    @Test
+    public void fallsBackOnceClientCloses() throws Exception {
+        WebSocket socket = connect(new Collector());
+        assertTrue(server.hasClient());
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(5, TimeUnit.SECONDS);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.hasClient() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(server.send("abc", new byte[1], 0, 1));
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.mobiletemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+
+import org.apache.sshd.core.CoreModuleProperties;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+
+import net.schmizz.sshj.DefaultConfig;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+
+/**
+ * In-process Apache MINA SSHD server on 127.0.0.1 for tests and benchmarks.
+ * Shells and exec channels are served by {@link TestCommand}, except for
+ * "sh -c 'SCRIPT'" execs, which run SCRIPT in a real /bin/sh on this machine.
+ */
+public class EmbeddedSshServer implements Closeable {
+    public static final String USERNAME = "test";
+    public static final String PASSWORD = "test";
+
+    private final SshServer server;
+
+    public EmbeddedSshServer() throws IOException {
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((username, password, session) ->
+            USERNAME.equals(username) && PASSWORD.equals(password));
+        server.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+        server.setShellFactory(channel -> new TestCommand(null));
+        // Process-backed execs poll their pipes; every 1 ms by default, which would dominate CPU figures
+        CoreModuleProperties.PUMP_SLEEP_TIME.set(server, Duration.ofMillis(20));
+        server.setCommandFactory((channel, command) -> {
+            if (command.startsWith("sh -c '") && command.endsWith("'")) {
+                String script = command.substring("sh -c '".length(), command.length() - 1);
+                return new ProcessShellFactory(command, "/bin/sh", "-c", script).createShell(channel);
+            }
+            return new TestCommand(command);
+        });
+        server.start();
+    }
+
+    public SshServer getServer() {
+        return server;
+    }
+
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Connected and password-authenticated client
+     */
+    public SSHClient connect() throws IOException {
+        SSHClient ssh = new SSHClient(new DefaultConfig());
+        ssh.addHostKeyVerifier(new PromiscuousVerifier());
+        ssh.connect(getHost(), getPort());
+        ssh.authPassword(USERNAME, PASSWORD);
+        return ssh;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(true);
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.mobiletemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+
+/**
+ * Scriptable command for {@link EmbeddedSshServer}.
+ *
+ * Exec commands:
+ *   echo TEXT            prints TEXT
+ *   stream BYTES         prints BYTES of terminal-like text
+ *   stderr BYTES         same on stderr
+ *   cat                  copies stdin to stdout until EOF
+ *   sleep MILLIS         waits, then exits
+ * A shell (null command) echoes every byte it receives like a PTY would and runs
+ * complete lines as commands; "exit" closes it. In the shell only:
+ *   yes                  prints "y" lines without end until Ctrl-C
+ *   size                 prints the PTY size as COLUMNSxLINES
+ */
+public class TestCommand implements Command, Runnable {
+    // A typical `ls -l --color` line, repeated to generate output
+    static final byte[] SAMPLE_LINE = ("drwxr-xr-x  2 user staff   4096 Jan 12 09:41 \u001b[01;34msrc\u001b[0m"
+        + "  -rw-r--r--  1 user staff  18231 \"build.gradle\"\r\n").getBytes(StandardCharsets.UTF_8);
+
+    private final String command;
+    private InputStream in;
+    private OutputStream out;
+    private OutputStream err;
+    private ExitCallback exitCallback;
+    private Environment environment;
+    private Thread thread;
+    private volatile boolean runawayActive;
+    private Thread runaway;
+
+    public TestCommand(String command) {
+        this.command = command;
+    }
+
+    @Override
+    public void setInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public void setOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void setErrorStream(OutputStream err) {
+        this.err = err;
+    }
+
+    @Override
+    public void setExitCallback(ExitCallback callback) {
+        this.exitCallback = callback;
+    }
+
+    @Override
+    public void start(ChannelSession channel, Environment env) {
+        // Updated in place on window-change requests
+        environment = env;
+        thread = new Thread(this, "TestCommand");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy(ChannelSession channel) {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        int status = 0;
+        try {
+            if (command == null) {
+                runShell();
+            } else {
+                status = execute(command);
+            }
+        } catch (IOException | InterruptedException e) {
+            status = 1;
+        }
+        exitCallback.onExit(status);
+    }
+
+    private void runShell() throws IOException, InterruptedException {
+        StringBuilder line = new StringBuilder();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            out.flush();
+            for (int i = 0; i < read; i++) {
+                char c = (char) (buffer[i] & 0xFF);
+                if (c == '\r' || c == '\n') {
+                    String text = line.toString().trim();
+                    line.setLength(0);
+                    if (text.equals("exit")) {
+                        return;
+                    }
+                    if (text.equals("yes")) {
+                        startRunaway();
+                        continue;
+                    }
+                    if (text.equals("size")) {
+                        String size = environment.getEnv().get(Environment.ENV_COLUMNS) + "x"
+                            + environment.getEnv().get(Environment.ENV_LINES);
+                        out.write(("\r\n" + size + "\r\n$ ").getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        continue;
+                    }
+                    if (!text.isEmpty()) {
+                        out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                        execute(text);
+                        out.write("$ ".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                } else if (c == 3) {
+                    // Ctrl-C
+                    stopRunaway();
+                    line.setLength(0);
+                    out.write("^C\r\n$ ".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+    }
+
+    private void startRunaway() {
+        byte[] block = new byte[8190];
+        for (int i = 0; i < block.length; i += 3) {
+            block[i] = 'y';
+            block[i + 1] = '\r';
+            block[i + 2] = '\n';
+        }
+        runawayActive = true;
+        runaway = new Thread(() -> {
+            try {
+                // Blocks once the client stops growing the window
+                while (runawayActive) {
+                    out.write(block);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Channel closed
+            }
+        }, "TestCommand-yes");
+        runaway.setDaemon(true);
+        runaway.start();
+    }
+
+    private void stopRunaway() throws InterruptedException {
+        if (runaway != null) {
+            runawayActive = false;
+            // The write in progress completes once the client reads again
+            runaway.join();
+            runaway = null;
+        }
+    }
+
+    private int execute(String text) throws IOException, InterruptedException {
+        String[] parts = text.split(" ", 2);
+        String argument = parts.length > 1 ? parts[1] : "";
+        switch (parts[0]) {
+            case "echo":
+                out.write((argument + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return 0;
+            case "stream":
+                writeSample(out, Long.parseLong(argument.trim()));
+                return 0;
+            case "stderr":
+                writeSample(err, Long.parseLong(argument.trim()));
+                return 0;
+            case "cat":
+                byte[] buffer = new byte[32 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+                return 0;
+            case "sleep":
+                Thread.sleep(Long.parseLong(argument.trim()));
+                return 0;
+            default:
+                err.write(("unknown command: " + parts[0] + "\n").getBytes(StandardCharsets.UTF_8));
+                err.flush();
+                return 127;
+        }
+    }
+
+    static void writeSample(OutputStream stream, long bytes) throws IOException {
+        byte[] block = new byte[32 * 1024];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = SAMPLE_LINE[i % SAMPLE_LINE.length];
+        }
+        long remaining = bytes;
+        while (remaining > 0) {
+            int chunk = (int) Math.min(block.length, remaining);
+            stream.write(block, 0, chunk);
+            remaining -= chunk;
+        }
+        stream.flush();
+    }
+}
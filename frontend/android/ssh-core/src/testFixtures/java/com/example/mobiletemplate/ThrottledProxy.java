@@ -0,0 +1,180 @@
+package com.example.mobiletemplate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TCP relay on 127.0.0.1 that caps each direction at a fixed bandwidth and can
+ * hold every chunk back for a fixed one-way delay, to stand in for a slow mobile
+ * or satellite link between the client and {@link EmbeddedSshServer}. Both can be
+ * changed while connections are open.
+ */
+public class ThrottledProxy implements Closeable {
+    private static final int CHUNK = 4096;
+
+    private final ServerSocket serverSocket;
+    private final String targetHost;
+    private final int targetPort;
+    private volatile long bytesPerSecond;
+    private volatile long delayNanos;
+
+    public ThrottledProxy(String targetHost, int targetPort, long bytesPerSecond) throws IOException {
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.bytesPerSecond = bytesPerSecond;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(this::acceptLoop, "ThrottledProxy-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** 0 or less means unlimited. */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Added to each direction, so the round trip grows by twice this. */
+    public void setDelayMillis(long delayMillis) {
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    private static class Chunk {
+        final byte[] bytes;
+        final long dueNanos;
+
+        Chunk(byte[] bytes, long dueNanos) {
+            this.bytes = bytes;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket upstream = new Socket(targetHost, targetPort);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                pump(client, upstream);
+                pump(upstream, client);
+            } catch (IOException e) {
+                // Closed, or the target refused
+            }
+        }
+    }
+
+    private void pump(Socket from, Socket to) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[CHUNK];
+            long start = System.nanoTime();
+            long sent = 0;
+            // Bounded, so a stalled receiver still pushes back on the sender
+            LinkedBlockingQueue<Chunk> delayed = new LinkedBlockingQueue<>(256);
+            Thread writer = null;
+            // Not closed here: the delay writer may still be using it
+            try (InputStream in = from.getInputStream()) {
+                OutputStream out = to.getOutputStream();
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    long delay = delayNanos;
+                    if (delay > 0 || writer != null) {
+                        // Once delayed, always: a direct write could overtake chunks still waiting
+                        if (writer == null) {
+                            writer = delayWriter(delayed, out, from, to);
+                        }
+                        delayed.put(new Chunk(Arrays.copyOf(buffer, n), System.nanoTime() + delay));
+                    } else {
+                        out.write(buffer, 0, n);
+                        out.flush();
+                    }
+                    long rate = bytesPerSecond;
+                    if (rate <= 0) {
+                        continue;
+                    }
+                    sent += n;
+                    // Pace against the whole connection so far, so bursts can't exceed the rate
+                    long due = start + (long) (sent * 1e9 / rate);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else if (wait < -1_000_000_000L) {
+                        // Idle for a while: don't let the saved-up credit turn into a burst
+                        start = System.nanoTime();
+                        sent = 0;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Either side closed
+            } finally {
+                if (writer != null) {
+                    // An empty chunk ends the writer once what is queued has gone out
+                    if (!delayed.offer(new Chunk(new byte[0], 0))) {
+                        closeQuietly(to);
+                    }
+                } else {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        }, "ThrottledProxy-pump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Thread delayWriter(LinkedBlockingQueue<Chunk> delayed, OutputStream out, Socket from, Socket to) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Chunk chunk = delayed.take();
+                    if (chunk.bytes.length == 0) {
+                        break;
+                    }
+                    long wait = chunk.dueNanos - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    out.write(chunk.bytes);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Either side closed
+            } finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }, "ThrottledProxy-delay");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -1,20 +1,41 @@
-import type { SSHConnectionOptions, SSHConnectionResult, SSHCommandOptions, SSHCommandResult } from '~/plugins/ssh.client'
+import type { SSHConnectionOptions, SSHConnectionResult, SSHCommandOptions, SSHCommandResult, SSHScrollbackPage, SSHHostMetric, SSHHostMetricsValues, SSHHostMetricsEnded, SSHOutputTrigger, SSHOutputMatch, SSHBroadcastResult, SSHTailMergeOptions, SSHHostProbe, SSHScriptOutput, SSHScriptExit } from '~/plugins/ssh.client'
+import { sessionOwner } from '~/plugins/ssh.client'
+import type { SSHHost } from '~/stores/ssh'
+
+// "Compression yes" in the host config forces it; otherwise native decides per host from the link
+export const compressionModeFor = (host: Pick<SSHHost, 'compression'>): 'on' | 'auto' =>
+  host.compression ? 'on' : 'auto'
 
 export const useSSH = () => {
   const { $ssh } = useNuxtApp()
   const currentSessionId = ref<string | null>(null)
   const isConnected = ref(false)
   const connectionError = ref<string | null>(null)
+  let sessionClosedListener: { remove: () => void } | null = null
+
+  // Native may close the session on its own (dropped connection, idle or orphan reaping)
+  const watchSession = async (sessionId: string) => {
+    sessionClosedListener?.remove()
+    sessionClosedListener = await $ssh.addListener('sessionClosed', (data) => {
+      if (data.sessionId === sessionId && currentSessionId.value === sessionId) {
+        isConnected.value = false
+        if (data.reason !== 'disconnect') {
+          connectionError.value = `Session closed (${data.reason})`
+        }
+      }
+    })
+  }
 
   const connect = async (options: SSHConnectionOptions): Promise<boolean> => {
     connectionError.value = null
 
     try {
-      const result: SSHConnectionResult = await $ssh.connect(options)
+      const result: SSHConnectionResult = await $ssh.connect({ owner: sessionOwner, ...options })
 
       if (result.success && result.sessionId) {
         currentSessionId.value = result.sessionId
         isConnected.value = true
+        await watchSession(result.sessionId)
         return true
       } else {
         connectionError.value = result.message || 'Connection failed'
@@ -35,6 +56,8 @@ export const useSSH = () => {
       if (result.success) {
         currentSessionId.value = null
         isConnected.value = false
+        sessionClosedListener?.remove()
+        sessionClosedListener = null
         return true
       }
       return false
@@ -44,7 +67,8 @@ export const useSSH = () => {
     }
   }
 
-  const executeCommand = async (command: string): Promise<string> => {
+  // maxAgeMs: for read-only commands (uname, df), an output this recent may be reused
+  const executeCommand = async (command: string, maxAgeMs?: number): Promise<string> => {
     if (!currentSessionId.value) {
       throw new Error('Not connected')
     }
@@ -52,7 +76,8 @@ export const useSSH = () => {
     try {
       const result: SSHCommandResult = await $ssh.executeCommand({
         sessionId: currentSessionId.value,
-        command
+        command,
+        maxAgeMs
       })
 
       if (result.success && result.output) {
@@ -65,6 +90,52 @@ export const useSSH = () => {
     }
   }
 
+  // Long or often-run scripts: sent to the host once and run from its cache after that. Output is
+  // passed on as it comes; resolves with the exit (rejects if the run couldn't start)
+  const runScript = async (
+    script: string,
+    args: string[] = [],
+    onOutput?: (output: string, stream: 'stdout' | 'stderr') => void
+  ): Promise<SSHScriptExit> => {
+    if (!currentSessionId.value) {
+      throw new Error('Not connected')
+    }
+
+    let runId: string | null = null
+    // A short script can finish before runScript resolves
+    const early: SSHScriptOutput[] = []
+    const earlyExits: SSHScriptExit[] = []
+    let finish: (exit: SSHScriptExit) => void = () => {}
+    const done = new Promise<SSHScriptExit>(resolve => { finish = resolve })
+    const output = await $ssh.addListener('scriptOutput', (data) => {
+      if (runId === null) {
+        early.push(data)
+      } else if (data.runId === runId) {
+        onOutput?.(data.output, data.stream)
+      }
+    })
+    const exit = await $ssh.addListener('scriptExit', (data) => {
+      if (runId === null) {
+        earlyExits.push(data)
+      } else if (data.runId === runId) {
+        finish(data)
+      }
+    })
+    try {
+      const started = await $ssh.runScript({ sessionId: currentSessionId.value, script, args })
+      runId = started.runId
+      early.filter(data => data.runId === runId).forEach(data => onOutput?.(data.output, data.stream))
+      const ended = earlyExits.find(data => data.runId === runId)
+      if (ended) {
+        finish(ended)
+      }
+      return await done
+    } finally {
+      output.remove()
+      exit.remove()
+    }
+  }
+
   const checkConnection = async (): Promise<boolean> => {
     if (!currentSessionId.value) return false
 
@@ -80,8 +151,77 @@ export const useSSH = () => {
 
   // Interactive shell session
   const shellOutputListener = ref<{ remove: () => void } | null>(null)
+  const inputDrainedListener = ref<{ remove: () => void } | null>(null)
+  let outputSocket: WebSocket | null = null
+
+  // Input is sent one bridge call at a time; keystrokes typed meanwhile are batched into the next call.
+  // When the native queue is full the data stays here until 'shellInputDrained'.
+  let pendingInput = ''
+  let inputInFlight = false
+  let inputBlocked = false
+
+  // Flow control: output is acknowledged once rendered; acks are batched to keep bridge calls down
+  const ACK_BATCH_CHARS = 64 * 1024
+  let renderedChars = 0
+  let ackTimer: ReturnType<typeof setTimeout> | null = null
+
+  const flushAcks = () => {
+    if (ackTimer) {
+      clearTimeout(ackTimer)
+      ackTimer = null
+    }
+    if (!renderedChars || !currentSessionId.value) {
+      return
+    }
+    const chars = renderedChars
+    renderedChars = 0
+    $ssh.ackShellOutput({ sessionId: currentSessionId.value, chars }).catch(() => {})
+  }
+
+  const ackOutput = (chars: number) => {
+    renderedChars += chars
+    if (renderedChars >= ACK_BATCH_CHARS) {
+      flushAcks()
+    } else if (!ackTimer) {
+      ackTimer = setTimeout(flushAcks, 50)
+    }
+  }
+
+  // Binary output socket: each message is [u8 id length][session id][raw bytes].
+  // Resolves null when the transport is unavailable (e.g. web), output then comes as events.
+  const openOutputSocket = async (
+    onBytes: (sessionId: string, bytes: Uint8Array) => void
+  ): Promise<WebSocket | null> => {
+    try {
+      const { url } = await $ssh.openStreamTransport()
+      const socket = new WebSocket(url)
+      socket.binaryType = 'arraybuffer'
+      socket.onmessage = (event) => {
+        const frame = new Uint8Array(event.data as ArrayBuffer)
+        const idLength = frame[0]
+        const sessionId = String.fromCharCode(...frame.subarray(1, 1 + idLength))
+        onBytes(sessionId, frame.subarray(1 + idLength))
+      }
+      const opened = await new Promise<boolean>((resolve) => {
+        socket.onopen = () => resolve(true)
+        socket.onerror = () => resolve(false)
+      })
+      if (!opened) {
+        socket.close()
+        return null
+      }
+      return socket
+    } catch (error) {
+      return null
+    }
+  }
 
-  const startShellSession = async (callback: (output: string) => void): Promise<boolean> => {
+  // The callback must call `rendered` once the output is on screen (e.g. from xterm's write callback).
+  // Output is raw UTF-8 bytes when the binary transport is up, a string otherwise; xterm takes both.
+  const startShellSession = async (
+    callback: (output: string | Uint8Array, rendered: () => void) => void,
+    size?: { cols: number; rows: number }
+  ): Promise<boolean> => {
     if (!currentSessionId.value) {
       console.error('Cannot start shell session: not connected')
       return false
@@ -91,13 +231,33 @@ export const useSSH = () => {
       // Setup listener for shell output
       shellOutputListener.value = await $ssh.addListener('shellOutput', (data) => {
         if (data.sessionId === currentSessionId.value) {
-          callback(data.output)
+          const chars = data.output.length
+          callback(data.output, () => ackOutput(chars))
+        }
+      })
+
+      inputDrainedListener.value = await $ssh.addListener('shellInputDrained', (data) => {
+        if (data.sessionId === currentSessionId.value) {
+          inputBlocked = false
+          pumpInput().catch((error) => console.error('Failed to send input:', error))
+        }
+      })
+
+      // Binary frames are acked in bytes, events in chars; native counts them the same way
+      outputSocket = await openOutputSocket((sessionId, bytes) => {
+        if (sessionId === currentSessionId.value) {
+          const length = bytes.length
+          callback(bytes, () => ackOutput(length))
         }
       })
 
       // Start shell session
       const result = await $ssh.startShellSession({
-        sessionId: currentSessionId.value
+        sessionId: currentSessionId.value,
+        flowControl: true,
+        transport: outputSocket ? 'binary' : 'events',
+        cols: size?.cols,
+        rows: size?.rows
       })
 
       return result.success
@@ -108,26 +268,316 @@ export const useSSH = () => {
     }
   }
 
+  const pumpInput = async (): Promise<void> => {
+    while (!inputInFlight && !inputBlocked && pendingInput && currentSessionId.value) {
+      const command = pendingInput
+      pendingInput = ''
+      inputInFlight = true
+      try {
+        const result = await $ssh.sendToShell({
+          sessionId: currentSessionId.value,
+          command
+        })
+        if (result.accepted === false) {
+          pendingInput = command + pendingInput
+          inputBlocked = true
+        }
+      } finally {
+        inputInFlight = false
+      }
+    }
+  }
+
   const sendToShell = async (command: string): Promise<void> => {
     if (!currentSessionId.value) {
       throw new Error('Not connected')
     }
 
+    pendingInput += command
     try {
-      await $ssh.sendToShell({
-        sessionId: currentSessionId.value,
-        command
-      })
+      await pumpInput()
     } catch (error: any) {
       throw new Error(error.message || 'Failed to send command')
     }
   }
 
+  // Tells the server the terminal's new size, so full-screen programs redraw to fit
+  const resizeShell = async (cols: number, rows: number): Promise<void> => {
+    if (!currentSessionId.value) {
+      return
+    }
+    await $ssh.resizeShell({ sessionId: currentSessionId.value, cols, rows })
+  }
+
+  // Predicted echo for the current shell, for satellite / congested links: keys show as typed
+  // instead of a round trip later. Off by default
+  const setLocalEcho = async (enabled: boolean, thresholdMs?: number): Promise<void> => {
+    if (!currentSessionId.value) {
+      throw new Error('Not connected')
+    }
+    await $ssh.setLocalEcho({ sessionId: currentSessionId.value, enabled, thresholdMs })
+  }
+
+  // Type into many sessions at once: the ids cross the bridge once, each keystroke is one call
+  // whatever the number of sessions. The result says which shells didn't take it
+  const createBroadcastGroup = async (groupId: string, sessionIds: string[]) => {
+    await $ssh.setBroadcastGroup({ groupId, sessionIds })
+    const send = (command: string): Promise<SSHBroadcastResult> => $ssh.sendToShells({ groupId, command })
+    const remove = async () => {
+      await $ssh.setBroadcastGroup({ groupId, sessionIds: [] })
+    }
+    return { send, remove }
+  }
+
+  // Warm the connections of the hosts most likely to be opened next. Connect must use the same
+  // compression mode to adopt them, see compressionModeFor.
+  const prewarm = async (hosts: SSHHost[], maxWarm = 3): Promise<void> => {
+    try {
+      await $ssh.prewarm({
+        hosts: hosts.slice(0, maxWarm).map(host => ({
+          hostname: host.hostname,
+          port: host.port,
+          username: host.username,
+          authMethod: host.authMethod,
+          password: host.password,
+          privateKey: host.privateKey,
+          passphrase: host.passphrase,
+          compression: compressionModeFor(host)
+        })),
+        maxWarm
+      })
+    } catch (error) {
+      // Only an optimisation
+      console.warn('Prewarm failed:', error)
+    }
+  }
+
+  // Reachability of the hosts (SSH port open, identification, handshake time) as each probe
+  // finishes; resolves once all have. Recent results come back first, from the native cache
+  const probeHosts = async (
+    hosts: SSHHost[],
+    onResult: (host: SSHHost, probe: SSHHostProbe) => void
+  ): Promise<void> => {
+    let probeId: string | null = null
+    // Cached results (and with them the end) can arrive before probeHosts resolves
+    const early: SSHHostProbe[] = []
+    const earlyDone: string[] = []
+    let finish: () => void = () => {}
+    const done = new Promise<void>(resolve => { finish = resolve })
+    const deliver = (probe: SSHHostProbe) => {
+      for (const host of hosts) {
+        if (host.hostname === probe.host && (host.port || 22) === probe.port) {
+          onResult(host, probe)
+        }
+      }
+    }
+    const results = await $ssh.addListener('hostProbe', (data) => {
+      if (probeId === null) {
+        early.push(data)
+      } else if (data.probeId === probeId) {
+        deliver(data)
+      }
+    })
+    const end = await $ssh.addListener('hostProbesDone', (data) => {
+      if (probeId === null) {
+        earlyDone.push(data.probeId)
+      } else if (data.probeId === probeId) {
+        finish()
+      }
+    })
+    try {
+      const started = await $ssh.probeHosts({
+        hosts: hosts.map(host => ({ hostname: host.hostname, port: host.port }))
+      })
+      probeId = started.probeId
+      early.filter(probe => probe.probeId === probeId).forEach(deliver)
+      if (started.hosts === 0 || earlyDone.includes(probeId)) {
+        finish()
+      }
+      await done
+    } finally {
+      results.remove()
+      end.remove()
+    }
+  }
+
+  // Page through the native scrollback (omit fromLine to get the most recent lines)
+  const getScrollback = async (fromLine?: number, count = 200): Promise<SSHScrollbackPage> => {
+    if (!currentSessionId.value) {
+      throw new Error('Not connected')
+    }
+
+    return await $ssh.getScrollback({
+      sessionId: currentSessionId.value,
+      fromLine,
+      count
+    })
+  }
+
+  const searchScrollback = async (pattern: string, ignoreCase = true) => {
+    if (!currentSessionId.value) {
+      throw new Error('Not connected')
+    }
+
+    const result = await $ssh.searchScrollback({
+      sessionId: currentSessionId.value,
+      pattern,
+      ignoreCase
+    })
+    return result.matches
+  }
+
+  // Live host status from one native sampler instead of polling executeCommand;
+  // values keeps the latest of each metric, events only carry what changed
+  const startMonitor = async (intervalMs = 2000, metrics?: SSHHostMetric[]) => {
+    if (!currentSessionId.value) {
+      throw new Error('Not connected')
+    }
+
+    const values = reactive<SSHHostMetricsValues>({})
+    // Set when the sampler died on the host: values stop updating and there is nothing to stop
+    const ended = ref<SSHHostMetricsEnded | null>(null)
+    let monitorId: string | null = null
+    // The first frame (with the totals), or even the end, can arrive before startMonitor resolves
+    const early: Array<{ monitorId: string; values: SSHHostMetricsValues }> = []
+    const earlyEnds: SSHHostMetricsEnded[] = []
+    const listener = await $ssh.addListener('hostMetrics', (data) => {
+      if (monitorId === null) {
+        early.push(data)
+      } else if (data.monitorId === monitorId) {
+        Object.assign(values, data.values)
+      }
+    })
+    const onEnded = (data: SSHHostMetricsEnded) => {
+      ended.value = data
+      listener.remove()
+      endedListener.remove()
+    }
+    const endedListener = await $ssh.addListener('hostMetricsEnded', (data) => {
+      if (monitorId === null) {
+        earlyEnds.push(data)
+      } else if (data.monitorId === monitorId) {
+        onEnded(data)
+      }
+    })
+    try {
+      const result = await $ssh.startMonitor({ sessionId: currentSessionId.value, intervalMs, metrics })
+      monitorId = result.monitorId
+    } catch (error) {
+      listener.remove()
+      endedListener.remove()
+      throw error
+    }
+    for (const frame of early) {
+      if (frame.monitorId === monitorId) {
+        Object.assign(values, frame.values)
+      }
+    }
+    const endedEarly = earlyEnds.find((data) => data.monitorId === monitorId)
+    if (endedEarly) {
+      onEnded(endedEarly)
+    }
+
+    const stop = async () => {
+      if (ended.value) {
+        return
+      }
+      listener.remove()
+      endedListener.remove()
+      await $ssh.stopMonitor({ monitorId: monitorId! })
+    }
+    return { values, ended, stop }
+  }
+
+  // The same log on several hosts as one time-ordered stream; onLines gets each batch
+  // already merged, with the host tag resolved
+  const tailMerge = async (
+    options: SSHTailMergeOptions,
+    onLines: (lines: Array<{ host: string; time: number; text: string }>) => void
+  ) => {
+    let tailId: string | null = null
+    // Backlog lines can arrive before tailMerge resolves
+    const early: Array<{ tailId: string; hosts: string[]; lines: Array<[number, number, string]> }> = []
+    const deliver = (data: { hosts: string[]; lines: Array<[number, number, string]> }) => {
+      onLines(data.lines.map(([source, time, text]) => ({ host: data.hosts[source], time, text })))
+    }
+    const listener = await $ssh.addListener('tailLines', (data) => {
+      if (tailId === null) {
+        early.push(data)
+      } else if (data.tailId === tailId) {
+        deliver(data)
+      }
+    })
+    try {
+      tailId = (await $ssh.tailMerge(options)).tailId
+    } catch (error) {
+      listener.remove()
+      throw error
+    }
+    for (const batch of early) {
+      if (batch.tailId === tailId) {
+        deliver(batch)
+      }
+    }
+
+    const stop = async () => {
+      listener.remove()
+      await $ssh.stopTailMerge({ tailId: tailId! })
+    }
+    return { stop }
+  }
+
+  // Alerts on patterns in the output without it crossing the bridge: with
+  // forwardOutput false only the matches do. Call clear() to remove them
+  const setOutputTriggers = async (
+    triggers: SSHOutputTrigger[],
+    onMatch: (match: SSHOutputMatch) => void,
+    options: { forwardOutput?: boolean; minIntervalMs?: number } = {}
+  ) => {
+    if (!currentSessionId.value) {
+      throw new Error('Not connected')
+    }
+
+    const sessionId = currentSessionId.value
+    const listener = await $ssh.addListener('outputMatch', (data) => {
+      if (data.sessionId === sessionId) {
+        onMatch(data)
+      }
+    })
+    try {
+      await $ssh.setOutputTriggers({ sessionId, triggers, ...options })
+    } catch (error) {
+      listener.remove()
+      throw error
+    }
+
+    const clear = async () => {
+      listener.remove()
+      await $ssh.setOutputTriggers({ sessionId, triggers: [] })
+    }
+    return { clear }
+  }
+
   const cleanupShellSession = () => {
     if (shellOutputListener.value) {
       shellOutputListener.value.remove()
       shellOutputListener.value = null
     }
+    if (inputDrainedListener.value) {
+      inputDrainedListener.value.remove()
+      inputDrainedListener.value = null
+    }
+    if (outputSocket) {
+      outputSocket.close()
+      outputSocket = null
+    }
+    pendingInput = ''
+    inputBlocked = false
+    if (ackTimer) {
+      clearTimeout(ackTimer)
+      ackTimer = null
+    }
+    renderedChars = 0
   }
 
   return {
@@ -135,11 +585,23 @@ export const useSSH = () => {
     isConnected,
     connectionError,
     connect,
+    watchSession,
     disconnect,
     executeCommand,
+    runScript,
     checkConnection,
+    prewarm,
+    probeHosts,
+    setLocalEcho,
     startShellSession,
+    resizeShell,
     sendToShell,
+    createBroadcastGroup,
+    getScrollback,
+    searchScrollback,
+    startMonitor,
+    setOutputTriggers,
+    tailMerge,
     cleanupShellSession
   }
 }
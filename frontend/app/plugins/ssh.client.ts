@@ -8,6 +8,10 @@ export interface SSHConnectionOptions {
   password?: string
   privateKey?: string
   passphrase?: string
+  // zlib@openssh.com; 'auto' picks per host from measured RTT and throughput (remembered across connects)
+  compression?: 'off' | 'on' | 'auto'
+  // Page that keeps the session alive with heartbeats, see sessionOwner
+  owner?: string
 }
 
 export interface SSHConnectionResult {
@@ -19,19 +23,232 @@ export interface SSHConnectionResult {
 export interface SSHCommandOptions {
   sessionId: string
   command: string
+  // Read-only commands only: accept the output of the same command on the same host and user this recent
+  maxAgeMs?: number
 }
 
 export interface SSHCommandResult {
   success: boolean
   output?: string
   error?: string
+  // Answered from the cache or from the same command already running, ageMs old
+  cached?: boolean
+  ageMs?: number
+}
+
+export type SSHHostMetric = 'cpu' | 'memory' | 'load' | 'disk'
+
+// Only the values that changed since the last event; cpu in percent, sizes in MB
+export interface SSHHostMetricsValues {
+  cpu?: number
+  memUsedMB?: number
+  memTotalMB?: number
+  load1?: number
+  load5?: number
+  load15?: number
+  diskUsedMB?: number
+  diskTotalMB?: number
+}
+
+// The sampler ended without stopMonitor (killed, /proc unreadable, channel lost); the monitor is gone.
+// reason is 'exited' or 'error: ...'; stderr is the start of what the sampler wrote there
+export interface SSHHostMetricsEnded {
+  monitorId: string
+  sessionId: string
+  reason: string
+  stderr: string
+  exitStatus?: number
+  exitSignal?: string
+}
+
+// Literal unless regex; regexes are matched per line, on its first 4096 bytes
+export interface SSHOutputTrigger {
+  id: string
+  pattern: string
+  regex?: boolean
+  ignoreCase?: boolean
+}
+
+// count is how many matches this event stands for, rate limiting included
+export interface SSHOutputMatch {
+  sessionId: string
+  triggerId: string
+  stream: 'shell' | 'exec' | 'exec-stderr'
+  line: string
+  count: number
+}
+
+// Per session: took the input, queue full (resend after 'shellInputDrained'), or failed and why
+export interface SSHBroadcastResult {
+  success: boolean
+  sent: string[]
+  refused: string[]
+  failed: Record<string, string>
+}
+
+export interface SSHTailSource {
+  sessionId: string
+  file: string
+  // Tag for its lines, the session's hostname by default
+  host?: string
+}
+
+export interface SSHTailMergeOptions {
+  sources: SSHTailSource[]
+  // Built-in: iso8601, syslog, clf, epoch (all of them by default)
+  formats?: Array<'iso8601' | 'syslog' | 'clf' | 'epoch'>
+  // Tried first: the regex's first group read with a SimpleDateFormat pattern
+  customFormat?: { regex: string; pattern: string }
+  // For times without an offset, UTC by default
+  timeZone?: string
+  // grep -E pattern applied on the hosts
+  filter?: string
+  backlogLines?: number
+  reorderWindowMs?: number
+  batchMs?: number
+  maxBatchLines?: number
+}
+
+// lines: [index into hosts, epoch millis, text], in timestamp order
+export interface SSHTailLines {
+  tailId: string
+  hosts: string[]
+  lines: Array<[number, number, string]>
+}
+
+// status: up (SSH identification received), open (port open, no SSH), refused, timeout, unreachable or
+// unresolved. rttMs is the TCP handshake (-1 without a connection); cached results are reused ones
+export interface SSHHostProbe {
+  probeId: string
+  host: string
+  port: number
+  status: 'up' | 'open' | 'refused' | 'timeout' | 'unreachable' | 'unresolved'
+  reachable: boolean
+  rttMs: number
+  serverVersion?: string
+  error?: string
+  cached: boolean
+}
+
+// A chunk of a runScript's output, as read
+export interface SSHScriptOutput {
+  runId: string
+  sessionId: string
+  stream: 'stdout' | 'stderr'
+  output: string
+}
+
+// exitStatus is -1 when unknown (error set, or the session closed). indexed: the device knew the
+// host had the script, so it wasn't checked; uploaded: it had to be sent
+export interface SSHScriptExit {
+  runId: string
+  sessionId: string
+  hash: string
+  exitStatus: number
+  indexed: boolean
+  uploaded: boolean
+  error?: string
+}
+
+export interface SSHScrollbackPage {
+  lines: string[]
+  fromLine: number
+  firstLine: number
+  nextLine: number
+}
+
+// Latencies are in milliseconds
+export interface SSHLatencySummary {
+  count: number
+  mean: number
+  p50: number
+  p90: number
+  p99: number
+  max: number
+}
+
+export interface SSHMetricsSnapshot {
+  enabled: boolean
+  timestamp: number
+  connect: Record<string, SSHLatencySummary>
+  exec: SSHLatencySummary
+  sessions: Array<{
+    sessionId: string
+    bytesIn: number
+    bytesOut: number
+    // Negotiated, not just offered; compressionAlgorithm is e.g. 'zlib@openssh.com' or 'none'
+    compression?: boolean
+    compressionAlgorithm?: string
+    recommendCompression?: boolean
+    linkBytesPerSec?: number
+  }>
+  bridge: { events: number; eventsPerSecond: number; streamFrames: number }
+  // Adopted connects and the time they saved are in connect.prewarmSaved
+  prewarm: { warm: number; expired: number }
+  // fallbacks: connects won by an address other than the first tried (e.g. broken IPv6)
+  dns: { cacheHits: number; cacheMisses: number; fallbacks: number }
+  // First connect of the process; warm when the background crypto warm-up had finished before it (-1 = not yet)
+  coldStart: { warmupMs: number; firstConnectMs: number; firstConnectWarm: boolean }
+  // Open sessions and what they hold against the caps; closed counts by reason
+  lifecycle: { sessions: number; channels: number; bufferedBytes: number; closed: Record<string, number> }
+  // While the app is in the background, shells hold their output natively until it comes back.
+  // keptAlive: the foreground service runs; false with sessions open when notifications are denied
+  background: { detached: boolean; heldBytes: number; keptAlive: boolean }
+  // executeCommand calls with a maxAgeMs; coalesced ones waited for the same command already running
+  execCache: { hits: number; misses: number; coalesced: number; evictions: number; entries: number; bytes: number }
+  // Keys of the shells predicting echo now: shown early, then echoed as predicted or rolled back
+  localEcho: { predicted: number; shown: number; echoed: number; rolledBack: number }
+  // runScript calls; indexHits skipped the existence check, staleIndex found the script removed
+  scripts: { runs: number; indexHits: number; checks: number; uploads: number; uploadedBytes: number; staleIndex: number }
+  executors: {
+    workerActive: number
+    workerQueued: number
+    workerPoolSize: number
+    activeSessions: number
+    shellSessions: number
+  }
 }
 
 export interface SSHPlugin {
   connect(options: SSHConnectionOptions): Promise<SSHConnectionResult>
   disconnect(options: { sessionId: string }): Promise<{ success: boolean }>
+  // Sessions of an owner that stops beating for orphanTimeoutMs are closed
+  heartbeat(options: { owner: string }): Promise<void>
+  // Omitted values keep their setting; 0 disables a timeout or cap
+  configureSessions(options: {
+    idleTimeoutMs?: number
+    orphanTimeoutMs?: number
+    maxSessions?: number
+    maxChannels?: number
+    maxBufferedBytes?: number
+  }): Promise<void>
   executeCommand(options: SSHCommandOptions): Promise<SSHCommandResult>
+  // Runs a script from a per-user cache on the host, keyed by its SHA-256 and uploaded only when
+  // missing; output comes as 'scriptOutput' events, then 'scriptExit'
+  runScript(options: { sessionId: string; script: string; args?: string[] }): Promise<{
+    success: boolean
+    runId: string
+    hash: string
+  }>
   isConnected(options: { sessionId: string }): Promise<{ connected: boolean }>
+  // One exec channel sampling /proc on the host, emitted as 'hostMetrics'; stops with the session too,
+  // or on its own with 'hostMetricsEnded' if the sampler dies
+  startMonitor(options: { sessionId: string; intervalMs?: number; metrics?: SSHHostMetric[] }): Promise<{
+    success: boolean
+    monitorId: string
+  }>
+  stopMonitor(options: { monitorId: string }): Promise<{ success: boolean }>
+  // One tail -F per source, merged natively by timestamp and emitted as 'tailLines' batches
+  tailMerge(options: SSHTailMergeOptions): Promise<{ success: boolean; tailId: string }>
+  stopTailMerge(options: { tailId: string }): Promise<{ success: boolean }>
+  // Matched natively in shell and exec output, emitted as 'outputMatch'; an empty list removes them.
+  // forwardOutput: false stops 'shellOutput' while they are set (the scrollback still keeps it)
+  setOutputTriggers(options: {
+    sessionId: string
+    triggers: SSHOutputTrigger[]
+    forwardOutput?: boolean
+    minIntervalMs?: number
+  }): Promise<{ success: boolean }>
 
   // Legacy key generation (insecure - exposes private key)
   generateKeyPair(options: { keyType?: string; keySize?: number; comment?: string }): Promise<{
@@ -72,17 +289,145 @@ export interface SSHPlugin {
     port: number
     username: string
     keyId: string
+    compression?: 'off' | 'on' | 'auto'
+    owner?: string
   }): Promise<SSHConnectionResult>
 
+  // Background DNS + TCP + KEX (+ auth for password / plain key hosts) so a connect right after
+  // adopts the connection. Most important host first; the rest is skipped past maxWarm.
+  prewarm(options: {
+    hosts: Array<Partial<SSHConnectionOptions> & { hostname: string; authMethod?: string }>
+    maxWarm?: number
+    idleMs?: number
+  }): Promise<{ warming: number; warm: number }>
+
+  // Which hosts answer on their SSH port, without connecting: one 'hostProbe' event per host as it
+  // finishes, then 'hostProbesDone'. The limits apply to every probe from then on
+  probeHosts(options: {
+    hosts: Array<{ hostname: string; port?: number }>
+    maxConcurrent?: number
+    timeoutMs?: number
+    cacheMs?: number
+  }): Promise<{ probeId: string; hosts: number }>
+
+  // What earlier connections measured for a host (-1 = not measured)
+  getHostProfile(options: { hostname: string; port?: number }): Promise<{
+    known: boolean
+    rttMs?: number
+    throughputBytesPerSec?: number
+    compression?: boolean
+    updatedAt?: number
+  }>
+
   // Interactive shell session
-  startShellSession(options: { sessionId: string }): Promise<{ success: boolean }>
-  sendToShell(options: { sessionId: string; command: string }): Promise<{ success: boolean }>
+  startShellSession(options: {
+    sessionId: string
+    scrollbackBytes?: number
+    // Native stops reading once ~1M chars are unacknowledged; ack with ackShellOutput
+    flowControl?: boolean
+    // 'binary' sends output as raw bytes over the openStreamTransport socket (acks then count bytes)
+    transport?: 'events' | 'binary'
+    // PTY size the shell is opened with (default 80x24); later changes go through resizeShell
+    cols?: number
+    rows?: number
+  }): Promise<{ success: boolean }>
+  resizeShell(options: { sessionId: string; cols: number; rows: number }): Promise<{ success: boolean }>
+  ackShellOutput(options: { sessionId: string; chars: number }): Promise<void>
+  // Predicted echo: typed keys show in the output before the server echoes them, and are undone if
+  // it doesn't. Shown once the echo round trip is at least thresholdMs (default 30)
+  setLocalEcho(options: { sessionId: string; enabled: boolean; thresholdMs?: number }): Promise<{ success: boolean }>
+  // Loopback WebSocket for binary shell output: [u8 id length][session id][bytes] per message
+  openStreamTransport(): Promise<{ url: string; port: number }>
+  // Queued natively without blocking; accepted=false means the input queue is full,
+  // resend after the 'shellInputDrained' event
+  sendToShell(options: { sessionId: string; command: string }): Promise<{ success: boolean; accepted: boolean }>
+  // The same input to many shells in one call, fanned out natively; by ids or by broadcast group
+  sendToShells(options: { sessionIds?: string[]; groupId?: string; command: string }): Promise<SSHBroadcastResult>
+  // An empty sessionIds removes the group; closed sessions leave it on their own
+  setBroadcastGroup(options: { groupId: string; sessionIds: string[] }): Promise<{ success: boolean }>
+
+  // Native scrollback (survives WebView reloads while the session is alive)
+  getScrollback(options: {
+    sessionId: string
+    fromLine?: number
+    count?: number
+  }): Promise<SSHScrollbackPage>
+  searchScrollback(options: {
+    sessionId: string
+    pattern: string
+    ignoreCase?: boolean
+    fromLine?: number
+    maxResults?: number
+  }): Promise<{ matches: Array<{ line: number; text: string }>; truncated: boolean }>
+
+  // Session recording (asciicast v2, optionally gzip-compressed and rotated by size)
+  startRecording(options: {
+    sessionId: string
+    recordInput?: boolean
+    compress?: boolean
+    maxFileBytes?: number
+  }): Promise<{ success: boolean; directory: string; baseName: string }>
+  stopRecording(options: { sessionId: string }): Promise<{ success: boolean; files: string[] }>
+
+  // Metrics (connect phases, exec latency, per-session bytes, bridge and pool load)
+  setMetricsEnabled(options: { enabled: boolean; intervalMs?: number }): Promise<{ success: boolean }>
+  getMetrics(options?: { reset?: boolean }): Promise<SSHMetricsSnapshot>
 
   // Event listener for shell output
   addListener(
     eventName: 'shellOutput',
     listenerFunc: (data: { sessionId: string; output: string }) => void
   ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'shellInputDrained',
+    listenerFunc: (data: { sessionId: string }) => void
+  ): Promise<{ remove: () => void }>
+  // Compression is only chosen at connect; this tells the UI the next connect will differ
+  addListener(
+    eventName: 'compressionRecommended',
+    listenerFunc: (data: { sessionId: string; compression: boolean }) => void
+  ): Promise<{ remove: () => void }>
+  // Any close, including disconnect(); reason is disconnect, idle, orphaned, remote or shutdown
+  addListener(
+    eventName: 'sessionClosed',
+    listenerFunc: (data: { sessionId: string; reason: string }) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'hostMetrics',
+    listenerFunc: (data: { monitorId: string; sessionId: string; values: SSHHostMetricsValues }) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'hostMetricsEnded',
+    listenerFunc: (data: SSHHostMetricsEnded) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'tailLines',
+    listenerFunc: (data: SSHTailLines) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'hostProbe',
+    listenerFunc: (data: SSHHostProbe) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'hostProbesDone',
+    listenerFunc: (data: { probeId: string }) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'scriptOutput',
+    listenerFunc: (data: SSHScriptOutput) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'scriptExit',
+    listenerFunc: (data: SSHScriptExit) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'outputMatch',
+    listenerFunc: (data: SSHOutputMatch) => void
+  ): Promise<{ remove: () => void }>
+  addListener(
+    eventName: 'metrics',
+    listenerFunc: (data: SSHMetricsSnapshot) => void
+  ): Promise<{ remove: () => void }>
 }
 
 // Register the plugin
@@ -112,9 +457,41 @@ const SSHClient = registerPlugin<SSHPlugin>('SSHClient', {
           output: `Mock output for: ${options.command}\nThis is simulated output.`
         }
       },
+      async runScript(options: { sessionId: string; script: string; args?: string[] }) {
+        console.log('SSH RunScript (Web Mock):', options.script.length, 'chars')
+        const runId = `run_${Date.now()}`
+        // Ends at once, without output
+        setTimeout(() => (this as any)._scriptExitListener?.({
+          runId, sessionId: options.sessionId, hash: '', exitStatus: 0, indexed: false, uploaded: false
+        }), 0)
+        return { success: true, runId, hash: '' }
+      },
       async isConnected(options: { sessionId: string }): Promise<{ connected: boolean }> {
         return { connected: true }
       },
+      async startMonitor(options: { sessionId: string; intervalMs?: number; metrics?: SSHHostMetric[] }) {
+        console.log('SSH StartMonitor (Web Mock):', options)
+        return { success: true, monitorId: 'mock-monitor-id' }
+      },
+      async stopMonitor(options: { monitorId: string }) {
+        return { success: true }
+      },
+      async tailMerge(options: SSHTailMergeOptions) {
+        console.log('SSH TailMerge (Web Mock):', options)
+        return { success: true, tailId: 'mock-tail-id' }
+      },
+      async stopTailMerge(options: { tailId: string }) {
+        return { success: true }
+      },
+      async setOutputTriggers(options: {
+        sessionId: string
+        triggers: SSHOutputTrigger[]
+        forwardOutput?: boolean
+        minIntervalMs?: number
+      }) {
+        console.log('SSH SetOutputTriggers (Web Mock):', options)
+        return { success: true }
+      },
       async generateKeyPair(options: { keyType?: string; keySize?: number; comment?: string }) {
         console.log('SSH GenerateKeyPair (Web Mock):', options)
         await new Promise(resolve => setTimeout(resolve, 1000))
@@ -156,6 +533,23 @@ const SSHClient = registerPlugin<SSHPlugin>('SSHClient', {
           message: 'Connected with mock secure key'
         }
       },
+      async heartbeat(options: { owner: string }) {},
+      async configureSessions(options: any) {
+        console.log('SSH ConfigureSessions (Web Mock):', options)
+      },
+      async prewarm(options: { hosts: Array<{ hostname: string }>; maxWarm?: number; idleMs?: number }) {
+        console.log('SSH Prewarm (Web Mock):', options.hosts.map(h => h.hostname))
+        return { warming: 0, warm: 0 }
+      },
+      async probeHosts(options: { hosts: Array<{ hostname: string; port?: number }> }) {
+        console.log('SSH ProbeHosts (Web Mock):', options.hosts.map(h => h.hostname))
+        // Nothing probed, so no events
+        return { probeId: 'mock-probe', hosts: 0 }
+      },
+      async getHostProfile(options: { hostname: string; port?: number }) {
+        console.log('SSH GetHostProfile (Web Mock):', options)
+        return { known: false }
+      },
       async startShellSession(options: { sessionId: string }) {
         console.log('SSH StartShellSession (Web Mock):', options)
         await new Promise(resolve => setTimeout(resolve, 500))
@@ -174,18 +568,84 @@ const SSHClient = registerPlugin<SSHPlugin>('SSHClient', {
             })
           }
         }, 300)
+        return { success: true, accepted: true }
+      },
+      async sendToShells(options: { sessionIds?: string[]; groupId?: string; command: string }) {
+        console.log('SSH SendToShells (Web Mock):', options)
+        return { success: true, sent: options.sessionIds || [], refused: [], failed: {} }
+      },
+      async setBroadcastGroup(options: { groupId: string; sessionIds: string[] }) {
+        return { success: true }
+      },
+      async resizeShell(options: { sessionId: string; cols: number; rows: number }) {
+        console.log('SSH ResizeShell (Web Mock):', options)
+        return { success: true }
+      },
+      async ackShellOutput(options: { sessionId: string; chars: number }) {
+        console.log('SSH AckShellOutput (Web Mock):', options)
+      },
+      async setLocalEcho(options: { sessionId: string; enabled: boolean; thresholdMs?: number }) {
+        console.log('SSH SetLocalEcho (Web Mock):', options)
         return { success: true }
       },
+      async openStreamTransport(): Promise<{ url: string; port: number }> {
+        // No native socket on web; startShellSession falls back to events
+        throw new Error('Stream transport not available (Web Mock)')
+      },
+      async getScrollback(options: { sessionId: string; fromLine?: number; count?: number }) {
+        console.log('SSH GetScrollback (Web Mock):', options)
+        return { lines: [], fromLine: 0, firstLine: 0, nextLine: 0 }
+      },
+      async searchScrollback(options: { sessionId: string; pattern: string }) {
+        console.log('SSH SearchScrollback (Web Mock):', options)
+        return { matches: [], truncated: false }
+      },
+      async startRecording(options: { sessionId: string }) {
+        console.log('SSH StartRecording (Web Mock):', options)
+        return { success: true, directory: 'recordings', baseName: `session-${options.sessionId}` }
+      },
+      async stopRecording(options: { sessionId: string }) {
+        console.log('SSH StopRecording (Web Mock):', options)
+        return { success: true, files: [] }
+      },
+      async setMetricsEnabled(options: { enabled: boolean; intervalMs?: number }) {
+        console.log('SSH SetMetricsEnabled (Web Mock):', options)
+        return { success: true }
+      },
+      async getMetrics() {
+        const empty = { count: 0, mean: 0, p50: 0, p90: 0, p99: 0, max: 0 }
+        return {
+          enabled: false,
+          timestamp: Date.now(),
+          connect: {},
+          exec: empty,
+          sessions: [],
+          bridge: { events: 0, eventsPerSecond: 0, streamFrames: 0 },
+          prewarm: { warm: 0, expired: 0 },
+          dns: { cacheHits: 0, cacheMisses: 0, fallbacks: 0 },
+          coldStart: { warmupMs: -1, firstConnectMs: -1, firstConnectWarm: false },
+          lifecycle: { sessions: 0, channels: 0, bufferedBytes: 0, closed: {} },
+          background: { detached: false, heldBytes: 0, keptAlive: false },
+          execCache: { hits: 0, misses: 0, coalesced: 0, evictions: 0, entries: 0, bytes: 0 },
+          localEcho: { predicted: 0, shown: 0, echoed: 0, rolledBack: 0 },
+          scripts: { runs: 0, indexHits: 0, checks: 0, uploads: 0, uploadedBytes: 0, staleIndex: 0 },
+          executors: { workerActive: 0, workerQueued: 0, workerPoolSize: 0, activeSessions: 0, shellSessions: 0 }
+        }
+      },
       async addListener(eventName: string, listenerFunc: any) {
         console.log('SSH AddListener (Web Mock):', eventName)
         if (eventName === 'shellOutput') {
           (this as any)._shellOutputListener = listenerFunc
+        } else if (eventName === 'scriptExit') {
+          (this as any)._scriptExitListener = listenerFunc
         }
         return {
           remove: () => {
             console.log('SSH RemoveListener (Web Mock):', eventName)
             if (eventName === 'shellOutput') {
               (this as any)._shellOutputListener = null
+            } else if (eventName === 'scriptExit') {
+              (this as any)._scriptExitListener = null
             }
           }
         }
@@ -194,7 +654,16 @@ const SSHClient = registerPlugin<SSHPlugin>('SSHClient', {
   }
 })
 
+// One owner per page load: after a WebView reload the old page's sessions get no more
+// heartbeats and native closes them as orphaned
+export const sessionOwner = `${Date.now().toString(36)}-${Math.random().toString(36).slice(2)}`
+const HEARTBEAT_INTERVAL_MS = 15000
+
 export default defineNuxtPlugin(() => {
+  setInterval(() => {
+    SSHClient.heartbeat({ owner: sessionOwner }).catch(() => {})
+  }, HEARTBEAT_INTERVAL_MS)
+
   return {
     provide: {
       ssh: SSHClient
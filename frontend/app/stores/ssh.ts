@@ -24,6 +24,7 @@ export interface SSHHost {
   localForwards?: LocalForward[]
   remoteForwards?: RemoteForward[]
   lastUsed?: string
+  useCount?: number
   createdAt: string
   updatedAt: string
 }
@@ -69,6 +70,16 @@ export const useSSHStore = defineStore('ssh', {
         .slice(0, 5)
     },
 
+    // Connect count first, then recency
+    mostUsedHosts: (state) => {
+      return state.hosts
+        .filter(h => h.lastUsed)
+        .sort((a, b) =>
+          (b.useCount || 0) - (a.useCount || 0) ||
+          new Date(b.lastUsed!).getTime() - new Date(a.lastUsed!).getTime()
+        )
+    },
+
     hostsByTag: (state) => {
       return (tag: string) => state.hosts.filter(h => h.tags?.includes(tag))
     },
@@ -133,13 +144,14 @@ export const useSSHStore = defineStore('ssh', {
     },
 
     markHostAsUsed(id: string) {
-      this.updateHost(id, { lastUsed: new Date().toISOString() })
+      const host = this.getHostById(id)
+      this.updateHost(id, { lastUsed: new Date().toISOString(), useCount: (host?.useCount || 0) + 1 })
     },
 
     duplicateHost(id: string) {
       const host = this.getHostById(id)
       if (host) {
-        const { id: _, createdAt, updatedAt, lastUsed, ...hostData } = host
+        const { id: _, createdAt, updatedAt, lastUsed, useCount, ...hostData } = host
         return this.addHost({
           ...hostData,
           name: `${host.name} (Copy)`,